@@ -1,13 +1,20 @@
 package de.dfki.omm.impl;
 
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
 
-import de.dfki.omm.events.OMMEvent;
 import de.dfki.omm.events.OMMEventType;
 import de.dfki.omm.interfaces.OMMAttributeListBlock;
 import de.dfki.omm.tools.OMMXMLConverter;
@@ -15,11 +22,98 @@ import de.dfki.omm.types.OMMEntity;
 
 /** 
  * Implementation of {@link OMMAttributeListBlock}. 
+ * The payload element is built once and then updated attribute by attribute. 
  */
 public class OMMAttributeListBlockImpl extends OMMBlockImpl implements OMMAttributeListBlock
 {
-	private HashMap<String, String> m_attributeList = null;
-	private boolean dirty = false;
+	/** Receives changes of the attributes of a block, synchronously with the change. */
+	public interface AttributeListener
+	{
+		/** Called after an attribute has been added, changed or removed. 
+		 * @param block The changed block. 
+		 * @param key The attribute name. 
+		 * @param oldValue The previous value, or null if the attribute has been added. 
+		 * @param newValue The new value, or null if the attribute has been removed. 
+		 */
+		void attributeChanged(OMMAttributeListBlock block, String key, String oldValue, String newValue);
+	}
+	
+	/** Attribute map which updates the payload element and listeners when it is changed directly; its views are read-only. */
+	private class AttributeMap extends HashMap<String, String>
+	{
+		private static final long serialVersionUID = 2415939823606178207L;
+
+		/** Sets or removes (value null) an attribute without marking the block as changed. */
+		String set(String key, String value, boolean remove)
+		{
+			boolean present = super.containsKey(key);
+			if (remove && !present) return null;
+			String old = remove ? super.remove(key) : super.put(key, value);
+			attributeChanged(key, present ? old : null, remove, value);
+			return old;
+		}
+		
+		@Override
+		public String put(String key, String value)
+		{
+			String old = set(key, value, false);
+			markDirty();
+			return old;
+		}
+		
+		@Override
+		public String remove(Object key)
+		{
+			if (!super.containsKey(key)) return null;
+			String old = set((String)key, null, true);
+			markDirty();
+			return old;
+		}
+		
+		@Override
+		public void putAll(Map<? extends String, ? extends String> map)
+		{
+			for(Map.Entry<? extends String, ? extends String> entry : map.entrySet()) put(entry.getKey(), entry.getValue());
+		}
+		
+		@Override
+		public void clear()
+		{
+			for(String key : new ArrayList<String>(super.keySet())) remove(key);
+		}
+		
+		@Override
+		public Set<String> keySet()
+		{
+			return Collections.unmodifiableSet(super.keySet());
+		}
+		
+		@Override
+		public Collection<String> values()
+		{
+			return Collections.unmodifiableCollection(super.values());
+		}
+		
+		@Override
+		public Set<Map.Entry<String, String>> entrySet()
+		{
+			// an unmodifiable map also protects Map.Entry.setValue
+			return Collections.unmodifiableMap(new AbstractMap<String, String>()
+			{
+				@Override
+				public Set<Map.Entry<String, String>> entrySet()
+				{
+					return AttributeMap.super.entrySet();
+				}
+			}).entrySet();
+		}
+	}
+	
+	private AttributeMap m_attributeList = null;
+	/** The omm:attributeList element of the payload and its attribute elements by key, or null until the payload is built. */
+	private transient Element m_listElement = null;
+	private transient HashMap<String, Element> m_attributeElements = null;
+	protected transient List<AttributeListener> m_attributeListeners = null;
 	
 	@SuppressWarnings("unused")
 	private OMMAttributeListBlockImpl() { }
@@ -54,7 +148,7 @@ public class OMMAttributeListBlockImpl extends OMMBlockImpl implements OMMAttrib
 		this.m_payloadElement = block.m_payloadElement;
 		this.m_link = block.m_link;
 		this.m_linkHash = block.m_linkHash;
-		this.m_attributeList = new HashMap<String, String>();
+		this.m_attributeList = new AttributeMap();
 		if (!isEmptyPayload) updateLocalData();
 	}
 	
@@ -63,18 +157,16 @@ public class OMMAttributeListBlockImpl extends OMMBlockImpl implements OMMAttrib
 		m_link = null;		
 		if (m_attributeList.containsKey(attributeName)) throw new IllegalArgumentException("key is already present!");
 		
-		m_attributeList.put(attributeName, value);
-		dirty = true;
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.PAYLOAD_CHANGED));
+		m_attributeList.set(attributeName, value, false);
+		fireChanged(entity, OMMEventType.PAYLOAD_CHANGED);
 	}
 
 	public void removeAttribute(String attributeName, OMMEntity entity)
 	{
 		if (!m_attributeList.containsKey(attributeName)) throw new IllegalArgumentException("key is not present!");
 		
-		m_attributeList.remove(attributeName);
-		dirty = true;
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.PAYLOAD_CHANGED));
+		m_attributeList.set(attributeName, null, true);
+		fireChanged(entity, OMMEventType.PAYLOAD_CHANGED);
 	}
 
 	public String getAttribute(String attributeName)
@@ -84,12 +176,65 @@ public class OMMAttributeListBlockImpl extends OMMBlockImpl implements OMMAttrib
 		return m_attributeList.get(attributeName);
 	}
 
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.interfaces.OMMAttributeListBlock#getAllAttributes()
+	 * The returned map is live: put, remove, putAll and clear change the block, its key, value and entry views are read-only. 
+	 */
 	public HashMap<String, String> getAllAttributes()
 	{		
-		dirty = true;
 		return m_attributeList;
 	}
 
+	/** Adds a listener which is informed about changed attributes. 
+	 * @param listener The {@link AttributeListener} to add. 
+	 */
+	public synchronized void addAttributeListener(AttributeListener listener)
+	{
+		if (m_attributeListeners == null) m_attributeListeners = new CopyOnWriteArrayList<AttributeListener>();
+		m_attributeListeners.add(listener);
+	}
+
+	/** Removes a listener added by {@link #addAttributeListener(AttributeListener)}. 
+	 * @param listener The {@link AttributeListener} to remove. 
+	 */
+	public synchronized void removeAttributeListener(AttributeListener listener)
+	{
+		if (m_attributeListeners != null) m_attributeListeners.remove(listener);
+	}
+
+	/** Private helper which applies a changed attribute to the payload element, if built, and informs the listeners. */
+	private void attributeChanged(String key, String oldValue, boolean removed, String newValue)
+	{
+		if (m_listElement != null)
+		{
+			Element attributeElement = m_attributeElements.get(key);
+			if (removed)
+			{
+				if (attributeElement != null) m_listElement.removeChild(m_attributeElements.remove(key));
+			}
+			else if (attributeElement != null)
+			{
+				attributeElement.setTextContent(newValue);
+			}
+			else
+			{
+				m_attributeElements.put(key, appendAttributeElement(m_listElement, key, newValue));
+			}
+		}
+		
+		if (m_attributeListeners != null) for(AttributeListener l : m_attributeListeners) l.attributeChanged(this, key, oldValue, removed ? null : newValue);
+	}
+	
+	/** Private helper which appends an omm:attribute element to an attribute list. */
+	private static Element appendAttributeElement(Element list, String key, String value)
+	{
+		Element attributeElement = OMMXMLConverter.createXmlElement(list.getOwnerDocument(), "attribute", OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
+		attributeElement.setAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":key", key);
+		attributeElement.setTextContent(value);
+		list.appendChild(attributeElement);
+		return attributeElement;
+	}
+
 	@Override
 	public Element getPayloadElement() 
 	{ 
@@ -98,24 +243,21 @@ public class OMMAttributeListBlockImpl extends OMMBlockImpl implements OMMAttrib
 	      <omm:attribute omm:key="numberPillB">2</omm:attribute>
 	    </omm:attributeList>*/
 		
-		if (dirty)
+		// rebuild if not built yet or the payload element has been replaced
+		if (m_listElement == null || (m_listElement != m_payloadElement && m_listElement.getParentNode() != m_payloadElement))
 		{
-			dirty = false;
 			Document doc = OMMXMLConverter.createNewXmlDocument();			
 						
 			m_payloadElement = OMMXMLConverter.createXmlElement(doc, "payload", OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
 			m_payloadElement.setAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding", "none");
 			
-			Element list = OMMXMLConverter.createXmlElement(doc, "attributeList", OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
-			m_payloadElement.appendChild(list);
+			m_listElement = OMMXMLConverter.createXmlElement(doc, "attributeList", OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
+			m_payloadElement.appendChild(m_listElement);
 			
-			for(String key : m_attributeList.keySet())
+			m_attributeElements = new HashMap<String, Element>();
+			for(Map.Entry<String, String> entry : m_attributeList.entrySet())
 			{
-				String value = m_attributeList.get(key);			
-				Element attributeElement = OMMXMLConverter.createXmlElement(doc, "attribute", OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
-				attributeElement.setAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":key", key);
-				attributeElement.setTextContent(value);
-				list.appendChild(attributeElement);
+				m_attributeElements.put(entry.getKey(), appendAttributeElement(m_listElement, entry.getKey(), entry.getValue()));
 			}
 		}
 		
@@ -125,7 +267,7 @@ public class OMMAttributeListBlockImpl extends OMMBlockImpl implements OMMAttrib
 	/** Private helper to update the attribute list from the block's payload. */
 	private void updateLocalData()
 	{
-		if (m_payloadElement == null && m_payload.getValue() instanceof String)
+		if (m_payloadElement == null && m_payload != null && m_payload.getValue() instanceof String)
 		{
 			String v = (String)m_payload.getValue();
 			try
@@ -149,6 +291,9 @@ public class OMMAttributeListBlockImpl extends OMMBlockImpl implements OMMAttrib
 				
 				if (!root.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":attributeList")) throw new IllegalArgumentException("invalid XML file!");
 				
+				// keep the parsed payload and update it in place
+				HashMap<String, Element> elements = new HashMap<String, Element>();
+				List<Element> duplicates = new ArrayList<Element>();
 				NodeList nl = root.getChildNodes();
 				for(int i = 0; i < nl.getLength(); i++)					
 				{
@@ -157,11 +302,17 @@ public class OMMAttributeListBlockImpl extends OMMBlockImpl implements OMMAttrib
 					{					
 						Element child = (Element)node;
 						String key = child.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":key");
-						String value = child.getNodeValue();
+						String value = child.getTextContent();
 						
-						m_attributeList.put(key, value);
+						if (elements.containsKey(key)) duplicates.add(elements.get(key));
+						elements.put(key, child);
+						m_attributeList.set(key, value, false);
 					}
-				}				
+				}
+				for(Element duplicate : duplicates) root.removeChild(duplicate);
+				
+				m_listElement = root;
+				m_attributeElements = elements;
 			}
 			catch (Exception e)
 			{
@@ -0,0 +1,258 @@
+package de.dfki.omm.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Vector;
+
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.interfaces.OMMToCEntry;
+import de.dfki.omm.tools.OMMActionResultType;
+import de.dfki.omm.tools.OMMBinaryFormat;
+import de.dfki.omm.tools.OMMBinaryIndex;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMSourceType;
+
+/** Implementation of {@link OMM} for local binary files with a block offset table, which reads only the header and the index when it is opened.
+ * <p>The file is memory-mapped and blocks are decoded from their position in the file when they are requested by {@link #getBlock(String)},
+ * see {@link OMMBinaryIndex}. The table of contents is created from the index. Methods which need all blocks, such as {@link #getAllBlocks()},
+ * decode the remaining blocks and release the file, see {@link #loadAllBlocks()}.</p>
+ */
+public class OMMBinaryFileImpl extends OMMImpl
+{
+	private static final long serialVersionUID = 1L;
+
+	private transient OMMBinaryFormat.Decoder m_decoder = null;
+	private transient OMMBinaryIndex m_index = null;
+	private transient Map<String, Integer> m_unloaded = null;
+
+	protected OMMBinaryFileImpl()
+	{
+		super();
+	}
+
+	/** Opens an OMM from an uncompressed file containing a memory in custom binary format with a block index,
+	 * as written by {@link OMMFactory#saveOMMToBinary(OMM, File, boolean)}.
+	 * @param binFile The {@link File} from which to load.
+	 * @return The opened memory as {@link OMM}, or null if it could not be loaded or the file has no index.
+	 */
+	public static OMM create(File binFile)
+	{
+		try
+		{
+			RandomAccessFile raf = new RandomAccessFile(binFile, "r");
+			MappedByteBuffer data = null;
+			try
+			{
+				if (raf.length() > Integer.MAX_VALUE) throw new IOException(binFile.getName() + " is too large to be mapped");
+				data = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()); // stays valid after closing the file
+			}
+			finally { raf.close(); }
+
+			if (!OMMBinaryFormat.isVersion2(data)) throw new IOException(binFile.getName() + " is no uncompressed binary memory of version 2");
+			OMMBinaryIndex index = OMMBinaryIndex.read(data);
+			if (index == null) throw new IOException(binFile.getName() + " has no block index");
+
+			OMMBinaryFormat.Decoder decoder = OMMBinaryFormat.Decoder.create(data, index);
+			if (decoder.getKind() != OMMBinaryFormat.KIND_MEMORY || index.getHeaderOffset() < 0 || decoder.seek(index.getHeaderOffset()) != OMMBinaryFormat.RECORD_HEADER)
+				throw new IOException(binFile.getName() + " contains no memory header");
+			OMMHeader header = decoder.readHeader();
+
+			OMMBinaryFileImpl omm = new OMMBinaryFileImpl();
+			omm.m_header = header;
+			omm.m_blocks = new LinkedHashMap<String, OMMBlock>();
+			omm.m_sourceType = OMMSourceType.LocalFile;
+			omm.m_decoder = decoder;
+			omm.m_index = index;
+			omm.m_unloaded = new HashMap<String, Integer>();
+			for(int i = 0; i < index.getBlockCount(); i++)
+			{
+				// unloaded blocks keep their place in the memory with a null value
+				omm.m_blocks.put(index.getBlockID(i), null);
+				omm.m_unloaded.put(index.getBlockID(i), i);
+			}
+			return omm;
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/** Indicates whether a block has been decoded already.
+	 * @param blockID The ID of the block.
+	 * @return True, if the block has been decoded or does not exist.
+	 */
+	public synchronized boolean isBlockLoaded(String blockID)
+	{
+		return m_unloaded == null || !m_unloaded.containsKey(blockID);
+	}
+
+	/** Decodes all blocks which have not been requested yet and releases the mapped file.
+	 * Afterwards the memory behaves like a completely loaded one, so the file may be overwritten.
+	 */
+	public synchronized void loadAllBlocks()
+	{
+		if (m_unloaded == null) return;
+
+		for(String blockID : new LinkedList<String>(m_blocks.keySet()))
+		{
+			// blocks which cannot be decoded are dropped
+			if (m_blocks.get(blockID) == null && loadBlock(blockID) == null) m_blocks.remove(blockID);
+		}
+		m_unloaded = null;
+		m_index = null;
+		m_decoder = null;
+	}
+
+	/** Decodes a block from its position in the mapped file and puts it at its place in the memory. */
+	private OMMBlock loadBlock(String blockID)
+	{
+		Integer position = m_unloaded.get(blockID);
+		if (position == null) return null;
+		try
+		{
+			if (m_decoder.seek(m_index.getBlockOffset(position)) != OMMBinaryFormat.RECORD_BLOCK)
+				throw new IOException("no block record at the indexed position of " + blockID);
+			OMMBlock block = m_decoder.readBlock();
+			if (m_decoder.getFrameChecksum() != m_index.getBlockChecksum(position) || !blockID.equals(block.getID()))
+				throw new IOException("index does not match block " + blockID);
+			((OMMBlockImpl)block).setParentOMM(this);
+			m_blocks.put(blockID, block);
+			m_unloaded.remove(blockID);
+			return block;
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#putBlockUnchanged(de.dfki.omm.interfaces.OMMBlock)
+	 */
+	@Override
+	synchronized void putBlockUnchanged(OMMBlock block)
+	{
+		if (m_unloaded != null) m_unloaded.remove(block.getID());
+		super.putBlockUnchanged(block);
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#dropBlockUnchanged(java.lang.String)
+	 */
+	@Override
+	synchronized void dropBlockUnchanged(String blockID)
+	{
+		if (m_unloaded != null) m_unloaded.remove(blockID);
+		super.dropBlockUnchanged(blockID);
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#getBlock(java.lang.String)
+	 */
+	@Override
+	public synchronized OMMBlock getBlock(String blockID)
+	{
+		if (!m_blocks.containsKey(blockID)) return null;
+
+		OMMBlock block = m_blocks.get(blockID);
+		if (block == null && m_unloaded != null) block = loadBlock(blockID);
+		return block;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#getAllBlocks()
+	 */
+	@Override
+	public synchronized Collection<OMMBlock> getAllBlocks()
+	{
+		loadAllBlocks();
+		return super.getAllBlocks();
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#getAllBlockIDs()
+	 */
+	@Override
+	public synchronized List<String> getAllBlockIDs()
+	{
+		return new Vector<String>(m_blocks.keySet());
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#getTableOfContents()
+	 */
+	@Override
+	public synchronized Collection<OMMToCEntry> getTableOfContents()
+	{
+		Collection<OMMToCEntry> toc = new LinkedList<OMMToCEntry>();
+		for(Map.Entry<String, OMMBlock> entry : m_blocks.entrySet())
+		{
+			Integer position = (m_unloaded != null) ? m_unloaded.get(entry.getKey()) : null;
+			if (position != null)
+				toc.add(new OMMLazyFileImpl.IndexedToCEntry(this, entry.getKey(), m_index.getBlockNamespace(position), m_index.getBlockTitle(position)));
+			else
+				toc.add(getBlock(entry.getKey()));
+		}
+		return toc;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#addBlock(de.dfki.omm.interfaces.OMMBlock, de.dfki.omm.types.OMMEntity)
+	 */
+	@Override
+	public synchronized OMMActionResultType addBlock(OMMBlock block, OMMEntity entity)
+	{
+		return super.addBlock(block, entity);
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#addBlockWithoutChanges(de.dfki.omm.interfaces.OMMBlock, de.dfki.omm.types.OMMEntity)
+	 */
+	@Override
+	public synchronized OMMActionResultType addBlockWithoutChanges(OMMBlock block, OMMEntity entity)
+	{
+		return super.addBlockWithoutChanges(block, entity);
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#removeBlock(java.lang.String, de.dfki.omm.types.OMMEntity)
+	 */
+	@Override
+	public synchronized OMMActionResultType removeBlock(String blockID, OMMEntity entity)
+	{
+		// the removal event carries the block
+		getBlock(blockID);
+		return super.removeBlock(blockID, entity);
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#toString()
+	 */
+	@Override
+	public synchronized String toString()
+	{
+		loadAllBlocks();
+		return super.toString();
+	}
+
+	/** Loads all blocks before the memory is serialized, as the mapped file is not. */
+	private Object writeReplace()
+	{
+		loadAllBlocks();
+		return this;
+	}
+}
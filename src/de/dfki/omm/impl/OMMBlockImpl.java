@@ -61,6 +61,8 @@ public class OMMBlockImpl implements OMMBlock
 	protected OMMPreviousBlockLink m_previousBlock;
 	
 	protected Element m_xmlElement;
+	protected transient boolean m_dirty = false;
+	protected transient volatile long m_revision = 0;
 
 	private static List<URL> m_types = new Vector<URL>() 
 	{		
@@ -274,7 +276,8 @@ public class OMMBlockImpl implements OMMBlock
 	public void setPayloadElement(Element payload, OMMEntity entity) {
 		this.m_payloadElement = payload;
 		this.m_payload = new BinaryValue("none", OMMXMLConverter.toXMLFileString(payload));
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.PAYLOAD_CHANGED));
+		payloadReplaced(true);
+		fireChanged(entity, OMMEventType.PAYLOAD_CHANGED);
 	} 
 	
 	public boolean isLinkBlock()
@@ -326,7 +329,8 @@ public class OMMBlockImpl implements OMMBlock
 	 */
 	private boolean isSubjectPresentRecursive(OMMSubjectTag tag, OMMSubjectTagType type, String value)
 	{
-		if (tag.getType() == type && tag.getValue() == value) return true;
+		if (tag == null) return false;
+		if (tag.getType() == type && (value == null ? tag.getValue() == null : value.equals(tag.getValue()))) return true;
 		return isSubjectPresentRecursive(tag.getChild(), type, value);
 	}
 
@@ -334,7 +338,7 @@ public class OMMBlockImpl implements OMMBlock
 	{
 		if (title == null) throw new IllegalArgumentException("title must not be null!");
 		m_title = title;
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.TITLE_CHANGED));
+		fireChanged(entity, OMMEventType.TITLE_CHANGED);
 	}
 	
 	public void setTitle(Locale language, String title, OMMEntity entity)
@@ -342,7 +346,7 @@ public class OMMBlockImpl implements OMMBlock
 		if (m_title.containsKey(language)) m_title.remove(language);
 		m_title.put(language, title);
 		
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.TITLE_CHANGED));
+		fireChanged(entity, OMMEventType.TITLE_CHANGED);
 	}
 	
 	// TODO is this method wanted? it's not in OMMBlock
@@ -354,13 +358,14 @@ public class OMMBlockImpl implements OMMBlock
 	{ 
 		if (creator == null) throw new IllegalArgumentException("creator must not be null!");
 		m_creator = creator; 
+		markDirty();
 		//if (m_parentOMM != null) if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, creator, OMMEventType.METADATA_CHANGED));
 	}	
 	
 	public void setDescription(OMMMultiLangText description, OMMEntity entity)
 	{
 		m_description = description;
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.DESCRIPTION_CHANGED));
+		fireChanged(entity, OMMEventType.DESCRIPTION_CHANGED);
 	}
 	
 	public void setDescription(Locale language, String description, OMMEntity entity)
@@ -368,7 +373,7 @@ public class OMMBlockImpl implements OMMBlock
 		if (m_description.containsKey(language)) m_description.remove(language);
 		m_description.put(language, description);
 		
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.DESCRIPTION_CHANGED));
+		fireChanged(entity, OMMEventType.DESCRIPTION_CHANGED);
 	}
 	
 	// TODO is this method wanted? it's not in OMMBlock
@@ -379,6 +384,7 @@ public class OMMBlockImpl implements OMMBlock
 	public void setContributors(OMMEntityCollection contributors) 
 	{ 
 		m_contributors = contributors; 
+		markDirty();
 		//if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, null, OMMEventType.METADATA_CHANGED));
 	}
 	
@@ -389,25 +395,27 @@ public class OMMBlockImpl implements OMMBlock
 	public void addContributor(OMMEntity contributor) 
 	{ 
 		m_contributors.add(contributor); 
+		markDirty();
 		//if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, contributor, OMMEventType.METADATA_CHANGED));
 	}
 	
 	public void setType(URL type, OMMEntity entity)
 	{
 		m_type = type;
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.TYPE_CHANGED));
+		fireChanged(entity, OMMEventType.TYPE_CHANGED);
 	}
 	
 	public void setFormat(OMMFormat format, OMMEntity entity)
 	{
 		if (m_namespace == null && format == null) throw new IllegalArgumentException("format must not be null if namespace is null!");
 		m_format = format;
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.FORMAT_CHANGED));
+		fireChanged(entity, OMMEventType.FORMAT_CHANGED);
 	}
 	
 	public void setSubject(OMMSubjectCollection collection)
 	{
 		m_subject = collection;
+		markDirty();
 		//if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, null, OMMEventType.METADATA_CHANGED));
 	}
 	
@@ -415,14 +423,14 @@ public class OMMBlockImpl implements OMMBlock
 	{
 		if (m_subject == null) m_subject = new OMMSubjectCollection();
 		m_subject.add(subject);
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.SUBJECT_CHANGED));
+		fireChanged(entity, OMMEventType.SUBJECT_CHANGED);
 	}
 
 	public void changeSubject(OMMSubjectTag oldSubject, OMMSubjectTag newSubject, OMMEntity entity)	
 	{
 		m_subject.remove(oldSubject);
 		m_subject.add(newSubject);
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.SUBJECT_CHANGED));
+		fireChanged(entity, OMMEventType.SUBJECT_CHANGED);
 	}
 	
 	public void setLink(TypedValue link, OMMEntity entity) 
@@ -435,7 +443,7 @@ public class OMMBlockImpl implements OMMBlock
 		m_link = link;
 		m_linkHash = linkHash;
 		m_payload = null;		
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.LINK_CHANGED));
+		fireChanged(entity, OMMEventType.LINK_CHANGED);
 	}
 
 	public void setPayload(TypedValue payload, OMMEntity entity) 
@@ -449,7 +457,8 @@ public class OMMBlockImpl implements OMMBlock
 		  m_payloadElement.setTextContent(payload.getValue().toString());
 		}
 
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.PAYLOAD_CHANGED));
+		payloadReplaced(false);
+		fireChanged(entity, OMMEventType.PAYLOAD_CHANGED);
 	}
 	
 	public void setPayload(byte[] payload, OMMEntity entity) 
@@ -458,11 +467,13 @@ public class OMMBlockImpl implements OMMBlock
 		m_linkHash = null;
 		m_payload = new BinaryValue("base64", payload);
 		m_payloadElement = null;
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.PAYLOAD_CHANGED));
+		payloadReplaced(false);
+		fireChanged(entity, OMMEventType.PAYLOAD_CHANGED);
 	}
 
 	public void setPrimaryID (TypedValue newId) {
 		m_primaryID = newId;
+		markDirty();
 	}
 
 	public boolean removeTitle(Locale language, OMMEntity entity)
@@ -475,7 +486,7 @@ public class OMMBlockImpl implements OMMBlock
 		if(this.m_title.containsKey(language))
 		{
 			this.m_title.remove(language);
-			if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.TITLE_CHANGED));
+			fireChanged(entity, OMMEventType.TITLE_CHANGED);
 		}		
 		
 		return true;
@@ -484,14 +495,14 @@ public class OMMBlockImpl implements OMMBlock
 	public void removeDescription(Locale language, OMMEntity entity) {
 		if(this.m_description.containsKey(language)){
 			this.m_description.remove(language);
-			if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.DESCRIPTION_CHANGED));
+			fireChanged(entity, OMMEventType.DESCRIPTION_CHANGED);
 		}
 	}
 
 	public void removeType(OMMEntity entity) {
 		if(this.m_type != null){
 			this.m_type = null;
-			if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.TYPE_CHANGED));
+			fireChanged(entity, OMMEventType.TYPE_CHANGED);
 		}
 	}
 
@@ -499,47 +510,47 @@ public class OMMBlockImpl implements OMMBlock
 	public void removeSubject(OMMSubjectTag subject, OMMEntity entity) {
 		if(this.m_subject.contains(subject)){
 			this.m_subject.remove(subject);
-			if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.SUBJECT_CHANGED));
+			fireChanged(entity, OMMEventType.SUBJECT_CHANGED);
 		}
 	}
 
 
 	public void removeDescriptions(OMMEntity entity) {
 		this.m_description.clear();
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.DESCRIPTION_CHANGED));
+		fireChanged(entity, OMMEventType.DESCRIPTION_CHANGED);
 	}
 
 
 	public void removeFormat(OMMEntity entity) {
 		this.m_format = null;
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.FORMAT_CHANGED));
+		fireChanged(entity, OMMEventType.FORMAT_CHANGED);
 	}
 
 
 	public void removeSubjects(OMMEntity entity) {
 		this.m_subject.clear();
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.SUBJECT_CHANGED));
+		fireChanged(entity, OMMEventType.SUBJECT_CHANGED);
 	}
 
 
 	public void removeLink(OMMEntity entity) {
 		this.m_link = null;
 		this.m_linkHash = null;
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.LINK_CHANGED));
+		fireChanged(entity, OMMEventType.LINK_CHANGED);
 	}
 
 
 	public void removePayload(OMMEntity entity) {
 		this.m_payload = null;
 		this.m_payloadElement = null;
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.PAYLOAD_CHANGED));
+		fireChanged(entity, OMMEventType.PAYLOAD_CHANGED);
 	}
 
 
 	public void setNamespace(URI namespace, OMMEntity entity) {
 		if (namespace == null) throw new IllegalArgumentException("namespace must not be null!");
 		m_namespace = namespace;
-		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, OMMEventType.NAMESPACE_CHANGED));
+		fireChanged(entity, OMMEventType.NAMESPACE_CHANGED);
 	}
 
 	public void setParentOMM(OMMImpl omm)
@@ -547,9 +558,44 @@ public class OMMBlockImpl implements OMMBlock
 		this.m_parentOMM = omm;
 	}
 
+	/** Indicates whether the block has been changed since its memory was loaded or saved. 
+	 * Changes are tracked through the block's setters, not through modifications of the objects returned by its getters. 
+	 * @return True, if the block has been changed. 
+	 */
+	public boolean isDirty() { return m_dirty; }
+
+	/** Retrieves a number which is increased whenever the block is changed through its setters, 
+	 * so that values derived from the block can be cached per block version. 
+	 * @return The revision of the block. 
+	 */
+	public long getRevision() { return m_revision; }
+
+	/** Marks the block as changed and notifies its memory, for setters which do not fire an {@link OMMEvent}. */
+	protected void markDirty()
+	{
+		m_revision++;
+		m_dirty = true;
+		if (m_parentOMM != null) m_parentOMM.blockChanged(this);
+	}
+
+	/** Called after the payload has been replaced, before the change is announced. Typed blocks drop their parsed payload here. 
+	 * @param element True if a new payload element has been set, false if only the payload value is valid. 
+	 */
+	protected void payloadReplaced(boolean element) { }
+
+	/** Increases the revision of the block and fires an {@link OMMEvent} to its memory (if set). */
+	protected void fireChanged(OMMEntity entity, OMMEventType type)
+	{
+		m_revision++;
+		if (m_parentOMM != null) m_parentOMM.fireOMMEvent(new OMMEvent(m_parentOMM, this, entity, type));
+	}
 
 	public void setID(String id) {
+		String oldID = this.m_ID;
 		this.m_ID = id;
+		m_revision++;
+		m_dirty = true;
+		if (m_parentOMM != null) m_parentOMM.blockIDChanged(oldID, this);
 	}
 
 	@Override
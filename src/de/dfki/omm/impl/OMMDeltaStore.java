@@ -0,0 +1,381 @@
+package de.dfki.omm.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.zip.CRC32;
+
+import org.w3c.dom.Document;
+
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.tools.OMMStaxSerializer;
+import de.dfki.omm.tools.OMMXMLConverter;
+
+/** Incremental persistence of local XML memories.
+ * <p>A memory is stored in its canonical XML file and an append-only delta segment next to it (<code>memory.xml.delta</code>).
+ * An incremental save appends one record with the header and the blocks which have been changed or removed since the last save, see {@link OMMImpl#isDirty()}.
+ * The changes are taken from the memory before the record is written, so blocks changed meanwhile are saved by the next save.
+ * Each record carries its length and a checksum and is forced to disk, so a save which is interrupted leaves a truncated record, which is discarded when loading.</p>
+ * <p>Full saves and compactions write the whole memory to a temporary file which replaces the XML file atomically, and then delete the delta segment.
+ * When the delta segment grows beyond {@link #COMPACTION_MIN_BYTES} and {@link #COMPACTION_RATIO} of the XML file, it is merged into the XML file in the background.</p>
+ */
+public class OMMDeltaStore
+{
+	/** Whether {@link OMMFactory#saveOMM(OMM, boolean)} saves local memories incrementally. */
+	public static boolean INCREMENTAL_SAVES = false;
+	/** Minimum size of a delta segment in bytes before it is compacted. */
+	public static long COMPACTION_MIN_BYTES = 1024 * 1024;
+	/** Minimum size of a delta segment relative to its XML file before it is compacted. */
+	public static double COMPACTION_RATIO = 0.5;
+	/** Suffix appended to the name of the XML file for its delta segment. */
+	public static final String DELTA_FILE_SUFFIX = ".delta";
+
+	private static final int RECORD_MAGIC = 0x4F4D4D44; // "OMMD"
+	private static final byte OP_HEADER = 1;
+	private static final byte OP_PUT_BLOCK = 2;
+	private static final byte OP_REMOVE_BLOCK = 3;
+
+	private static final ConcurrentHashMap<String, Object> s_locks = new ConcurrentHashMap<String, Object>();
+	private static final ExecutorService s_compactor = Executors.newSingleThreadExecutor(new ThreadFactory()
+	{
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "OMMDeltaStore compaction");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private OMMDeltaStore() {}
+
+	/** Retrieves the delta segment of an XML file.
+	 * @param xmlFile The XML file.
+	 * @return The delta {@link File}.
+	 */
+	public static File getDeltaFile(File xmlFile)
+	{
+		return new File(xmlFile.getPath() + DELTA_FILE_SUFFIX);
+	}
+
+	/** Saves the changes of a memory to its source file.
+	 * Only the changed blocks are appended to the delta segment, if the memory has been loaded from or saved to the file before.
+	 * Otherwise the whole memory is written, see {@link #saveFull(OMMImpl, File, boolean)}.
+	 * @param omm The memory.
+	 * @param withToC True, if the table of contents is to be written when the memory is saved completely.
+	 * @return True, if the memory was saved successfully.
+	 */
+	public static boolean save(OMMImpl omm, boolean withToC)
+	{
+		final File xmlFile = omm.getSourceAsFile();
+		if (xmlFile == null) throw new IllegalArgumentException("omm has no source file");
+
+		boolean compact = false;
+		synchronized(getLock(xmlFile))
+		{
+			if (!xmlFile.equals(omm.m_persistedFile) || !xmlFile.exists()) return saveFull(omm, xmlFile, withToC);
+
+			// changes made while the record is written are kept for the next save
+			List<String> changed = new ArrayList<String>();
+			List<String> removed = new ArrayList<String>();
+			omm.takeChanges(changed, removed);
+			try
+			{
+				byte[] record = createRecord(omm, changed, removed);
+				File deltaFile = getDeltaFile(xmlFile);
+				RandomAccessFile raf = new RandomAccessFile(deltaFile, "rw");
+				long end = raf.length();
+				try
+				{
+					raf.seek(end);
+					raf.write(record);
+					raf.getChannel().force(false);
+					compact = raf.length() >= COMPACTION_MIN_BYTES && raf.length() >= xmlFile.length() * COMPACTION_RATIO;
+				}
+				catch(IOException e)
+				{
+					// the changes are saved again by the next save, which must not be appended to a partial record
+					raf.setLength(end);
+					throw e;
+				}
+				finally { raf.close(); }
+			}
+			catch(Exception e)
+			{
+				e.printStackTrace();
+				omm.restoreChanges(changed, removed);
+				return false;
+			}
+		}
+
+		if (compact)
+		{
+			final boolean toc = withToC;
+			s_compactor.execute(new Runnable()
+			{
+				public void run()
+				{
+					compact(xmlFile, toc);
+				}
+			});
+		}
+		return true;
+	}
+
+	/** Writes a whole memory to a file atomically and deletes the file's delta segment.
+	 * @param omm The memory.
+	 * @param xmlFile The {@link File} to write.
+	 * @param withToC True, if the table of contents is to be written.
+	 * @return True, if the memory was saved successfully.
+	 */
+	public static boolean saveFull(OMMImpl omm, File xmlFile, boolean withToC)
+	{
+		synchronized(getLock(xmlFile))
+		{
+			// the file may be overwritten, so blocks which are still in it are parsed first
+			if (omm instanceof OMMLazyFileImpl) ((OMMLazyFileImpl)omm).loadAllBlocks();
+
+			List<String> changed = new ArrayList<String>();
+			List<String> removed = new ArrayList<String>();
+			omm.takeChanges(changed, removed);
+			if (!writeAtomically(omm, xmlFile, withToC))
+			{
+				omm.restoreChanges(changed, removed);
+				return false;
+			}
+			omm.m_persistedFile = xmlFile;
+			return true;
+		}
+	}
+
+	/** Merges the delta segment of a file into the file, which is replaced atomically.
+	 * Memories opened from the file are not affected.
+	 * @param xmlFile The XML {@link File}.
+	 * @param withToC True, if the table of contents is to be written.
+	 * @return True, if the file has no delta segment anymore.
+	 */
+	public static boolean compact(File xmlFile, boolean withToC)
+	{
+		synchronized(getLock(xmlFile))
+		{
+			if (!getDeltaFile(xmlFile).exists()) return true;
+
+			OMM omm = OMMXMLConverter.loadFromXmlFile(xmlFile);
+			if (!(omm instanceof OMMImpl)) return false;
+			if (!apply((OMMImpl)omm, xmlFile)) return false;
+			return writeAtomically((OMMImpl)omm, xmlFile, withToC);
+		}
+	}
+
+	/** Applies the delta segment of a file to a memory loaded from the file, and marks the memory as persisted in the file.
+	 * A truncated or corrupt record at the end of the segment, left by an interrupted save, is removed.
+	 * @param omm The memory loaded from the XML file.
+	 * @param xmlFile The XML {@link File}.
+	 * @return True, if the segment has been applied or does not exist.
+	 */
+	public static boolean apply(OMMImpl omm, File xmlFile)
+	{
+		synchronized(getLock(xmlFile))
+		{
+			File deltaFile = getDeltaFile(xmlFile);
+			if (deltaFile.exists())
+			{
+				try
+				{
+					RandomAccessFile raf = new RandomAccessFile(deltaFile, "rw");
+					try
+					{
+						long valid = 0;
+						while (true)
+						{
+							byte[] payload = readRecord(raf);
+							if (payload == null) break;
+							applyRecord(omm, payload);
+							valid = raf.getFilePointer();
+						}
+						if (valid < raf.length())
+						{
+							System.err.println("Discarding incomplete record of " + deltaFile + " at " + valid);
+							raf.setLength(valid);
+						}
+					}
+					finally { raf.close(); }
+				}
+				catch(Exception e)
+				{
+					e.printStackTrace();
+					return false;
+				}
+			}
+			omm.m_persistedFile = xmlFile;
+			return true;
+		}
+	}
+
+	private static Object getLock(File xmlFile)
+	{
+		String path = xmlFile.getAbsolutePath();
+		Object lock = s_locks.get(path);
+		if (lock == null)
+		{
+			Object newLock = new Object();
+			lock = s_locks.putIfAbsent(path, newLock);
+			if (lock == null) lock = newLock;
+		}
+		return lock;
+	}
+
+	private static boolean writeAtomically(OMMImpl omm, File xmlFile, boolean withToC)
+	{
+		File tempFile = null;
+		try
+		{
+			File dir = xmlFile.getAbsoluteFile().getParentFile();
+			if (!dir.exists()) dir.mkdirs();
+			tempFile = File.createTempFile(xmlFile.getName(), ".tmp", dir);
+
+			FileOutputStream os = new FileOutputStream(tempFile);
+			try
+			{
+				OMMStaxSerializer.write(omm, withToC, os);
+				os.getChannel().force(false);
+			}
+			finally { os.close(); }
+
+			try
+			{
+				Files.move(tempFile.toPath(), xmlFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			}
+			catch(AtomicMoveNotSupportedException e)
+			{
+				Files.move(tempFile.toPath(), xmlFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			tempFile = null;
+			Files.deleteIfExists(getDeltaFile(xmlFile).toPath());
+			return true;
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			if (tempFile != null) tempFile.delete();
+		}
+		return false;
+	}
+
+	// records
+
+	private static byte[] createRecord(OMMImpl omm, List<String> changed, List<String> removed) throws IOException
+	{
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(payload);
+
+		// the header is small and its setters are not tracked, so it is part of every record
+		out.writeByte(OP_HEADER);
+		writeBytes(out, OMMXMLConverter.toXMLFileString(OMMXMLConverter.generateHeaderDocument(omm.getHeader()).getDocumentElement()).getBytes("UTF-8"));
+
+		// removals first, so that a block which was removed and added again is put afterwards
+		for(String blockID : removed)
+		{
+			out.writeByte(OP_REMOVE_BLOCK);
+			out.writeUTF(blockID);
+		}
+		for(String blockID : changed)
+		{
+			OMMBlock block = omm.getBlock(blockID);
+			if (block == null) continue;
+			out.writeByte(OP_PUT_BLOCK);
+			writeBytes(out, OMMXMLConverter.toXMLFileString(OMMXMLConverter.generateCompleteBlock(block, true)).getBytes("UTF-8"));
+		}
+		out.flush();
+
+		byte[] data = payload.toByteArray();
+		CRC32 crc = new CRC32();
+		crc.update(data);
+
+		ByteArrayOutputStream record = new ByteArrayOutputStream(data.length + 16);
+		DataOutputStream recordOut = new DataOutputStream(record);
+		recordOut.writeInt(RECORD_MAGIC);
+		recordOut.writeInt(data.length);
+		recordOut.write(data);
+		recordOut.writeLong(crc.getValue());
+		recordOut.flush();
+		return record.toByteArray();
+	}
+
+	/** Reads the payload of the next record, or null at the end of the segment or if the record is incomplete or corrupt. */
+	private static byte[] readRecord(RandomAccessFile raf) throws IOException
+	{
+		try
+		{
+			if (raf.getFilePointer() >= raf.length()) return null;
+			if (raf.readInt() != RECORD_MAGIC) return null;
+			int length = raf.readInt();
+			if (length < 0 || length > raf.length() - raf.getFilePointer()) return null;
+			byte[] data = new byte[length];
+			raf.readFully(data);
+			CRC32 crc = new CRC32();
+			crc.update(data);
+			if (raf.readLong() != crc.getValue()) return null;
+			return data;
+		}
+		catch(EOFException e)
+		{
+			return null;
+		}
+	}
+
+	private static void applyRecord(OMMImpl omm, byte[] payload) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		while (in.available() > 0)
+		{
+			byte op = in.readByte();
+			if (op == OP_HEADER)
+			{
+				Document doc = OMMXMLConverter.getXmlDocumentFromString(new ByteArrayInputStream(readBytes(in)));
+				omm.m_header = OMMXMLConverter.parseHeader(doc.getDocumentElement());
+			}
+			else if (op == OP_PUT_BLOCK)
+			{
+				Document doc = OMMXMLConverter.getXmlDocumentFromString(new ByteArrayInputStream(readBytes(in)));
+				omm.putBlockUnchanged(OMMXMLConverter.parseBlock(doc.getDocumentElement()));
+			}
+			else if (op == OP_REMOVE_BLOCK)
+			{
+				omm.dropBlockUnchanged(in.readUTF());
+			}
+			else throw new IOException("unknown operation " + op);
+		}
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] data) throws IOException
+	{
+		out.writeInt(data.length);
+		out.write(data);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException
+	{
+		byte[] data = new byte[in.readInt()];
+		in.readFully(data);
+		return data;
+	}
+}
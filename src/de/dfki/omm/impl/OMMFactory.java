@@ -6,18 +6,17 @@ import java.net.URI;
 import java.net.URL;
 import java.net.URLEncoder;
 import java.nio.ByteBuffer;
-import java.nio.charset.StandardCharsets;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Locale;
-import java.util.Map;
-import java.util.zip.GZIPInputStream;
 import java.util.zip.GZIPOutputStream;
 
 import de.dfki.omm.types.*;
 import org.restlet.data.ChallengeScheme;
 import org.restlet.data.MediaType;
-import org.restlet.representation.StringRepresentation;
+import org.restlet.representation.Representation;
 import org.restlet.resource.ClientResource;
 import org.restlet.resource.ResourceException;
 import org.w3c.dom.Document;
@@ -31,7 +30,13 @@ import de.dfki.omm.impl.rest.OMMRestImpl;
 import de.dfki.omm.interfaces.OMM;
 import de.dfki.omm.interfaces.OMMBlock;
 import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.tools.OMMActionResultType;
+import de.dfki.omm.tools.OMMBinaryFormat;
+import de.dfki.omm.tools.OMMBinaryIndex;
+import de.dfki.omm.tools.OMMBinaryReader;
+import de.dfki.omm.tools.OMMStaxSerializer;
 import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.tools.RestCompression;
 
 /** Factory for OMM creation, handling and destruction. */
 public class OMMFactory 
@@ -64,13 +69,13 @@ public class OMMFactory
 		eRoot.appendChild(doc.importNode(eNewOwnerBlock, true));
 		
 		String string = OMMXMLConverter.toXMLFileString(doc);
-		StringRepresentation stringRep = new StringRepresentation(string);
+		Representation stringRep = RestCompression.encode(string, MediaType.APPLICATION_XML);
 		
 		//System.out.println(stringRep.getText());
 		
 		try
 		{
-			cr.put(stringRep, MediaType.APPLICATION_XML);
+			cr.put(stringRep);
 		}
 		catch(ResourceException e) { e.printStackTrace(); return false; }
 
@@ -112,11 +117,11 @@ public class OMMFactory
 		// send XML representation of the OMM to /cloneMemory 
 		ClientResource cr = new ClientResource(cloneMemoryURL);
 		String string = OMMXMLConverter.toXMLFileString(doc);
-		StringRepresentation stringRep = new StringRepresentation(string);
+		Representation stringRep = RestCompression.encode(string, MediaType.APPLICATION_XML);
 		//System.out.println("stringRep: "+stringRep);
 		try
 		{
-			cr.post(stringRep, MediaType.APPLICATION_XML);
+			RestCompression.post(cr, stringRep);
 		}
 		catch(ResourceException e) { e.printStackTrace(); return false; }
 
@@ -266,14 +271,14 @@ public class OMMFactory
 		}
 		
 		String string = OMMXMLConverter.toXMLFileString(doc);
-		StringRepresentation stringRep = new StringRepresentation(string);
+		Representation stringRep = RestCompression.encode(string, MediaType.APPLICATION_XML);
 
 //		System.out.println("posting memory string:");
 //		System.out.println(stringRep.toString());
 		
 		try
 		{
-			cr.post(stringRep, MediaType.APPLICATION_XML);
+			RestCompression.post(cr, stringRep);
 		}
 		catch(ResourceException e) { e.printStackTrace(); return false; }
 
@@ -543,78 +548,30 @@ public class OMMFactory
 
 
 	/** Loads an OMM block from a file containing a block description in custom binary format.
+	 * The file is read through a small buffer, see {@link OMMBinaryReader}.
 	 *
 	 * @param binfile The {@link File} from which to load.
 	 * @return The loaded block as a {@link OMMBlock}.
 	 */
 	public static OMMBlock loadBlockFromBinary (File binfile) {
 
-		OMMBlock block = null;
-
-		// open and read file
-		FileInputStream fis = null;
-		ByteBuffer byteBuffer = null;
-		byte[] fileContent = null;
+		final OMMBlock[] block = new OMMBlock[1];
 		try {
-
-			// load file content
-			int fileLength = (int) binfile.length();
-			fis = new FileInputStream(binfile);
-			fileContent = new byte[fileLength];
-			fis.read(fileContent);
-
-			// decompress file content
-			ByteArrayInputStream byteStream = new ByteArrayInputStream(fileContent);
-			GZIPInputStream zipStream = new GZIPInputStream(byteStream);
-			java.io.ByteArrayOutputStream data = new java.io.ByteArrayOutputStream();
-			try {
-				int readBytes = 0;
-				int zipStreamLength = zipStream.toString().length();
-				//byte[] buffer = new byte[1024];
-				byte[] buffer = new byte[zipStreamLength];
-				while (readBytes >= 0) {
-					readBytes = zipStream.read(buffer, 0, buffer.length);
-					if (readBytes > 0) data.write(buffer, 0, readBytes);
-				}
-			} catch (IOException e) { e.printStackTrace(); }
-			finally {
-				try { byteStream.close(); zipStream.close(); }
-				catch (IOException e) { e.printStackTrace(); }
-			}
-
-			// create byte buffer from read data
-			byte[] decompressedData = data.toByteArray();
-			byteBuffer = ByteBuffer.allocate(decompressedData.length);
-			byteBuffer.put(decompressedData);
-			byteBuffer.position(0); // return to start position for reading
-
+			OMMBinaryReader.read(binfile, OMMBinaryFormat.KIND_BLOCK, new OMMBinaryReader.Consumer() {
+				@Override
+				public void headerRead(OMMHeader header) { }
+				@Override
+				public void ownerRead(OMMBlock owner) { }
+				@Override
+				public void blockRead(OMMBlock b) { if (block[0] == null) block[0] = b; }
+			});
 		} catch (IOException e) {
 			e.printStackTrace();
-		}
-		finally {
-			try {
-				if(fis != null) fis.close();
-			} catch (IOException e) {}
-		}
-
-		// read buffer content
-		if (byteBuffer != null) {
-
-			// check prologue, whether file contains a block
-//			nextLength = byteBuffer.getShort();
-//			nextData = new byte[nextLength];
-//			byteBuffer.get(nextData);
-//			if (!new String(nextData).equals("OMMBlock")) {
-//				System.err.println("File does not contain an OMMBlock");
-//				return null;
-//			}
-
-			// create block from byte buffer
-			block = OMMBlockImpl.createFromBinary(byteBuffer);
+			return null;
 		}
 
 		// return finished block
-		return block;
+		return block[0];
 	}
 
 	/** Loads an OMM block from a file containing a block description in XML format.
@@ -647,117 +604,142 @@ public class OMMFactory
 	}
 
 	/** Loads an OMM from a file containing a memory description in custom binary format.
+	 * The memory is created on the OMS as soon as its header and owner are read, and 
+	 * every block is added as soon as it is decoded, see {@link OMMBinaryReader}.
+	 * If the file turns out to be damaged or a block cannot be added, the memory is deleted from the OMS again.
 	 *
 	 * @param binfile The {@link File} from which to load.
-	 * @return The loaded memory as a {@link OMM}.
+	 * @return The loaded memory as a {@link OMM}, or null if it could not be loaded completely.
 	 */
 	public static OMM loadOMMFromBinary (File binfile)
 	{
+		System.out.println("reading file: " + binfile.getName());
 
-		OMM omm = null;
-
-		// open and read file
-		FileInputStream fis = null;
-		ByteBuffer byteBuffer = null;
-		byte[] fileContent = null;
+		BinaryMemoryLoader loader = new BinaryMemoryLoader();
 		try {
+			OMMBinaryReader.read(binfile, OMMBinaryFormat.KIND_MEMORY, loader);
+		} catch (IOException e) {
+			e.printStackTrace();
+			loader.failed = true;
+		}
 
-			// load file content
-			int fileLength = (int) binfile.length();
-			fis = new FileInputStream(binfile);
-			fileContent = new byte[fileLength];
-			fis.read(fileContent);
+		// return finished OMM
+		OMM omm = loader.getMemory();
+		if (loader.failed) {
+			loader.discard();
+			return null;
+		}
+		return omm;
+	}
 
-			System.out.println("reading file: " + binfile.getName());
+	/** Opens an OMM from an uncompressed file containing a memory description in custom binary format, 
+	 * reading only its header and block index. Blocks are decoded when they are requested, see {@link OMMBinaryFileImpl}.
+	 * Unlike {@link #loadOMMFromBinary(File)}, the memory is not created on the OMS.
+	 *
+	 * @param binfile The {@link File} from which to load.
+	 * @return The opened memory as a {@link OMM}, or null if the file has no block index.
+	 */
+	public static OMM loadOMMFromBinaryLazy(File binfile)
+	{
+		return OMMBinaryFileImpl.create(binfile);
+	}
 
-			// decompress file content, if it is zipped
-			if (binfile.getName().endsWith("ommz")) {
-				ByteArrayInputStream byteStream = new ByteArrayInputStream(fileContent);
-				GZIPInputStream zipStream = new GZIPInputStream(byteStream);
-				java.io.ByteArrayOutputStream data = new java.io.ByteArrayOutputStream();
-				try {
-					int readBytes = 0;
-					int zipStreamLength = zipStream.toString().length();
-					//byte[] buffer = new byte[1024];
-					byte[] buffer = new byte[zipStreamLength];
-					while (readBytes >= 0) {
-						readBytes = zipStream.read(buffer, 0, buffer.length);
-						if (readBytes > 0) data.write(buffer, 0, readBytes);
-					}
-				} catch (IOException e) { e.printStackTrace(); }
-				finally {
-					try { byteStream.close(); zipStream.close(); }
-					catch (IOException e) { e.printStackTrace(); }
+	/** Appends blocks to an uncompressed binary memory file without rewriting it, see {@link OMMBinaryIndex}.
+	 * Blocks with the ID of a block in the file replace it, the space of the old block is not reused.
+	 * The blocks and the new index are written to disk before the append is committed by replacing a single byte,
+	 * so an interrupted append leaves the file with its previous blocks.
+	 *
+	 * @param binFile The {@link File} written by {@link #saveOMMToBinary(OMM, File, boolean)} without compression.
+	 * @param blocks The {@link OMMBlock}s to append.
+	 * @return True, if the blocks were appended successfully.
+	 */
+	public static boolean appendBlocksToBinary(File binFile, Collection<OMMBlock> blocks)
+	{
+		try {
+			RandomAccessFile raf = new RandomAccessFile(binFile, "rw");
+			try {
+				FileChannel channel = raf.getChannel();
+				OMMBinaryIndex index = OMMBinaryIndex.read(channel);
+				if (index == null) {
+					System.err.println(binFile.getName() + " has no block index");
+					return false;
 				}
-				fileContent = data.toByteArray();
-			}
 
-			// create byte buffer from read data
-			byteBuffer = ByteBuffer.allocate(fileContent.length);
-			byteBuffer.put(fileContent);
-			byteBuffer.position(0); // return to start position for reading
+				// drop what an interrupted append left behind the committed index
+				long length = index.getLength();
+				if (channel.size() > length) channel.truncate(length);
+				if (blocks.isEmpty()) return true;
 
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		finally {
-			try {
-				if(fis != null) fis.close();
-			} catch (IOException e) {}
-		}
+				// write blocks, end record and new index behind the old index
+				int previousEnd = index.getEndOffset();
+				channel.position(length);
+				try {
+					OMMBinaryFormat.Encoder encoder = OMMBinaryFormat.Encoder.create(new BufferedOutputStream(Channels.newOutputStream(channel)), index);
+					for (OMMBlock block : blocks) encoder.writeBlock(block);
+					encoder.finish();
+					channel.force(false);
+				} catch (IOException e) {
+					channel.truncate(length);
+					throw e;
+				}
 
-		// read buffer content
-		if (byteBuffer != null) {
-
-			// check prologue, whether file contains a block
-//			nextLength = byteBuffer.getShort();
-//			nextData = new byte[nextLength];
-//			byteBuffer.get(nextData);
-//			if (!new String(nextData).equals("OMM")) {
-//				System.err.println("File does not contain an OMM");
-//				return null;
-//			}
-
-			// read header from byte buffer
-			String type = new String(getNextDataFromBinary(byteBuffer));
-			String value = new String(getNextDataFromBinary(byteBuffer));
-			TypedValue primaryId = new GenericTypedValue(type, value);
-			type = new String(getNextDataFromBinary(byteBuffer));
-			TypedValue additionalBlocks = null;
-			if (type.length() > 0) {
-				value = new String(getNextDataFromBinary(byteBuffer));
-				if (value.length() > 0) additionalBlocks = new GenericTypedValue(type, value);
+				// commit by replacing the old end record, which makes the new index valid and leads sequential readers to the new blocks
+				channel.write(ByteBuffer.wrap(new byte[] { OMMBinaryFormat.RECORD_CONTINUE }), previousEnd);
+				channel.force(false);
+				return true;
 			}
-			OMMHeader header = OMMHeaderImpl.create(primaryId, additionalBlocks);
+			finally { raf.close(); }
+		} catch (IOException e) { e.printStackTrace(); }
+		return false;
+	}
 
-			// read owner from byte buffer
-			OMMBlock owner = null;
-			String ownerFollows = new String(getNextDataFromBinary(byteBuffer));
-			if (ownerFollows.length() > 0) {
-				owner = OMMBlockImpl.createFromBinary(byteBuffer);
-			}
+	/** Creates a memory on the OMS from the parts of a binary memory file. */
+	private static class BinaryMemoryLoader implements OMMBinaryReader.Consumer
+	{
+		OMMHeader header = null;
+		OMMBlock owner = null;
+		OMM omm = null;
+		String memoryUrl = null;
+		boolean failed = false;
 
-			// create new OMM on the OMS and add loaded blocks
-			if (header != null) {
+		@Override
+		public void headerRead(OMMHeader header) { this.header = header; }
 
-				// create empty OMM to add blocks to
-				String memoryUrl = header.getPrimaryID().getValue().toString();
-				String omsUrl = memoryUrl.substring(0, memoryUrl.indexOf("rest/"));
-				OMMFactory.createOMMViaOMSRestInterface(omsUrl + "mgmt/createMemory", header, owner);
-				omm = new OMMRestImpl(memoryUrl, OMMRestAccessMode.CompleteDownloadUnlimited);
+		@Override
+		public void ownerRead(OMMBlock owner) { this.owner = owner; }
 
-				// read memory blocks
-				int blockNumber = byteBuffer.getInt();
-				for (int i = 0; i < blockNumber; i++) {
-					OMMBlock block = OMMBlockImpl.createFromBinary(byteBuffer);
-					if (block != null)
-						omm.addBlock(block, block.getCreator());
+		@Override
+		public void blockRead(OMMBlock block) {
+			OMM memory = getMemory();
+			if (memory == null || block == null) return;
+			if (memory.addBlock(block, block.getCreator()) != OMMActionResultType.OK) failed = true;
+		}
+
+		/** Creates the memory on the OMS, if not done yet. */
+		OMM getMemory() {
+			if (omm == null && header != null && !failed) {
+				// create empty OMM to add blocks to
+				String url = header.getPrimaryID().getValue().toString();
+				String omsUrl = url.substring(0, url.indexOf("rest/"));
+				if (!OMMFactory.createOMMViaOMSRestInterface(omsUrl + "mgmt/createMemory", header, owner)) {
+					failed = true;
+					return null;
 				}
+				memoryUrl = url;
+				omm = new OMMRestImpl(memoryUrl, OMMRestAccessMode.CompleteDownloadUnlimited);
 			}
+			return failed ? null : omm;
 		}
 
-		// return finished OMM
-		return omm;
+		/** Deletes the memory from the OMS, if it has been created by this loader, so that no partially loaded memory is left. */
+		void discard() {
+			if (memoryUrl == null) return;
+			try {
+				OMMFactory.deleteOMMViaOMSRestInterface(new URL(memoryUrl));
+			} catch (MalformedURLException e) { e.printStackTrace(); }
+			memoryUrl = null;
+			omm = null;
+		}
 	}
 
 	/** <p>Loads an OMM from an XML string and a source from which the memory can be loaded when the OMS (re)starts. 
@@ -784,7 +766,22 @@ public class OMMFactory
 	 */
 	public static OMM loadOMMFromXmlFile(File xmlfile)
 	{		
-		return OMMXMLConverter.loadFromXmlFile(xmlfile);
+		OMM omm = OMMXMLConverter.loadFromXmlFile(xmlfile);
+		if (omm instanceof OMMImpl && !OMMDeltaStore.apply((OMMImpl)omm, xmlfile)) return null;
+		return omm;
+	}
+
+	/** Opens an OMM from a file containing a memory description in XML format, parsing only its header.
+	 * Blocks are parsed when they are requested, see {@link OMMLazyFileImpl}.
+	 * 
+	 * @param xmlfile The {@link File} from which to load. 
+	 * @return The opened memory as a {@link OMM}. 
+	 */
+	public static OMM loadOMMFromXmlFileLazy(File xmlfile)
+	{
+		OMM omm = OMMLazyFileImpl.create(xmlfile);
+		if (omm instanceof OMMImpl && !OMMDeltaStore.apply((OMMImpl)omm, xmlfile)) return null;
+		return omm;
 	}
 	
 	/** Loads an OMM from the OMS using the REST interface. 
@@ -818,27 +815,21 @@ public class OMMFactory
 		{
 			URL connectorURL = new URL(primaryID.toString()+"?output=xml");
 			HttpURLConnection conn = (HttpURLConnection)connectorURL.openConnection();	
-			conn.setRequestProperty("Accept-Encoding", "gzip");
+			conn.setRequestProperty("Accept-Encoding", RestCompression.COMPRESSION_ENABLED ? "gzip, deflate" : "identity");
 			conn.setRequestProperty("User-Agent", "OMS2-Client 1.0");
 			Object content = conn.getContent();
 			
 			if (content instanceof InputStream)
 			{
 				InputStream is = (InputStream)content;
-				InputStream encIS = is;
-				
-				String encoding = conn.getHeaderField("content-coding");
-				if (encoding != null && encoding.contains("gzip"))
-				{
-					encIS = new GZIPInputStream(is);
-				}
+				InputStream encIS = RestCompression.decode(is, conn.getContentEncoding());
 				
 				ByteArrayOutputStream baos = new ByteArrayOutputStream();				
-				while(encIS.available() > 0)
+				byte[] buffer = new byte[8192];
+				int read;
+				while((read = encIS.read(buffer)) > -1)
 				{
-					byte[] buffer = new byte[encIS.available()];
-					encIS.read(buffer);
-					baos.write(buffer);
+					baos.write(buffer, 0, read);
 				}
 				encIS.close();
 				is.close();				
@@ -893,24 +884,15 @@ public class OMMFactory
 //		System.out.println("saving block " + block.getID() + " of type " + block.getClass().getName());
 //		System.out.println("into " + binFile);
 
-		// create byte buffer
-		int estimatedBlockLength = 1024;
-		if (block.getPayload() != null)
-			estimatedBlockLength += block.getPayload().getValue().toString().length();
-		ByteBuffer byteBuffer = ByteBuffer.allocate(estimatedBlockLength);
-
-		// save a prologue stating the serialized class (OMMBlock)
-//		byteBuffer.putShort((short) 8);
-//		byteBuffer.put("OMMBlock".getBytes(StandardCharsets.UTF_8));
-
 		// write block
-		writeBlockToBinary(byteBuffer, block, savePrimaryID, saveNamespace, saveType, saveDescription, saveContributors, saveFormat, saveSubject, savePayload, saveLink);
-
-		// reduce buffer size if possible
-		int contentLength = byteBuffer.position();
-		byte[] writeBytes = new byte[contentLength];
-		byteBuffer.position(0);
-		byteBuffer.get(writeBytes, 0, contentLength);
+		byte[] writeBytes = null;
+		try {
+			ByteArrayOutputStream data = new ByteArrayOutputStream(1024);
+			OMMBinaryFormat.Encoder encoder = OMMBinaryFormat.Encoder.create(data, OMMBinaryFormat.KIND_BLOCK);
+			encoder.writeBlock(block, savePrimaryID, saveNamespace, saveType, saveDescription, saveContributors, saveFormat, saveSubject, savePayload, saveLink);
+			encoder.finish();
+			writeBytes = data.toByteArray();
+		} catch (IOException e) { e.printStackTrace(); return false; }
 
 		// compress buffer content
 		ByteArrayOutputStream byteStream = new ByteArrayOutputStream(writeBytes.length);
@@ -947,241 +929,6 @@ public class OMMFactory
 		return false;
 	}
 
-	/**
-	 * Writes a given block and its selected contents to a byte buffer
-	 * @param byteBuffer the byte buffer to write
-	 * @param block The {@link OMMBlock} to save.
-	 * @param savePrimaryID true if the block`s primaryID should be saved.
-	 * @param saveNamespace true if the block`s namespace should be saved.
-	 * @param saveType true if the block`s type should be saved.
-	 * @param saveDescription true if the block`s description should be saved.
-	 * @param saveContributors true if the block`s contributors should be saved.
-	 * @param saveFormat true if the block`s format should be saved.
-	 * @param saveSubject true if the block`s subject should be saved.
-	 * @param savePayload true if the block`s payload should be saved.
-	 * @param saveLink true if the block`s link should be saved.
-	 */
-	private static void writeBlockToBinary(ByteBuffer byteBuffer, OMMBlock block,
-		 boolean savePrimaryID, boolean saveNamespace, boolean saveType, boolean saveDescription,
-		 boolean saveContributors, boolean saveFormat, boolean saveSubject, boolean savePayload,
-		 boolean saveLink)
-	{
-
-		// write ID to byte buffer (mandatory)
-		String id = block.getID();
-		byteBuffer.putShort((short) OMMBlockImpl.ID_CODE.length());
-		byteBuffer.put(OMMBlockImpl.ID_CODE.getBytes(StandardCharsets.UTF_8));
-		byteBuffer.putShort((short) id.length());
-		byteBuffer.put(id.getBytes(StandardCharsets.UTF_8));
-
-		// write title to byte buffer (mandatory)
-		OMMMultiLangText titles = block.getTitle();				// possible to save space by only writing one title
-		byteBuffer.putShort((short) OMMBlockImpl.TITLE_CODE.length());
-		byteBuffer.put(OMMBlockImpl.TITLE_CODE.getBytes(StandardCharsets.UTF_8));
-		for (Map.Entry<Locale,String> title : titles.entrySet()) {
-			String language = title.getKey().toString();
-			String localizedTitle = title.getValue();
-			byteBuffer.putShort((short) OMMBlockImpl.TITLELOCALE_CODE.length());
-			byteBuffer.put(OMMBlockImpl.TITLELOCALE_CODE.getBytes(StandardCharsets.UTF_8));
-			byteBuffer.putShort((short) language.length());
-			byteBuffer.put(language.getBytes(StandardCharsets.UTF_8));
-			byteBuffer.putShort((short) localizedTitle.length());
-			byteBuffer.put(localizedTitle.getBytes(StandardCharsets.UTF_8));
-		}
-
-		// write creator to byte buffer (mandatory)
-		OMMEntity creator = block.getCreator();
-		byteBuffer.putShort((short) OMMBlockImpl.CREATOR_CODE.length());
-		byteBuffer.put(OMMBlockImpl.CREATOR_CODE.getBytes(StandardCharsets.UTF_8));
-		String creatortype = creator.getType();
-		String creatorvalue = creator.getValue();
-		String creatordate = creator.getDateAsISO8601();
-		byteBuffer.putShort((short) creatortype.length());
-		byteBuffer.put(creatortype.getBytes(StandardCharsets.UTF_8));
-		byteBuffer.putShort((short) creatorvalue.length());
-		byteBuffer.put(creatorvalue.getBytes(StandardCharsets.UTF_8));
-		byteBuffer.putShort((short) creatordate.length());
-		byteBuffer.put(creatordate.getBytes(StandardCharsets.UTF_8));
-
-		// write primary ID to byte buffer (if selected)
-		if (savePrimaryID) {
-			TypedValue primaryID = block.getPrimaryID();
-			if (primaryID != null) {
-				byteBuffer.putShort((short) OMMBlockImpl.PRIMARYID_CODE.length());
-				byteBuffer.put(OMMBlockImpl.PRIMARYID_CODE.getBytes(StandardCharsets.UTF_8));
-				String type = primaryID.getType();
-				String value = primaryID.getValue().toString();
-				byteBuffer.putShort((short) type.length());
-				byteBuffer.put(type.getBytes(StandardCharsets.UTF_8));
-				byteBuffer.putShort((short) value.length());
-				byteBuffer.put(value.getBytes(StandardCharsets.UTF_8));
-			}
-		}
-
-		// write namespace to byte buffer (if selected)
-		if (saveNamespace) {
-			URI namespace = block.getNamespace();
-			if (namespace != null) {
-				byteBuffer.putShort((short) OMMBlockImpl.NAMESPACE_CODE.length());
-				byteBuffer.put(OMMBlockImpl.NAMESPACE_CODE.getBytes(StandardCharsets.UTF_8));
-				String ns = namespace.toString();
-				byteBuffer.putShort((short) ns.length());
-				byteBuffer.put(ns.getBytes(StandardCharsets.UTF_8));
-			}
-		}
-
-		// write type to byte buffer (if selected)
-		if (saveType) {
-			URL type = block.getType();
-			if (type != null) {
-				byteBuffer.putShort((short) OMMBlockImpl.TYPE_CODE.length());
-				byteBuffer.put(OMMBlockImpl.TYPE_CODE.getBytes(StandardCharsets.UTF_8));
-				String ts = type.toString();
-				byteBuffer.putShort((short) ts.length());
-				byteBuffer.put(ts.getBytes(StandardCharsets.UTF_8));
-			}
-		}
-
-		// write description to byte buffer (if selected)
-		if (saveDescription) {
-			OMMMultiLangText descriptions = block.getDescription();
-			if (descriptions != null) {
-				byteBuffer.putShort((short) OMMBlockImpl.DESCRIPTION_CODE.length());
-				byteBuffer.put(OMMBlockImpl.DESCRIPTION_CODE.getBytes(StandardCharsets.UTF_8));
-				for (Map.Entry<Locale,String> description : descriptions.entrySet()) {
-					String language = description.getKey().toString();
-					String localizedDescription= description.getValue();
-					byteBuffer.putShort((short) OMMBlockImpl.DESCRIPTIONLOCALE_CODE.length());
-					byteBuffer.put(OMMBlockImpl.DESCRIPTIONLOCALE_CODE.getBytes(StandardCharsets.UTF_8));
-					byteBuffer.putShort((short) language.length());
-					byteBuffer.put(language.getBytes(StandardCharsets.UTF_8));
-					byteBuffer.putShort((short) localizedDescription.length());
-					byteBuffer.put(localizedDescription.getBytes(StandardCharsets.UTF_8));
-				}
-			}
-		}
-
-		// write contributors to byte buffer (if selected)
-		if (saveContributors) {
-			OMMEntityCollection contributors = block.getContributors();
-			if (contributors != null) {
-				byteBuffer.putShort((short) OMMBlockImpl.CONTRIBUTORS_CODE.length());
-				byteBuffer.put(OMMBlockImpl.CONTRIBUTORS_CODE.getBytes(StandardCharsets.UTF_8));
-				for (OMMEntity con : contributors) {
-					byteBuffer.putShort((short) OMMBlockImpl.CONTRIBUTOR_CODE.length());
-					byteBuffer.put(OMMBlockImpl.CONTRIBUTOR_CODE.getBytes(StandardCharsets.UTF_8));
-					String contributortype = con.getType();
-					String contributorvalue = con.getValue();
-					String contributordate = con.getDateAsISO8601();
-					byteBuffer.putShort((short) contributortype.length());
-					byteBuffer.put(contributortype.getBytes(StandardCharsets.UTF_8));
-					byteBuffer.putShort((short) contributorvalue.length());
-					byteBuffer.put(contributorvalue.getBytes(StandardCharsets.UTF_8));
-					byteBuffer.putShort((short) contributordate.length());
-					byteBuffer.put(contributordate.getBytes(StandardCharsets.UTF_8));
-				}
-			}
-		}
-
-		// write format to byte buffer (if selected)
-		if (saveFormat) {
-			OMMFormat format = block.getFormat();
-			if (format != null) {
-				byteBuffer.putShort((short) OMMBlockImpl.FORMAT_CODE.length());
-				byteBuffer.put(OMMBlockImpl.FORMAT_CODE.getBytes(StandardCharsets.UTF_8));
-				String mimetype = format.getMIMEType();
-				URL schema = format.getSchema();
-				String schemastr = null;
-				if (schema != null) { schemastr = schema.toString(); }
-				String encoding = format.getEncryption();
-				byteBuffer.putShort((short) mimetype.length());
-				byteBuffer.put(mimetype.getBytes(StandardCharsets.UTF_8));
-				if (schemastr != null) {
-					byteBuffer.putShort((short) schemastr.length());
-					byteBuffer.put(schemastr.getBytes(StandardCharsets.UTF_8));
-				}
-				else byteBuffer.putShort((short)0);
-				if (encoding != null) {
-					byteBuffer.putShort((short) encoding.length());
-					byteBuffer.put(encoding.getBytes(StandardCharsets.UTF_8));
-				}
-				else byteBuffer.putShort((short)0);
-			}
-		}
-
-		// write subject to byte buffer (if selected)
-		if (saveSubject) {
-			OMMSubjectCollection subject = block.getSubject();
-			if (subject != null) {
-				byteBuffer.putShort((short) OMMBlockImpl.SUBJECT_CODE.length());
-				byteBuffer.put(OMMBlockImpl.SUBJECT_CODE.getBytes(StandardCharsets.UTF_8));
-				for (OMMSubjectTag tag : subject) {
-					byteBuffer.putShort((short) OMMBlockImpl.SUBJECTTAG_CODE.length());
-					byteBuffer.put(OMMBlockImpl.SUBJECTTAG_CODE.getBytes(StandardCharsets.UTF_8));
-					writeSubjectTagToBinary(tag, byteBuffer);
-				}
-			}
-		}
-
-		// write payload to byte buffer (if selected)
-		if (savePayload) {
-			TypedValue payload = block.getPayload();
-			if (payload != null) {
-				byteBuffer.putShort((short) OMMBlockImpl.PAYLOAD_CODE.length());
-				byteBuffer.put(OMMBlockImpl.PAYLOAD_CODE.getBytes(StandardCharsets.UTF_8));
-				String payloadtype = payload.getType();
-				String payloadvalue = payload.getValue().toString();
-				byteBuffer.putShort((short) payloadtype.length());
-				byteBuffer.put(payloadtype.getBytes(StandardCharsets.UTF_8));
-				byteBuffer.putShort((short) payloadvalue.length());
-				byteBuffer.put(payloadvalue.getBytes(StandardCharsets.UTF_8));
-			}
-		}
-
-		// write payload to byte buffer (if selected)
-		if (saveLink) {
-			TypedValue link = block.getLink();
-			if (link != null) {
-				byteBuffer.putShort((short) OMMBlockImpl.LINK_CODE.length());
-				byteBuffer.put(OMMBlockImpl.LINK_CODE.getBytes(StandardCharsets.UTF_8));
-				String linktype = link.getType();
-				String linkvalue = link.getValue().toString();
-				byteBuffer.putShort((short) linktype.length());
-				byteBuffer.put(linktype.getBytes(StandardCharsets.UTF_8));
-				byteBuffer.putShort((short) linkvalue.length());
-				byteBuffer.put(linkvalue.getBytes(StandardCharsets.UTF_8));
-			}
-		}
-	}
-
-	/**
-	 * Writes an OMMSubjectTag and its potential children to the given byte buffer for serialization.
-	 * @param tag the subject tag to serialize
-	 * @param byteBuffer the byte buffer to write
-	 */
-	private static void writeSubjectTagToBinary(OMMSubjectTag tag, ByteBuffer byteBuffer) {
-
-		// get data to write
-		String tagtype = tag.getType().toString();
-		String tagtext = tag.getValue();
-		OMMSubjectTag child = tag.getChild();
-
-		// write tag type and text
-		byteBuffer.putShort((short) tagtype.length());
-		byteBuffer.put(tagtype.getBytes(StandardCharsets.UTF_8));
-		byteBuffer.putShort((short) tagtext.length());
-		byteBuffer.put(tagtext.getBytes(StandardCharsets.UTF_8));
-
-		// write child
-		if (child == null) byteBuffer.putShort((short) 0);
-		else {
-			byteBuffer.putShort((short) OMMBlockImpl.SUBJECTTAG_CODE.length());
-			byteBuffer.put(OMMBlockImpl.SUBJECTTAG_CODE.getBytes(StandardCharsets.UTF_8));
-			writeSubjectTagToBinary(child, byteBuffer);
-		}
-
-	}
-
 	/** Saves an XML representation of an OMM block to a file,
 	 * using a customly created binary format and
 	 * serizalizing all block contents.
@@ -1244,23 +991,14 @@ public class OMMFactory
 		OMMImpl ommImpl = ((OMMImpl)omm);
 		if (ommImpl.getSourceAsFile() == null && ommImpl.getSourceAsURL() == null) throw new IllegalArgumentException("omm has no source");
 		
-		String xmlDoc = OMMXMLConverter.toXMLFileString(omm, withToC);
 		switch(ommImpl.getSourceType())
 		{
 			case LocalFile:
 				try
 				{
 					System.out.println("WRITE TO: " + ommImpl.getSourceAsFile().toString());
-					if (!ommImpl.getSourceAsFile().exists()) 
-					{
-						ommImpl.getSourceAsFile().getParentFile().mkdirs();
-						ommImpl.getSourceAsFile().createNewFile();						
-					}
-					FileWriter fw = new FileWriter(ommImpl.getSourceAsFile());
-					fw.write(xmlDoc);
-					fw.flush(); 
-					fw.close();
-					return true;
+					if (OMMDeltaStore.INCREMENTAL_SAVES) return OMMDeltaStore.save(ommImpl, withToC);
+					return OMMDeltaStore.saveFull(ommImpl, ommImpl.getSourceAsFile(), withToC);
 				}
 				catch(Exception e){ e.printStackTrace(); }
 				break;
@@ -1271,7 +1009,9 @@ public class OMMFactory
 				{
 					if (entity == null) throw new IllegalArgumentException("Given OMMEntity was null!");
 					
-					byte[] payload = xmlDoc.getBytes("UTF-8");
+					ByteArrayOutputStream xmlDoc = new ByteArrayOutputStream();
+					OMMStaxSerializer.write(omm, withToC, xmlDoc);
+					byte[] payload = xmlDoc.toByteArray();
 					
 					/*ByteArrayOutputStream baos = new ByteArrayOutputStream();
 					GZIPOutputStream gos = new GZIPOutputStream(baos);
@@ -1312,25 +1052,11 @@ public class OMMFactory
 	/** Saves a binary memory representation of an OMM to a file,
 	 * using a customly created binary format.
 	 *
-	 * The format is structured as follows:
-	 *
-	 * (- an optional prologue ("OMM") stating that an OMM is saved)
-	 * - complete header information
-	 * - complete owner information
-	 * - all blocks in the memory
-	 *
-	 * To allow any application to read the stored information the data
-	 * structures to be saved are split up into their atomic values.
-	 *
-	 * For example, a header consists of a primary Id and a field for
-	 * additional blocks (both again consisting of type and value each).
-	 *
-	 * Additionally, every atomic item is saved as a pair of values:
-	 * - first one short containing the length of the following information
-	 * - second the information itself converted to bytes
-	 *
-	 * For example, an OMM prologue at the beginning of a file would look
-	 * like this: 3|OMM|...
+	 * The file contains the header, the owner and all blocks of the memory in 
+	 * version 2 of the format, see {@link OMMBinaryFormat}. Files written in 
+	 * version 1 (with short length prefixed fields and String codes) can still be loaded.
+	 * Uncompressed files end with a block offset table, so they can be opened by 
+	 * {@link #loadOMMFromBinaryLazy(File)} and extended by {@link #appendBlocksToBinary(File, Collection)}.
 	 *
 	 * @param omm The {@link OMM} to save.
 	 * @param binFile A {@link File} in which to store the memory.
@@ -1339,77 +1065,27 @@ public class OMMFactory
 	 */
 	public static boolean saveOMMToBinary(OMM omm, File binFile, boolean compressData) {
 
-		// create byte buffer
-		// TODO too big?
-		int estimatedOMMLength= 1024;
-		Collection<OMMBlock> blocks = omm.getAllBlocks();
-		if (blocks != null) {
-			for (OMMBlock b : blocks) {
-				if (b.getPayload() != null) {
-					estimatedOMMLength += b.getPayload().getValue().toString().length() + 1024;
-				}
-			}
-		}
+		// write header, owner and blocks
+		byte[] writeBytes = null;
+		try {
+			ByteArrayOutputStream data = new ByteArrayOutputStream(1024);
+			OMMBinaryFormat.Encoder encoder = OMMBinaryFormat.Encoder.create(data, OMMBinaryFormat.KIND_MEMORY, !compressData);
+			encoder.writeHeader(omm.getHeader());
 
-		ByteBuffer byteBuffer = ByteBuffer.allocate(estimatedOMMLength);
-
-		// save a prologue stating the serialized class (OMM)
-//		byteBuffer.putShort((short) 3);
-//		byteBuffer.put("OMM".getBytes(StandardCharsets.UTF_8));
-
-
-		// write header
-		OMMHeader header = omm.getHeader();
-		TypedValue primaryId = header.getPrimaryID();
-		String type = primaryId.getType();
-		String value = primaryId.getValue().toString();
-		byteBuffer.putShort((short) type.length());
-		byteBuffer.put(type.getBytes(StandardCharsets.UTF_8));
-		byteBuffer.putShort((short) value.length());
-		byteBuffer.put(value.getBytes(StandardCharsets.UTF_8));
-		TypedValue additionalBlocks = header.getAdditionalBlocks();
-		if (additionalBlocks != null) {
-			type = additionalBlocks.getType();
-			value = additionalBlocks.getValue().toString();
-			byteBuffer.putShort((short) type.length());
-			byteBuffer.put(type.getBytes(StandardCharsets.UTF_8));
-			byteBuffer.putShort((short) value.length());
-			byteBuffer.put(value.getBytes(StandardCharsets.UTF_8));
-		}
-		else byteBuffer.putShort((short) 0);
+			String[] primaryIdUrl = omm.getHeader().getPrimaryID().getValue().toString().split("/");
+			String memoryName = primaryIdUrl[primaryIdUrl.length-1];
+			OMMBlock owner = null;
+			try { owner = getOwnerBlockFromOMM(memoryName); }
+			catch (FileNotFoundException e) { e.printStackTrace(); }
+			if (owner != null) encoder.writeOwner(owner);
 
-		// write owner
-		String[] primaryIdUrl = omm.getHeader().getPrimaryID().getValue().toString().split("/");
-		String memoryName = primaryIdUrl[primaryIdUrl.length-1];
-		OMMBlock owner = null;
-		try { owner = getOwnerBlockFromOMM(memoryName); }
-		catch (FileNotFoundException e) { e.printStackTrace(); }
-		if (owner != null) {
-			byteBuffer.putShort((short) "o".length());
-			byteBuffer.put("o".getBytes(StandardCharsets.UTF_8));
-			writeBlockToBinary(byteBuffer, owner, true, true, true, true, true, true, true, true, true);
-			byteBuffer.putShort((short) OMMBlockImpl.NEW_BLOCK_CODE.length());
-			byteBuffer.put(OMMBlockImpl.NEW_BLOCK_CODE.getBytes(StandardCharsets.UTF_8));
-		}
-		else byteBuffer.putShort((short) 0);
-
-		// write blocks
-		Collection<OMMBlock> allBlocks = omm.getAllBlocks();
-		if (allBlocks != null) {
-			byteBuffer.putInt(allBlocks.size());	// write number of blocks
-			for (OMMBlock block : blocks) {         // and blocks themselves
-				writeBlockToBinary(byteBuffer, block, true, true, true, true, true, true, true, true, true);
-				byteBuffer.putShort((short) OMMBlockImpl.NEW_BLOCK_CODE.length());
-				byteBuffer.put(OMMBlockImpl.NEW_BLOCK_CODE.getBytes(StandardCharsets.UTF_8));
+			Collection<OMMBlock> blocks = omm.getAllBlocks();
+			if (blocks != null) {
+				for (OMMBlock block : blocks) encoder.writeBlock(block);
 			}
-		}
-		else byteBuffer.putInt(0); // zero blocks
-
-		// reduce buffer size if possible
-		int contentLength = byteBuffer.position();
-		byte[] writeBytes = new byte[contentLength];
-		byteBuffer.position(0);
-		byteBuffer.get(writeBytes, 0, contentLength);
+			encoder.finish();
+			writeBytes = data.toByteArray();
+		} catch (IOException e) { e.printStackTrace(); return false; }
 
 		// compress buffer content if desired
 		if (compressData) {
@@ -1472,14 +1148,16 @@ public class OMMFactory
 			}
 		}
 
-		// save OMM into file by converting to XML
-		String xmlDoc = OMMXMLConverter.toXMLFileString(omm, withToC);
+		// save OMM into file by streaming its XML representation
+		if (omm instanceof OMMImpl) return OMMDeltaStore.saveFull((OMMImpl)omm, xmlFile, withToC);
 		try
 		{
-			FileWriter fw = new FileWriter(xmlFile);
-			fw.write(xmlDoc);
-			fw.flush(); 
-			fw.close();
+			OutputStream os = new FileOutputStream(xmlFile);
+			try
+			{
+				OMMStaxSerializer.write(omm, withToC, os);
+			}
+			finally { os.close(); }
 			return true;
 		}
 		catch(Exception e){ e.printStackTrace(); }
@@ -40,26 +40,26 @@ public class OMMIdentifierBlockImpl extends OMMBlockImpl implements OMMIdentifie
 		this.m_payloadElement = block.m_payloadElement;
 		this.m_link = block.m_link;
 		this.m_linkHash = block.m_linkHash;
-		this.m_ids = new LinkedList<TypedValue>();
-		updateLocalData();
 	}
 	
 	
 	public Collection<TypedValue> getIdentifier()
 	{
-		return m_ids;
+		return getParsed();
 	}
 
 	public void addIdentifier(TypedValue id)
 	{
-		m_ids.add(id);
+		getParsed().add(id);
 		updatePayload();
+		markDirty();
 	}
 
 	public void removeIdentifier(TypedValue id)
 	{
-		m_ids.remove(id);
+		if (!getParsed().remove(id)) return;
 		updatePayload();
+		markDirty();
 	}
 
 	
@@ -88,10 +88,43 @@ public class OMMIdentifierBlockImpl extends OMMBlockImpl implements OMMIdentifie
 	
 	}
 	
-	/** Private helper method to initialize the identifier list in the block's payload. */
-	private void updateLocalData()
+	/** Private helper method which parses the identifiers from the payload on first access. 
+	 * @return The parsed list. 
+	 */
+	private synchronized LinkedList<TypedValue> getParsed()
 	{
-		if (m_payloadElement == null && m_payload.getValue() instanceof String)
+		if (m_ids == null)
+		{
+			m_ids = new LinkedList<TypedValue>();
+			updateLocalData();
+		}
+		return m_ids;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMBlockImpl#payloadReplaced(boolean)
+	 */
+	@Override
+	protected synchronized void payloadReplaced(boolean element)
+	{
+		if (!element) m_payloadElement = null;
+		m_ids = null;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMBlockImpl#getPayloadElement()
+	 */
+	@Override
+	public synchronized Element getPayloadElement()
+	{
+		parsePayloadString();
+		return m_payloadElement;
+	}
+
+	/** Private helper method which parses the payload value into the payload element, if not done yet. */
+	private void parsePayloadString()
+	{
+		if (m_payloadElement == null && m_payload != null && m_payload.getValue() instanceof String)
 		{
 			String v = (String)m_payload.getValue();
 			try
@@ -99,8 +132,14 @@ public class OMMIdentifierBlockImpl extends OMMBlockImpl implements OMMIdentifie
 				Document doc = OMMXMLConverter.getXmlDocumentFromString(OMMXMLConverter.getInputStreamFromText(v));
 				m_payloadElement = doc.getDocumentElement();				
 			}
-			catch(Exception e){e.printStackTrace(); return;}
+			catch(Exception e){e.printStackTrace();}
 		}
+	}
+
+	/** Private helper method to initialize the identifier list in the block's payload. */
+	private void updateLocalData()
+	{
+		parsePayloadString();
 				
 		if (m_payloadElement != null)
 		{	
@@ -123,7 +162,7 @@ public class OMMIdentifierBlockImpl extends OMMBlockImpl implements OMMIdentifie
 					{
 						Element child = (Element)node;
 						String type = child.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":type");
-						String value = child.getNodeValue();
+						String value = child.getTextContent();
 						
 						TypedValue tv = OMMXMLConverter.getTypedValue(type, value);
 						if (tv != null) m_ids.add(tv);
@@ -7,8 +7,10 @@ import java.net.URL;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Vector;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -21,6 +23,7 @@ import de.dfki.omm.interfaces.OMMBlock;
 import de.dfki.omm.interfaces.OMMHeader;
 import de.dfki.omm.interfaces.OMMToCEntry;
 import de.dfki.omm.tools.OMMActionResultType;
+import de.dfki.omm.tools.OMMMetrics;
 import de.dfki.omm.types.OMMEntity;
 import de.dfki.omm.types.OMMSourceType;
 import de.dfki.omm.types.TypedValue;
@@ -36,6 +39,9 @@ public class OMMImpl implements OMM, Serializable
 	protected OMMSourceType m_sourceType = null;
 	protected transient HashSet<OMMEventListener> m_listener = null;
 	protected transient ExecutorService exService;
+	protected transient LinkedHashSet<String> m_changedBlockIDs = null;
+	protected transient LinkedHashSet<String> m_removedBlockIDs = null;
+	protected transient File m_persistedFile = null;
 	
 	protected OMMImpl() 
 	{	
@@ -298,6 +304,126 @@ public class OMMImpl implements OMM, Serializable
 		return retVal;
 	}
 
+	/** Records that a block has been added or changed since the memory was loaded or saved. 
+	 * Called for every event concerning a block, and by block setters which do not fire events. 
+	 * @param block The changed {@link OMMBlock}. 
+	 */
+	public synchronized void blockChanged(OMMBlock block)
+	{
+		if (block instanceof OMMBlockImpl) ((OMMBlockImpl)block).m_dirty = true;
+		if (m_changedBlockIDs == null) m_changedBlockIDs = new LinkedHashSet<String>();
+		m_changedBlockIDs.add(block.getID());
+	}
+
+	/** Records that a block has been removed since the memory was loaded or saved. 
+	 * @param blockID The ID of the removed block. 
+	 */
+	public synchronized void blockRemoved(String blockID)
+	{
+		if (m_changedBlockIDs != null) m_changedBlockIDs.remove(blockID);
+		if (m_removedBlockIDs == null) m_removedBlockIDs = new LinkedHashSet<String>();
+		m_removedBlockIDs.add(blockID);
+	}
+
+	/** Indicates whether blocks have been added, changed or removed since the memory was loaded or saved. 
+	 * @return True, if there are unsaved changes of blocks. 
+	 */
+	public synchronized boolean isDirty()
+	{
+		return (m_changedBlockIDs != null && !m_changedBlockIDs.isEmpty()) || (m_removedBlockIDs != null && !m_removedBlockIDs.isEmpty());
+	}
+
+	/** Retrieves the IDs of the blocks added or changed since the memory was loaded or saved, in the order of their first change. 
+	 * @return A copy of the IDs. 
+	 */
+	public synchronized List<String> getChangedBlockIDs()
+	{
+		return (m_changedBlockIDs == null) ? new Vector<String>() : new Vector<String>(m_changedBlockIDs);
+	}
+
+	/** Retrieves the IDs of the blocks removed since the memory was loaded or saved. 
+	 * @return A copy of the IDs. 
+	 */
+	public synchronized List<String> getRemovedBlockIDs()
+	{
+		return (m_removedBlockIDs == null) ? new Vector<String>() : new Vector<String>(m_removedBlockIDs);
+	}
+
+	/** Retrieves the IDs of the blocks added, changed or removed since the memory was loaded or saved, and forgets them at once. 
+	 * Blocks which are changed while the retrieved changes are being saved are thus recorded for the next save. 
+	 * If saving fails, the changes have to be handed back by {@link #restoreChanges(Collection, Collection)}. 
+	 * @param changedBlockIDs Receives the IDs of the added or changed blocks, in the order of their first change. 
+	 * @param removedBlockIDs Receives the IDs of the removed blocks. 
+	 */
+	public synchronized void takeChanges(Collection<String> changedBlockIDs, Collection<String> removedBlockIDs)
+	{
+		if (m_changedBlockIDs != null)
+		{
+			for(String blockID : m_changedBlockIDs)
+			{
+				OMMBlock block = m_blocks.get(blockID);
+				if (block instanceof OMMBlockImpl) ((OMMBlockImpl)block).m_dirty = false;
+			}
+			changedBlockIDs.addAll(m_changedBlockIDs);
+			m_changedBlockIDs.clear();
+		}
+		if (m_removedBlockIDs != null)
+		{
+			removedBlockIDs.addAll(m_removedBlockIDs);
+			m_removedBlockIDs.clear();
+		}
+	}
+
+	/** Records changes retrieved by {@link #takeChanges(Collection, Collection)} again after they could not be saved. 
+	 * Changed blocks which have been removed in the meantime stay removed. 
+	 * @param changedBlockIDs IDs of the added or changed blocks. 
+	 * @param removedBlockIDs IDs of the removed blocks. 
+	 */
+	public synchronized void restoreChanges(Collection<String> changedBlockIDs, Collection<String> removedBlockIDs)
+	{
+		if (m_removedBlockIDs == null) m_removedBlockIDs = new LinkedHashSet<String>();
+		m_removedBlockIDs.addAll(removedBlockIDs);
+		for(String blockID : changedBlockIDs)
+		{
+			OMMBlock block = m_blocks.get(blockID);
+			if (block != null) blockChanged(block);
+		}
+	}
+
+	/** Moves a block whose ID has been changed to its new ID, keeping its place in the memory. 
+	 * The change is recorded as removal of the old ID and addition of the block with its new ID. 
+	 * @param oldID The previous ID of the block. 
+	 * @param block The {@link OMMBlock} with its new ID. 
+	 */
+	synchronized void blockIDChanged(String oldID, OMMBlock block)
+	{
+		String newID = block.getID();
+		if (oldID != null && !oldID.equals(newID) && m_blocks.get(oldID) == block && !m_blocks.containsKey(newID))
+		{
+			LinkedHashMap<String, OMMBlock> blocks = new LinkedHashMap<String, OMMBlock>();
+			for(Map.Entry<String, OMMBlock> entry : m_blocks.entrySet())
+			{
+				blocks.put(entry.getValue() == block ? newID : entry.getKey(), entry.getValue());
+			}
+			m_blocks = blocks;
+			blockRemoved(oldID);
+		}
+		blockChanged(block);
+	}
+
+	/** Puts a block into the memory without firing events or tracking a change, replacing a block with the same ID at its place. */
+	void putBlockUnchanged(OMMBlock block)
+	{
+		m_blocks.put(block.getID(), block);
+		((OMMBlockImpl)block).setParentOMM(this);
+	}
+
+	/** Removes a block from the memory without firing events or tracking a change. */
+	void dropBlockUnchanged(String blockID)
+	{
+		m_blocks.remove(blockID);
+	}
+
 	/** Hands an event to the memory's {@link OMMEventListener} (if set). 
 	 * 
 	 * @param event The {@link OMMEvent} to be fired. 
@@ -321,16 +447,30 @@ public class OMMImpl implements OMM, Serializable
 			}			
 		}
 		
+		if (event.block != null)
+		{
+			if (event.type == OMMEventType.BLOCK_REMOVED) blockRemoved(event.block.getID());
+			else blockChanged(event.block);
+		}
+
 		//System.out.println("fireOMMEvent()");
 		
 		for(final OMMEventListener l : m_listener)
 		{
 			System.out.println("OMMEvent to "+l);
+			OMMMetrics.recordEventQueued();
 			exService.execute(new Runnable()
 			{				
 				public void run()
 				{
-					l.eventOccured(event);					
+					try
+					{
+						l.eventOccured(event);
+					}
+					finally
+					{
+						OMMMetrics.recordEventDispatched();
+					}
 				}
 			});			
 		}
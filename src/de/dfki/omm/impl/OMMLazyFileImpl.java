@@ -0,0 +1,369 @@
+package de.dfki.omm.impl;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Vector;
+
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.interfaces.OMMToCEntry;
+import de.dfki.omm.tools.OMMActionResultType;
+import de.dfki.omm.tools.OMMStaxLoader;
+import de.dfki.omm.tools.OMMXMLBlockIndex;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMEntityCollection;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMSourceType;
+import de.dfki.omm.types.OMMSubjectCollection;
+import de.dfki.omm.types.OMMSubjectTagType;
+
+/** Implementation of {@link OMM} for local XML files, which parses only the header when it is opened.
+ * <p>The file is read into a buffer and scanned once for the byte offsets, IDs, namespaces and titles of its blocks, see {@link OMMXMLBlockIndex}.
+ * Blocks are parsed from the buffer when they are requested by {@link #getBlock(String)}, and the table of contents is created from the index.
+ * Methods which need all blocks, such as {@link #getAllBlocks()}, parse the remaining blocks and drop the buffer, see {@link #loadAllBlocks()}.</p>
+ * <p>The file is not mapped, as a mapped file cannot be replaced on some platforms until the mapping is garbage collected,
+ * and it is closed after reading, so it may be overwritten at any time.</p>
+ */
+public class OMMLazyFileImpl extends OMMImpl
+{
+	private static final long serialVersionUID = 1L;
+
+	/** Whether the index is written next to the memory file and reused as long as the file is not modified. */
+	public static boolean PERSIST_INDEX = false;
+	/** Suffix appended to the name of the memory file for its persisted index. */
+	public static final String INDEX_FILE_SUFFIX = ".idx";
+
+	private transient ByteBuffer m_data = null;
+	private transient OMMXMLBlockIndex m_index = null;
+	private transient Map<String, Integer> m_unloaded = null;
+
+	protected OMMLazyFileImpl()
+	{
+		super();
+	}
+
+	/** Opens an OMM from a file containing a memory description in XML format.
+	 * Files which cannot be scanned, for example because they are not encoded in UTF-8, are loaded completely by {@link OMMXMLConverter#loadFromXmlFile(File)}.
+	 * @param xmlFile The {@link File} from which to load.
+	 * @return The opened memory as {@link OMM}, or null if it could not be loaded.
+	 */
+	public static OMM create(File xmlFile)
+	{
+		try
+		{
+			RandomAccessFile raf = new RandomAccessFile(xmlFile, "r");
+			ByteBuffer data = null;
+			try
+			{
+				if (raf.length() > Integer.MAX_VALUE) return OMMXMLConverter.loadFromXmlFile(xmlFile);
+				byte[] bytes = new byte[(int)raf.length()];
+				raf.readFully(bytes);
+				data = ByteBuffer.wrap(bytes);
+			}
+			finally { raf.close(); }
+
+			OMMXMLBlockIndex index = readIndex(xmlFile);
+			if (index == null)
+			{
+				index = OMMXMLBlockIndex.scan(data, true);
+				if (index == null || index.getHeaderStart() < 0) return OMMXMLConverter.loadFromXmlFile(xmlFile);
+				if (PERSIST_INDEX) writeIndex(xmlFile, index);
+			}
+
+			OMMHeader header = OMMStaxLoader.parseHeader(data, index);
+			if (header == null) throw new IllegalArgumentException("xml file is not valid");
+
+			OMMLazyFileImpl omm = new OMMLazyFileImpl();
+			omm.m_header = header;
+			omm.m_blocks = new LinkedHashMap<String, OMMBlock>();
+			omm.m_sourceFile = xmlFile;
+			omm.m_sourceType = OMMSourceType.LocalFile;
+			omm.m_data = data;
+			omm.m_index = index;
+			omm.m_unloaded = new HashMap<String, Integer>();
+			for(int i = 0; i < index.getBlockCount(); i++)
+			{
+				// unloaded blocks keep their place in the memory with a null value
+				omm.m_blocks.put(index.getBlockID(i), null);
+				omm.m_unloaded.put(index.getBlockID(i), i);
+			}
+			return omm;
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/** Retrieves the file the index of a memory file is persisted in.
+	 * @param xmlFile The memory file.
+	 * @return The index {@link File}.
+	 */
+	public static File getIndexFile(File xmlFile)
+	{
+		return new File(xmlFile.getPath() + INDEX_FILE_SUFFIX);
+	}
+
+	private static OMMXMLBlockIndex readIndex(File xmlFile)
+	{
+		File indexFile = getIndexFile(xmlFile);
+		if (!PERSIST_INDEX || !indexFile.exists()) return null;
+		try
+		{
+			InputStream is = new FileInputStream(indexFile);
+			try
+			{
+				OMMXMLBlockIndex index = OMMXMLBlockIndex.read(is, xmlFile.length(), xmlFile.lastModified());
+				return (index != null && index.hasMeta()) ? index : null;
+			}
+			finally { is.close(); }
+		}
+		catch(Exception e)
+		{
+			// an unreadable index is created again
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	private static void writeIndex(File xmlFile, OMMXMLBlockIndex index)
+	{
+		try
+		{
+			OutputStream os = new FileOutputStream(getIndexFile(xmlFile));
+			try
+			{
+				index.write(new BufferedOutputStream(os), xmlFile.length(), xmlFile.lastModified());
+			}
+			finally { os.close(); }
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+	}
+
+	/** Indicates whether a block has been parsed already.
+	 * @param blockID The ID of the block.
+	 * @return True, if the block has been parsed or does not exist.
+	 */
+	public synchronized boolean isBlockLoaded(String blockID)
+	{
+		return m_unloaded == null || !m_unloaded.containsKey(blockID);
+	}
+
+	/** Parses all blocks which have not been requested yet and drops the buffered file.
+	 * Afterwards the memory behaves like a completely loaded one.
+	 */
+	public synchronized void loadAllBlocks()
+	{
+		if (m_unloaded == null) return;
+
+		for(String blockID : new LinkedList<String>(m_blocks.keySet()))
+		{
+			// blocks which cannot be parsed are dropped, as they would be when loading the whole file
+			if (m_blocks.get(blockID) == null && loadBlock(blockID) == null) m_blocks.remove(blockID);
+		}
+		m_unloaded = null;
+		m_index = null;
+		m_data = null;
+	}
+
+	/** Parses a block from the buffered file and puts it at its place in the memory. */
+	private OMMBlock loadBlock(String blockID)
+	{
+		Integer position = m_unloaded.get(blockID);
+		if (position == null) return null;
+		try
+		{
+			OMMBlock block = OMMStaxLoader.parseBlock(m_data, m_index, position);
+			((OMMBlockImpl)block).setParentOMM(this);
+			m_blocks.put(blockID, block);
+			m_unloaded.remove(blockID);
+			return block;
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#putBlockUnchanged(de.dfki.omm.interfaces.OMMBlock)
+	 */
+	@Override
+	synchronized void putBlockUnchanged(OMMBlock block)
+	{
+		if (m_unloaded != null) m_unloaded.remove(block.getID());
+		super.putBlockUnchanged(block);
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#dropBlockUnchanged(java.lang.String)
+	 */
+	@Override
+	synchronized void dropBlockUnchanged(String blockID)
+	{
+		if (m_unloaded != null) m_unloaded.remove(blockID);
+		super.dropBlockUnchanged(blockID);
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#getBlock(java.lang.String)
+	 */
+	@Override
+	public synchronized OMMBlock getBlock(String blockID)
+	{
+		if (!m_blocks.containsKey(blockID)) return null;
+
+		OMMBlock block = m_blocks.get(blockID);
+		if (block == null && m_unloaded != null) block = loadBlock(blockID);
+		return block;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#getAllBlocks()
+	 */
+	@Override
+	public synchronized Collection<OMMBlock> getAllBlocks()
+	{
+		loadAllBlocks();
+		return super.getAllBlocks();
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#getAllBlockIDs()
+	 */
+	@Override
+	public synchronized List<String> getAllBlockIDs()
+	{
+		return new Vector<String>(m_blocks.keySet());
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#getTableOfContents()
+	 */
+	@Override
+	public synchronized Collection<OMMToCEntry> getTableOfContents()
+	{
+		Collection<OMMToCEntry> toc = new LinkedList<OMMToCEntry>();
+		for(Map.Entry<String, OMMBlock> entry : m_blocks.entrySet())
+		{
+			Integer position = (m_unloaded != null) ? m_unloaded.get(entry.getKey()) : null;
+			if (position != null && m_index.isBlockMetaComplete(position))
+				toc.add(new IndexedToCEntry(this, entry.getKey(), m_index.getBlockNamespace(position), m_index.getBlockTitle(position)));
+			else
+				toc.add(getBlock(entry.getKey()));
+		}
+		return toc;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#addBlock(de.dfki.omm.interfaces.OMMBlock, de.dfki.omm.types.OMMEntity)
+	 */
+	@Override
+	public synchronized OMMActionResultType addBlock(OMMBlock block, OMMEntity entity)
+	{
+		return super.addBlock(block, entity);
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#addBlockWithoutChanges(de.dfki.omm.interfaces.OMMBlock, de.dfki.omm.types.OMMEntity)
+	 */
+	@Override
+	public synchronized OMMActionResultType addBlockWithoutChanges(OMMBlock block, OMMEntity entity)
+	{
+		return super.addBlockWithoutChanges(block, entity);
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#removeBlock(java.lang.String, de.dfki.omm.types.OMMEntity)
+	 */
+	@Override
+	public synchronized OMMActionResultType removeBlock(String blockID, OMMEntity entity)
+	{
+		// the removal event carries the block
+		getBlock(blockID);
+		return super.removeBlock(blockID, entity);
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMImpl#toString()
+	 */
+	@Override
+	public synchronized String toString()
+	{
+		loadAllBlocks();
+		return super.toString();
+	}
+
+	/** Loads all blocks before the memory is serialized, as the buffered file is not. */
+	private Object writeReplace()
+	{
+		loadAllBlocks();
+		return this;
+	}
+
+	/** An entry of the table of contents of a block which has not been parsed yet.
+	 * ID, namespace and titles are taken from an index, all other meta data are retrieved by parsing the block.
+	 */
+	static class IndexedToCEntry implements OMMToCEntry
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final OMM m_omm;
+		private final String m_id;
+		private final String m_namespace;
+		private final OMMMultiLangText m_title;
+
+		public IndexedToCEntry(OMM omm, String id, String namespace, OMMMultiLangText title)
+		{
+			m_omm = omm;
+			m_id = id;
+			m_namespace = namespace;
+			m_title = title;
+		}
+
+		public String getID() { return m_id; }
+
+		public void setID(String id) { m_omm.getBlock(m_id).setID(id); }
+
+		public URI getNamespace() { return (m_namespace == null) ? null : URI.create(m_namespace); }
+
+		public OMMMultiLangText getTitle() { return m_title; }
+
+		public String getTitle(Locale language)
+		{
+			if (m_title.containsKey(language)) return m_title.get(language);
+			return null;
+		}
+
+		public OMMEntity getCreator() { return m_omm.getBlock(m_id).getCreator(); }
+
+		public OMMEntityCollection getContributors() { return m_omm.getBlock(m_id).getContributors(); }
+
+		public OMMSubjectCollection getSubject() { return m_omm.getBlock(m_id).getSubject(); }
+
+		public boolean isSubjectPresent(OMMSubjectTagType type, String value) { return m_omm.getBlock(m_id).isSubjectPresent(type, value); }
+
+		public String toString() { return m_omm.getBlock(m_id).toString(); }
+	}
+}
@@ -1,7 +1,10 @@
 package de.dfki.omm.impl;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -17,7 +20,24 @@ import de.dfki.omm.types.OMMSemanticsInfo;
 /** Implementation of {@link OMMSemanticsBlock}. */
 public class OMMSemanticsBlockImpl extends OMMBlockImpl implements OMMSemanticsBlock
 {
+	/** Receives the semantics groups added to or removed from a block, synchronously with the change. */
+	public interface SemanticsListener
+	{
+		/** Called after a semantics group has been added to a block. 
+		 * @param block The changed block. 
+		 * @param group The added {@link OMMSemanticsGroup}. 
+		 */
+		void semanticsGroupAdded(OMMSemanticsBlock block, OMMSemanticsGroup group);
+
+		/** Called after a semantics group has been removed from a block. 
+		 * @param block The changed block. 
+		 * @param group The removed {@link OMMSemanticsGroup}. 
+		 */
+		void semanticsGroupRemoved(OMMSemanticsBlock block, OMMSemanticsGroup group);
+	}
+
 	LinkedList<OMMSemanticsGroup> m_semantics = null;
+	protected transient List<SemanticsListener> m_semanticsListeners = null;
 	
 	@SuppressWarnings("unused")
 	private OMMSemanticsBlockImpl() 
@@ -31,6 +51,7 @@ public class OMMSemanticsBlockImpl extends OMMBlockImpl implements OMMSemanticsB
 	public OMMSemanticsBlockImpl(OMMBlockImpl block)
 	{
 		this.m_ID = block.m_ID;
+		this.m_primaryID = block.m_primaryID;
 		this.m_namespace = block.m_namespace;
 		this.m_type = block.m_type;
 		this.m_title = block.m_title;
@@ -39,36 +60,90 @@ public class OMMSemanticsBlockImpl extends OMMBlockImpl implements OMMSemanticsB
 		this.m_creator = block.m_creator;
 		this.m_format = block.m_format;
 		this.m_subject = block.m_subject;
+		this.m_previousBlock = block.m_previousBlock;
 		this.m_payload = block.m_payload;
 		this.m_payloadElement = block.m_payloadElement;
 		this.m_link = block.m_link;
 		this.m_linkHash = block.m_linkHash;
-		this.m_semantics = new LinkedList<OMMSemanticsGroup>();
-		updateLocalData();
 	}
 
 	
 	public Collection<OMMSemanticsGroup> getSemanticGroups()
 	{
-		return m_semantics;
+		return getParsed();
 	}
 
 	public void addSemanticsGroup(OMMSemanticsGroup group)
 	{
-		m_semantics.add(group);
+		getParsed().add(group);
 		updatePayload();
+		markDirty();
+		if (m_semanticsListeners != null) for(SemanticsListener l : m_semanticsListeners) l.semanticsGroupAdded(this, group);
 	}
 
 	public void removeSemanticsGroup(OMMSemanticsGroup group)
 	{
-		m_semantics.remove(group);
+		if (!getParsed().remove(group)) return;
 		updatePayload();
+		markDirty();
+		if (m_semanticsListeners != null) for(SemanticsListener l : m_semanticsListeners) l.semanticsGroupRemoved(this, group);
 	}
 
-	/** Private helper method to initialize the {@link OMMSemanticsGroup} representation in the block's payload. */
-	private void updateLocalData()
+	/** Adds a listener which is informed about added and removed semantics groups. 
+	 * Changes made to a group after it has been added are not reported. 
+	 * @param listener The {@link SemanticsListener} to add. 
+	 */
+	public synchronized void addSemanticsListener(SemanticsListener listener)
+	{
+		if (m_semanticsListeners == null) m_semanticsListeners = new CopyOnWriteArrayList<SemanticsListener>();
+		m_semanticsListeners.add(listener);
+	}
+
+	/** Removes a listener added by {@link #addSemanticsListener(SemanticsListener)}. 
+	 * @param listener The {@link SemanticsListener} to remove. 
+	 */
+	public synchronized void removeSemanticsListener(SemanticsListener listener)
+	{
+		if (m_semanticsListeners != null) m_semanticsListeners.remove(listener);
+	}
+
+	/** Private helper method which parses the semantics groups from the payload on first access. 
+	 * @return The parsed list. 
+	 */
+	private synchronized LinkedList<OMMSemanticsGroup> getParsed()
+	{
+		if (m_semantics == null)
+		{
+			m_semantics = new LinkedList<OMMSemanticsGroup>();
+			updateLocalData();
+		}
+		return m_semantics;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMBlockImpl#payloadReplaced(boolean)
+	 */
+	@Override
+	protected synchronized void payloadReplaced(boolean element)
+	{
+		if (!element) m_payloadElement = null;
+		m_semantics = null;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMBlockImpl#getPayloadElement()
+	 */
+	@Override
+	public synchronized Element getPayloadElement()
+	{
+		parsePayloadString();
+		return m_payloadElement;
+	}
+
+	/** Private helper method which parses the payload value into the payload element, if not done yet. */
+	private void parsePayloadString()
 	{
-		if (m_payloadElement == null && m_payload.getValue() instanceof String)
+		if (m_payloadElement == null && m_payload != null && m_payload.getValue() instanceof String)
 		{
 			String v = (String)m_payload.getValue();
 			v = "<omm:payload xmlns:omm=\"http://www.w3.org/2005/Incubator/omm/elements/1.0/\">"+v+"</omm:payload>";
@@ -77,60 +152,24 @@ public class OMMSemanticsBlockImpl extends OMMBlockImpl implements OMMSemanticsB
 				Document doc = OMMXMLConverter.getXmlDocumentFromString(OMMXMLConverter.getInputStreamFromText(v));
 				m_payloadElement = doc.getDocumentElement();				
 			}
-			catch(Exception e){e.printStackTrace(); return;}
+			catch(Exception e){e.printStackTrace();}
 		}
+	}
+
+	/** Private helper method to initialize the {@link OMMSemanticsGroup} representation in the block's payload. */
+	private void updateLocalData()
+	{
+		parsePayloadString();
 		
-		if (m_payloadElement != null)// && (m_payload.getType() == null || m_payload.getType().equals("none")))
+		if (m_payloadElement != null)
 		{	
 			try
 			{
-				Element root = m_payloadElement;// doc.getRootElement();
+				Element root = m_payloadElement;
 				
-				if (root.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":payload"))
-				{					
-					
-					NodeList nl = root.getChildNodes();
-					for(int i = 0; i < nl.getLength(); i++)					
-					{
-						Node objRoot = nl.item(i);
-						
-						if (!objRoot.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":semantic")) throw new IllegalArgumentException("invalid XML file!");
-						
-						OMMSemanticsGroup infoList = new OMMSemanticsGroup();
-						
-						NodeList nlChild = objRoot.getChildNodes();
-						for(int k = 0; k < nlChild.getLength(); k++)					
-						{
-							Node objChild = nlChild.item(i);
-							
-							if (objChild instanceof Element && objChild.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":semanticInformation"))
-							{
-								Element child = (Element)objChild;
-								OMMSemanticsInfo info = getSemanticsInformation(child);
-								infoList.add(info);
-							}
-						}
-						
-						m_semantics.add(infoList);
-					}
-				}
-				else if (!root.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":semantic")) throw new IllegalArgumentException("invalid XML file!");
+				if (!root.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":payload") && !root.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":semantic")) throw new IllegalArgumentException("invalid XML file!");
 				
-				OMMSemanticsGroup infoList = new OMMSemanticsGroup();
-				
-				
-				NodeList nlChild = root.getChildNodes();
-				for(int k = 0; k < nlChild.getLength(); k++)					
-				{
-					Node objChild = nlChild.item(k);
-					
-					if (objChild instanceof Element && objChild.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":semanticInformation"))
-					{
-						Element child = (Element)objChild;
-						OMMSemanticsInfo info = getSemanticsInformation(child);
-						infoList.add(info);
-					}
-				}											
+				readSemanticsGroups(root);
 			}
 			catch (Exception e)
 			{
@@ -139,6 +178,37 @@ public class OMMSemanticsBlockImpl extends OMMBlockImpl implements OMMSemanticsB
 		}
 	}
 	
+	/** Private helper method to read the semantics groups below an element. 
+	 * Each omm:semantic element holding semantic information forms one group, omm:semantic elements may be nested. 
+	 * @param parent The XML element containing groups or semantic information. 
+	 */
+	private void readSemanticsGroups(Element parent)
+	{
+		OMMSemanticsGroup group = null;
+		
+		NodeList nl = parent.getChildNodes();
+		for(int i = 0; i < nl.getLength(); i++)
+		{
+			Node node = nl.item(i);
+			if (!(node instanceof Element)) continue;
+			
+			if (node.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":semantic"))
+			{
+				readSemanticsGroups((Element)node);
+			}
+			else if (node.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":semanticInformation"))
+			{
+				if (group == null)
+				{
+					group = new OMMSemanticsGroup();
+					m_semantics.add(group);
+				}
+				group.add(getSemanticsInformation((Element)node));
+			}
+			else throw new IllegalArgumentException("invalid XML file!");
+		}
+	}
+	
 	
 	/** Private helper method to read semantic information from an XML representation. 
 	 * @param root The XML element containing the semantic information. 
@@ -151,42 +221,45 @@ public class OMMSemanticsBlockImpl extends OMMBlockImpl implements OMMSemanticsB
 		OMMSemanticsInfo info = null;
 		String object = null, relation = null, subject = "[this]";
 		
-		Element subjElement = OMMXMLConverter.findChild(root, "subject");
+		Element subjElement = OMMXMLConverter.findChild(root, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":subject");
 		if (subjElement != null)
 		{
-			subject = subjElement.getNodeValue();
+			subject = subjElement.getTextContent();
 		}
 		
-		Element relElement = OMMXMLConverter.findChild(root, "relation");
+		Element relElement = OMMXMLConverter.findChild(root, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":relation");
 		if (relElement != null)
 		{
-			relation = relElement.getNodeValue();
+			relation = relElement.getTextContent();
 		}
 
-		Element objElement = OMMXMLConverter.findChild(root, "object");
+		Element objElement = OMMXMLConverter.findChild(root, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":object");
 		if (objElement != null)
 		{
-			object = objElement.getNodeValue();
+			object = objElement.getTextContent();
 		}
 
 		
-		Element dateElement = OMMXMLConverter.findChild(root, "date");
+		Element dateElement = OMMXMLConverter.findChild(root, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":date");
+		Element spanElement = OMMXMLConverter.findChild(root, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":timeSpan");
 		
 		if (dateElement != null)
 		{
-			String date = OMMXMLConverter.getISO8601String(dateElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding"), dateElement.getNodeValue());
+			String date = OMMXMLConverter.getISO8601String(dateElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding"), dateElement.getTextContent());
 			
 			info = new OMMSemanticsInfo(subject, relation, object, ISO8601.parseDate(date).getTime());	
 		}
+		else if (spanElement == null)
+		{
+			info = new OMMSemanticsInfo(subject, relation, object, (Date)null);
+		}
 		else
 		{
-			Element spanElement = OMMXMLConverter.findChild(dateElement, "timeSpan");
-			
-			Element beginElement = OMMXMLConverter.findChild(spanElement, "begin");
-			Element endElement = OMMXMLConverter.findChild(spanElement, "end");
+			Element beginElement = OMMXMLConverter.findChild(spanElement, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":begin");
+			Element endElement = OMMXMLConverter.findChild(spanElement, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":end");
 			
-			String startDate = OMMXMLConverter.getISO8601String(beginElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding"), beginElement.getNodeValue());
-			String endDate = OMMXMLConverter.getISO8601String(endElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding"), endElement.getNodeValue());
+			String startDate = OMMXMLConverter.getISO8601String(beginElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding"), beginElement.getTextContent());
+			String endDate = OMMXMLConverter.getISO8601String(endElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding"), endElement.getTextContent());
 			
 			info = new OMMSemanticsInfo(subject, relation, object, ISO8601.parseDate(startDate).getTime(), ISO8601.parseDate(endDate).getTime());
 		}
@@ -209,7 +282,6 @@ public class OMMSemanticsBlockImpl extends OMMBlockImpl implements OMMSemanticsB
 		
 			for(OMMSemanticsInfo info : group)
 			{
-				System.out.println("size = " + m_semantics.size());
 				Element eSI = OMMXMLConverter.createXmlElement(doc, "semanticInformation", OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
 				
 				if (info.getEndDate() != null)
@@ -231,7 +303,7 @@ public class OMMSemanticsBlockImpl extends OMMBlockImpl implements OMMSemanticsB
 					
 					eSI.appendChild(timeSpan);
 				}
-				else
+				else if (info.getStartDate() != null)
 				{
 					Element date = OMMXMLConverter.createXmlElement(doc, "date", OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
 					date.setAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding", "ISO8601");
@@ -260,7 +332,6 @@ public class OMMSemanticsBlockImpl extends OMMBlockImpl implements OMMSemanticsB
 			m_payloadElement.appendChild(eS);
 		}
 		
-		System.out.println("size after = " + m_semantics.size());
 		/*XMLOutputter out = new XMLOutputter();
 		out.setFormat(Format.getPrettyFormat());
 		StringWriter sw = new StringWriter();
@@ -1,7 +1,10 @@
 package de.dfki.omm.impl;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
@@ -19,7 +22,24 @@ import de.dfki.omm.types.TypedValue;
  * A structure block allows the definition of relationships between itself and others, as specified in an {@link OMMStructureInfo}. */
 public class OMMStructureBlockImpl extends OMMBlockImpl implements OMMStructureBlock
 {
+	/** Receives the structure information added to or removed from a block, synchronously with the change. */
+	public interface StructureListener
+	{
+		/** Called after structure information has been added to a block. 
+		 * @param block The changed block. 
+		 * @param info The added {@link OMMStructureInfo}. 
+		 */
+		void structureInfoAdded(OMMStructureBlock block, OMMStructureInfo info);
+
+		/** Called after structure information has been removed from a block. 
+		 * @param block The changed block. 
+		 * @param info The removed {@link OMMStructureInfo}. 
+		 */
+		void structureInfoRemoved(OMMStructureBlock block, OMMStructureInfo info);
+	}
+
 	LinkedList<OMMStructureInfo> m_structureInfos = null;
+	protected transient List<StructureListener> m_structureListeners = null;
 	
 	@SuppressWarnings("unused")
 	private OMMStructureBlockImpl() 
@@ -47,8 +67,6 @@ public class OMMStructureBlockImpl extends OMMBlockImpl implements OMMStructureB
 		this.m_payloadElement = block.m_payloadElement;
 		this.m_link = block.m_link;
 		this.m_linkHash = block.m_linkHash;
-		this.m_structureInfos = new LinkedList<OMMStructureInfo>();
-		updateLocalData();
 	}
 
 	
@@ -57,7 +75,7 @@ public class OMMStructureBlockImpl extends OMMBlockImpl implements OMMStructureB
 	 */
 	public Collection<OMMStructureInfo> getStructureInfos()
 	{
-		return m_structureInfos;
+		return getParsed();
 	}
 
 	/* (non-Javadoc)
@@ -67,7 +85,7 @@ public class OMMStructureBlockImpl extends OMMBlockImpl implements OMMStructureB
 	{
 		LinkedList<OMMStructureInfo> retVal = new LinkedList<OMMStructureInfo>();
 		
-		for(OMMStructureInfo info : m_structureInfos)
+		for(OMMStructureInfo info : getParsed())
 		{
 			if (info.getRelationType() == relationType) retVal.add(info);
 		}
@@ -80,8 +98,10 @@ public class OMMStructureBlockImpl extends OMMBlockImpl implements OMMStructureB
 	 */
 	public void addStructureInfo(OMMStructureInfo info)
 	{
-		m_structureInfos.add(info);
+		getParsed().add(info);
 		updatePayload();
+		markDirty();
+		if (m_structureListeners != null) for(StructureListener l : m_structureListeners) l.structureInfoAdded(this, info);
 	}
 
 	/* (non-Javadoc)
@@ -89,14 +109,66 @@ public class OMMStructureBlockImpl extends OMMBlockImpl implements OMMStructureB
 	 */
 	public void removeStructureInfo(OMMStructureInfo info)
 	{
-		m_structureInfos.remove(info);
+		if (!getParsed().remove(info)) return;
 		updatePayload();
+		markDirty();
+		if (m_structureListeners != null) for(StructureListener l : m_structureListeners) l.structureInfoRemoved(this, info);
 	}
 
-	/** Private helper method to initialize the {@link OMMStructureInfo} representation in the block's payload. */
-	private void updateLocalData()
+	/** Adds a listener which is informed about added and removed structure information. 
+	 * @param listener The {@link StructureListener} to add. 
+	 */
+	public synchronized void addStructureListener(StructureListener listener)
+	{
+		if (m_structureListeners == null) m_structureListeners = new CopyOnWriteArrayList<StructureListener>();
+		m_structureListeners.add(listener);
+	}
+
+	/** Removes a listener added by {@link #addStructureListener(StructureListener)}. 
+	 * @param listener The {@link StructureListener} to remove. 
+	 */
+	public synchronized void removeStructureListener(StructureListener listener)
+	{
+		if (m_structureListeners != null) m_structureListeners.remove(listener);
+	}
+
+	/** Private helper method which parses the structure information from the payload on first access. 
+	 * @return The parsed list. 
+	 */
+	private synchronized LinkedList<OMMStructureInfo> getParsed()
+	{
+		if (m_structureInfos == null)
+		{
+			m_structureInfos = new LinkedList<OMMStructureInfo>();
+			updateLocalData();
+		}
+		return m_structureInfos;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMBlockImpl#payloadReplaced(boolean)
+	 */
+	@Override
+	protected synchronized void payloadReplaced(boolean element)
+	{
+		if (!element) m_payloadElement = null;
+		m_structureInfos = null;
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.impl.OMMBlockImpl#getPayloadElement()
+	 */
+	@Override
+	public synchronized Element getPayloadElement()
 	{
-		if (m_payloadElement == null && m_payload.getValue() instanceof String)
+		parsePayloadString();
+		return m_payloadElement;
+	}
+
+	/** Private helper method which parses the payload value into the payload element, if not done yet. */
+	private void parsePayloadString()
+	{
+		if (m_payloadElement == null && m_payload != null && m_payload.getValue() instanceof String)
 		{
 			String v = (String)m_payload.getValue();
 			try
@@ -104,8 +176,14 @@ public class OMMStructureBlockImpl extends OMMBlockImpl implements OMMStructureB
 				Document doc = OMMXMLConverter.getXmlDocumentFromString(OMMXMLConverter.getInputStreamFromText(v));
 				m_payloadElement = doc.getDocumentElement();				
 			}
-			catch(Exception e){e.printStackTrace(); return;}
+			catch(Exception e){e.printStackTrace();}
 		}
+	}
+
+	/** Private helper method to initialize the {@link OMMStructureInfo} representation in the block's payload. */
+	private void updateLocalData()
+	{
+		parsePayloadString();
 		
 		if (m_payloadElement != null)// && (m_payload.getType() == null || m_payload.getType().equals("none")))
 		{	
@@ -165,27 +243,31 @@ public class OMMStructureBlockImpl extends OMMBlockImpl implements OMMStructureB
 		if (relElement != null)
 		{
 			String relation = relElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":relationType");
-			relationTarget = OMMXMLConverter.getTypedValue(relElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":type"), relElement.getNodeValue());
+			relationTarget = OMMXMLConverter.getTypedValue(relElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":type"), relElement.getTextContent());
 			relationType = OMMStructureRelation.valueOf(relation);
 		}
 		
 		Element dateElement = OMMXMLConverter.findChild(root, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":date");
+		Element spanElement = OMMXMLConverter.findChild(root, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":timeSpan");
 		
 		if (dateElement != null)
 		{
-			String date = OMMXMLConverter.getISO8601String(dateElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding"), dateElement.getNodeValue());
+			String date = OMMXMLConverter.getISO8601String(dateElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding"), dateElement.getTextContent());
 			
 			info = new OMMStructureInfo(relationType, relationTarget, ISO8601.parseDate(date).getTime());	
 		}
+		else if (spanElement == null)
+		{
+			info = new OMMStructureInfo(relationType, relationTarget, (Date)null);
+		}
 		else
 		{
-			Element spanElement = OMMXMLConverter.findChild(dateElement, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":timeSpan");
 			
 			Element beginElement = OMMXMLConverter.findChild(spanElement, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":begin");
 			Element endElement = OMMXMLConverter.findChild(spanElement, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":end");
 			
-			String startDate = OMMXMLConverter.getISO8601String(beginElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding"), beginElement.getNodeValue());
-			String endDate = OMMXMLConverter.getISO8601String(endElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding"), endElement.getNodeValue());
+			String startDate = OMMXMLConverter.getISO8601String(beginElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding"), beginElement.getTextContent());
+			String endDate = OMMXMLConverter.getISO8601String(endElement.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding"), endElement.getTextContent());
 			
 			info = new OMMStructureInfo(relationType, relationTarget, ISO8601.parseDate(startDate).getTime(), ISO8601.parseDate(endDate).getTime());
 		}
@@ -204,7 +286,6 @@ public class OMMStructureBlockImpl extends OMMBlockImpl implements OMMStructureB
 		
 		for(OMMStructureInfo info : m_structureInfos)
 		{
-			System.out.println("size = " + m_structureInfos.size());
 			Element eSI = OMMXMLConverter.createXmlElement(doc, "structureInformation", OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
 			
 			if (info.getEndDate() != null)
@@ -226,7 +307,7 @@ public class OMMStructureBlockImpl extends OMMBlockImpl implements OMMStructureB
 				
 				eSI.appendChild(timeSpan);
 			}
-			else
+			else if (info.getStartDate() != null)
 			{
 				Element date = OMMXMLConverter.createXmlElement(doc, "date", OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
 				date.setAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":encoding", "ISO8601");
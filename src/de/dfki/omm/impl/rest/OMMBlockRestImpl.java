@@ -3,27 +3,20 @@
  */
 package de.dfki.omm.impl.rest;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
-import java.io.StringReader;
-import java.net.MalformedURLException;
 import java.net.URI;
-import java.net.URISyntaxException;
 import java.net.URL;
 import java.util.*;
 import java.util.Map.Entry;
 
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
-
 import org.json.JSONObject;
+import org.restlet.data.MediaType;
+import org.restlet.data.Status;
 import org.restlet.representation.Representation;
 import org.restlet.resource.ClientResource;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
-import org.xml.sax.InputSource;
-import org.xml.sax.XMLReader;
 
 import de.dfki.omm.acl.OMSCredentials;
 import de.dfki.omm.impl.OMMAttributeListBlockImpl;
@@ -35,12 +28,15 @@ import de.dfki.omm.interfaces.OMMBlock;
 import de.dfki.omm.interfaces.OMMIdentifierBlock;
 import de.dfki.omm.interfaces.OMMSemanticsBlock;
 import de.dfki.omm.interfaces.OMMStructureBlock;
-import de.dfki.omm.tools.OMMBlockSaxHandler;
+import de.dfki.omm.tools.OMMActionResultType;
+import de.dfki.omm.tools.OMMMetrics;
 import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.tools.RestCompression;
 import de.dfki.omm.types.GenericTypedValue;
 import de.dfki.omm.types.OMMEntity;
 import de.dfki.omm.types.OMMEntityCollection;
 import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMetaAttribute;
 import de.dfki.omm.types.OMMMultiLangText;
 import de.dfki.omm.types.OMMPreviousBlockLink;
 import de.dfki.omm.types.OMMRestAccessMode;
@@ -59,9 +55,14 @@ public class OMMBlockRestImpl implements OMMBlock {
 	protected OMMRestImpl parentOMM = null;
 	protected OMMRestAccessMode mode;
 	protected OMMBlockImpl shadowBlock = null;
+	protected OMMBlockImpl typedView = null;
+	protected OMMBlockImpl typedViewSource = null;
+	protected long typedViewSourceRevision = 0;
+	protected long typedViewRevision = 0;
+	protected String typedViewPayload = null;
 	protected Long lastAccess = 0L;
 	
-	protected Map<String, Map.Entry<Long, Document>> cache = lruCache(8);
+	protected Map<String, Map.Entry<Long, Document>> cache = Collections.synchronizedMap(OMMBlockRestImpl.<String, Map.Entry<Long, Document>>lruCache(8));
 
 	/** Constructor. 
 	 * @param id The block's ID. 
@@ -76,10 +77,27 @@ public class OMMBlockRestImpl implements OMMBlock {
 		this.mode = mode;
 	}
 	
+	/** Creates a block whose contents are read from the local replica of its memory, see {@link OMMRestAccessMode#LocalMirror}.
+	 * Changes are still sent to the OMS. 
+	 * @param id The block's ID. 
+	 * @param url The address to the block's containing OMM's storage node. 
+	 * @param parent The block's parent {@link OMMRestImpl}. 
+	 * @param replica The block as found in the replica. 
+	 */
+	public OMMBlockRestImpl(String id, String url, OMMRestImpl parent, OMMBlockImpl replica) {
+		this(id, url, OMMRestAccessMode.LocalMirror, parent);
+		this.shadowBlock = replica;
+		this.lastAccess = new GregorianCalendar().getTime().getTime();
+	}
+	
 	/** Deletes the internal {@link OMMBlockImpl} used to store the block's contents, forcing a reload on the next access. */
 	public void invalidateCache()
 	{
 		shadowBlock = null; 
+		typedView = null;
+		typedViewSource = null;
+		cache.clear();
+		parentOMM.getBlockMetaCache().invalidate(this.id);
 	}
 	
 	/** Retrieves the block and converts it if necessary.
@@ -88,12 +106,7 @@ public class OMMBlockRestImpl implements OMMBlock {
 	 */
 	public OMMIdentifierBlock getAsIdentifierBlock() throws Exception
 	{
-		if (mode == OMMRestAccessMode.SingleAccess) throw new Exception("Conversion not available with SingleAccess mode!");
-		
-		UpdateShadowBlock();
-		((OMMBlockImpl)shadowBlock).setPayload(getPayload(), OMMEntity.getDummyEntity());
-		
-		return new OMMIdentifierBlockImpl((OMMBlockImpl)shadowBlock);
+		return (OMMIdentifierBlock)getTypedView(OMMIdentifierBlockImpl.class);
 	}
 	
 	/** Retrieves the block and converts it if necessary.
@@ -102,12 +115,7 @@ public class OMMBlockRestImpl implements OMMBlock {
 	 */
 	public OMMStructureBlock getAsStructureBlock() throws Exception
 	{
-		if (mode == OMMRestAccessMode.SingleAccess) throw new Exception("Conversion not available with SingleAccess mode!");
-		
-		UpdateShadowBlock();
-		((OMMBlockImpl)shadowBlock).setPayload(getPayload(), OMMEntity.getDummyEntity());
-		
-		return new OMMStructureBlockImpl((OMMBlockImpl)shadowBlock);
+		return (OMMStructureBlock)getTypedView(OMMStructureBlockImpl.class);
 	}
 	
 	/** Retrieves the block and converts it if necessary.
@@ -116,12 +124,7 @@ public class OMMBlockRestImpl implements OMMBlock {
 	 */
 	public OMMSemanticsBlock getAsSemanticsBlock() throws Exception
 	{
-		if (mode == OMMRestAccessMode.SingleAccess) throw new Exception("Conversion not available with SingleAccess mode!");
-		
-		UpdateShadowBlock();
-		((OMMBlockImpl)shadowBlock).setPayload(getPayload(), OMMEntity.getDummyEntity());
-		
-		return new OMMSemanticsBlockImpl((OMMBlockImpl)shadowBlock);
+		return (OMMSemanticsBlock)getTypedView(OMMSemanticsBlockImpl.class);
 	}
 	
 	/** Retrieves the block and converts it if necessary.
@@ -129,15 +132,52 @@ public class OMMBlockRestImpl implements OMMBlock {
 	 * @throws Exception If conversion is attempted in SingleAccess mode.
 	 */
 	public OMMAttributeListBlockImpl getAsAttibuteBlock() throws Exception
+	{
+		return (OMMAttributeListBlockImpl)getTypedView(OMMAttributeListBlockImpl.class);
+	}
+	
+	/** Retrieves the typed view of the block, reusing the last one as long as neither the shadow block, 
+	 * its payload nor the view itself were changed in between.
+	 * @param viewClass The class of the typed view.
+	 * @return The typed view.
+	 * @throws Exception If conversion is attempted in SingleAccess mode.
+	 */
+	protected synchronized OMMBlockImpl getTypedView(Class<? extends OMMBlockImpl> viewClass) throws Exception
 	{
 		if (mode == OMMRestAccessMode.SingleAccess) throw new Exception("Conversion not available with SingleAccess mode!");
 		
 		UpdateShadowBlock();
-		((OMMBlockImpl)shadowBlock).setPayload(getPayload(), OMMEntity.getDummyEntity());
+		TypedValue payload = null;
+		String payloadValue = null;
+		if (mode != OMMRestAccessMode.LocalMirror) 
+		{
+			payload = getPayload();
+			payloadValue = String.valueOf(payload.getValue());
+		}
 		
-		return new OMMAttributeListBlockImpl((OMMBlockImpl)shadowBlock);
+		if (typedView != null && typedView.getClass() == viewClass && typedViewSource == shadowBlock 
+				&& typedViewSourceRevision == shadowBlock.getRevision() && typedViewRevision == typedView.getRevision()
+				&& (payloadValue == null || payloadValue.equals(typedViewPayload)))
+		{
+			return typedView;
+		}
+		
+		if (payload != null) shadowBlock.setPayload(payload, OMMEntity.getDummyEntity());
+		
+		OMMBlockImpl view;
+		if (viewClass == OMMIdentifierBlockImpl.class) view = new OMMIdentifierBlockImpl(shadowBlock);
+		else if (viewClass == OMMStructureBlockImpl.class) view = new OMMStructureBlockImpl(shadowBlock);
+		else if (viewClass == OMMSemanticsBlockImpl.class) view = new OMMSemanticsBlockImpl(shadowBlock);
+		else view = new OMMAttributeListBlockImpl(shadowBlock);
+		
+		typedView = view;
+		typedViewSource = shadowBlock;
+		typedViewSourceRevision = shadowBlock.getRevision();
+		typedViewRevision = view.getRevision();
+		typedViewPayload = payloadValue;
+		return view;
 	}
-
+	
 	/** Retrieves the shadowBblock as a regular OMMBlockImpl.
 	 * @return The block as {@link OMMBlockImpl}.
 	 * @throws Exception If conversion is attempted in SingleAccess mode.
@@ -145,6 +185,7 @@ public class OMMBlockRestImpl implements OMMBlock {
 	public OMMBlockImpl getAsRegularBlock()	{
 
 		UpdateShadowBlock();
+		if (mode == OMMRestAccessMode.LocalMirror) return shadowBlock; // already contains the payload
 		if (getCreator() == null)
 			shadowBlock.setPayload(getPayload(), OMMEntity.getDummyEntity());
 		else shadowBlock.setPayload(getPayload(), getCreator());
@@ -168,10 +209,8 @@ public class OMMBlockRestImpl implements OMMBlock {
 			return shadowBlock.getPrimaryID();
 		}
 		
-		Document d = this.getDoc("meta/primaryID");
-		String link = d.getDocumentElement().getNodeValue();
-		String attr = d.getDocumentElement().getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":type");
-		return new GenericTypedValue(attr, link);
+		OMMBlockImpl meta = getMeta(OMMMetaAttribute.ID);
+		return (meta == null) ? null : meta.getPrimaryID();
 	}
 	
 	/* (non-Javadoc)
@@ -199,13 +238,8 @@ public class OMMBlockRestImpl implements OMMBlock {
 			return shadowBlock.getNamespace();
 		}
 		
-		Document d = this.getDoc("meta/namespace");
-		try {
-			return new URI(d.getDocumentElement().getNodeValue());
-		} catch (URISyntaxException e) {
-			e.printStackTrace();
-		}
-		return null;
+		OMMBlockImpl meta = getMeta(OMMMetaAttribute.Namespace);
+		return (meta == null) ? null : meta.getNamespace();
 	}
 	
 	/* (non-Javadoc)
@@ -219,13 +253,8 @@ public class OMMBlockRestImpl implements OMMBlock {
 			return shadowBlock.getCreator();
 		}
 		
-		Document d = this.getDoc("meta");
-		Element root = d.getDocumentElement();
-		Element creation = OMMXMLConverter.findChild(root, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":creation");
-		Element creator = OMMXMLConverter.findChild(creation, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":creator");
-		Element date = OMMXMLConverter.findChild(creation, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":date");
-		OMMEntity e = new OMMEntity(creator.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":type"), creator.getNodeValue(), date.getNodeValue());
-		return e;
+		OMMBlockImpl meta = getMeta(OMMMetaAttribute.Creator);
+		return (meta == null) ? null : meta.getCreator();
 	}
 
 	/* (non-Javadoc)
@@ -239,24 +268,9 @@ public class OMMBlockRestImpl implements OMMBlock {
 			return shadowBlock.getContributors();
 		}
 		
-		Document d = this.getDoc("meta");
-		Element root = d.getDocumentElement();
-		OMMEntityCollection conts = new OMMEntityCollection();
-		NodeList nl = root.getChildNodes();
-		
-		for(int i = 0; i < nl.getLength(); i++)
-		{
-			Node node = nl.item(i);
-			if (node instanceof Element && node.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":contribution"))
-			{
-				Element contribution = (Element)node;
-				Element contributor = OMMXMLConverter.findChild(contribution, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":contributor");
-				Element date = OMMXMLConverter.findChild(contribution, OMMXMLConverter.OMM_NAMESPACE_PREFIX+":date");
-				OMMEntity e = new OMMEntity(contributor.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":type"), contributor.getNodeValue(), date.getNodeValue());
-				conts.add(e);
-			}
-		}
-		return conts;
+		OMMBlockImpl meta = getMeta(OMMMetaAttribute.Contributor);
+		if (meta == null || meta.getContributors() == null) return new OMMEntityCollection();
+		return meta.getContributors();
 	}
 
 	/* (non-Javadoc)
@@ -264,29 +278,21 @@ public class OMMBlockRestImpl implements OMMBlock {
 	 */
 	public OMMSubjectCollection getSubject() {
 		
+		OMMRestWriteBuffer buffer = parentOMM.getWriteBuffer();
 		if (mode != OMMRestAccessMode.SingleAccess)
 		{
 			UpdateShadowBlock();			
-			return shadowBlock.getSubject();
+			if (buffer == null) return shadowBlock.getSubject();
+			OMMSubjectCollection subjects = new OMMSubjectCollection();
+			if (shadowBlock.getSubject() != null) subjects.addAll(shadowBlock.getSubject());
+			subjects.addAll(buffer.getPendingSubjects(id));
+			return subjects;
 		}
 		
-		Document d = this.getDoc("meta/subject");
-		Element root = d.getDocumentElement();
+		OMMBlockImpl meta = getMeta(OMMMetaAttribute.Subject);
 		OMMSubjectCollection subjects = new OMMSubjectCollection();
-		NodeList nl = root.getChildNodes();
-		
-		for(int i = 0; i < nl.getLength(); i++)
-		{
-			Node node = nl.item(i);
-			if (node instanceof Element)
-			{
-				Element e = (Element)node;
-				OMMSubjectTagType type = OMMSubjectTagType.valueOf(e.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX + ":type"));
-				String value = e.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX + ":value");
-				OMMSubjectTag tag = new OMMSubjectTag(type, value, null);
-				subjects.add(tag);
-			}
-		}
+		if (buffer != null) subjects.addAll(buffer.getPendingSubjects(id));
+		if (meta != null && meta.getSubject() != null) subjects.addAll(meta.getSubject());
 		return subjects;
 	}
 
@@ -295,32 +301,23 @@ public class OMMBlockRestImpl implements OMMBlock {
 	 */
 	public boolean isSubjectPresent(OMMSubjectTagType type, String value) {
 		
+		OMMRestWriteBuffer buffer = parentOMM.getWriteBuffer();
+		if (buffer != null)
+		{
+			for(OMMSubjectTag tag : buffer.getPendingSubjects(id))
+			{
+				if (tag.getType() == type && (value == null ? tag.getValue() == null : value.equals(tag.getValue()))) return true;
+			}
+		}
+		
 		if (mode != OMMRestAccessMode.SingleAccess)
 		{
 			UpdateShadowBlock();			
 			return shadowBlock.isSubjectPresent(type, value);
 		}
 		
-		Document d = this.getDoc("meta/subject");
-		Element root = d.getDocumentElement();
-			
-		NodeList nl = root.getChildNodes();
-		
-		for(int i = 0; i < nl.getLength(); i++)
-		{
-			Node node = nl.item(i);
-			if (node instanceof Element)
-			{
-				Element e = (Element)node;
-				if (type.equals(OMMSubjectTagType.valueOf(e.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":type"))) && 
-					value.equals(e.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":value"))) 
-				{
-					return true;
-				}	
-			}
-			
-		}
-		return false;
+		OMMBlockImpl meta = getMeta(OMMMetaAttribute.Subject);
+		return meta != null && meta.isSubjectPresent(type, value);
 	}
 
 	/* (non-Javadoc)
@@ -334,22 +331,8 @@ public class OMMBlockRestImpl implements OMMBlock {
 			return shadowBlock.getTitle();
 		}
 		
-		Document d = this.getDoc("meta/");
-		Element root = d.getDocumentElement();
-		OMMMultiLangText titles = new OMMMultiLangText();
-		NodeList nl = root.getChildNodes();
-		
-		for(int i = 0; i < nl.getLength(); i++)
-		{
-			Node node = nl.item(i);
-			if (node instanceof Element && node.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":title"))
-			{
-				Element r = (Element)node;
-				titles.put(new Locale(r.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":lang")), r.getNodeValue());
-			}
-		}
-
-		return titles;
+		OMMBlockImpl meta = getMeta(OMMMetaAttribute.Title);
+		return (meta == null) ? new OMMMultiLangText() : meta.getTitle();
 	}
 
 	/* (non-Javadoc)
@@ -363,24 +346,9 @@ public class OMMBlockRestImpl implements OMMBlock {
 			return shadowBlock.getTitle(language);
 		}
 		
-		Document d = this.getDoc("meta/");
-		Element root = d.getDocumentElement();
-		NodeList nl = root.getChildNodes();
-		
-		for(int i = 0; i < nl.getLength(); i++)
-		{
-			Node node = nl.item(i);
-			if (node instanceof Element && node.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":title"))
-			{
-				Element r = (Element)node;
-				if (language.equals(new Locale(r.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":lang")))) 
-				{
-					return r.getNodeValue();
-				}
-			}
-		}
-
-		return "";
+		OMMBlockImpl meta = getMeta(OMMMetaAttribute.Title);
+		String title = (meta == null) ? null : meta.getTitle(language);
+		return (title == null) ? "" : title;
 	}
 
 	/* (non-Javadoc)
@@ -423,21 +391,8 @@ public class OMMBlockRestImpl implements OMMBlock {
 			return shadowBlock.getDescription();
 		}
 		
-		Document d = this.getMetaDoc();
-		Element root = d.getDocumentElement();
-		OMMMultiLangText descs = new OMMMultiLangText();
-		NodeList nl = root.getChildNodes();
-		
-		for(int i = 0; i < nl.getLength(); i++)
-		{
-			Node node = nl.item(i);
-			if (node instanceof Element && node.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":description"))
-			{
-				Element e = (Element)node;
-				descs.put(new Locale(e.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":lang")), e.getNodeValue());
-			}
-		}		
-		return descs;
+		OMMBlockImpl meta = getMeta(OMMMetaAttribute.Description);
+		return (meta == null) ? new OMMMultiLangText() : meta.getDescription();
 	}
 
 	/* (non-Javadoc)
@@ -451,25 +406,18 @@ public class OMMBlockRestImpl implements OMMBlock {
 			return shadowBlock.getDescription(language);
 		}
 		
-		Document d = this.getMetaDoc();
-		Element root = d.getDocumentElement();
-		NodeList nl = root.getChildNodes();
-		
-		for(int i = 0; i < nl.getLength(); i++)
-		{
-			Node node = nl.item(i);
-			if (node instanceof Element && node.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":description"))
-			{
-				Element e = (Element)node;
-				String loc = e.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":lang");
-				if (language.equals(new Locale(loc))) 
-				{
-					return e.getNodeValue();
-				}
-			}
-		}	
+		OMMBlockImpl meta = getMeta(OMMMetaAttribute.Description);
+		String description = (meta == null) ? null : meta.getDescription(language);
+		return (description == null) ? "" : description;
+	}
 
-		return "";
+	/** Retrieves the block's meta data in {@link OMMRestAccessMode#SingleAccess} mode.
+	 * All getters share one download of the complete /meta node, see {@link OMMRestBlockMetaCache}.
+	 * @param field The {@link OMMMetaAttribute} the caller needs.
+	 * @return The meta data as {@link OMMBlockImpl} without payload, or null if it could not be retrieved.
+	 */
+	protected OMMBlockImpl getMeta(OMMMetaAttribute field) {
+		return parentOMM.getBlockMetaCache().get(this.id, field);
 	}
 
 	/** Retrieves the content of the block's /meta node.  
@@ -486,20 +434,23 @@ public class OMMBlockRestImpl implements OMMBlock {
 	protected Document getDoc(String query)
 	{
 		String request = this.url + "/block/" + this.id + "/" + query;
-		if (cache.containsKey(request))
+		Map.Entry<Long, Document> cached = cache.get(request);
+		if (cached != null)
 		{
-			long timeStamp = cache.get(request).getKey();
+			long timeStamp = cached.getKey();
 			if (new GregorianCalendar().getTime().getTime() - timeStamp < 1000*OMMRestImpl.REST_CACHE_TIME_IN_SECONDS)
-				return cache.get(request).getValue();		
+			{
+				OMMMetrics.recordCacheAccess(OMMMetrics.CACHE_BLOCK, true);
+				return cached.getValue();		
+			}
 		}
+		OMMMetrics.recordCacheAccess(OMMMetrics.CACHE_BLOCK, false);
 		
 		try {			
-			ClientResource c = new ClientResource(request);
-			OMSCredentials credentials = parentOMM.getCredentials();
-			if (credentials != null) credentials.updateClientResource(c);
 			//System.out.println(request);
-			Representation r = c.get();
-			Document d = OMMXMLConverter.getXmlDocumentFromString(r.getStream());
+			byte[] data = parentOMM.readFromStorage(this.url, "/block/" + this.id + "/" + query);
+			if (data == null) return null;
+			Document d = OMMXMLConverter.getXmlDocumentFromString(new ByteArrayInputStream(data));
 			cache.put(request, new AbstractMap.SimpleEntry<Long, Document>(new GregorianCalendar().getTime().getTime(), d));
 			return d;
 		} catch (IOException e) {
@@ -508,31 +459,21 @@ public class OMMBlockRestImpl implements OMMBlock {
 		return null;
 	}
 	
-	/** Uses a SAXParser to parse the block on the OMS. 
+	/** Uses a SAXParser (or a streaming JSON mapper, see {@link OMMRestImpl#REST_ACCEPT_JSON}) to parse the block on the OMS. 
 	 * @return A {@link HashMap} of the block as {@link OMMBlockImpl} and its XML representation as {@link String}. 
 	 */
 	protected HashMap<OMMBlockImpl, String> getOMMBlockWithSAXParser()
 	{
-		String request = this.url + "/block/" + this.id + "/meta";
-		
 		try {			
-			ClientResource c = new ClientResource(request);
-			OMSCredentials credentials = parentOMM.getCredentials();
-			if (credentials != null) credentials.updateClientResource(c);
-			Representation r = c.get();
+			byte[] data = parentOMM.readBlockMeta(this.url, this.id);
+			if (data == null) return null;
 			
-			SAXParserFactory spf = SAXParserFactory.newInstance();
-            SAXParser sp = spf.newSAXParser();
-            XMLReader xr = sp.getXMLReader();
-            OMMBlockSaxHandler handler = new OMMBlockSaxHandler(this.id);
-            xr.setContentHandler(handler);
-            InputSource inStream = new InputSource();
-            String text = r.getText();
-            inStream.setCharacterStream(new StringReader(text));        
-            xr.parse(inStream); 
+			// every caller parses its own block from the (possibly shared) response data
+			OMMBlockImpl block = OMMRestBlockMetaCache.parse(data, this.id, null);
+			if (block == null) return null;
             
 			HashMap<OMMBlockImpl, String> hm = new HashMap<OMMBlockImpl, String>();
-			hm.put(handler.getOMMBlock(), text);
+			hm.put(block, new String(data, "UTF-8"));
 			return hm;
 			
 		} catch (Exception e) {
@@ -550,10 +491,12 @@ public class OMMBlockRestImpl implements OMMBlock {
 			lastAccess = now;
 			/*Document d = this.getDoc("meta");
 			shadowBlock = OMMXMLConverter.parseBlock(d.getDocumentElement(), id);*/
+			OMMMetrics.recordCacheAccess(OMMMetrics.CACHE_BLOCK, false);
 			HashMap<OMMBlockImpl, String> result = getOMMBlockWithSAXParser();
 			Entry<OMMBlockImpl, String> entry = result.entrySet().iterator().next();
 			shadowBlock = entry.getKey();
 		}
+		else OMMMetrics.recordCacheAccess(OMMMetrics.CACHE_BLOCK, true);
 		
 //		System.out.println("shadowBlock:");
 //		System.out.println(shadowBlock);
@@ -612,21 +555,8 @@ public class OMMBlockRestImpl implements OMMBlock {
 			return shadowBlock.getFormat();
 		}
 		
-		Document d = this.getDoc("meta/format");
-		Element root = d.getDocumentElement();
-		String mime = root.getNodeValue();
-		ClientResource c = new ClientResource(this.url + "/block/" + this.id + "/meta/encoding");
-		OMSCredentials credentials = parentOMM.getCredentials();
-		if (credentials != null) credentials.updateClientResource(c);
-		Representation r = c.get();
-		String enc = "";
-		try {
-			enc = r.getText();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		OMMFormat format = new OMMFormat(mime, null, enc);
-		return format;
+		OMMBlockImpl meta = getMeta(OMMMetaAttribute.Format);
+		return (meta == null) ? null : meta.getFormat();
 	}
 
 	/* (non-Javadoc)
@@ -657,15 +587,8 @@ public class OMMBlockRestImpl implements OMMBlock {
 			return shadowBlock.getType();
 		}
 		
-		Document d = this.getDoc("meta/type");
-		try {
-			URL type = new URL(d.getDocumentElement().getNodeValue());
-			return type;
-		} catch (MalformedURLException e) {
-			e.printStackTrace();
-			throw new RuntimeException("REST Error", e);
-		}
-		
+		OMMBlockImpl meta = getMeta(OMMMetaAttribute.Type);
+		return (meta == null) ? null : meta.getType();
 	}
 
 	/* (non-Javadoc)
@@ -686,16 +609,21 @@ public class OMMBlockRestImpl implements OMMBlock {
 	 * @see de.dfki.omm.interfaces.OMMBlock#addSubject(de.dfki.omm.types.OMMSubjectTag, de.dfki.omm.types.OMMEntity)
 	 */
 	public void addSubject(OMMSubjectTag subject, OMMEntity entity) {
+		OMMRestWriteBuffer buffer = parentOMM.getWriteBuffer();
+		if (buffer != null) buffer.addSubject(this.id, subject);
+		else sendSubject(subject);
+	}
+
+	/** Adds a subject on the OMS right away.
+	 * @param subject The {@link OMMSubjectTag} to add.
+	 * @return {@link OMMActionResultType} describing the result.
+	 */
+	protected OMMActionResultType sendSubject(OMMSubjectTag subject) {
 		String sub = "<omm:subject xmlns:omm=\"http://www.w3.org/2005/Incubator/omm/elements/1.0/\"><omm:tag omm:type=\""+subject.getType()+"\" omm:value=\""+subject.getValue()+"\" /></omm:subject>";
-		ClientResource r = new ClientResource(this.url + "/block/" + this.id + "/meta/subject");
-		OMSCredentials credentials = parentOMM.getCredentials();
-		if (credentials != null) credentials.updateClientResource(r);
-		Representation rep = r.post(sub);
-		try {
-			System.out.println(rep.getText());
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		ClientResource r = RestCompression.createClientResource(this.url + "/block/" + this.id + "/meta/subject", parentOMM.getCredentials());
+		RestCompression.post(r, RestCompression.encode(sub, MediaType.TEXT_PLAIN));
+		parentOMM.blockChanged(this.id);
+		return getResult(r);
 	}
 
 	/* (non-Javadoc)
@@ -738,19 +666,8 @@ public class OMMBlockRestImpl implements OMMBlock {
 			return shadowBlock.getPreviousLink();
 		}
 		
-		try
-		{
-			Document d = getDoc("meta/previousBlock");
-			if (d != null)
-			{
-				String id = d.getDocumentElement().getNodeValue();
-				String attr = d.getDocumentElement().getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":previousBlockType");
-				return OMMPreviousBlockLink.createFromString(id, attr);
-			}
-		}
-		catch(Exception e){}
-		
-		return null;
+		OMMBlockImpl meta = getMeta(OMMMetaAttribute.PreviousBlock);
+		return (meta == null) ? null : meta.getPreviousLink();
 	}
 	
 	/* (non-Javadoc)
@@ -775,19 +692,8 @@ public class OMMBlockRestImpl implements OMMBlock {
 			return shadowBlock.getLink();
 		}
 		
-		try
-		{
-			Document d = getDoc("meta/link");
-			if (d != null)
-			{
-				String link = d.getDocumentElement().getNodeValue();
-				String attr = d.getDocumentElement().getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":type");
-				return new GenericTypedValue(attr, link);
-			}
-		}
-		catch(Exception e){}
-		
-		return null;
+		OMMBlockImpl meta = getMeta(OMMMetaAttribute.Link);
+		return (meta == null) ? null : meta.getLink();
 	}
 
 	/* (non-Javadoc)
@@ -826,6 +732,7 @@ public class OMMBlockRestImpl implements OMMBlock {
 	 * @see de.dfki.omm.interfaces.OMMBlock#getPayload()
 	 */
 	public TypedValue getPayload() {
+		if (mode == OMMRestAccessMode.LocalMirror && shadowBlock != null) return shadowBlock.getPayload();
 		TypedValue v = new GenericTypedValue("base64", this.getPayloadAsString());
 		return v;
 	}
@@ -835,6 +742,10 @@ public class OMMBlockRestImpl implements OMMBlock {
 	 */
 	public String getPayloadAsString() {		
 		
+		OMMRestWriteBuffer buffer = parentOMM.getWriteBuffer();
+		if (buffer != null && buffer.hasPendingPayload(this.id)) return buffer.getPendingPayloadAsString(this.id);
+		if (mode == OMMRestAccessMode.LocalMirror && shadowBlock != null) return (shadowBlock.getPayload() == null) ? null : shadowBlock.getPayloadAsString();
+		
 		String url = this.url + "/block/" + this.id + "/payload";
 
 //		return OMMXMLConverter.downloadURL(url);
@@ -864,9 +775,7 @@ public class OMMBlockRestImpl implements OMMBlock {
 	 */
 	public Element getPayloadElement() {
 		
-		ClientResource c = new ClientResource(this.url + "/block/" + this.id + "/payload");
-		OMSCredentials credentials = parentOMM.getCredentials();
-		if (credentials != null) credentials.updateClientResource(c);
+		ClientResource c = RestCompression.createClientResource(this.url + "/block/" + this.id + "/payload", parentOMM.getCredentials());
 //		Representation r = c.get();
 
 		return null; // ?!
@@ -876,34 +785,76 @@ public class OMMBlockRestImpl implements OMMBlock {
 	 * @see de.dfki.omm.interfaces.OMMBlock#setPayload(de.dfki.omm.types.TypedValue, de.dfki.omm.types.OMMEntity)
 	 */
 	public void setPayload(TypedValue payload, OMMEntity entity) {
-		ClientResource c = new ClientResource(this.url + "/block/" + this.id + "/payload");
-		OMSCredentials credentials = parentOMM.getCredentials();
-		if (credentials != null) credentials.updateClientResource(c);
-		
-		c.post(payload.getValue());
+		OMMRestWriteBuffer buffer = parentOMM.getWriteBuffer();
+		if (buffer != null) buffer.setPayload(this.id, payload);
+		else sendPayload(payload);
+	}
 
+	/** Sets the payload on the OMS right away.
+	 * @param payload The payload as {@link TypedValue}.
+	 * @return {@link OMMActionResultType} describing the result.
+	 */
+	protected OMMActionResultType sendPayload(TypedValue payload) {
+		ClientResource c = RestCompression.createClientResource(this.url + "/block/" + this.id + "/payload", parentOMM.getCredentials());
+		
+		Object value = payload.getValue();
+		if (value instanceof String) 
+			RestCompression.post(c, RestCompression.encode((String)value, MediaType.TEXT_PLAIN));
+		else 
+			RestCompression.post(c, value);
+		parentOMM.blockChanged(this.id);
+		return getResult(c);
 	}
 
 	/* (non-Javadoc)
 	 * @see de.dfki.omm.interfaces.OMMBlock#setPayload(byte[], de.dfki.omm.types.OMMEntity)
 	 */
 	public void setPayload(byte[] payload, OMMEntity entity) {
-		ClientResource c = new ClientResource(this.url + "/block/" + this.id + "/payload");
-		OMSCredentials credentials = parentOMM.getCredentials();
-		if (credentials != null) credentials.updateClientResource(c);
+		OMMRestWriteBuffer buffer = parentOMM.getWriteBuffer();
+		if (buffer != null) buffer.setPayload(this.id, payload);
+		else sendPayload(payload);
+	}
+
+	/** Sets the binary payload on the OMS right away.
+	 * @param payload The payload data.
+	 * @return {@link OMMActionResultType} describing the result.
+	 */
+	protected OMMActionResultType sendPayload(byte[] payload) {
+		ClientResource c = RestCompression.createClientResource(this.url + "/block/" + this.id + "/payload", parentOMM.getCredentials());
 		
-		c.post(payload);
+		RestCompression.post(c, RestCompression.encode(payload, MediaType.APPLICATION_OCTET_STREAM));
+		parentOMM.blockChanged(this.id);
+		return getResult(c);
 	}
 
 	/* (non-Javadoc)
 	 * @see de.dfki.omm.interfaces.OMMBlock#removePayload(de.dfki.omm.types.OMMEntity)
 	 */
 	public void removePayload(OMMEntity entity) {
-		ClientResource c = new ClientResource(this.url + "/block/" + this.id + "/payload");
-		OMSCredentials credentials = parentOMM.getCredentials();
-		if (credentials != null) credentials.updateClientResource(c);
+		OMMRestWriteBuffer buffer = parentOMM.getWriteBuffer();
+		if (buffer != null) buffer.removePayload(this.id);
+		else deletePayload();
+	}
+
+	/** Removes the payload on the OMS right away.
+	 * @return {@link OMMActionResultType} describing the result.
+	 */
+	protected OMMActionResultType deletePayload() {
+		ClientResource c = RestCompression.createClientResource(this.url + "/block/" + this.id + "/payload", parentOMM.getCredentials());
 		
 		c.delete();
+		parentOMM.blockChanged(this.id);
+		return getResult(c);
+	}
+
+	/** Translates the status of a finished request into an {@link OMMActionResultType}. */
+	private static OMMActionResultType getResult(ClientResource c)
+	{
+		Status status = c.getStatus();
+		if (status == null || status.isSuccess()) return OMMActionResultType.OK;
+		if (status.equals(Status.CLIENT_ERROR_FORBIDDEN)) return OMMActionResultType.Forbidden;
+		if (status.equals(Status.CLIENT_ERROR_NOT_FOUND)) return OMMActionResultType.BlockNotExistent;
+		return OMMActionResultType.UnknownError;
 	}
 
 	/* (non-Javadoc)
@@ -0,0 +1,209 @@
+package de.dfki.omm.impl.rest;
+
+import java.io.ByteArrayInputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.xml.parsers.SAXParser;
+
+import org.restlet.data.Status;
+import org.restlet.resource.ResourceException;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.tools.OMMBlockSaxHandler;
+import de.dfki.omm.tools.OMMJsonConverter;
+import de.dfki.omm.tools.OMMMetrics;
+import de.dfki.omm.tools.OMMXMLPool;
+import de.dfki.omm.types.OMMMetaAttribute;
+
+/** Caches the meta data of the blocks of a REST memory.
+ * The complete <code>/meta</code> node of a block is fetched with a single request and parsed in one pass, so that all meta data getters of a block share one download.
+ * Meta data of many blocks can be prefetched in parallel, restricted to the fields the caller needs (a projection).
+ */
+public class OMMRestBlockMetaCache
+{
+	/** Maximal number of blocks whose meta data is cached per memory. */
+	public static int MAX_CACHED_BLOCKS = 1024;
+	/** Number of concurrent downloads used when prefetching meta data. */
+	public static int PREFETCH_PARALLELISM = 8;
+
+	/** Fields without which no block can be created, they are extracted by every projection. */
+	private static final EnumSet<OMMMetaAttribute> MANDATORY_FIELDS = EnumSet.of(OMMMetaAttribute.Creator, OMMMetaAttribute.Title, OMMMetaAttribute.Namespace, OMMMetaAttribute.Format);
+
+	private static final ExecutorService s_prefetcher = Executors.newFixedThreadPool(PREFETCH_PARALLELISM, new ThreadFactory()
+	{
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "OMM meta data prefetch");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	/** Cached meta data of a block together with the fields it contains. */
+	private static class Entry
+	{
+		final long timestamp = System.currentTimeMillis();
+		final OMMBlockImpl block;
+		final EnumSet<OMMMetaAttribute> fields;
+
+		Entry(OMMBlockImpl block, EnumSet<OMMMetaAttribute> fields)
+		{
+			this.block = block;
+			this.fields = fields;
+		}
+	}
+
+	private final OMMRestImpl m_omm;
+	private final Map<String, Entry> m_entries = Collections.synchronizedMap(OMMBlockRestImpl.<String, Entry>lruCache(MAX_CACHED_BLOCKS));
+	private volatile long m_generation = 0L;
+
+	/** Creates a cache for the blocks of the given memory.
+	 * @param omm The {@link OMMRestImpl} whose blocks are cached.
+	 */
+	public OMMRestBlockMetaCache(OMMRestImpl omm)
+	{
+		m_omm = omm;
+	}
+
+	/** Retrieves the meta data of a block, downloading the complete meta data if the cached entry is missing, expired or lacks the field.
+	 * @param blockID ID of the block.
+	 * @param field The {@link OMMMetaAttribute} the caller needs.
+	 * @return The meta data as {@link OMMBlockImpl} without payload, or null if it could not be retrieved.
+	 */
+	public OMMBlockImpl get(String blockID, OMMMetaAttribute field)
+	{
+		Entry entry = m_entries.get(blockID);
+		if (entry != null && isValid(entry) && entry.fields.contains(field))
+		{
+			OMMMetrics.recordCacheAccess(OMMMetrics.CACHE_BLOCK, true);
+			return entry.block;
+		}
+		OMMMetrics.recordCacheAccess(OMMMetrics.CACHE_BLOCK, false);
+
+		entry = download(blockID, EnumSet.allOf(OMMMetaAttribute.class));
+		return (entry == null) ? null : entry.block;
+	}
+
+	/** Downloads the meta data of several blocks in parallel, keeping only the given fields and the mandatory ones (creator, title, namespace and format).
+	 * Blocks whose cached meta data is still valid and contains the fields are not downloaded again.
+	 * @param blockIDs IDs of the blocks.
+	 * @param fields The {@link OMMMetaAttribute}s to keep, all fields if empty.
+	 * @return Number of blocks whose meta data is available.
+	 */
+	public int prefetch(Collection<String> blockIDs, EnumSet<OMMMetaAttribute> fields)
+	{
+		final EnumSet<OMMMetaAttribute> projection = fields.isEmpty() ? EnumSet.allOf(OMMMetaAttribute.class) : EnumSet.copyOf(fields);
+		projection.addAll(MANDATORY_FIELDS);
+		List<Future<Entry>> downloads = new ArrayList<Future<Entry>>(blockIDs.size());
+		int available = 0;
+
+		for(final String blockID : blockIDs)
+		{
+			Entry entry = m_entries.get(blockID);
+			if (entry != null && isValid(entry) && entry.fields.containsAll(projection))
+			{
+				available++;
+				continue;
+			}
+			downloads.add(s_prefetcher.submit(new Callable<Entry>()
+			{
+				public Entry call()
+				{
+					return download(blockID, projection);
+				}
+			}));
+		}
+
+		for(Future<Entry> download : downloads)
+		{
+			try
+			{
+				if (download.get() != null) available++;
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				break;
+			}
+			catch(ExecutionException e) { e.printStackTrace(); }
+		}
+		return available;
+	}
+
+	/** Deletes the cached meta data of a block.
+	 * @param blockID ID of the block, or null to delete the meta data of all blocks.
+	 */
+	public void invalidate(String blockID)
+	{
+		m_generation++;
+		if (blockID == null) m_entries.clear();
+		else m_entries.remove(blockID);
+	}
+
+	private boolean isValid(Entry entry)
+	{
+		return System.currentTimeMillis() - entry.timestamp < 1000L * OMMRestImpl.REST_CACHE_TIME_IN_SECONDS;
+	}
+
+	/** Parses the meta data of a block, which may be given as JSON or XML.
+	 * JSON is mapped by {@link OMMJsonConverter}, XML by a single pass of an {@link OMMBlockSaxHandler}.
+	 * @param data The meta data as returned by the OMS.
+	 * @param blockID ID of the block.
+	 * @param fields The {@link OMMMetaAttribute}s to extract, null for all.
+	 * @return The meta data as {@link OMMBlockImpl}, or null if it could not be parsed.
+	 * @throws Exception If the XML parser cannot be created or the data is no valid XML.
+	 */
+	public static OMMBlockImpl parse(byte[] data, String blockID, EnumSet<OMMMetaAttribute> fields) throws Exception
+	{
+		if (OMMJsonConverter.isJSON(data)) return OMMJsonConverter.parseBlock(new ByteArrayInputStream(data), blockID, fields);
+
+		long start = System.nanoTime();
+		SAXParser sp = OMMXMLPool.acquireSAXParser();
+		try
+		{
+			XMLReader xr = sp.getXMLReader();
+			OMMBlockSaxHandler handler = new OMMBlockSaxHandler(blockID, fields);
+			xr.setContentHandler(handler);
+			xr.parse(new InputSource(new ByteArrayInputStream(data)));
+			OMMMetrics.recordParse(System.nanoTime() - start);
+			return handler.getOMMBlock();
+		}
+		finally { OMMXMLPool.release(sp); }
+	}
+
+	/** Downloads and parses the meta data of a block and stores it in the cache. */
+	private Entry download(String blockID, EnumSet<OMMMetaAttribute> fields)
+	{
+		long generation = m_generation;
+		try
+		{
+			byte[] data = m_omm.readBlockMeta(m_omm.getStorageURL(), blockID);
+			if (data == null) return null;
+			OMMBlockImpl block = parse(data, blockID, fields);
+			if (block == null) return null;
+
+			Entry entry = new Entry(block, fields);
+			if (generation == m_generation) m_entries.put(blockID, entry); // otherwise the block was changed during the download
+			return entry;
+		}
+		catch(ResourceException e)
+		{
+			if (!Status.CLIENT_ERROR_NOT_FOUND.equals(e.getStatus())) e.printStackTrace();
+		}
+		catch(Exception e) { e.printStackTrace(); }
+		return null;
+	}
+}
@@ -3,20 +3,24 @@
  */
 package de.dfki.omm.impl.rest;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.EnumSet;
 import java.util.GregorianCalendar;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Vector;
 
+import de.dfki.omm.impl.OMMBlockImpl;
 import de.dfki.omm.impl.OMMFactory;
+import de.dfki.omm.impl.OMMImpl;
 import org.json.JSONArray;
 import org.json.JSONObject;
 import org.restlet.Response;
+import org.restlet.data.MediaType;
 import org.restlet.data.Status;
-import org.restlet.representation.Representation;
 import org.restlet.resource.ClientResource;
 import org.restlet.resource.ResourceException;
 import org.w3c.dom.Document;
@@ -29,7 +33,9 @@ import de.dfki.omm.interfaces.OMMRestInterface;
 import de.dfki.omm.interfaces.OMMToCEntry;
 import de.dfki.omm.tools.OMMActionResultType;
 import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.tools.RestCompression;
 import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMMetaAttribute;
 import de.dfki.omm.types.OMMRestAccessMode;
 
 /** 
@@ -38,13 +44,25 @@ import de.dfki.omm.types.OMMRestAccessMode;
 public class OMMRestImpl implements OMM, OMMRestInterface {
 
 	public static int REST_CACHE_TIME_IN_SECONDS = 20;
+	/** Whether block meta data is requested as JSON, which is parsed without building a DOM. Servers without JSON support answer with XML. */
+	public static boolean REST_ACCEPT_JSON = false;
+	/** Time in seconds for which the negotiation data of a memory is cached. */
+	public static int NEGOTIATION_CACHE_TIME_IN_SECONDS = 300;
 	
 	protected String	restURL;
 	protected OMMRestAccessMode mode;
 	protected List<String> blockIDsCache;
 	protected Long lastAccess = 0L;
-	protected OMMRestNegotiationData negDataCache = null;
 	protected OMSCredentials m_credentials = null; 
+	
+	private transient OMMRestMetadataResolver<OMMRestNegotiationData> m_negotiationResolver = null;
+	private transient OMMRestMetadataResolver<OMMHeader> m_headerResolver = null;
+	private transient Object m_storageSelectorLock = new Object();
+	private transient volatile OMMRestStorageSelector m_storageSelector = null;
+	private transient volatile boolean m_isStorageSelectorCreated = false;
+	private transient volatile OMMRestWriteBuffer m_writeBuffer = null;
+	private transient OMMRestMirror m_mirror = null;
+	private transient OMMRestBlockMetaCache m_metaCache = null;
 
 	/** Creates a new OMM using the OMS-RESTful interface
 	 * 
@@ -82,13 +100,29 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 	 */
 	public OMMActionResultType addBlock(OMMBlock block, OMMEntity entity) {
 
+		OMMRestWriteBuffer buffer = m_writeBuffer;
+		if (buffer != null)
+		{
+			buffer.addBlock(block);
+			return OMMActionResultType.OK;
+		}
+		return sendBlock(block);
+	}
+	
+	/** Creates a block on the OMS right away, setting its ID to the one assigned by the OMS.
+	 * @param block The {@link OMMBlock} to create.
+	 * @return {@link OMMActionResultType} describing the result.
+	 */
+	protected OMMActionResultType sendBlock(OMMBlock block) {
+
 		try {
 			String blockString = OMMXMLConverter.toXMLFileString(OMMXMLConverter.generateCompleteBlock(block, true));
 			Response rep = this.postBlock(blockString);
 			if (rep.getStatus().equals(Status.SUCCESS_CREATED))
 			{
-				String newBlockID = rep.getEntityAsText();
+				String newBlockID = RestCompression.getText(rep.getEntity());
 				block.setID(newBlockID);
+				blockChanged(newBlockID);
 				return OMMActionResultType.OK;
 			}
 			else if (rep.getStatus().equals(Status.CLIENT_ERROR_FORBIDDEN)) return OMMActionResultType.Forbidden;
@@ -97,6 +131,9 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 			e.printStackTrace();
 			if (e.getStatus().equals(Status.CLIENT_ERROR_FORBIDDEN)) return OMMActionResultType.Forbidden;
 			return OMMActionResultType.UnknownError;
+		} catch (IOException e) {
+			e.printStackTrace();
+			return OMMActionResultType.UnknownError;
 		}
 	}
 	
@@ -104,6 +141,18 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 	 * @see de.dfki.omm.interfaces.OMM#getAllBlockIDs()
 	 */
 	public List<String> getAllBlockIDs()
+	{
+		OMMImpl replica = getReplica();
+		List<String> ids = (replica != null) ? replica.getAllBlockIDs() : getStoredBlockIDs();
+		OMMRestWriteBuffer buffer = m_writeBuffer;
+		if (ids == null || buffer == null) return ids;
+		return buffer.applyTo(ids);
+	}
+	
+	/** Retrieves the IDs of all blocks stored on the OMS, without pending changes of the write-behind buffer.
+	 * @return {@link List} of block IDs, or null if they could not be retrieved.
+	 */
+	protected List<String> getStoredBlockIDs()
 	{
 		long now = new GregorianCalendar().getTime().getTime();
 		
@@ -122,20 +171,10 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 		
 		try		
 		{
-			ClientResource c = new ClientResource(getStorageURL() +"/block_ids");
-			if (m_credentials != null) m_credentials.updateClientResource(c);
-			Representation representation = c.get();
-			if (representation == null) return null;
-			BufferedReader br = new BufferedReader(representation.getReader());
-			String line;
-			StringBuilder sb = new StringBuilder();
-			
-		    while ((line = br.readLine()) != null) 
-		    {
-		        sb.append(line);
-		    }
+			byte[] data = readFromStorage(getStorageURL(), "/block_ids");
+			if (data == null) return null;
 		    
-		    JSONObject jsonO = new JSONObject(sb.toString());
+		    JSONObject jsonO = new JSONObject(new String(data, "UTF-8"));
 		    JSONArray array = (JSONArray)jsonO.get("IDs");
 		    
 		    List<String> retVal = new Vector<String>(array.length());
@@ -174,7 +213,7 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 		
 		for(String id : blockIDs)
 		{
-			retVal.add(new OMMBlockRestImpl(id, getStorageURL(), mode, this));
+			retVal.add(getBlock(id));
 		}
 		
 		return retVal;		
@@ -185,6 +224,19 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 	 */
 	public OMMBlock getBlock(String blockID) {
 
+		OMMRestWriteBuffer buffer = m_writeBuffer;
+		if (buffer != null)
+		{
+			if (buffer.isRemoved(blockID)) return null;
+			OMMBlock added = buffer.getAddedBlock(blockID);
+			if (added != null) return added;
+		}
+		OMMImpl replica = getReplica();
+		if (replica != null)
+		{
+			OMMBlock block = replica.getBlock(blockID);
+			return (block == null) ? null : new OMMBlockRestImpl(blockID, getStorageURL(), this, (OMMBlockImpl)block);
+		}
 		return new OMMBlockRestImpl(blockID, getStorageURL(), mode, this);
 
 	}
@@ -202,23 +254,21 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 	 */
 	public OMMHeader getHeader() {
 		
-		ClientResource cr = new ClientResource(getStorageURL() +"/header");
-		if (m_credentials != null) m_credentials.updateClientResource(cr);
-		Representation representation = cr.get();
-		if (representation == null) return null;
-
+		OMMImpl replica = getReplica();
+		if (replica != null) return replica.getHeader();
+		return getHeaderResolver().get();
+	}
+	
+	/** Downloads and parses the memory's header. 
+	 * @return The header as {@link OMMHeader}, or null if it could not be retrieved. 
+	 */
+	protected OMMHeader downloadHeader() {
+		
 		try 
 		{
-			BufferedReader br = new BufferedReader(representation.getReader());
-			int c;
-			StringBuilder sb = new StringBuilder();
-			
-		    while ((c = br.read()) > -1) 
-		    {
-		        sb.append((char)c);
-		    }
-		    
-		    Document doc = OMMXMLConverter.getXmlDocumentFromString(OMMXMLConverter.getInputStreamFromText(sb.toString()));
+			byte[] data = readFromStorage(getStorageURL(), "/header");
+			if (data == null) return null;
+		    Document doc = OMMXMLConverter.getXmlDocumentFromString(new ByteArrayInputStream(data));
 
 			return OMMXMLConverter.parseHeader(doc.getDocumentElement());
 			
@@ -234,20 +284,46 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 	 */
 	public OMMRestNegotiationData getNegotiationData()
 	{		
-		//switch(mode)
-		//{
-			//case CompleteDownloadUnlimited:
-				if (negDataCache == null) negDataCache = OMMRestNegotiationData.downloadAndCreate(restURL, m_credentials);
-				return negDataCache;
-			/*case CompleteDownloadLimitedLifetime:
-				long now = new GregorianCalendar().getTime().getTime();
-				if (negDataCache == null || (now - lastAccess) > OMMRestImpl.REST_CACHE_TIME_IN_SECONDS) negDataCache = OMMRestNegotiationData.downloadAndCreate(restURL);
-				return negDataCache;
-			default:
-				return OMMRestNegotiationData.downloadAndCreate(restURL);*/
-		//}		
+		return getNegotiationResolver().get();
 	}	
 	
+	/** Retrieves the resolver caching this OMM's negotiation data, creating it if necessary. 
+	 * @return The {@link OMMRestMetadataResolver} for the {@link OMMRestNegotiationData}. 
+	 */
+	protected synchronized OMMRestMetadataResolver<OMMRestNegotiationData> getNegotiationResolver()
+	{
+		if (m_negotiationResolver == null)
+		{
+			m_negotiationResolver = new OMMRestMetadataResolver<OMMRestNegotiationData>()
+			{
+				protected OMMRestNegotiationData download()
+				{
+					OMMRestNegotiationData data = OMMRestNegotiationData.downloadAndCreate(restURL, m_credentials);
+					if (data != null) updateStorageSelector(data.getStorage());
+					return data;
+				}
+				protected long getLifetimeInMillis() { return 1000L * NEGOTIATION_CACHE_TIME_IN_SECONDS; }
+			};
+		}
+		return m_negotiationResolver;
+	}
+	
+	/** Retrieves the resolver caching this OMM's header, creating it if necessary. 
+	 * @return The {@link OMMRestMetadataResolver} for the {@link OMMHeader}. 
+	 */
+	protected synchronized OMMRestMetadataResolver<OMMHeader> getHeaderResolver()
+	{
+		if (m_headerResolver == null)
+		{
+			m_headerResolver = new OMMRestMetadataResolver<OMMHeader>()
+			{
+				protected OMMHeader download() { return downloadHeader(); }
+				protected long getLifetimeInMillis() { return 1000L * REST_CACHE_TIME_IN_SECONDS; }
+			};
+		}
+		return m_headerResolver;
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.dfki.omm.interfaces.OMMRestInterface#getRestAccessMode()
 	 */
@@ -266,6 +342,97 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 		return data.getStorage().getLink();
 	}
 	
+	/** Retrieves the address of the storage node to which new blocks are written. 
+	 * For a distributed storage this is the node with the most free space. 
+	 * @return Storage URL as String. 
+	 */
+	protected String getWriteStorageURL()
+	{
+		OMMRestStorageSelector selector = getStorageSelector();
+		if (selector == null) return getStorageURL();
+		return selector.selectWriteNode();
+	}
+	
+	/** Retrieves the selector choosing among the nodes of a distributed block storage. 
+	 * @return The {@link OMMRestStorageSelector}, or null if the OMM's storage consists of a single node. 
+	 */
+	public OMMRestStorageSelector getStorageSelector()
+	{
+		if (m_isStorageSelectorCreated) return m_storageSelector;
+		
+		OMMRestNegotiationData data = getNegotiationData();
+		if (data == null) return null;
+		synchronized(m_storageSelectorLock)
+		{
+			if (!m_isStorageSelectorCreated)
+			{
+				m_storageSelector = OMMRestStorageSelector.create(data.getStorage());
+				m_isStorageSelectorCreated = true;
+			}
+			return m_storageSelector;
+		}
+	}
+	
+	/** Updates the storage selector with freshly downloaded negotiation data. 
+	 * The latency statistics are kept and only the free space is updated, unless the nodes of the storage have changed. 
+	 * @param storage The {@link OMMRestNegotiationStorage} of the downloaded negotiation data. 
+	 */
+	private void updateStorageSelector(OMMRestNegotiationStorage storage)
+	{
+		synchronized(m_storageSelectorLock)
+		{
+			if (!m_isStorageSelectorCreated) return;
+			
+			OMMRestStorageSelector selector = m_storageSelector;
+			if (selector != null && storage != null && selector.getNodeLinks().size() == storage.getNodes().size() + 1 && selector.hasNode(storage.getLink()))
+			{
+				selector.setFreeSpace(storage.getLink(), storage.getFreeSpace());
+				for(OMMRestNegotiationStorage node : storage.getNodes()) selector.setFreeSpace(node.getLink(), node.getFreeSpace());
+			}
+			else
+			{
+				m_storageSelector = OMMRestStorageSelector.create(storage);
+			}
+		}
+	}
+	
+	/** Reads data from the block storage. If the given storage node is part of a distributed storage, 
+	 * the read is directed to the fastest node of that storage. 
+	 * @param storageURL Address of the storage node. 
+	 * @param path Path below the storage address, for example <code>/block/1/meta</code>. 
+	 * @return The decoded response data, or null if the response had no entity. 
+	 * @throws IOException If the data cannot be read. 
+	 */
+	protected byte[] readFromStorage(String storageURL, String path) throws IOException
+	{
+		return readFromStorage(storageURL, path, null);
+	}
+	
+	/** Reads data from the block storage like {@link #readFromStorage(String, String)}, preferring the given media type.
+	 * @param storageURL Address of the storage node.
+	 * @param path Path below the storage address.
+	 * @param preferred The preferred {@link MediaType} of the response, null for the default one.
+	 * @return The response data, or null if there is none.
+	 * @throws IOException If the response cannot be read.
+	 */
+	protected byte[] readFromStorage(String storageURL, String path, MediaType preferred) throws IOException
+	{
+		OMMRestStorageSelector selector = getStorageSelector();
+		if (selector != null && selector.hasNode(storageURL)) return selector.read(path, m_credentials, preferred);
+		return OMMRestRequestCoalescer.get(storageURL + path, m_credentials, preferred);
+	}
+	
+	/** Reads the meta data of a block, as JSON if {@link #REST_ACCEPT_JSON} is set and the OMS supports it, otherwise as XML.
+	 * @param storageURL Address of the storage node.
+	 * @param blockID ID of the block.
+	 * @return The response data, or null if there is none. Use {@link OMMRestBlockMetaCache#parse(byte[], String, EnumSet)} to parse it.
+	 * @throws IOException If the response cannot be read.
+	 */
+	protected byte[] readBlockMeta(String storageURL, String blockID) throws IOException
+	{
+		return readFromStorage(storageURL, "/block/" + blockID + "/meta", REST_ACCEPT_JSON ? MediaType.APPLICATION_JSON : null);
+	}
+	
 	/* (non-Javadoc)
 	 * @see de.dfki.omm.interfaces.OMM#getTableOfContents()
 	 */
@@ -282,13 +449,15 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 	{		
 		for(OMMBlock block : getAllBlocks())
 		{
-			OMMBlockRestImpl rBlock = (OMMBlockRestImpl)block;
-			rBlock.invalidateCache();
+			if (block instanceof OMMBlockRestImpl) ((OMMBlockRestImpl)block).invalidateCache();
 		}
 		
 		blockIDsCache = null;
+		blockChanged(null);
+		getBlockMetaCache().invalidate(null);
 		
-		negDataCache = null;
+		getNegotiationResolver().invalidate();
+		getHeaderResolver().invalidate();
 	}
 	
 	/** HTTP-POSTs a block to this OMM's block storage.
@@ -298,9 +467,8 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 	 * @throws ResourceException If there is a problem accessing the REST interface.
 	 */
 	protected Response postBlock (String xml) throws ResourceException {
-		ClientResource c = new ClientResource(getStorageURL() + "/block");
-		if (m_credentials != null) m_credentials.updateClientResource(c);
-		c.post(xml);
+		ClientResource c = RestCompression.createClientResource(getWriteStorageURL() + "/block", m_credentials);
+		RestCompression.post(c, RestCompression.encode(xml, MediaType.TEXT_PLAIN));
 		return c.getResponse();
 	}
 
@@ -315,11 +483,27 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 	 * @see de.dfki.omm.interfaces.OMM#removeBlock(java.lang.String, de.dfki.omm.types.OMMEntity)
 	 */
 	public OMMActionResultType removeBlock(String blockID, OMMEntity entity) {
+
+		OMMRestWriteBuffer buffer = m_writeBuffer;
+		if (buffer != null)
+		{
+			buffer.removeBlock(blockID);
+			return OMMActionResultType.OK;
+		}
+		return deleteBlock(blockID);
+	}
+	
+	/** Deletes a block on the OMS right away.
+	 * @param blockID ID of the block.
+	 * @return {@link OMMActionResultType} describing the result.
+	 */
+	protected OMMActionResultType deleteBlock(String blockID) {
 		ClientResource c = new ClientResource(getStorageURL() + "/block/"+blockID);
 		if (m_credentials != null) m_credentials.updateClientResource(c);
 		try 
 		{
 			c.delete();
+			blockChanged(blockID);
 			if (c.getStatus().equals(Status.SUCCESS_OK)) return OMMActionResultType.OK;
 			else if (c.getStatus().equals(Status.CLIENT_ERROR_FORBIDDEN)) return OMMActionResultType.Forbidden;
 		}
@@ -337,6 +521,112 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 	 */
 	public void setCredentials (OMSCredentials credentials) {
 		m_credentials = credentials;
+		getNegotiationResolver().invalidate();
+		getHeaderResolver().invalidate();
+	}
+	
+	/** Retrieves the local replica of this memory, which is created and started on first access.
+	 * @return The {@link OMMRestMirror}, or null if the access mode is not {@link OMMRestAccessMode#LocalMirror}.
+	 */
+	public synchronized OMMRestMirror getMirror()
+	{
+		if (mode != OMMRestAccessMode.LocalMirror) return null;
+		if (m_mirror == null)
+		{
+			m_mirror = new OMMRestMirror(this);
+			m_mirror.start();
+		}
+		return m_mirror;
+	}
+	
+	/** Retrieves the replica all reads are answered from in {@link OMMRestAccessMode#LocalMirror} mode.
+	 * @return The replica as {@link OMMImpl}, or null if there is none.
+	 */
+	private OMMImpl getReplica()
+	{
+		OMMRestMirror mirror = getMirror();
+		return (mirror == null) ? null : mirror.getOMM();
+	}
+	
+	/** Informs the local replica (if any) that a block was changed by this client.
+	 * @param blockID ID of the changed block, or null if only the set of blocks changed.
+	 */
+	protected void blockChanged(String blockID)
+	{
+		OMMRestMirror mirror;
+		synchronized(this) { mirror = m_mirror; }
+		if (mirror != null) mirror.invalidate(blockID);
+		if (blockID != null) getBlockMetaCache().invalidate(blockID);
+	}
+	
+	/** Retrieves the cache for the meta data of this memory's blocks, which is created on first access.
+	 * @return The {@link OMMRestBlockMetaCache}.
+	 */
+	protected synchronized OMMRestBlockMetaCache getBlockMetaCache()
+	{
+		if (m_metaCache == null) m_metaCache = new OMMRestBlockMetaCache(this);
+		return m_metaCache;
+	}
+	
+	/** Downloads the meta data of several blocks at once, restricted to the given fields.
+	 * In {@link OMMRestAccessMode#SingleAccess} mode the getters of the returned blocks for these fields are answered without further requests until the cache expires.
+	 * @param blockIDs IDs of the blocks.
+	 * @param fields The {@link OMMMetaAttribute}s the caller needs, all fields if none are given.
+	 * @return The blocks as {@link OMMBlock}s, in the order of the given IDs.
+	 */
+	public List<OMMBlock> prefetchBlocks(Collection<String> blockIDs, OMMMetaAttribute... fields)
+	{
+		EnumSet<OMMMetaAttribute> projection = EnumSet.noneOf(OMMMetaAttribute.class);
+		projection.addAll(Arrays.asList(fields));
+		getBlockMetaCache().prefetch(blockIDs, projection);
+		
+		List<OMMBlock> blocks = new Vector<OMMBlock>(blockIDs.size());
+		for(String id : blockIDs)
+		{
+			blocks.add(getBlock(id));
+		}
+		return blocks;
+	}
+	
+	/** Collects changes to this memory and its blocks locally and sends them to the OMS later, see {@link OMMRestWriteBuffer}.
+	 * Reading from the memory reflects the pending changes.
+	 * @param listener {@link OMMRestWriteListener} to inform about changes that could not be applied, may be null.
+	 */
+	public synchronized void enableWriteBehind(OMMRestWriteListener listener)
+	{
+		if (m_writeBuffer == null) m_writeBuffer = new OMMRestWriteBuffer(this, listener);
+	}
+	
+	/** Sends all pending changes and returns to sending every change right away.
+	 * @return True, if all pending changes were applied successfully.
+	 */
+	public boolean disableWriteBehind()
+	{
+		OMMRestWriteBuffer buffer;
+		synchronized(this)
+		{
+			buffer = m_writeBuffer;
+			m_writeBuffer = null;
+		}
+		// flushed without holding this memory, which the flushing thread locks to resolve the storage node
+		return buffer == null || buffer.flush();
+	}
+	
+	/** Sends all changes pending in the write-behind buffer and waits until they are applied.
+	 * @return True, if all pending changes were applied successfully (or write-behind is not enabled).
+	 */
+	public boolean flush()
+	{
+		OMMRestWriteBuffer buffer = m_writeBuffer;
+		return buffer == null || buffer.flush();
+	}
+	
+	/** Retrieves the write-behind buffer of this memory.
+	 * @return The {@link OMMRestWriteBuffer}, or null if changes are sent right away.
+	 */
+	public OMMRestWriteBuffer getWriteBuffer()
+	{
+		return m_writeBuffer;
 	}
 	
 	/* (non-Javadoc)
@@ -345,6 +635,17 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 	public void setRestAccessMode(OMMRestAccessMode newMode)
 	{
 		mode = newMode;
+		OMMRestMirror mirror = null;
+		synchronized(this)
+		{
+			if (newMode != OMMRestAccessMode.LocalMirror)
+			{
+				mirror = m_mirror;
+				m_mirror = null;
+			}
+		}
+		// stopped without holding this memory, which a running synchronization locks to resolve the storage node
+		if (mirror != null) mirror.stop();
 	}
 
 
@@ -395,6 +696,7 @@ public class OMMRestImpl implements OMM, OMMRestInterface {
 
 		// read basic memory information
 		inputStream.defaultReadObject();
+		m_storageSelectorLock = new Object();
 
 		// read header
 		OMMHeader header = null;
@@ -0,0 +1,177 @@
+package de.dfki.omm.impl.rest;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import de.dfki.omm.tools.OMMMetrics;
+
+/** Caches a piece of memory metadata retrieved from the REST interface.
+ * The value is downloaded again after its lifetime has expired, concurrent requests for a missing value share one download,
+ * and shortly before the value expires it is refreshed in the background so that callers are not kept waiting.
+ *
+ * @param <T> Type of the cached metadata.
+ */
+public abstract class OMMRestMetadataResolver<T>
+{
+	/** Fraction of the lifetime after which a background refresh is started. */
+	public static float REFRESH_AHEAD_FACTOR = 0.75f;
+
+	private static final ExecutorService s_refresher = Executors.newCachedThreadPool(new ThreadFactory()
+	{
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "OMM metadata refresh");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private T m_value = null;
+	private long m_timestamp = 0L;
+	private long m_generation = 0L;
+	private Download m_inFlight = null;
+
+	/** Downloads the current value from the REST interface.
+	 * @return The downloaded value, or null if it could not be retrieved.
+	 */
+	protected abstract T download();
+
+	/** Retrieves the time after which a cached value has to be downloaded again.
+	 * @return Lifetime in milliseconds, 0 or less to disable caching.
+	 */
+	protected abstract long getLifetimeInMillis();
+
+	/** Retrieves the value, downloading it only if it is not cached or has expired.
+	 * @return The value, or null if it could not be retrieved.
+	 */
+	public T get()
+	{
+		while (true)
+		{
+			Download task = null;
+			boolean isOwner = false;
+
+			synchronized(this)
+			{
+				long lifetime = getLifetimeInMillis();
+				long age = System.currentTimeMillis() - m_timestamp;
+				if (m_value != null && age < lifetime)
+				{
+					if (m_inFlight == null && age >= lifetime * REFRESH_AHEAD_FACTOR)
+					{
+						m_inFlight = new Download(m_generation);
+						s_refresher.execute(m_inFlight);
+					}
+					OMMMetrics.recordCacheAccess(OMMMetrics.CACHE_METADATA, true);
+					return m_value;
+				}
+				OMMMetrics.recordCacheAccess(OMMMetrics.CACHE_METADATA, false);
+
+				if (m_inFlight == null)
+				{
+					m_inFlight = new Download(m_generation);
+					isOwner = true;
+				}
+				task = m_inFlight;
+			}
+
+			if (isOwner) task.run();
+
+			T value = null;
+			try
+			{
+				value = task.get();
+			}
+			catch(InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return null;
+			}
+			catch(ExecutionException e) { e.printStackTrace(); }
+
+			synchronized(this)
+			{
+				// a download started before the cache was invalidated, for example with other credentials, is not used
+				if (task.m_startGeneration == m_generation) return value;
+			}
+		}
+	}
+
+	/** Retrieves the cached value without accessing the REST interface.
+	 * @return The cached value, which may be expired, or null if there is none.
+	 */
+	public synchronized T peek()
+	{
+		return m_value;
+	}
+
+	/** Deletes the cached value, forcing a download on the next access.
+	 * A download which is in progress is not joined by later callers, and its result is discarded.
+	 */
+	public synchronized void invalidate()
+	{
+		m_value = null;
+		m_timestamp = 0L;
+		m_generation++;
+		m_inFlight = null;
+	}
+
+	/** A download which stores its result, unless the cache was invalidated in the meantime.
+	 * If the download fails, the previous value is kept and returned.
+	 */
+	private class Download extends FutureTask<T>
+	{
+		final long m_startGeneration;
+
+		Download(final long generation)
+		{
+			super(new Callable<T>()
+			{
+				public T call()
+				{
+					return download();
+				}
+			});
+			m_startGeneration = generation;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.FutureTask#set(java.lang.Object)
+		 */
+		@Override
+		protected void set(T value)
+		{
+			synchronized(OMMRestMetadataResolver.this)
+			{
+				if (m_inFlight == this) m_inFlight = null;
+				if (m_startGeneration == m_generation)
+				{
+					if (value != null)
+					{
+						m_value = value;
+						m_timestamp = System.currentTimeMillis();
+					}
+					else value = m_value;
+				}
+			}
+			super.set(value);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.FutureTask#setException(java.lang.Throwable)
+		 */
+		@Override
+		protected void setException(Throwable t)
+		{
+			synchronized(OMMRestMetadataResolver.this)
+			{
+				if (m_inFlight == this) m_inFlight = null;
+			}
+			super.setException(t);
+		}
+	}
+}
@@ -0,0 +1,316 @@
+package de.dfki.omm.impl.rest;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.restlet.data.Status;
+import org.restlet.resource.ResourceException;
+import org.w3c.dom.Document;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.tools.OMMMetrics;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.tools.SunCodec;
+import de.dfki.omm.types.BinaryValue;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMSourceType;
+import de.dfki.omm.types.TypedValue;
+
+/** Complete local replica of a REST memory, used by the access mode {@link de.dfki.omm.types.OMMRestAccessMode#LocalMirror}.
+ * The replica is downloaded once and then synchronized periodically: the list of block IDs is compared to find added and removed blocks,
+ * blocks changed by this client are downloaded again, and the meta data of up to {@link #VERIFIED_BLOCKS_PER_SYNC} other blocks,
+ * the least recently verified first, is compared to its last known state to find changes made by other clients.
+ * Each synchronization produces a new {@link OMMImpl}, so readers always see a consistent state without locking.
+ * Synchronizations lock the mirror separately from its schedule, so stopping the mirror never waits for a running synchronization.
+ */
+public class OMMRestMirror
+{
+	/** Default time between two background synchronizations. */
+	public static long SYNC_INTERVAL_IN_MILLIS = 2000;
+	/** Default maximal age of the replica; reads of an older replica wait for a synchronization. */
+	public static long MAX_STALENESS_IN_MILLIS = 10000;
+	/** Number of unchanged blocks whose meta data is compared to the OMS per synchronization, so that all are checked within a few intervals. */
+	public static int VERIFIED_BLOCKS_PER_SYNC = 16;
+
+	private static final ScheduledExecutorService s_syncer = Executors.newScheduledThreadPool(2, new ThreadFactory()
+	{
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "OMM mirror sync");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final OMMRestImpl m_omm;
+	private volatile OMMImpl m_replica = null;
+	private volatile long m_lastSync = 0L;
+	private final AtomicLong m_invalidations = new AtomicLong();
+	private final Map<String, byte[]> m_metaDigests = new HashMap<String, byte[]>();
+	private final Set<String> m_verificationOrder = new LinkedHashSet<String>();
+	private final Set<String> m_changedBlocks = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final Object m_syncLock = new Object();
+	private long m_syncIntervalInMillis = SYNC_INTERVAL_IN_MILLIS;
+	private volatile long m_maxStalenessInMillis = MAX_STALENESS_IN_MILLIS;
+	private ScheduledFuture<?> m_scheduledSync = null;
+
+	/** Creates a mirror of the given memory. Call {@link #start()} to begin the background synchronization.
+	 * @param omm The {@link OMMRestImpl} to mirror.
+	 */
+	public OMMRestMirror(OMMRestImpl omm)
+	{
+		m_omm = omm;
+	}
+
+	/** Sets the bounds within which the replica may differ from the memory on the OMS.
+	 * @param syncIntervalInMillis Time between two background synchronizations.
+	 * @param maxStalenessInMillis Maximal age of the replica before a read waits for a synchronization.
+	 */
+	public synchronized void setStalenessBounds(long syncIntervalInMillis, long maxStalenessInMillis)
+	{
+		m_syncIntervalInMillis = syncIntervalInMillis;
+		m_maxStalenessInMillis = maxStalenessInMillis;
+		if (m_scheduledSync != null)
+		{
+			stop();
+			start();
+		}
+	}
+
+	/** Starts the periodic background synchronization. */
+	public synchronized void start()
+	{
+		if (m_scheduledSync != null) return;
+		m_scheduledSync = s_syncer.scheduleWithFixedDelay(new Runnable()
+		{
+			public void run()
+			{
+				sync();
+			}
+		}, m_replica == null ? 0 : m_syncIntervalInMillis, m_syncIntervalInMillis, TimeUnit.MILLISECONDS);
+	}
+
+	/** Stops the periodic background synchronization. */
+	public synchronized void stop()
+	{
+		if (m_scheduledSync != null) m_scheduledSync.cancel(false);
+		m_scheduledSync = null;
+	}
+
+	/** Retrieves the replica, synchronizing it first if it is older than the maximal staleness.
+	 * If the synchronization fails, the last replica is returned.
+	 * @return The replica as {@link OMMImpl}, or null if the memory could never be downloaded.
+	 */
+	public OMMImpl getOMM()
+	{
+		if (isStale())
+		{
+			synchronized(m_syncLock)
+			{
+				// another reader may have synchronized in the meantime
+				if (isStale()) sync();
+			}
+		}
+		long lag = getSyncLagInMillis();
+		if (lag != Long.MAX_VALUE) OMMMetrics.recordSyncLag(lag);
+		return m_replica;
+	}
+
+	/** Retrieves the time since the replica was last known to match the memory on the OMS.
+	 * @return Lag in milliseconds, {@link Long#MAX_VALUE} if the memory was never downloaded.
+	 */
+	public long getSyncLagInMillis()
+	{
+		long lastSync = m_lastSync;
+		return lastSync == 0L ? Long.MAX_VALUE : System.currentTimeMillis() - lastSync;
+	}
+
+	/** Marks a block as changed by this client, so that it is downloaded again and the next read waits for the synchronization.
+	 * @param blockID ID of the block, or null if the set of blocks changed.
+	 */
+	public void invalidate(String blockID)
+	{
+		if (blockID != null) m_changedBlocks.add(blockID);
+		m_invalidations.incrementAndGet();
+		m_lastSync = 0L;
+	}
+
+	private boolean isStale()
+	{
+		return m_replica == null || getSyncLagInMillis() > m_maxStalenessInMillis;
+	}
+
+	/** Synchronizes the replica with the memory on the OMS.
+	 * @return True, if the synchronization succeeded.
+	 */
+	public boolean sync()
+	{
+		synchronized(m_syncLock)
+		{
+			return doSync();
+		}
+	}
+
+	private boolean doSync()
+	{
+		long start = System.currentTimeMillis();
+		long startNanos = System.nanoTime();
+		long invalidations = m_invalidations.get();
+		Set<String> changed = new HashSet<String>();
+		try
+		{
+			OMMHeader header = m_omm.downloadHeader();
+			List<String> ids = m_omm.getStoredBlockIDs();
+			String storageURL = m_omm.getStorageURL();
+			if (header == null || ids == null || storageURL == null) return false;
+
+			OMMImpl previous = m_replica;
+			for(String id : ids)
+			{
+				if (m_changedBlocks.remove(id)) changed.add(id);
+			}
+			Set<String> verified = selectBlocksToVerify(ids);
+
+			MessageDigest md5 = MessageDigest.getInstance("MD5");
+			List<OMMBlock> blocks = new LinkedList<OMMBlock>();
+			Map<String, byte[]> digests = new HashMap<String, byte[]>();
+
+			for(String id : ids)
+			{
+				OMMBlock known = (previous != null) ? previous.getBlock(id) : null;
+				if (known != null && !changed.contains(id) && !verified.contains(id) && m_metaDigests.containsKey(id))
+				{
+					blocks.add(known);
+					digests.put(id, m_metaDigests.get(id));
+					continue;
+				}
+
+				byte[] meta = read(storageURL, "/block/" + id + "/meta");
+				if (meta == null) continue; // removed in the meantime
+				byte[] digest = md5.digest(meta);
+				digests.put(id, digest);
+
+				if (known != null && !changed.contains(id) && Arrays.equals(digest, m_metaDigests.get(id)))
+				{
+					blocks.add(known);
+					continue;
+				}
+
+				OMMBlock block = downloadBlock(storageURL, id, meta);
+				if (block != null) blocks.add(block);
+			}
+
+			OMMImpl replica = (OMMImpl)OMMImpl.create(header, blocks, new URL(m_omm.restURL), OMMSourceType.OMS);
+			m_metaDigests.clear();
+			m_metaDigests.putAll(digests);
+			m_verificationOrder.retainAll(digests.keySet());
+			m_verificationOrder.removeAll(verified);
+			m_verificationOrder.addAll(digests.keySet()); // new and just verified blocks are verified last
+			m_replica = replica;
+			if (invalidations == m_invalidations.get()) m_lastSync = start; // otherwise changes may have been missed
+			return true;
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+			m_changedBlocks.addAll(changed); // download them with the next synchronization
+		}
+		finally
+		{
+			OMMMetrics.recordSync(System.nanoTime() - startNanos);
+		}
+		return false;
+	}
+
+	/** Selects the known blocks whose meta data is compared to the OMS, the least recently verified first. */
+	private Set<String> selectBlocksToVerify(List<String> ids)
+	{
+		Set<String> present = new HashSet<String>(ids);
+		Set<String> selected = new HashSet<String>();
+		for(String id : m_verificationOrder)
+		{
+			if (selected.size() >= VERIFIED_BLOCKS_PER_SYNC) break;
+			if (present.contains(id)) selected.add(id);
+		}
+		return selected;
+	}
+
+	private OMMBlock downloadBlock(String storageURL, String id, byte[] meta) throws Exception
+	{
+		Document doc = OMMXMLConverter.getXmlDocumentFromString(new ByteArrayInputStream(meta));
+		if (doc == null) return null;
+		OMMBlockImpl block = (OMMBlockImpl)OMMXMLConverter.parseBlock(doc.getDocumentElement(), id);
+
+		if (block.isLinkBlock()) return block;
+		byte[] payload = read(storageURL, "/block/" + id + "/payload");
+		if (payload != null) block.setPayload(decodePayload(block.getFormat(), payload), OMMEntity.getDummyEntity());
+		return block;
+	}
+
+	/** Converts a downloaded payload into a {@link TypedValue} according to the block's format.
+	 * Payloads of blocks in a binary encoding and payloads which are no valid UTF-8 text are kept in base64 encoding
+	 * like by {@link OMMBlockRestImpl#getPayload()}, text payloads are typed with the MIME type of the block.
+	 */
+	private static TypedValue decodePayload(OMMFormat format, byte[] payload)
+	{
+		String encoding = (format != null) ? format.getEncryption() : null;
+		if (encoding != null && (encoding.equalsIgnoreCase(SunCodec.BASE64_TYPE) || encoding.equalsIgnoreCase("uuencode")))
+		{
+			return new BinaryValue(SunCodec.BASE64_TYPE, payload);
+		}
+
+		CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder().onMalformedInput(CodingErrorAction.REPORT).onUnmappableCharacter(CodingErrorAction.REPORT);
+		try
+		{
+			String text = decoder.decode(ByteBuffer.wrap(payload)).toString();
+			String type = (format != null && format.getMIMEType() != null) ? format.getMIMEType() : "none";
+			return new GenericTypedValue(type, text);
+		}
+		catch(CharacterCodingException e)
+		{
+			return new BinaryValue(SunCodec.BASE64_TYPE, payload);
+		}
+	}
+
+	/** Reads from the storage, treating a missing resource as empty. */
+	private byte[] read(String storageURL, String path) throws IOException
+	{
+		try
+		{
+			return m_omm.readFromStorage(storageURL, path);
+		}
+		catch(ResourceException e)
+		{
+			if (Status.CLIENT_ERROR_NOT_FOUND.equals(e.getStatus())) return null;
+			throw e;
+		}
+	}
+}
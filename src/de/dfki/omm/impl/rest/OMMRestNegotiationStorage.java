@@ -1,11 +1,15 @@
 package de.dfki.omm.impl.rest;
 
+import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import de.dfki.omm.interfaces.JSONOutput;
 
 import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Vector;
 
 /** Representation of an OMM's block storage node in the REST interface. */
 public class OMMRestNegotiationStorage implements JSONOutput, Serializable
@@ -14,6 +18,7 @@ public class OMMRestNegotiationStorage implements JSONOutput, Serializable
 	private boolean m_deleteDisabled = false;
 	private String m_link = null;
 	private long m_capacity = Long.MAX_VALUE, m_freeSpace = Long.MAX_VALUE;		
+	private List<OMMRestNegotiationStorage> m_nodes = new Vector<OMMRestNegotiationStorage>();
 	
 	private OMMRestNegotiationStorage() {}
 	
@@ -58,6 +63,22 @@ public class OMMRestNegotiationStorage implements JSONOutput, Serializable
 			storage.m_freeSpace = convertValue(obj.getString("FREE_SPACE"));
 			storage.m_deleteDisabled = obj.getBoolean("DELETE_DISABLED");
 			
+			JSONArray nodes = obj.optJSONArray("NODES");
+			if (nodes != null)
+			{
+				for(int i = 0; i < nodes.length(); i++)
+				{
+					JSONObject jsonNode = nodes.getJSONObject(i);
+					OMMRestNegotiationStorage node = new OMMRestNegotiationStorage();
+					node.m_distributed = true;
+					node.m_deleteDisabled = storage.m_deleteDisabled;
+					node.m_link = jsonNode.getString("LINK");
+					if (jsonNode.has("CAPACITY")) node.m_capacity = convertValue(jsonNode.getString("CAPACITY"));
+					if (jsonNode.has("FREE_SPACE")) node.m_freeSpace = convertValue(jsonNode.getString("FREE_SPACE"));
+					storage.m_nodes.add(node);
+				}
+			}
+			
 			return storage;
 		}
 		catch(Exception e){e.printStackTrace();}
@@ -157,6 +178,23 @@ public class OMMRestNegotiationStorage implements JSONOutput, Serializable
 	{
 		return m_freeSpace;
 	}
+	
+	/** Retrieves the further nodes of a distributed block storage, which serve the same blocks as this one. 
+	 * @return Unmodifiable {@link List} of additional storage nodes, empty if the storage is not distributed. 
+	 */
+	public List<OMMRestNegotiationStorage> getNodes()
+	{
+		return Collections.unmodifiableList(m_nodes);
+	}
+	
+	/** Adds a further node to a distributed block storage. 
+	 * @param node The additional storage node. 
+	 */
+	public void addNode(OMMRestNegotiationStorage node)
+	{
+		m_distributed = true;
+		m_nodes.add(node);
+	}
 
 	@Override
 	public String toString()
@@ -185,8 +223,22 @@ public class OMMRestNegotiationStorage implements JSONOutput, Serializable
 			storage.put("LINK", getLink());
 			storage.put("CAPACITY", convertValue(getCapacity()));
 			storage.put("FREE_SPACE", convertValue(getFreeSpace()));
-			storage.put("DISTRIBUTED", false);
+			storage.put("DISTRIBUTED", isDistributed());
 			storage.put("DELETE_DISABLED", m_deleteDisabled);
+			
+			if (!m_nodes.isEmpty())
+			{
+				JSONArray nodes = new JSONArray();
+				for(OMMRestNegotiationStorage node : m_nodes)
+				{
+					JSONObject jsonNode = new JSONObject();
+					jsonNode.put("LINK", node.getLink());
+					jsonNode.put("CAPACITY", convertValue(node.getCapacity()));
+					jsonNode.put("FREE_SPACE", convertValue(node.getFreeSpace()));
+					nodes.put(jsonNode);
+				}
+				storage.put("NODES", nodes);
+			}
 
 			return storage;
 		} catch (JSONException e) {
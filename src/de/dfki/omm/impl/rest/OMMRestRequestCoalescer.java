@@ -0,0 +1,148 @@
+package de.dfki.omm.impl.rest;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.restlet.data.MediaType;
+import org.restlet.representation.Representation;
+import org.restlet.resource.ClientResource;
+
+import de.dfki.omm.acl.OMSCredentials;
+import de.dfki.omm.tools.RestCompression;
+
+/** Merges identical GET requests to the REST interface that are issued at the same time.
+ * The first caller for an address sends the request, all callers arriving while it is in flight wait for and share its result.
+ * Results are shared as raw data, so that every caller can build its own (not thread-safe) DOM or block objects from it.
+ */
+public class OMMRestRequestCoalescer
+{
+	/** Whether concurrent identical requests are merged. */
+	public static boolean COALESCING_ENABLED = true;
+
+	private static final ConcurrentMap<String, FutureTask<byte[]>> s_inFlight = new ConcurrentHashMap<String, FutureTask<byte[]>>();
+	private static final AtomicLong s_requestsSent = new AtomicLong();
+	private static final AtomicLong s_requestsSaved = new AtomicLong();
+
+	private OMMRestRequestCoalescer() {}
+
+	/** Performs a GET on the given address or joins an identical request that is already in flight.
+	 * @param url Address of the REST node.
+	 * @param credentials {@link OMSCredentials} to be used to access the node, may be null.
+	 * @return The decoded response data, or null if the response had no entity.
+	 * @throws IOException If the response cannot be read.
+	 */
+	public static byte[] get(String url, OMSCredentials credentials) throws IOException
+	{
+		return get(url, credentials, null);
+	}
+
+	/** Performs a GET on the given address, preferring the given media type, or joins an identical request that is already in flight.
+	 * @param url Address of the REST node.
+	 * @param credentials {@link OMSCredentials} to be used to access the node, may be null.
+	 * @param preferred The preferred {@link MediaType} of the response, null for the default one.
+	 * @return The decoded response data, or null if the response had no entity.
+	 * @throws IOException If the response cannot be read.
+	 */
+	public static byte[] get(final String url, final OMSCredentials credentials, final MediaType preferred) throws IOException
+	{
+		FutureTask<byte[]> task = new FutureTask<byte[]>(new Callable<byte[]>()
+		{
+			public byte[] call() throws IOException
+			{
+				return download(url, credentials, preferred);
+			}
+		});
+
+		if (!COALESCING_ENABLED)
+		{
+			s_requestsSent.incrementAndGet();
+			task.run();
+			return await(task);
+		}
+
+		String key = (credentials == null) ? url : url + "\n" + credentials.getOMSCredentialString();
+		if (preferred != null) key += "\n" + preferred;
+		FutureTask<byte[]> running = s_inFlight.putIfAbsent(key, task);
+		if (running != null)
+		{
+			s_requestsSaved.incrementAndGet();
+			return await(running);
+		}
+
+		try
+		{
+			s_requestsSent.incrementAndGet();
+			task.run();
+			return await(task);
+		}
+		finally
+		{
+			s_inFlight.remove(key, task);
+		}
+	}
+
+	/** Retrieves the number of GET requests that were actually sent. */
+	public static long getRequestsSent() { return s_requestsSent.get(); }
+
+	/** Retrieves the number of GET requests that were saved by joining a request in flight. */
+	public static long getRequestsSaved() { return s_requestsSaved.get(); }
+
+	/** Sets all counters back to zero. */
+	public static void resetStatistics()
+	{
+		s_requestsSent.set(0);
+		s_requestsSaved.set(0);
+	}
+
+	private static byte[] download(String url, OMSCredentials credentials, MediaType preferred) throws IOException
+	{
+		ClientResource c = RestCompression.createClientResource(url, credentials);
+		if (preferred != null) RestCompression.acceptMediaType(c, preferred);
+		Representation r = RestCompression.get(c);
+		InputStream is = RestCompression.getStream(r);
+		if (is == null) return null;
+
+		try
+		{
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int read;
+			while ((read = is.read(buffer)) > -1)
+			{
+				baos.write(buffer, 0, read);
+			}
+			return baos.toByteArray();
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	private static byte[] await(FutureTask<byte[]> task) throws IOException
+	{
+		try
+		{
+			return task.get();
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while waiting for response", e);
+		}
+		catch(ExecutionException e)
+		{
+			Throwable cause = e.getCause();
+			if (cause instanceof IOException) throw (IOException)cause;
+			if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+			throw new IOException(cause);
+		}
+	}
+}
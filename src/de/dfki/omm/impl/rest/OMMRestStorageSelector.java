@@ -0,0 +1,364 @@
+package de.dfki.omm.impl.rest;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.restlet.data.MediaType;
+
+import de.dfki.omm.acl.OMSCredentials;
+
+/** Chooses among the nodes of a distributed block storage.
+ * Reads go to the node with the lowest smoothed latency and are repeated on the next best node if they take longer than usual for that node,
+ * the first answer wins. Nodes which have not been asked for {@link #LATENCY_EXPIRY_IN_MILLIS} are tried again, so that slow or failed nodes
+ * can recover. Writes go to the node with the most free space.
+ */
+public class OMMRestStorageSelector
+{
+	/** Weight of a new sample in the exponentially weighted moving average of a node's latency. */
+	public static double LATENCY_SMOOTHING_FACTOR = 0.2;
+	/** Percentile of a node's recent latencies after which a read is repeated on another node. */
+	public static double HEDGE_PERCENTILE = 0.95;
+	/** Delay after which a read is repeated on another node as long as too few latencies are known. */
+	public static long DEFAULT_HEDGE_DELAY_IN_MILLIS = 50;
+	/** Number of recent latencies kept per node to compute percentiles. */
+	public static int LATENCY_SAMPLES = 64;
+	/** Time added to the latency of a failed read. */
+	public static long FAILURE_PENALTY_IN_MILLIS = 1000;
+	/** Time after which the latencies measured for a node are outdated, the node is then asked again and its statistics start anew. */
+	public static long LATENCY_EXPIRY_IN_MILLIS = 30000;
+
+	private static final ExecutorService s_executor = Executors.newCachedThreadPool(new ThreadFactory()
+	{
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "OMM storage read");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final List<StorageNode> m_nodes;
+	private final AtomicLong m_hedgedReads = new AtomicLong();
+	private final AtomicLong m_hedgeWins = new AtomicLong();
+
+	private OMMRestStorageSelector(List<StorageNode> nodes)
+	{
+		m_nodes = nodes;
+	}
+
+	/** Creates a selector for a block storage and all of its further nodes.
+	 * @param storage The storage as announced in the {@link OMMRestNegotiationData}.
+	 * @return The created {@link OMMRestStorageSelector}, or null if the storage has only one node.
+	 */
+	public static OMMRestStorageSelector create(OMMRestNegotiationStorage storage)
+	{
+		if (storage == null || !storage.isDistributed() || storage.getNodes().isEmpty()) return null;
+
+		List<StorageNode> nodes = new ArrayList<StorageNode>();
+		nodes.add(new StorageNode(storage.getLink(), storage.getFreeSpace()));
+		for(OMMRestNegotiationStorage node : storage.getNodes())
+		{
+			nodes.add(new StorageNode(node.getLink(), node.getFreeSpace()));
+		}
+		return new OMMRestStorageSelector(nodes);
+	}
+
+	/** Checks whether a storage address belongs to one of the nodes of this selector.
+	 * @param link Address of a block storage node.
+	 * @return True, if so.
+	 */
+	public boolean hasNode(String link)
+	{
+		return findNode(link) != null;
+	}
+
+	/** Reads data from the fastest node, repeating the read on the next node if the answer is late or the read fails.
+	 * @param path Path below the storage address, for example <code>/block/1/meta</code>.
+	 * @param credentials {@link OMSCredentials} to be used to access the nodes, may be null.
+	 * @return The data of the first successful answer.
+	 * @throws IOException If the read failed on all nodes.
+	 */
+	public byte[] read(String path, OMSCredentials credentials) throws IOException
+	{
+		return read(path, credentials, null);
+	}
+
+	/** Reads data from the fastest node like {@link #read(String, OMSCredentials)}, preferring the given media type.
+	 * @param path Path below the storage address, for example <code>/block/1/meta</code>.
+	 * @param credentials {@link OMSCredentials} to be used to access the nodes, may be null.
+	 * @param preferred The preferred {@link MediaType} of the response, null for the default one.
+	 * @return The data of the first successful answer.
+	 * @throws IOException If the read failed on all nodes.
+	 */
+	public byte[] read(String path, OMSCredentials credentials, MediaType preferred) throws IOException
+	{
+		List<StorageNode> ranked = getNodesByLatency();
+		CompletionService<byte[]> completion = new ExecutorCompletionService<byte[]>(s_executor);
+		List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+
+		futures.add(submit(completion, ranked.get(0), path, credentials, preferred));
+		int next = 1, pending = 1;
+		Exception lastError = null;
+
+		try
+		{
+			Future<byte[]> done = completion.poll(ranked.get(0).getHedgeDelayInMillis(), TimeUnit.MILLISECONDS);
+			if (done == null && next < ranked.size())
+			{
+				m_hedgedReads.incrementAndGet();
+				futures.add(submit(completion, ranked.get(next++), path, credentials, preferred));
+				pending++;
+			}
+
+			while (pending > 0)
+			{
+				if (done == null) done = completion.take();
+				pending--;
+				try
+				{
+					byte[] data = done.get();
+					if (done != futures.get(0)) m_hedgeWins.incrementAndGet();
+					return data;
+				}
+				catch(ExecutionException e)
+				{
+					lastError = e;
+					if (next < ranked.size())
+					{
+						futures.add(submit(completion, ranked.get(next++), path, credentials, preferred));
+						pending++;
+					}
+				}
+				done = null;
+			}
+		}
+		catch(InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			lastError = e;
+		}
+		finally
+		{
+			// reads already running are left to finish so that their latency is still recorded
+			for(Future<byte[]> future : futures) future.cancel(false);
+		}
+
+		if (lastError instanceof ExecutionException && lastError.getCause() instanceof IOException) throw (IOException)lastError.getCause();
+		throw new IOException("reading '" + path + "' failed on all storage nodes", lastError);
+	}
+
+	/** Selects the node to which new blocks are written.
+	 * @return Address of the node with the most free space, the faster one if several have the same.
+	 */
+	public String selectWriteNode()
+	{
+		StorageNode best = null;
+		for(StorageNode node : getNodesByLatency())
+		{
+			if (best == null || node.m_freeSpace > best.m_freeSpace) best = node;
+		}
+		return best.m_link;
+	}
+
+	/** Updates the free space known for a node, for example after new negotiation data was retrieved.
+	 * @param link Address of the storage node.
+	 * @param freeSpace The node's free capacity.
+	 */
+	public void setFreeSpace(String link, long freeSpace)
+	{
+		StorageNode node = findNode(link);
+		if (node != null) node.m_freeSpace = freeSpace;
+	}
+
+	/** Retrieves the smoothed latency of a node.
+	 * @param link Address of the storage node.
+	 * @return Latency in milliseconds, or a negative value if none is known yet.
+	 */
+	public double getLatencyInMillis(String link)
+	{
+		StorageNode node = findNode(link);
+		return node == null ? -1 : node.getAverageInMillis();
+	}
+
+	/** Retrieves the addresses of all nodes in the order in which the next read asks them, the fastest first unless a node is due to be explored.
+	 * @return {@link List} of node addresses.
+	 */
+	public List<String> getNodeLinks()
+	{
+		List<String> links = new ArrayList<String>();
+		for(StorageNode node : getNodesByLatency()) links.add(node.m_link);
+		return links;
+	}
+
+	/** Retrieves the number of reads that were repeated on a second node. */
+	public long getHedgedReads() { return m_hedgedReads.get(); }
+
+	/** Retrieves the number of reads that were answered first by a node other than the fastest one. */
+	public long getHedgeWins() { return m_hedgeWins.get(); }
+
+	private StorageNode findNode(String link)
+	{
+		if (link == null) return null;
+		for(StorageNode node : m_nodes)
+		{
+			if (node.m_link.equals(link)) return node;
+		}
+		return null;
+	}
+
+	/** Sorts the nodes by smoothed latency, so that hedged and repeated reads go to the next fastest node.
+	 * The node without current measurements which was asked least recently is put first so that it gets explored,
+	 * the others follow behind the measured nodes. The order is computed on a snapshot, as reads running in parallel keep updating the statistics.
+	 */
+	private List<StorageNode> getNodesByLatency()
+	{
+		long now = System.nanoTime();
+		List<Rank> ranks = new ArrayList<Rank>(m_nodes.size());
+		for(StorageNode node : m_nodes) ranks.add(node.getRank(now));
+		Collections.sort(ranks, new Comparator<Rank>()
+		{
+			public int compare(Rank a, Rank b)
+			{
+				if (a.stale != b.stale) return a.stale ? 1 : -1;
+				if (a.stale) return Long.compare(a.lastRead, b.lastRead);
+				return Double.compare(a.average, b.average);
+			}
+		});
+
+		List<StorageNode> ranked = new ArrayList<StorageNode>(ranks.size());
+		int explore = -1;
+		for(Rank rank : ranks)
+		{
+			if (rank.stale && explore < 0) explore = ranked.size();
+			ranked.add(rank.node);
+		}
+		if (explore > 0) ranked.add(0, ranked.remove(explore));
+		return ranked;
+	}
+
+	private static Future<byte[]> submit(CompletionService<byte[]> completion, StorageNode node, String path, OMSCredentials credentials, MediaType preferred)
+	{
+		node.markRead();
+		return completion.submit(createReadTask(node, path, credentials, preferred));
+	}
+
+	private static Callable<byte[]> createReadTask(final StorageNode node, final String path, final OMSCredentials credentials, final MediaType preferred)
+	{
+		return new Callable<byte[]>()
+		{
+			public byte[] call() throws IOException
+			{
+				long start = System.nanoTime();
+				try
+				{
+					byte[] data = OMMRestRequestCoalescer.get(node.m_link + path, credentials, preferred);
+					node.addSample((System.nanoTime() - start) / 1000000.0);
+					return data;
+				}
+				catch(IOException e)
+				{
+					node.addSample((System.nanoTime() - start) / 1000000.0 + FAILURE_PENALTY_IN_MILLIS);
+					throw e;
+				}
+				catch(RuntimeException e)
+				{
+					node.addSample((System.nanoTime() - start) / 1000000.0 + FAILURE_PENALTY_IN_MILLIS);
+					throw e;
+				}
+			}
+		};
+	}
+
+	/** Statistics of a node at the time the nodes were ranked. */
+	private static class Rank
+	{
+		StorageNode node;
+		boolean stale;
+		long lastRead;
+		double average;
+	}
+
+	/** Latency statistics and free space of a single storage node. */
+	private static class StorageNode
+	{
+		final String m_link;
+		volatile long m_freeSpace;
+		private double m_average = -1;
+		private final double[] m_samples = new double[Math.max(1, LATENCY_SAMPLES)];
+		private int m_sampleCount = 0, m_samplePosition = 0;
+		private long m_lastRead = 0, m_lastSample = 0;
+
+		StorageNode(String link, long freeSpace)
+		{
+			m_link = link;
+			m_freeSpace = freeSpace;
+		}
+
+		synchronized void addSample(double millis)
+		{
+			long now = System.nanoTime();
+			if (isExpired(m_lastSample, now))
+			{
+				// outdated measurements do not count against the new ones
+				m_average = -1;
+				m_sampleCount = 0;
+				m_samplePosition = 0;
+			}
+			m_lastSample = now;
+			m_average = (m_average < 0) ? millis : LATENCY_SMOOTHING_FACTOR * millis + (1 - LATENCY_SMOOTHING_FACTOR) * m_average;
+			m_samples[m_samplePosition] = millis;
+			m_samplePosition = (m_samplePosition + 1) % m_samples.length;
+			if (m_sampleCount < m_samples.length) m_sampleCount++;
+		}
+
+		synchronized double getAverageInMillis()
+		{
+			return m_average;
+		}
+
+		/** Records that the node is asked now, so that concurrent reads do not explore it again. */
+		synchronized void markRead()
+		{
+			m_lastRead = System.nanoTime();
+		}
+
+		synchronized Rank getRank(long now)
+		{
+			Rank rank = new Rank();
+			rank.node = this;
+			rank.stale = isExpired(m_lastRead, now);
+			rank.lastRead = m_lastRead;
+			// a node whose first read is still running comes after the measured ones
+			rank.average = (m_average < 0) ? Double.MAX_VALUE : m_average;
+			return rank;
+		}
+
+		synchronized long getHedgeDelayInMillis()
+		{
+			if (m_sampleCount < 8 || isExpired(m_lastSample, System.nanoTime())) return DEFAULT_HEDGE_DELAY_IN_MILLIS;
+			double[] sorted = Arrays.copyOf(m_samples, m_sampleCount);
+			Arrays.sort(sorted);
+			int index = (int)Math.ceil(HEDGE_PERCENTILE * sorted.length) - 1;
+			return (long)Math.ceil(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+		}
+
+		private static boolean isExpired(long time, long now)
+		{
+			return time == 0 || now - time > LATENCY_EXPIRY_IN_MILLIS * 1000000L;
+		}
+	}
+}
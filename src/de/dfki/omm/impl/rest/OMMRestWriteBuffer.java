@@ -0,0 +1,424 @@
+package de.dfki.omm.impl.rest;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.tools.OMMActionResultType;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.tools.SunCodec;
+import de.dfki.omm.types.OMMSubjectTag;
+import de.dfki.omm.types.TypedValue;
+
+/** Collects changes to a REST memory locally and sends them to the OMS later (write-behind).
+ * Changes are merged per block: the last payload wins, added subjects accumulate, and removing a block discards all of its pending changes.
+ * The merged changes are sent one request per change when {@link #MAX_PENDING_WRITES} changes are pending,
+ * {@link #FLUSH_DELAY_IN_MILLIS} after the first change, or on {@link #flush()}.
+ * Added blocks are kept as copies under a temporary ID until the OMS assigns their final ID, which is then set on the added block.
+ * Changes to a block whose addition is being sent are kept under its temporary ID and passed on to its final ID once it is known.
+ */
+public class OMMRestWriteBuffer
+{
+	/** Number of pending changes after which they are sent right away. */
+	public static int MAX_PENDING_WRITES = 64;
+	/** Time after the first pending change after which the pending changes are sent. */
+	public static long FLUSH_DELAY_IN_MILLIS = 1000;
+	/** Prefix of the IDs given to added blocks until the OMS assigns their final ID. */
+	public static final String TEMPORARY_ID_PREFIX = "pending-";
+
+	/** Kinds of changes collected by the buffer. */
+	public enum Operation { AddBlock, RemoveBlock, SetPayload, RemovePayload, AddSubject }
+
+	private static final ScheduledExecutorService s_flusher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+	{
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "OMM write-behind");
+			t.setDaemon(true);
+			return t;
+		}
+	});
+
+	private final OMMRestImpl m_omm;
+	private final OMMRestWriteListener m_listener;
+	private final Object m_flushLock = new Object();
+	private Batch m_pending = new Batch();
+	private Batch m_inFlight = null;
+	private ScheduledFuture<?> m_scheduledFlush = null;
+	private int m_nextTemporaryID = 1;
+
+	private final Runnable m_flushTask = new Runnable()
+	{
+		public void run()
+		{
+			flush();
+		}
+	};
+
+	/** Creates a buffer for the given memory.
+	 * @param omm The {@link OMMRestImpl} to which changes are sent.
+	 * @param listener {@link OMMRestWriteListener} to inform about failed writes, may be null.
+	 */
+	public OMMRestWriteBuffer(OMMRestImpl omm, OMMRestWriteListener listener)
+	{
+		m_omm = omm;
+		m_listener = listener;
+	}
+
+	// collecting changes
+
+	/** Queues a new block. A copy of the block is listed under a temporary ID until it is created on the OMS,
+	 * the ID of the given block is set when the OMS has assigned it.
+	 * @param block The {@link OMMBlock} to add.
+	 * @return The temporary ID of the block.
+	 */
+	public synchronized String addBlock(OMMBlock block)
+	{
+		String id = TEMPORARY_ID_PREFIX + (m_nextTemporaryID++);
+		m_pending.added.put(id, OMMXMLConverter.parseBlock(OMMXMLConverter.generateCompleteBlock(block, true).getDocumentElement(), id));
+		m_pending.origins.put(id, block);
+		afterWrite();
+		return id;
+	}
+
+	/** Queues the removal of a block, discarding all pending changes to it.
+	 * @param blockID ID of the block, which may be the temporary ID of a block that is being sent.
+	 */
+	public synchronized void removeBlock(String blockID)
+	{
+		if (m_pending.added.remove(blockID) != null) // block never reached the OMS
+		{
+			m_pending.origins.remove(blockID);
+			return;
+		}
+		m_pending.writes.remove(blockID);
+		m_pending.removed.add(blockID);
+		afterWrite();
+	}
+
+	/** Queues a new payload for a block, replacing any pending payload.
+	 * @param blockID ID of the block.
+	 * @param payload The payload as {@link TypedValue}.
+	 */
+	public synchronized void setPayload(String blockID, TypedValue payload)
+	{
+		BlockWrites writes = getWrites(blockID);
+		writes.payloadSet = true;
+		writes.payload = payload;
+		writes.payloadData = null;
+		afterWrite();
+	}
+
+	/** Queues a new binary payload for a block, replacing any pending payload.
+	 * @param blockID ID of the block.
+	 * @param payload The payload data.
+	 */
+	public synchronized void setPayload(String blockID, byte[] payload)
+	{
+		BlockWrites writes = getWrites(blockID);
+		writes.payloadSet = true;
+		writes.payload = null;
+		writes.payloadData = payload;
+		afterWrite();
+	}
+
+	/** Queues the removal of a block's payload, replacing any pending payload.
+	 * @param blockID ID of the block.
+	 */
+	public synchronized void removePayload(String blockID)
+	{
+		BlockWrites writes = getWrites(blockID);
+		writes.payloadSet = true;
+		writes.payload = null;
+		writes.payloadData = null;
+		afterWrite();
+	}
+
+	/** Queues a subject to be added to a block.
+	 * @param blockID ID of the block.
+	 * @param subject The {@link OMMSubjectTag} to add.
+	 */
+	public synchronized void addSubject(String blockID, OMMSubjectTag subject)
+	{
+		getWrites(blockID).subjects.add(subject);
+		afterWrite();
+	}
+
+	// local view
+
+	/** Retrieves a block that was added but not yet created on the OMS.
+	 * @param blockID Temporary ID of the block.
+	 * @return The {@link OMMBlock}, or null if there is no such pending block.
+	 */
+	public synchronized OMMBlock getAddedBlock(String blockID)
+	{
+		OMMBlock block = m_pending.added.get(blockID);
+		if (block == null && m_inFlight != null) block = m_inFlight.added.get(blockID);
+		return block;
+	}
+
+	/** Checks whether the removal of a block is pending.
+	 * @param blockID ID of the block.
+	 * @return True, if so.
+	 */
+	public synchronized boolean isRemoved(String blockID)
+	{
+		return m_pending.removed.contains(blockID) || (m_inFlight != null && m_inFlight.removed.contains(blockID));
+	}
+
+	/** Applies the pending additions and removals to a list of block IDs.
+	 * @param blockIDs IDs of the blocks stored on the OMS.
+	 * @return A new list without the removed and with the added blocks.
+	 */
+	public synchronized List<String> applyTo(List<String> blockIDs)
+	{
+		List<String> ids = new ArrayList<String>(blockIDs);
+		if (m_inFlight != null)
+		{
+			ids.removeAll(m_inFlight.removed);
+			ids.addAll(m_inFlight.added.keySet());
+		}
+		ids.removeAll(m_pending.removed);
+		ids.addAll(m_pending.added.keySet());
+		return ids;
+	}
+
+	/** Checks whether a new payload or its removal is pending for a block.
+	 * @param blockID ID of the block.
+	 * @return True, if so.
+	 */
+	public synchronized boolean hasPendingPayload(String blockID)
+	{
+		return findPayloadWrites(blockID) != null;
+	}
+
+	/** Retrieves the pending payload of a block as String, binary payloads in base64 encoding.
+	 * @param blockID ID of the block.
+	 * @return The payload, or null if it is to be removed or nothing is pending.
+	 */
+	public synchronized String getPendingPayloadAsString(String blockID)
+	{
+		BlockWrites writes = findPayloadWrites(blockID);
+		if (writes == null) return null;
+		if (writes.payloadData != null) return new SunCodec().encodePayload(SunCodec.BASE64_TYPE, writes.payloadData);
+		if (writes.payload != null && writes.payload.getValue() != null) return writes.payload.getValue().toString();
+		return null;
+	}
+
+	/** Retrieves the subjects that are pending to be added to a block.
+	 * @param blockID ID of the block.
+	 * @return {@link List} of {@link OMMSubjectTag}s, empty if none are pending.
+	 */
+	public synchronized List<OMMSubjectTag> getPendingSubjects(String blockID)
+	{
+		List<OMMSubjectTag> subjects = new ArrayList<OMMSubjectTag>();
+		if (m_inFlight != null && m_inFlight.writes.containsKey(blockID)) subjects.addAll(m_inFlight.writes.get(blockID).subjects);
+		if (m_pending.writes.containsKey(blockID)) subjects.addAll(m_pending.writes.get(blockID).subjects);
+		return subjects;
+	}
+
+	/** Retrieves the number of changes that wait to be sent, after merging. */
+	public synchronized int getPendingCount()
+	{
+		return m_pending.size();
+	}
+
+	// sending changes
+
+	/** Sends all pending changes to the OMS and waits until they are applied.
+	 * Failed writes are reported to the {@link OMMRestWriteListener}.
+	 * @return True, if all changes were applied successfully.
+	 */
+	public boolean flush()
+	{
+		synchronized(m_flushLock)
+		{
+			Batch batch;
+			synchronized(this)
+			{
+				if (m_scheduledFlush != null)
+				{
+					m_scheduledFlush.cancel(false);
+					m_scheduledFlush = null;
+				}
+				if (m_pending.size() == 0) return true;
+				batch = m_pending;
+				m_pending = new Batch();
+				m_inFlight = batch;
+			}
+
+			try
+			{
+				return send(batch);
+			}
+			finally
+			{
+				synchronized(this)
+				{
+					m_inFlight = null;
+					moveToFinalIDs(batch);
+				}
+			}
+		}
+	}
+
+	private boolean send(Batch batch)
+	{
+		boolean success = true;
+
+		for(Map.Entry<String, OMMBlock> entry : batch.added.entrySet())
+		{
+			boolean added = apply(entry.getKey(), Operation.AddBlock, entry.getValue(), null);
+			if (added) batch.origins.get(entry.getKey()).setID(entry.getValue().getID());
+			success &= added;
+		}
+
+		for(Map.Entry<String, BlockWrites> entry : batch.writes.entrySet())
+		{
+			String id = entry.getKey();
+			BlockWrites writes = entry.getValue();
+			OMMBlockRestImpl block = new OMMBlockRestImpl(id, m_omm.getStorageURL(), m_omm.getRestAccessMode(), m_omm);
+			if (writes.payloadSet)
+			{
+				success &= apply(id, (writes.payload == null && writes.payloadData == null) ? Operation.RemovePayload : Operation.SetPayload, block, writes);
+			}
+			for(OMMSubjectTag subject : writes.subjects)
+			{
+				success &= apply(id, Operation.AddSubject, block, subject);
+			}
+		}
+
+		for(String id : batch.removed)
+		{
+			success &= apply(id, Operation.RemoveBlock, null, null);
+		}
+
+		return success;
+	}
+
+	private boolean apply(String id, Operation operation, OMMBlock block, Object value)
+	{
+		OMMActionResultType result = OMMActionResultType.UnknownError;
+		Exception cause = null;
+		try
+		{
+			switch(operation)
+			{
+				case AddBlock: result = m_omm.sendBlock(block); break;
+				case RemoveBlock: result = m_omm.deleteBlock(id); break;
+				case SetPayload:
+					BlockWrites writes = (BlockWrites)value;
+					if (writes.payloadData != null) result = ((OMMBlockRestImpl)block).sendPayload(writes.payloadData);
+					else result = ((OMMBlockRestImpl)block).sendPayload(writes.payload);
+					break;
+				case RemovePayload: result = ((OMMBlockRestImpl)block).deletePayload(); break;
+				case AddSubject: result = ((OMMBlockRestImpl)block).sendSubject((OMMSubjectTag)value); break;
+			}
+		}
+		catch(Exception e) { cause = e; }
+
+		if (result == OMMActionResultType.OK) return true;
+
+		if (m_listener != null) m_listener.writeFailed(id, operation, result, cause);
+		else if (cause != null) cause.printStackTrace();
+		else System.err.println(operation + " of block " + id + " failed: " + result);
+		return false;
+	}
+
+	/** Passes changes collected while a batch was sent from the temporary IDs of its added blocks to their final IDs.
+	 * Changes to blocks which could not be added are dropped, as their failure has been reported already.
+	 */
+	private void moveToFinalIDs(Batch batch)
+	{
+		boolean moved = false;
+		for(Map.Entry<String, OMMBlock> entry : batch.added.entrySet())
+		{
+			String temporaryID = entry.getKey();
+			String finalID = entry.getValue().getID();
+			boolean added = finalID != null && !finalID.equals(temporaryID);
+
+			BlockWrites writes = m_pending.writes.remove(temporaryID);
+			if (writes != null && added)
+			{
+				m_pending.writes.put(finalID, writes);
+				moved = true;
+			}
+			if (m_pending.removed.remove(temporaryID) && added)
+			{
+				m_pending.writes.remove(finalID);
+				m_pending.removed.add(finalID);
+				moved = true;
+			}
+		}
+		if (moved) afterWrite();
+	}
+
+	private BlockWrites getWrites(String blockID)
+	{
+		BlockWrites writes = m_pending.writes.get(blockID);
+		if (writes == null)
+		{
+			writes = new BlockWrites();
+			m_pending.writes.put(blockID, writes);
+		}
+		return writes;
+	}
+
+	private BlockWrites findPayloadWrites(String blockID)
+	{
+		BlockWrites writes = m_pending.writes.get(blockID);
+		if (writes != null && writes.payloadSet) return writes;
+		writes = (m_inFlight != null) ? m_inFlight.writes.get(blockID) : null;
+		if (writes != null && writes.payloadSet) return writes;
+		return null;
+	}
+
+	/** Sends the pending changes once enough have been collected, or schedules sending them after the delay. */
+	private void afterWrite()
+	{
+		if (m_pending.size() >= MAX_PENDING_WRITES)
+		{
+			if (m_scheduledFlush != null) m_scheduledFlush.cancel(false);
+			m_scheduledFlush = s_flusher.schedule(m_flushTask, 0, TimeUnit.MILLISECONDS);
+		}
+		else if (m_scheduledFlush == null)
+		{
+			m_scheduledFlush = s_flusher.schedule(m_flushTask, FLUSH_DELAY_IN_MILLIS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	/** Changes collected for one flush. */
+	private static class Batch
+	{
+		final Map<String, OMMBlock> added = new LinkedHashMap<String, OMMBlock>();
+		final Map<String, OMMBlock> origins = new HashMap<String, OMMBlock>();
+		final Map<String, BlockWrites> writes = new LinkedHashMap<String, BlockWrites>();
+		final Set<String> removed = new LinkedHashSet<String>();
+
+		int size()
+		{
+			int size = added.size() + removed.size();
+			for(BlockWrites w : writes.values()) size += (w.payloadSet ? 1 : 0) + w.subjects.size();
+			return size;
+		}
+	}
+
+	/** Merged changes to a single block. */
+	private static class BlockWrites
+	{
+		boolean payloadSet = false;
+		TypedValue payload = null;
+		byte[] payloadData = null;
+		final List<OMMSubjectTag> subjects = new ArrayList<OMMSubjectTag>();
+	}
+}
@@ -0,0 +1,15 @@
+package de.dfki.omm.impl.rest;
+
+import de.dfki.omm.tools.OMMActionResultType;
+
+/** Is informed about writes of an {@link OMMRestWriteBuffer} that failed when they were sent to the OMS. */
+public interface OMMRestWriteListener
+{
+	/** Called for every write that could not be applied on the OMS.
+	 * @param blockID ID of the affected block, the local (temporary) ID for blocks that were never created.
+	 * @param operation The {@link OMMRestWriteBuffer.Operation} that failed.
+	 * @param result The result reported by the OMS, {@link OMMActionResultType#UnknownError} if there was none.
+	 * @param cause The exception that was thrown, may be null.
+	 */
+	void writeFailed(String blockID, OMMRestWriteBuffer.Operation operation, OMMActionResultType result, Exception cause);
+}
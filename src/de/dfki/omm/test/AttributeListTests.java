@@ -0,0 +1,257 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import de.dfki.omm.impl.OMMAttributeListBlockImpl;
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMAttributeListBlock;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.tools.OMMAttributeIndex;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMSourceType;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests the incremental payload of attribute list blocks and the attribute index over the blocks of memories.
+ */
+public class AttributeListTests {
+
+	/** Numbers of attributes of the blocks used for the benchmark. */
+	public static int[] BENCHMARK_SIZES = { 100, 1000, 10000 };
+
+	private static final OMMEntity CREATOR = new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z");
+
+	/**
+	 * Checks that changed attributes update the payload element in place, also for blocks loaded from XML.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testIncrementalPayload() throws Exception {
+
+		System.out.println("testIncrementalPayload");
+
+		OMMAttributeListBlockImpl block = createBlock("attributes");
+		block.addAttribute("weight", "12", CREATOR);
+		block.addAttribute("color", "red", CREATOR);
+		Element payload = block.getPayloadElement();
+		assertEquals(attributes("weight", "12", "color", "red"), readPayload(payload));
+
+		block.addAttribute("size", "L", CREATOR);
+		block.removeAttribute("weight", CREATOR);
+		block.getAllAttributes().put("color", "blue");
+		assertSame(payload, block.getPayloadElement());
+		assertEquals(attributes("color", "blue", "size", "L"), readPayload(payload));
+
+		OMM omm = createMemory(block);
+		OMM loaded = OMMXMLConverter.loadFromXmlString(OMMXMLConverter.toXMLFileString(omm, true), null, null, OMMSourceType.LocalFile);
+		OMMAttributeListBlockImpl loadedBlock = (OMMAttributeListBlockImpl) loaded.getBlock("attributes");
+		assertEquals(attributes("color", "blue", "size", "L"), loadedBlock.getAllAttributes());
+
+		Element loadedPayload = loadedBlock.getPayloadElement();
+		loadedBlock.addAttribute("weight", "13", CREATOR);
+		loadedBlock.removeAttribute("size", CREATOR);
+		assertSame(loadedPayload, loadedBlock.getPayloadElement());
+		assertEquals(attributes("color", "blue", "weight", "13"), readPayload(loadedPayload));
+
+		OMM reloaded = OMMXMLConverter.loadFromXmlString(OMMXMLConverter.toXMLFileString(loaded, true), null, null, OMMSourceType.LocalFile);
+		assertEquals(attributes("color", "blue", "weight", "13"), ((OMMAttributeListBlock) reloaded.getBlock("attributes")).getAllAttributes());
+	}
+
+	/**
+	 * Checks that the map returned by getAllAttributes changes the block and has read-only views.
+	 * @throws Exception if the block cannot be created
+	 */
+	@Test
+	public void testLiveMap() throws Exception {
+
+		System.out.println("testLiveMap");
+
+		OMMAttributeListBlockImpl block = createBlock("attributes");
+		long revision = block.getRevision();
+		Map<String, String> map = block.getAllAttributes();
+		assertEquals(revision, block.getRevision());
+
+		Map<String, String> added = new HashMap<String, String>();
+		added.put("a", "1");
+		added.put("b", "2");
+		map.putAll(added);
+		assertTrue(block.isDirty());
+		assertTrue(block.getRevision() > revision);
+		assertEquals("2", block.getAttribute("b"));
+		assertEquals(added, readPayload(block.getPayloadElement()));
+
+		map.remove("a");
+		assertEquals(attributes("b", "2"), readPayload(block.getPayloadElement()));
+		map.clear();
+		assertEquals(0, readPayload(block.getPayloadElement()).size());
+
+		map.put("c", "3");
+		try {
+			map.entrySet().iterator().next().setValue("4");
+			fail("entry set must be read-only");
+		} catch (UnsupportedOperationException e) {
+		}
+		try {
+			map.keySet().remove("c");
+			fail("key set must be read-only");
+		} catch (UnsupportedOperationException e) {
+		}
+		assertEquals("3", block.getAttribute("c"));
+	}
+
+	/**
+	 * Checks lookups by key and by key and value over several blocks, and that changes are reflected by the index.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testAttributeIndex() throws Exception {
+
+		System.out.println("testAttributeIndex");
+
+		OMMAttributeListBlockImpl first = createBlock("first");
+		first.addAttribute("color", "red", CREATOR);
+		first.addAttribute("weight", "12", CREATOR);
+		OMMAttributeListBlockImpl second = createBlock("second");
+		second.addAttribute("color", "blue", CREATOR);
+		OMM omm = createMemory(first, second);
+
+		OMMAttributeIndex index = OMMAttributeIndex.create(omm);
+		assertEquals(Arrays.<OMMAttributeListBlock> asList(first, second), index.getBlocks("color"));
+		assertEquals(Arrays.<OMMAttributeListBlock> asList(second), index.getBlocks("color", "blue"));
+		assertEquals(Arrays.<OMMAttributeListBlock> asList(first), index.getBlocks("weight"));
+		assertEquals(0, index.getBlocks("size").size());
+
+		second.getAllAttributes().put("color", "red");
+		assertEquals(0, index.getBlocks("color", "blue").size());
+		assertEquals(Arrays.<OMMAttributeListBlock> asList(first, second), index.getBlocks("color", "red"));
+		first.removeAttribute("weight", CREATOR);
+		assertEquals(0, index.getBlocks("weight").size());
+		assertFalse(index.getKeys().contains("weight"));
+		assertEquals(Arrays.asList("red"), new ArrayList<String>(index.getValues("color")));
+
+		// blocks added to or removed from a memory are announced asynchronously
+		OMMAttributeListBlockImpl third = createBlock("third");
+		third.addAttribute("size", "L", CREATOR);
+		omm.addBlock(third, CREATOR);
+		for (int i = 0; i < 200 && index.getBlocks("size").isEmpty(); i++) Thread.sleep(10);
+		assertEquals(Arrays.<OMMAttributeListBlock> asList(third), index.getBlocks("size", "L"));
+		omm.removeBlock("first", CREATOR);
+		for (int i = 0; i < 200 && index.getBlocks("color").size() > 1; i++) Thread.sleep(10);
+		assertEquals(Arrays.<OMMAttributeListBlock> asList(second), index.getBlocks("color"));
+
+		index.removeMemory(omm);
+		assertEquals(0, index.getKeys().size());
+		second.addAttribute("size", "S", CREATOR);
+		assertEquals(0, index.getBlocks("size").size());
+	}
+
+	/**
+	 * Compares the time of changing one attribute and reading the payload with rebuilding the payload element.
+	 * @throws Exception if the block cannot be created
+	 */
+	@Test
+	public void testUpdateCost() throws Exception {
+
+		System.out.println("testUpdateCost");
+		Benchmarks.assumeEnabled();
+
+		for (int size : BENCHMARK_SIZES) {
+			OMMAttributeListBlockImpl block = createBlock("attributes");
+			for (int i = 0; i < size; i++) block.addAttribute("key" + i, "value" + i, CREATOR);
+			block.getPayloadElement();
+
+			int iterations = Math.max(10, 200000 / size);
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				block.getAllAttributes().put("key" + (i % size), "changed" + i);
+				block.getPayloadElement();
+			}
+			double incremental = (System.nanoTime() - start) / 1000.0 / iterations;
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				block.getAllAttributes().put("key" + (i % size), "rebuilt" + i);
+				rebuildPayload(block.getAllAttributes());
+			}
+			double rebuild = (System.nanoTime() - start) / 1000.0 / iterations;
+
+			System.out.println(String.format("%6d attributes: incremental %10.2f us/update, rebuilt payload %10.2f us/update", size, incremental, rebuild));
+		}
+	}
+
+	// helper methods
+
+	/** Builds the payload element the way it was done on every read of a changed block. */
+	private static Element rebuildPayload(Map<String, String> attributes) {
+
+		Document doc = OMMXMLConverter.createNewXmlDocument();
+		Element payload = OMMXMLConverter.createXmlElement(doc, "payload", OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
+		Element list = OMMXMLConverter.createXmlElement(doc, "attributeList", OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
+		payload.appendChild(list);
+		for (Map.Entry<String, String> entry : attributes.entrySet()) {
+			Element attribute = OMMXMLConverter.createXmlElement(doc, "attribute", OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
+			attribute.setAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX + ":key", entry.getKey());
+			attribute.setTextContent(entry.getValue());
+			list.appendChild(attribute);
+		}
+		return payload;
+	}
+
+	private static Map<String, String> readPayload(Element payload) {
+
+		Map<String, String> result = new HashMap<String, String>();
+		Element list = OMMXMLConverter.findChild(payload, OMMXMLConverter.OMM_NAMESPACE_PREFIX + ":attributeList");
+		for (Node node = list.getFirstChild(); node != null; node = node.getNextSibling()) {
+			if (node instanceof Element) result.put(((Element) node).getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX + ":key"), node.getTextContent());
+		}
+		return result;
+	}
+
+	private static Map<String, String> attributes(String... keysAndValues) {
+
+		Map<String, String> result = new HashMap<String, String>();
+		for (int i = 0; i < keysAndValues.length; i += 2) result.put(keysAndValues[i], keysAndValues[i + 1]);
+		return result;
+	}
+
+	private static OMMAttributeListBlockImpl createBlock(String id) throws Exception {
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, "Attributes");
+		OMMBlockImpl block = (OMMBlockImpl) OMMBlockImpl.create(id, new URLType(new URL("http://example.org/memory")), URI.create("urn:sample:attributes"), null, title, null, null, CREATOR,
+				new OMMFormat("application/xml", new URL(OMMXMLConverter.OMM_ATTRIBUTES_BLOCK_SCHEMA), null), null, null, null, null, null);
+		return new OMMAttributeListBlockImpl(block, true);
+	}
+
+	private static OMM createMemory(OMMBlock... blocks) throws Exception {
+
+		List<OMMBlock> list = new ArrayList<OMMBlock>(Arrays.asList(blocks));
+		OMMImpl omm = (OMMImpl) OMMImpl.create(OMMHeaderImpl.create(new URLType(new URL("http://example.org/memory")), null), list, (URL) null, OMMSourceType.LocalFile);
+		for (OMMBlock block : blocks) ((OMMBlockImpl) block).setParentOMM(omm);
+		return omm;
+	}
+}
@@ -8,7 +8,6 @@ import static org.junit.Assert.fail;
 
 import java.io.File;
 import java.io.IOException;
-import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
 import java.text.SimpleDateFormat;
@@ -21,6 +20,7 @@ import de.dfki.omm.types.*;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
+import org.restlet.data.Status;
 import org.restlet.resource.ClientResource;
 import org.restlet.resource.ResourceException;
 
@@ -44,6 +44,9 @@ public class BasicMemoryTests {
 	static OMMHeaderImpl header = null;
 	static OMMRestImpl omm = null;
 	
+	// simulated OMS, unless a running one is used via -Domm.test.liveOMS=true
+	static OMSSimulator simulator = null;
+	
 	// owner credentials
 	static String[] owner = { "Klar Text", "owner", "ownerpasswd" };
 	static String[] secondOwner = { "Klar Text 2", "owner2", "ownerpasswd2" };
@@ -53,13 +56,19 @@ public class BasicMemoryTests {
 	
 	/**
 	 * (Before all tests) Creates an OMM for the tests.
-	 * @throws MalformedURLException if there is something wrong with the memoryName
+	 * @throws Exception if there is something wrong with the memoryName or the simulated OMS cannot be started
 	 */
 	@BeforeClass
-	public static void createMemory() throws MalformedURLException {
+	public static void createMemory() throws Exception {
 		
 		System.out.println("createMemory");
 		
+		// start simulated OMS
+		if (!Boolean.getBoolean("omm.test.liveOMS")) {
+			simulator = OMSSimulator.start(10082);
+			simulator.setLocalResources(true);
+		}
+		
 		// set logging off
 		//org.restlet.engine.Engine.setLogLevel(Level.OFF);
 		
@@ -280,7 +289,8 @@ public class BasicMemoryTests {
 			resultText = blockPayloadCr.get().getText();
 			fail("could access a previously deleted block");
 		} catch (ResourceException e) {
-			assertEquals("should be 501", "Not Found", e.getMessage());
+			// the message depends on the Restlet version of the client, the status does not
+			assertEquals("should be 404", Status.CLIENT_ERROR_NOT_FOUND, e.getStatus());
 		}
 	}
 
@@ -349,7 +359,8 @@ public class BasicMemoryTests {
 		}
 
 		// save current memory to binary file
-		File targetFile = new File (System.getProperty("user.dir") + "/binaryOmm.omm");
+		File targetFile = File.createTempFile("binaryOmm", ".omm");
+		targetFile.deleteOnExit();
 		assertTrue(OMMFactory.serializeOMM(omm, targetFile));
 
 		// check whether file is filled with data
@@ -416,6 +427,7 @@ public class BasicMemoryTests {
 
 		// test whether the memory's folder has been deleted
 
+		if (simulator != null) simulator.stop();
 	}
 	
 	
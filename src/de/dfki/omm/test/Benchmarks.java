@@ -0,0 +1,52 @@
+package de.dfki.omm.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Assume;
+
+/**
+ * Shared helper for the benchmarks of the test suites, which compare time and allocation of alternative implementations.
+ * Benchmarks assert nothing and take long for their large sizes, so they are skipped unless the tests are run with
+ * <code>-Domm.test.benchmarks=true</code>.
+ */
+public class Benchmarks {
+
+	/** Whether benchmarks are run, set by the system property <code>omm.test.benchmarks</code>. */
+	public static boolean ENABLED = Boolean.getBoolean("omm.test.benchmarks");
+
+	/** A piece of work to measure. */
+	public interface Task {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Skips the calling test unless benchmarks are enabled.
+	 */
+	public static void assumeEnabled() {
+		Assume.assumeTrue("benchmarks are run with -Domm.test.benchmarks=true", ENABLED);
+	}
+
+	/**
+	 * Runs a task for warm up, then measures and prints the time per run and the bytes allocated per run by the calling thread.
+	 * @param name the name to print
+	 * @param task the task to measure
+	 * @param iterations the number of runs for warm up and for measuring
+	 * @throws Exception if the task fails
+	 */
+	public static void measure(String name, Task task, int iterations) throws Exception {
+
+		for (int i = 0; i < iterations; i++) task.run(); // warm up
+
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		boolean allocation = threads instanceof com.sun.management.ThreadMXBean;
+		long thread = Thread.currentThread().getId();
+		long allocatedBefore = allocation ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread) : 0;
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) task.run();
+		long nanos = System.nanoTime() - start;
+		long allocated = allocation ? ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(thread) - allocatedBefore : -1;
+
+		System.out.println(String.format("%s: %12.3f ms/run, %10d KB allocated/run", name, nanos / 1000000.0 / iterations, allocation ? allocated / iterations / 1024 : -1));
+	}
+}
@@ -0,0 +1,381 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMFactory;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.tools.OMMBinaryFormat;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMEntityCollection;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMSubjectCollection;
+import de.dfki.omm.types.OMMSubjectTag;
+import de.dfki.omm.types.OMMSubjectTagType;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests version 2 of the binary format, reading version 1 files and compares the size and speed of both versions.
+ */
+public class BinaryFormatTests {
+
+	/** Numbers of blocks used for the benchmark. */
+	public static int[] BENCHMARK_SIZES = { 100, 1000, 10000 };
+
+	private static final OMMEntity CREATOR = new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00+00:00");
+
+	/**
+	 * Checks that all fields of a block survive saving and loading, including non-ASCII text and payloads larger than 32 KB.
+	 * @throws Exception if the block cannot be created or saved
+	 */
+	@Test
+	public void testBlockRoundTrip() throws Exception {
+
+		System.out.println("testBlockRoundTrip");
+
+		StringBuilder payload = new StringBuilder();
+		while (payload.length() < 100000) payload.append("<value>gr\u00fc\u00dfe \u65e5\u672c</value>");
+		OMMBlock block = createBlock("block", payload.toString(), 3, "Gr\u00fc\u00dfe");
+
+		File file = File.createTempFile("block", ".omm");
+		file.deleteOnExit();
+		assertTrue(OMMFactory.saveBlockToBinary(block, file));
+		OMMBlock loaded = OMMFactory.loadBlockFromBinary(file);
+		assertNotNull(loaded);
+		assertEquals(toXML(block), toXML(loaded));
+		assertEquals(payload.toString(), loaded.getPayload().getValue());
+		assertEquals("Gr\u00fc\u00dfe", loaded.getTitle(Locale.GERMAN));
+	}
+
+	/**
+	 * Checks that header, owner and blocks of a memory are read in order and that strings are stored once.
+	 * @throws Exception if the memory cannot be encoded
+	 */
+	@Test
+	public void testMemoryRoundTrip() throws Exception {
+
+		System.out.println("testMemoryRoundTrip");
+
+		OMMHeader header = OMMHeaderImpl.create(new URLType(new URL("http://example.org/rest/memory")), null);
+		List<OMMBlock> blocks = new ArrayList<OMMBlock>();
+		for (int i = 0; i < 10; i++) blocks.add(createBlock("block" + i, "<value>" + i + "</value>", 2));
+
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		OMMBinaryFormat.Encoder encoder = OMMBinaryFormat.Encoder.create(data, OMMBinaryFormat.KIND_MEMORY);
+		encoder.writeHeader(header);
+		encoder.writeOwner(createBlock("owner", null, 0));
+		for (OMMBlock block : blocks) encoder.writeBlock(block);
+		encoder.finish();
+		byte[] bytes = data.toByteArray();
+		assertEquals(bytes.length, encoder.getPosition());
+		assertEquals(1, count(bytes, "urn:sample:binary"));
+		assertEquals(1, count(bytes, "application/xml"));
+
+		OMMBinaryFormat.Decoder decoder = OMMBinaryFormat.Decoder.create(ByteBuffer.wrap(bytes));
+		assertEquals(OMMBinaryFormat.KIND_MEMORY, decoder.getKind());
+		assertEquals(OMMBinaryFormat.RECORD_HEADER, decoder.nextRecord());
+		assertEquals(header.getPrimaryID().getValue().toString(), decoder.readHeader().getPrimaryID().getValue().toString());
+		assertEquals(OMMBinaryFormat.RECORD_OWNER, decoder.nextRecord());
+		assertEquals("owner", decoder.readBlock().getID());
+		for (OMMBlock block : blocks) {
+			assertEquals(OMMBinaryFormat.RECORD_BLOCK, decoder.nextRecord());
+			assertEquals(toXML(block), toXML(decoder.readBlock()));
+		}
+		assertEquals(OMMBinaryFormat.RECORD_END, decoder.nextRecord());
+	}
+
+	/**
+	 * Checks that damaged blocks are detected by their checksum.
+	 * @throws Exception if the block cannot be encoded
+	 */
+	@Test
+	public void testChecksum() throws Exception {
+
+		System.out.println("testChecksum");
+
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		OMMBinaryFormat.Encoder encoder = OMMBinaryFormat.Encoder.create(data, OMMBinaryFormat.KIND_BLOCK);
+		encoder.writeBlock(createBlock("block", "<value>checked</value>", 1));
+		encoder.finish();
+		byte[] bytes = data.toByteArray();
+		int index = indexOf(bytes, "checked");
+		bytes[index] = 'C';
+
+		OMMBinaryFormat.Decoder decoder = OMMBinaryFormat.Decoder.create(ByteBuffer.wrap(bytes));
+		assertEquals(OMMBinaryFormat.RECORD_BLOCK, decoder.nextRecord());
+		try {
+			decoder.readBlock();
+			fail("damaged block must not be read");
+		} catch (IOException e) {
+		}
+
+		File file = File.createTempFile("damaged", ".omm");
+		file.deleteOnExit();
+		writeCompressed(file, bytes);
+		assertNull(OMMFactory.loadBlockFromBinary(file));
+	}
+
+	/**
+	 * Checks that data ending within a record, including its length varints, is reported as damaged rather than failing with an unchecked exception.
+	 * @throws Exception if the memory cannot be encoded
+	 */
+	@Test
+	public void testTruncated() throws Exception {
+
+		System.out.println("testTruncated");
+
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		OMMBinaryFormat.Encoder encoder = OMMBinaryFormat.Encoder.create(data, OMMBinaryFormat.KIND_MEMORY);
+		encoder.writeHeader(OMMHeaderImpl.create(new URLType(new URL("http://example.org/rest/memory")), null));
+		// payloads above 16 KB have frame lengths of three bytes
+		StringBuilder payload = new StringBuilder();
+		while (payload.length() < 20000) payload.append("<value>truncated</value>");
+		OMMBlock block = createBlock("block0", payload.toString(), 2);
+		encoder.writeBlock(block);
+		encoder.writeBlock(createBlock("block1", "<value>1</value>", 2));
+		encoder.finish();
+		byte[] bytes = data.toByteArray();
+
+		int frameLength = indexOf(bytes, "block0");
+		while (bytes[frameLength] != OMMBinaryFormat.RECORD_BLOCK) frameLength--;
+		assertTrue("frame length should span several bytes", (bytes[frameLength + 1] & 0x80) != 0);
+
+		for (int length = OMMBinaryFormat.MAGIC.length + 2; length < bytes.length; length++) {
+			ByteBuffer truncated = ByteBuffer.wrap(bytes, 0, length).slice();
+			try {
+				decodeAll(OMMBinaryFormat.Decoder.create(truncated));
+			} catch (IOException e) {
+			}
+			// a small buffer, so that varints are split between reads
+			ByteBuffer buffer = ByteBuffer.allocate(16);
+			buffer.flip();
+			try {
+				decodeAll(OMMBinaryFormat.Decoder.create(Channels.newChannel(new ByteArrayInputStream(bytes, 0, length)), buffer));
+			} catch (IOException e) {
+			}
+		}
+
+		ByteBuffer truncated = ByteBuffer.wrap(bytes, 0, frameLength + 2).slice();
+		OMMBinaryFormat.Decoder decoder = OMMBinaryFormat.Decoder.create(truncated);
+		try {
+			decodeAll(decoder);
+			fail("truncated frame length must not be read");
+		} catch (IOException e) {
+			assertEquals("truncated record", e.getMessage());
+		}
+
+		data = new ByteArrayOutputStream();
+		encoder = OMMBinaryFormat.Encoder.create(data, OMMBinaryFormat.KIND_BLOCK);
+		encoder.writeBlock(block);
+		encoder.finish();
+		bytes = data.toByteArray();
+		frameLength = indexOf(bytes, "block0");
+		while (bytes[frameLength] != OMMBinaryFormat.RECORD_BLOCK) frameLength--;
+
+		File file = File.createTempFile("truncated", ".omm");
+		file.deleteOnExit();
+		writeCompressed(file, Arrays.copyOf(bytes, frameLength + 2));
+		assertNull(OMMFactory.loadBlockFromBinary(file));
+	}
+
+	/**
+	 * Checks that block files written in version 1 can still be loaded.
+	 * @throws Exception if the file cannot be written
+	 */
+	@Test
+	public void testVersion1() throws Exception {
+
+		System.out.println("testVersion1");
+
+		OMMBlock block = createBlock("block", "<value>version 1</value>", 2);
+		File file = File.createTempFile("version1", ".omm");
+		file.deleteOnExit();
+		writeCompressed(file, toVersion1(block));
+
+		OMMBlock loaded = OMMFactory.loadBlockFromBinary(file);
+		assertNotNull(loaded);
+		assertEquals(toXML(block), toXML(loaded));
+	}
+
+	/**
+	 * Compares size, encoding and decoding time of both versions.
+	 * @throws Exception if the blocks cannot be encoded
+	 */
+	@Test
+	public void testFormatCost() throws Exception {
+
+		System.out.println("testFormatCost");
+		Benchmarks.assumeEnabled();
+
+		for (int size : BENCHMARK_SIZES) {
+			List<OMMBlock> blocks = new ArrayList<OMMBlock>();
+			for (int i = 0; i < size; i++) blocks.add(createBlock("block" + i, "<value>" + i + "</value>", 3));
+
+			long start = System.nanoTime();
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			for (OMMBlock block : blocks) data.write(toVersion1(block));
+			byte[] version1 = data.toByteArray();
+			double encode1 = (System.nanoTime() - start) / 1000000.0;
+
+			start = System.nanoTime();
+			ByteBuffer buffer = ByteBuffer.wrap(version1);
+			int read1 = 0;
+			while (buffer.hasRemaining()) {
+				if (OMMBlockImpl.createFromBinary(buffer) != null) read1++;
+			}
+			double decode1 = (System.nanoTime() - start) / 1000000.0;
+
+			start = System.nanoTime();
+			data = new ByteArrayOutputStream();
+			OMMBinaryFormat.Encoder encoder = OMMBinaryFormat.Encoder.create(data, OMMBinaryFormat.KIND_MEMORY);
+			for (OMMBlock block : blocks) encoder.writeBlock(block);
+			encoder.finish();
+			byte[] version2 = data.toByteArray();
+			double encode2 = (System.nanoTime() - start) / 1000000.0;
+
+			start = System.nanoTime();
+			OMMBinaryFormat.Decoder decoder = OMMBinaryFormat.Decoder.create(ByteBuffer.wrap(version2));
+			int read2 = 0;
+			while (decoder.nextRecord() != OMMBinaryFormat.RECORD_END) {
+				if (decoder.readBlock() != null) read2++;
+			}
+			double decode2 = (System.nanoTime() - start) / 1000000.0;
+
+			assertEquals(size, read1);
+			assertEquals(size, read2);
+			System.out.println(String.format("%6d blocks: version 1 %9d bytes, %8.2f ms encode, %8.2f ms decode; version 2 %9d bytes, %8.2f ms encode, %8.2f ms decode",
+					size, version1.length, encode1, decode1, version2.length, encode2, decode2));
+		}
+	}
+
+	// helper methods
+
+	/** Writes a block in version 1 of the binary format, which is only correct for ASCII strings of less than 32 KB. */
+	static byte[] toVersion1(OMMBlock block) {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		field(out, OMMBlockImpl.ID_CODE, block.getID());
+		field(out, OMMBlockImpl.TITLE_CODE);
+		for (Map.Entry<Locale, String> title : block.getTitle().entrySet()) field(out, OMMBlockImpl.TITLELOCALE_CODE, title.getKey().toString(), title.getValue());
+		field(out, OMMBlockImpl.CREATOR_CODE, block.getCreator().getType(), block.getCreator().getValue(), block.getCreator().getDateAsISO8601());
+		field(out, OMMBlockImpl.PRIMARYID_CODE, block.getPrimaryID().getType(), block.getPrimaryID().getValue().toString());
+		field(out, OMMBlockImpl.NAMESPACE_CODE, block.getNamespace().toString());
+		field(out, OMMBlockImpl.DESCRIPTION_CODE);
+		for (Map.Entry<Locale, String> description : block.getDescription().entrySet()) field(out, OMMBlockImpl.DESCRIPTIONLOCALE_CODE, description.getKey().toString(), description.getValue());
+		field(out, OMMBlockImpl.CONTRIBUTORS_CODE);
+		for (OMMEntity contributor : block.getContributors()) field(out, OMMBlockImpl.CONTRIBUTOR_CODE, contributor.getType(), contributor.getValue(), contributor.getDateAsISO8601());
+		field(out, OMMBlockImpl.FORMAT_CODE, block.getFormat().getMIMEType(), block.getFormat().getSchema().toString(), "");
+		field(out, OMMBlockImpl.SUBJECT_CODE);
+		for (OMMSubjectTag tag : block.getSubject()) {
+			field(out, OMMBlockImpl.SUBJECTTAG_CODE);
+			for (OMMSubjectTag t = tag; t != null; t = t.getChild()) {
+				field(out, t.getType().toString(), t.getValue());
+				field(out, t.getChild() == null ? "" : OMMBlockImpl.SUBJECTTAG_CODE);
+			}
+		}
+		if (block.getPayload() != null) field(out, OMMBlockImpl.PAYLOAD_CODE, block.getPayload().getType(), block.getPayload().getValue().toString());
+		field(out, OMMBlockImpl.NEW_BLOCK_CODE);
+		return out.toByteArray();
+	}
+
+	private static void field(ByteArrayOutputStream out, String... values) {
+
+		for (String value : values) {
+			byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+			out.write(bytes.length >>> 8);
+			out.write(bytes.length);
+			out.write(bytes, 0, bytes.length);
+		}
+	}
+
+	private static void decodeAll(OMMBinaryFormat.Decoder decoder) throws IOException {
+
+		for (int record = decoder.nextRecord(); record != OMMBinaryFormat.RECORD_END; record = decoder.nextRecord()) {
+			if (record == OMMBinaryFormat.RECORD_HEADER) decoder.readHeader();
+			else decoder.readBlock();
+		}
+	}
+
+	static void writeCompressed(File file, byte[] bytes) throws IOException {
+
+		GZIPOutputStream out = new GZIPOutputStream(new FileOutputStream(file));
+		try {
+			out.write(bytes);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static int indexOf(byte[] bytes, String s) {
+
+		byte[] pattern = s.getBytes(StandardCharsets.UTF_8);
+		outer: for (int i = 0; i + pattern.length <= bytes.length; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (bytes[i + j] != pattern[j]) continue outer;
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static int count(byte[] bytes, String s) {
+
+		String text = new String(bytes, StandardCharsets.ISO_8859_1);
+		int count = 0;
+		for (int i = text.indexOf(s); i >= 0; i = text.indexOf(s, i + 1)) count++;
+		return count;
+	}
+
+	static String toXML(OMMBlock block) {
+		return OMMXMLConverter.toXMLFileString(OMMXMLConverter.generateCompleteBlock(block, true));
+	}
+
+	static OMMBlock createBlock(String id, String payload, int contributors) throws Exception {
+		return createBlock(id, payload, contributors, "Gruesse");
+	}
+
+	private static OMMBlock createBlock(String id, String payload, int contributors, String germanTitle) throws Exception {
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, "Greetings");
+		title.put(Locale.GERMAN, germanTitle);
+		OMMMultiLangText description = new OMMMultiLangText();
+		description.put(Locale.ENGLISH, "A block of the binary format tests");
+		OMMEntityCollection contributorList = new OMMEntityCollection();
+		for (int i = 0; i < contributors; i++) contributorList.add(new OMMEntity("email", "contributor" + i + "@example.org", "2014-05-0" + (i % 9 + 1) + "T12:00:00+00:00"));
+		OMMSubjectCollection subject = new OMMSubjectCollection();
+		subject.add(new OMMSubjectTag(OMMSubjectTagType.Text, "binary", null));
+		subject.add(new OMMSubjectTag(OMMSubjectTagType.Ontology, "http://example.org/ontology#Format", new OMMSubjectTag(OMMSubjectTagType.Text, "format", null)));
+
+		return OMMBlockImpl.create(id, new URLType(new URL("http://example.org/rest/memory")), URI.create("urn:sample:binary"), null, title, description, contributorList, CREATOR,
+				new OMMFormat("application/xml", new URL("http://example.org/schema.xsd"), null), subject, payload == null ? null : new GenericTypedValue("none", payload), null, null, null);
+	}
+}
@@ -0,0 +1,356 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import de.dfki.omm.impl.OMMBinaryFileImpl;
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMFactory;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.interfaces.OMMToCEntry;
+import de.dfki.omm.tools.OMMBinaryFormat;
+import de.dfki.omm.tools.OMMBinaryIndex;
+import de.dfki.omm.tools.OMMBinaryReader;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests binary memory files with a block offset table: random access to single blocks, appending blocks in place and opening them lazily.
+ */
+public class BinaryIndexTests {
+
+	/** Numbers of blocks of the memories used for the benchmark. */
+	public static int[] BENCHMARK_SIZES = { 1000, 10000, 50000 };
+
+	/**
+	 * Checks that only requested blocks are decoded, that the table of contents is taken from the index, and that sequential readers ignore the index.
+	 * @throws Exception if the file cannot be written
+	 */
+	@Test
+	public void testRandomAccess() throws Exception {
+
+		System.out.println("testRandomAccess");
+
+		List<OMMBlock> blocks = createBlocks(10);
+		File file = writeFile(blocks, true);
+		OMMBinaryFileImpl lazy = (OMMBinaryFileImpl) OMMFactory.loadOMMFromBinaryLazy(file);
+		assertNotNull(lazy);
+		assertEquals("http://example.org/rest/memory", lazy.getHeader().getPrimaryID().getValue().toString());
+		assertEquals(10, lazy.getAllBlockIDs().size());
+		assertFalse(lazy.isBlockLoaded("block7"));
+
+		assertEquals(BinaryFormatTests.toXML(blocks.get(7)), BinaryFormatTests.toXML(lazy.getBlock("block7")));
+		assertTrue(lazy.isBlockLoaded("block7"));
+		assertFalse(lazy.isBlockLoaded("block6"));
+		assertNull(lazy.getBlock("block10"));
+
+		int i = 0;
+		for (OMMToCEntry entry : lazy.getTableOfContents()) {
+			assertEquals("block" + i++, entry.getID());
+			assertEquals(URI.create("urn:sample:binary"), entry.getNamespace());
+			assertEquals("Greetings", entry.getTitle(Locale.ENGLISH));
+		}
+		assertFalse(lazy.isBlockLoaded("block6"));
+
+		i = 0;
+		for (OMMBlock block : lazy.getAllBlocks()) assertEquals(BinaryFormatTests.toXML(blocks.get(i++)), BinaryFormatTests.toXML(block));
+		assertEquals(10, i);
+
+		Collector collector = new Collector();
+		OMMBinaryReader.read(file, OMMBinaryFormat.KIND_MEMORY, collector);
+		assertEquals(blocks.size(), collector.blocks.size());
+	}
+
+	/**
+	 * Checks that appended blocks, including their new strings, are found by the updated index and by sequential readers.
+	 * @throws Exception if the file cannot be written
+	 */
+	@Test
+	public void testAppend() throws Exception {
+
+		System.out.println("testAppend");
+
+		List<OMMBlock> blocks = createBlocks(3);
+		File file = writeFile(blocks, true);
+		OMMBlock appended = createAppendedBlock("block3", "first");
+		OMMBlock replacement = createAppendedBlock("block1", "second");
+		assertTrue(OMMFactory.appendBlocksToBinary(file, Arrays.asList(appended, replacement)));
+		long length = file.length();
+
+		OMMBinaryFileImpl lazy = (OMMBinaryFileImpl) OMMFactory.loadOMMFromBinaryLazy(file);
+		assertEquals(Arrays.asList("block0", "block1", "block2", "block3"), lazy.getAllBlockIDs());
+		assertEquals(BinaryFormatTests.toXML(replacement), BinaryFormatTests.toXML(lazy.getBlock("block1")));
+		assertEquals(BinaryFormatTests.toXML(appended), BinaryFormatTests.toXML(lazy.getBlock("block3")));
+		assertEquals(BinaryFormatTests.toXML(blocks.get(2)), BinaryFormatTests.toXML(lazy.getBlock("block2")));
+		OMMToCEntry last = new ArrayList<OMMToCEntry>(lazy.getTableOfContents()).get(3);
+		assertEquals("Salutations first", last.getTitle(Locale.FRENCH));
+		assertEquals(URI.create("urn:sample:appended"), last.getNamespace());
+
+		// sequential readers see all records, the replaced block as well
+		Collector collector = new Collector();
+		OMMBinaryReader.read(file, OMMBinaryFormat.KIND_MEMORY, collector);
+		assertEquals(5, collector.blocks.size());
+		assertEquals(BinaryFormatTests.toXML(replacement), BinaryFormatTests.toXML(collector.blocks.get(4)));
+
+		assertTrue(OMMFactory.appendBlocksToBinary(file, new ArrayList<OMMBlock>()));
+		assertEquals(length, file.length());
+		assertFalse(OMMFactory.appendBlocksToBinary(writeFile(blocks, false), Arrays.asList(appended)));
+	}
+
+	/**
+	 * Checks that blocks appended repeatedly are found through the index and by sequential readers, also through a small channel buffer.
+	 * @throws Exception if the file cannot be written
+	 */
+	@Test
+	public void testRepeatedAppend() throws Exception {
+
+		System.out.println("testRepeatedAppend");
+
+		File file = writeFile(createBlocks(2), true);
+		for (int i = 2; i < 5; i++) assertTrue(OMMFactory.appendBlocksToBinary(file, Arrays.asList(createAppendedBlock("block" + i, "round " + i))));
+
+		List<String> expected = Arrays.asList("block0", "block1", "block2", "block3", "block4");
+		assertEquals(expected, readIndexed(file));
+		assertEquals(expected, readSequentially(file));
+		assertEquals("Salutations round 3", OMMFactory.loadOMMFromBinaryLazy(file).getBlock("block3").getTitle().get(Locale.FRENCH));
+
+		FileInputStream in = new FileInputStream(file);
+		try {
+			ByteBuffer buffer = ByteBuffer.allocate(16);
+			buffer.flip();
+			OMMBinaryFormat.Decoder decoder = OMMBinaryFormat.Decoder.create(Channels.newChannel(in), buffer);
+			List<String> ids = new ArrayList<String>();
+			for (int record = decoder.nextRecord(); record != OMMBinaryFormat.RECORD_END; record = decoder.nextRecord()) {
+				if (record == OMMBinaryFormat.RECORD_HEADER) decoder.readHeader();
+				else if (record == OMMBinaryFormat.RECORD_OWNER) decoder.readBlock();
+				else ids.add(decoder.readBlock().getID());
+			}
+			assertEquals(expected, ids);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Checks that an interrupted append leaves the blocks of the last committed append, both for indexed and for sequential readers,
+	 * and that the next append discards its remains.
+	 * @throws Exception if the file cannot be written
+	 */
+	@Test
+	public void testInterruptedAppend() throws Exception {
+
+		System.out.println("testInterruptedAppend");
+
+		File file = writeFile(createBlocks(2), true);
+		assertTrue(OMMFactory.appendBlocksToBinary(file, Arrays.asList(createAppendedBlock("block2", "committed"))));
+		long committed = file.length();
+		List<String> expected = Arrays.asList("block0", "block1", "block2");
+
+		// interrupted while writing the blocks: the old end record is kept and the file ends in the middle of the new data
+		assertTrue(OMMFactory.appendBlocksToBinary(file, Arrays.asList(createAppendedBlock("block3", "lost"))));
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(OMMBinaryIndex.read(raf.getChannel()).getPreviousEndOffset());
+			raf.write(OMMBinaryFormat.RECORD_END);
+			raf.setLength(committed + (raf.length() - committed) / 2);
+		} finally {
+			raf.close();
+		}
+		assertEquals(expected, readIndexed(file));
+		assertEquals(expected, readSequentially(file));
+
+		// interrupted before the commit: the new index is complete, but the old end record has not been replaced
+		assertTrue(OMMFactory.appendBlocksToBinary(file, Arrays.asList(createAppendedBlock("block3", "lost"))));
+		raf = new RandomAccessFile(file, "rw");
+		try {
+			OMMBinaryIndex index = OMMBinaryIndex.read(raf.getChannel());
+			assertEquals(4, index.getBlockCount());
+			raf.seek(index.getPreviousEndOffset());
+			assertEquals(OMMBinaryFormat.RECORD_CONTINUE, raf.read());
+			raf.seek(index.getPreviousEndOffset());
+			raf.write(OMMBinaryFormat.RECORD_END);
+		} finally {
+			raf.close();
+		}
+		assertEquals(expected, readIndexed(file));
+		assertEquals(expected, readSequentially(file));
+
+		// the next append replaces the remains of the interrupted one
+		assertTrue(OMMFactory.appendBlocksToBinary(file, Arrays.asList(createAppendedBlock("block4", "next"))));
+		expected = Arrays.asList("block0", "block1", "block2", "block4");
+		assertEquals(expected, readIndexed(file));
+		assertEquals(expected, readSequentially(file));
+		assertEquals("Salutations committed", OMMFactory.loadOMMFromBinaryLazy(file).getBlock("block2").getTitle().get(Locale.FRENCH));
+	}
+
+	/**
+	 * Checks that files without index or with a damaged index are not opened, and that damaged blocks are not returned.
+	 * @throws Exception if the file cannot be written
+	 */
+	@Test
+	public void testDamaged() throws Exception {
+
+		System.out.println("testDamaged");
+
+		List<OMMBlock> blocks = createBlocks(3);
+		assertNull(OMMFactory.loadOMMFromBinaryLazy(writeFile(blocks, false)));
+
+		File file = writeFile(blocks, true);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try {
+			OMMBinaryIndex index = OMMBinaryIndex.read(raf.getChannel());
+			raf.seek(index.getBlockOffset(1) + index.getBlockLength(1) - 10);
+			raf.write(raf.read() ^ 0xff);
+		} finally {
+			raf.close();
+		}
+		OMMBinaryFileImpl lazy = (OMMBinaryFileImpl) OMMFactory.loadOMMFromBinaryLazy(file);
+		assertNotNull(lazy.getBlock("block0"));
+		assertNull(lazy.getBlock("block1"));
+		assertNotNull(lazy.getBlock("block2"));
+
+		raf = new RandomAccessFile(file, "rw");
+		try {
+			raf.seek(raf.length() - OMMBinaryIndex.TRAILER_LENGTH - 10);
+			raf.write(raf.read() ^ 0xff);
+		} finally {
+			raf.close();
+		}
+		assertNull(OMMFactory.loadOMMFromBinaryLazy(file));
+	}
+
+	/**
+	 * Compares reading a single block by decoding the file sequentially with opening the file and reading the block through the index.
+	 * @throws Exception if the files cannot be written
+	 */
+	@Test
+	public void testRandomAccessCost() throws Exception {
+
+		System.out.println("testRandomAccessCost");
+		Benchmarks.assumeEnabled();
+
+		for (int size : BENCHMARK_SIZES) {
+			File file = writeFile(createBlocks(size), true);
+			String blockID = "block" + (size / 2);
+			int iterations = Math.max(3, 10000 / size);
+			OMMBinaryReader.read(file, OMMBinaryFormat.KIND_MEMORY, new Collector());
+			OMMFactory.loadOMMFromBinaryLazy(file).getBlock(blockID);
+
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) {
+				Collector collector = new Collector();
+				OMMBinaryReader.read(file, OMMBinaryFormat.KIND_MEMORY, collector);
+				assertEquals(blockID, collector.blocks.get(size / 2).getID());
+			}
+			double sequential = (System.nanoTime() - start) / 1000000.0 / iterations;
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) assertEquals(blockID, OMMFactory.loadOMMFromBinaryLazy(file).getBlock(blockID).getID());
+			double indexed = (System.nanoTime() - start) / 1000000.0 / iterations;
+
+			System.out.println(String.format("%6d blocks (%9d bytes): sequential %8.2f ms, indexed %8.2f ms", size, file.length(), sequential, indexed));
+		}
+	}
+
+	// helper methods
+
+	private static List<String> readIndexed(File file) {
+
+		OMMBinaryFileImpl lazy = (OMMBinaryFileImpl) OMMFactory.loadOMMFromBinaryLazy(file);
+		assertNotNull(lazy);
+		List<String> ids = new ArrayList<String>();
+		for (OMMBlock block : lazy.getAllBlocks()) ids.add(block.getID());
+		return ids;
+	}
+
+	private static List<String> readSequentially(File file) throws Exception {
+
+		Collector collector = new Collector();
+		OMMBinaryReader.read(file, OMMBinaryFormat.KIND_MEMORY, collector);
+		List<String> ids = new ArrayList<String>();
+		for (OMMBlock block : collector.blocks) ids.add(block.getID());
+		return ids;
+	}
+
+	private static OMMHeader createHeader() throws Exception {
+		return OMMHeaderImpl.create(new URLType(new URL("http://example.org/rest/memory")), null);
+	}
+
+	private static List<OMMBlock> createBlocks(int count) throws Exception {
+
+		List<OMMBlock> blocks = new ArrayList<OMMBlock>();
+		for (int i = 0; i < count; i++) blocks.add(BinaryFormatTests.createBlock("block" + i, "<value>binary " + i + "</value>", 2));
+		return blocks;
+	}
+
+	/** Creates a block with a namespace and a title language not used by the blocks of {@link #createBlocks(int)}. */
+	private static OMMBlock createAppendedBlock(String id, String text) throws Exception {
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.FRENCH, "Salutations " + text);
+		return OMMBlockImpl.create(id, null, URI.create("urn:sample:appended"), null, title, null, null,
+				new OMMEntity("email", "appender@example.org", "2014-06-01T12:00:00+00:00"), null, null, new GenericTypedValue("none", "<value>" + text + "</value>"), null, null, null);
+	}
+
+	private static File writeFile(List<OMMBlock> blocks, boolean indexed) throws Exception {
+
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		OMMBinaryFormat.Encoder encoder = OMMBinaryFormat.Encoder.create(data, OMMBinaryFormat.KIND_MEMORY, indexed);
+		encoder.writeHeader(createHeader());
+		encoder.writeOwner(BinaryFormatTests.createBlock("owner", null, 0));
+		for (OMMBlock block : blocks) encoder.writeBlock(block);
+		encoder.finish();
+
+		File file = File.createTempFile("memory", ".omm");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		try {
+			data.writeTo(out);
+		} finally {
+			out.close();
+		}
+		return file;
+	}
+
+	/** Collects the blocks read sequentially. */
+	private static class Collector implements OMMBinaryReader.Consumer {
+
+		List<OMMBlock> blocks = new ArrayList<OMMBlock>();
+
+		@Override
+		public void headerRead(OMMHeader header) {
+		}
+
+		@Override
+		public void ownerRead(OMMBlock owner) {
+		}
+
+		@Override
+		public void blockRead(OMMBlock block) {
+			blocks.add(block);
+		}
+	}
+}
@@ -0,0 +1,302 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+import org.junit.Test;
+import org.restlet.data.Status;
+import org.restlet.resource.ClientResource;
+import org.restlet.resource.ResourceException;
+
+import de.dfki.omm.impl.OMMFactory;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.tools.OMMBinaryFormat;
+import de.dfki.omm.tools.OMMBinaryReader;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests reading binary files through a small buffer or memory mapped, and compares it with reading the whole file first.
+ */
+public class BinaryReaderTests {
+
+	/** Numbers of blocks used for the benchmark. */
+	public static int[] BENCHMARK_SIZES = { 100, 1000, 10000 };
+
+	/**
+	 * Checks that compressed and uncompressed files are handed to the consumer in order, with blocks larger than the buffer.
+	 * @throws Exception if the files cannot be written
+	 */
+	@Test
+	public void testReadFile() throws Exception {
+
+		System.out.println("testReadFile");
+
+		List<OMMBlock> blocks = createBlocks(20, 5000);
+		byte[] bytes = encode(blocks);
+		File plain = writeFile(bytes, false);
+		File compressed = writeFile(bytes, true);
+
+		int bufferSize = OMMBinaryReader.BUFFER_SIZE;
+		OMMBinaryReader.BUFFER_SIZE = 1024;
+		try {
+			for (File file : Arrays.asList(plain, compressed)) {
+				Collector collector = new Collector();
+				OMMBinaryReader.read(file, OMMBinaryFormat.KIND_MEMORY, collector);
+				collector.check(blocks);
+			}
+		} finally {
+			OMMBinaryReader.BUFFER_SIZE = bufferSize;
+		}
+	}
+
+	/**
+	 * Checks reading from a channel, in both versions of the format.
+	 * @throws Exception if the data cannot be encoded
+	 */
+	@Test
+	public void testReadChannel() throws Exception {
+
+		System.out.println("testReadChannel");
+
+		List<OMMBlock> blocks = createBlocks(5, 100000);
+		Collector collector = new Collector();
+		OMMBinaryReader.read(Channels.newChannel(new ByteArrayInputStream(encode(blocks))), OMMBinaryFormat.KIND_MEMORY, collector);
+		collector.check(blocks);
+
+		blocks = createBlocks(5, 1000);
+		collector = new Collector();
+		OMMBinaryReader.read(Channels.newChannel(new ByteArrayInputStream(encodeVersion1(blocks))), OMMBinaryFormat.KIND_MEMORY, collector);
+		collector.check(blocks);
+
+		collector = new Collector();
+		OMMBinaryReader.read(ByteBuffer.wrap(encodeVersion1(blocks)), OMMBinaryFormat.KIND_MEMORY, collector);
+		collector.check(blocks);
+	}
+
+	/**
+	 * Checks that truncated data is reported after the complete blocks were handed on.
+	 * @throws Exception if the data cannot be encoded
+	 */
+	@Test
+	public void testTruncated() throws Exception {
+
+		System.out.println("testTruncated");
+
+		byte[] bytes = encode(createBlocks(3, 100));
+		Collector collector = new Collector();
+		try {
+			OMMBinaryReader.read(Channels.newChannel(new ByteArrayInputStream(Arrays.copyOf(bytes, bytes.length - 20))), OMMBinaryFormat.KIND_MEMORY, collector);
+			fail("truncated data must not be read");
+		} catch (IOException e) {
+		}
+		assertEquals(2, collector.blocks.size());
+	}
+
+	/**
+	 * Checks that a memory loaded from a binary file is created on the OMS, and deleted again if the file turns out to be damaged.
+	 * @throws Exception if the simulator cannot be started
+	 */
+	@Test
+	public void testLoadToOMS() throws Exception {
+
+		System.out.println("testLoadToOMS");
+
+		OMSSimulator simulator = OMSSimulator.start(0);
+		try {
+			List<OMMBlock> blocks = createBlocks(3, 200);
+			OMM loaded = OMMFactory.loadOMMFromBinary(writeFile(encode(createHeader(simulator.getMemoryURL("intact")), blocks), false));
+			assertNotNull(loaded);
+			assertEquals(3, loaded.getAllBlockIDs().size());
+
+			// a damaged last block is only noticed after the memory has been created and the other blocks added
+			byte[] damaged = encode(createHeader(simulator.getMemoryURL("damaged")), blocks);
+			damaged[damaged.length - 30] ^= 0x55;
+			simulator.resetStatistics();
+			assertNull(OMMFactory.loadOMMFromBinary(writeFile(damaged, false)));
+			assertEquals(1, simulator.getRequestCount("createMemory"));
+			assertEquals(1, simulator.getRequestCount("deleteMemory"));
+			try {
+				new ClientResource(simulator.getMemoryURL("damaged")).get();
+				fail("damaged memory must be deleted");
+			} catch (ResourceException e) {
+				assertEquals(Status.CLIENT_ERROR_NOT_FOUND, e.getStatus());
+			}
+		} finally {
+			simulator.stop();
+		}
+	}
+
+	/**
+	 * Compares reading the whole compressed file before decoding with the buffered and memory mapped readers.
+	 * @throws Exception if the files cannot be written
+	 */
+	@Test
+	public void testLoadCost() throws Exception {
+
+		System.out.println("testLoadCost");
+		Benchmarks.assumeEnabled();
+
+		for (int size : BENCHMARK_SIZES) {
+			byte[] bytes = encode(createBlocks(size, 500));
+			File plain = writeFile(bytes, false);
+			File compressed = writeFile(bytes, true);
+			int iterations = Math.max(3, 10000 / size);
+			readCopied(compressed);
+			OMMBinaryReader.read(compressed, OMMBinaryFormat.KIND_MEMORY, new Collector());
+			OMMBinaryReader.read(plain, OMMBinaryFormat.KIND_MEMORY, new Collector());
+
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) readCopied(compressed);
+			double copied = (System.nanoTime() - start) / 1000000.0 / iterations;
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) OMMBinaryReader.read(compressed, OMMBinaryFormat.KIND_MEMORY, new Collector());
+			double streamed = (System.nanoTime() - start) / 1000000.0 / iterations;
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) OMMBinaryReader.read(plain, OMMBinaryFormat.KIND_MEMORY, new Collector());
+			double mapped = (System.nanoTime() - start) / 1000000.0 / iterations;
+
+			System.out.println(String.format("%6d blocks (%8d bytes): copied %8.2f ms, streamed %8.2f ms, memory mapped %8.2f ms", size, bytes.length, copied, streamed, mapped));
+		}
+	}
+
+	// helper methods
+
+	/** Reads a compressed file the way it was done before: whole file, decompressed into a stream, copied into a buffer. */
+	private static void readCopied(File file) throws IOException {
+
+		byte[] fileContent = new byte[(int) file.length()];
+		FileInputStream fis = new FileInputStream(file);
+		try {
+			fis.read(fileContent);
+		} finally {
+			fis.close();
+		}
+		GZIPInputStream zipStream = new GZIPInputStream(new ByteArrayInputStream(fileContent));
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		byte[] buffer = new byte[zipStream.toString().length()];
+		int readBytes;
+		while ((readBytes = zipStream.read(buffer, 0, buffer.length)) >= 0) data.write(buffer, 0, readBytes);
+		byte[] decompressed = data.toByteArray();
+		ByteBuffer byteBuffer = ByteBuffer.allocate(decompressed.length);
+		byteBuffer.put(decompressed);
+		byteBuffer.position(0);
+		OMMBinaryReader.read(byteBuffer, OMMBinaryFormat.KIND_MEMORY, new Collector());
+	}
+
+	private static OMMHeader createHeader() throws Exception {
+		return createHeader("http://example.org/rest/memory");
+	}
+
+	private static OMMHeader createHeader(String memoryURL) throws Exception {
+		return OMMHeaderImpl.create(new URLType(new URL(memoryURL)), null);
+	}
+
+	private static List<OMMBlock> createBlocks(int count, int payloadLength) throws Exception {
+
+		StringBuilder payload = new StringBuilder();
+		while (payload.length() < payloadLength) payload.append("<value>binary</value>");
+		List<OMMBlock> blocks = new ArrayList<OMMBlock>();
+		for (int i = 0; i < count; i++) blocks.add(BinaryFormatTests.createBlock("block" + i, payload.toString(), 2));
+		return blocks;
+	}
+
+	private static byte[] encode(List<OMMBlock> blocks) throws Exception {
+		return encode(createHeader(), blocks);
+	}
+
+	private static byte[] encode(OMMHeader header, List<OMMBlock> blocks) throws Exception {
+
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		OMMBinaryFormat.Encoder encoder = OMMBinaryFormat.Encoder.create(data, OMMBinaryFormat.KIND_MEMORY);
+		encoder.writeHeader(header);
+		encoder.writeOwner(BinaryFormatTests.createBlock("owner", null, 0));
+		for (OMMBlock block : blocks) encoder.writeBlock(block);
+		encoder.finish();
+		return data.toByteArray();
+	}
+
+	/** Writes a memory in version 1 of the format, with the header and the owner. */
+	private static byte[] encodeVersion1(List<OMMBlock> blocks) throws Exception {
+
+		ByteArrayOutputStream data = new ByteArrayOutputStream();
+		OMMHeader header = createHeader();
+		for (String s : new String[] { header.getPrimaryID().getType(), header.getPrimaryID().getValue().toString(), "", "o" }) {
+			data.write(s.length() >>> 8);
+			data.write(s.length());
+			data.write(s.getBytes("UTF-8"));
+		}
+		data.write(BinaryFormatTests.toVersion1(BinaryFormatTests.createBlock("owner", null, 0)));
+		data.write(ByteBuffer.allocate(4).putInt(blocks.size()).array());
+		for (OMMBlock block : blocks) data.write(BinaryFormatTests.toVersion1(block));
+		return data.toByteArray();
+	}
+
+	private static File writeFile(byte[] bytes, boolean compressed) throws IOException {
+
+		File file = File.createTempFile("memory", compressed ? ".ommz" : ".omm");
+		file.deleteOnExit();
+		if (compressed) {
+			BinaryFormatTests.writeCompressed(file, bytes);
+		} else {
+			FileOutputStream out = new FileOutputStream(file);
+			try {
+				out.write(bytes);
+			} finally {
+				out.close();
+			}
+		}
+		return file;
+	}
+
+	/** Collects the parts read in order. */
+	private static class Collector implements OMMBinaryReader.Consumer {
+
+		List<String> order = new ArrayList<String>();
+		List<OMMBlock> blocks = new ArrayList<OMMBlock>();
+
+		@Override
+		public void headerRead(OMMHeader header) {
+			order.add("header " + header.getPrimaryID().getValue());
+		}
+
+		@Override
+		public void ownerRead(OMMBlock owner) {
+			order.add("owner " + owner.getID());
+		}
+
+		@Override
+		public void blockRead(OMMBlock block) {
+			order.add("block");
+			blocks.add(block);
+		}
+
+		void check(List<OMMBlock> expected) {
+
+			assertEquals("header http://example.org/rest/memory", order.get(0));
+			assertEquals("owner owner", order.get(1));
+			assertEquals(expected.size() + 2, order.size());
+			for (int i = 0; i < expected.size(); i++) assertEquals(BinaryFormatTests.toXML(expected.get(i)), BinaryFormatTests.toXML(blocks.get(i)));
+		}
+	}
+}
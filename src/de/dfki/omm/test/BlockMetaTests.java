@@ -0,0 +1,127 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMFactory;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.impl.rest.OMMRestImpl;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMetaAttribute;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMRestAccessMode;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests that the meta data getters of REST blocks share a single download, and the prefetching of projected meta data, using a simulated OMS.
+ */
+public class BlockMetaTests {
+
+	static OMSSimulator simulator = null;
+	static OMMRestImpl omm = null;
+	static List<String> blockIDs = new ArrayList<String>();
+
+	/**
+	 * (Before all tests) Starts a simulated OMS with a memory containing ten blocks.
+	 * @throws Exception if the simulated OMS cannot be started
+	 */
+	@BeforeClass
+	public static void startSimulator() throws Exception {
+
+		simulator = OMSSimulator.start(0);
+		OMMHeaderImpl header = (OMMHeaderImpl) OMMHeaderImpl.create(new URLType(new URL(simulator.getMemoryURL("metaMemory"))), null);
+		String ownerString = OMMFactory.createOMMOwnerStringFromUsernamePassword("Meta", "owner", "ownerpasswd");
+		OMMFactory.createOMMViaOMSRestInterface(simulator.getURL() + "mgmt/createMemory", header, OMMFactory.createOMMOwnerBlock(header, ownerString));
+
+		omm = new OMMRestImpl(simulator.getMemoryURL("metaMemory"), OMMRestAccessMode.SingleAccess);
+		for (int i = 0; i < 10; i++) {
+			OMMMultiLangText title = new OMMMultiLangText();
+			title.put(Locale.ENGLISH, "Block " + i);
+			OMMBlock block = OMMBlockImpl.create("metaID", header.getPrimaryID(), URI.create("urn:sample:metaBlock"), null, title, null, null, OMMEntity.getDummyEntity(), new OMMFormat("text/plain", null, null), null, new GenericTypedValue("text/plain", "payload " + i), null, null, null);
+			omm.addBlock(block, null);
+			blockIDs.add(block.getID());
+		}
+	}
+
+	/**
+	 * (Before each test) Empties the caches.
+	 */
+	@Before
+	public void invalidate() {
+
+		omm.invalidateCache();
+		simulator.resetStatistics();
+	}
+
+	/**
+	 * Checks that reading all meta data of a block costs a single request.
+	 */
+	@Test
+	public void testGettersShareOneRequest() {
+
+		System.out.println("testGettersShareOneRequest");
+
+		OMMBlock block = omm.getBlock(blockIDs.get(0));
+		assertEquals("Block 0", block.getTitle(Locale.ENGLISH));
+		assertNotNull(block.getNamespace());
+		assertNotNull(block.getCreator());
+		assertNotNull(block.getFormat());
+		assertEquals("text/plain", block.getFormat().getMIMEType());
+		block.getContributors();
+		block.getSubject();
+		block.getType();
+		block.getLink();
+		block.getPreviousLink();
+		block.getDescription();
+		assertEquals("all getters should share one request", 1, simulator.getRequestCount("meta"));
+	}
+
+	/**
+	 * Checks that prefetched fields of many blocks are read without further requests, while other fields are downloaded on demand.
+	 */
+	@Test
+	public void testProjectedPrefetch() {
+
+		System.out.println("testProjectedPrefetch");
+
+		List<OMMBlock> blocks = omm.prefetchBlocks(blockIDs, OMMMetaAttribute.Title, OMMMetaAttribute.Format);
+		assertEquals(blockIDs.size(), simulator.getRequestCount("meta"));
+
+		simulator.resetStatistics();
+		for (int i = 0; i < blocks.size(); i++) {
+			assertEquals("Block " + i, blocks.get(i).getTitle(Locale.ENGLISH));
+			assertEquals("text/plain", blocks.get(i).getFormat().getMIMEType());
+		}
+		assertEquals("prefetched fields should not be downloaded again", 0, simulator.getRequestCount("meta"));
+
+		assertNotNull(blocks.get(0).getCreator());
+		assertEquals("mandatory fields should be part of every projection", 0, simulator.getRequestCount("meta"));
+
+		blocks.get(0).getContributors();
+		assertEquals("fields outside the projection should be downloaded", 1, simulator.getRequestCount("meta"));
+	}
+
+	/**
+	 * (After all tests) Stops the simulated OMS.
+	 */
+	@AfterClass
+	public static void stopSimulator() {
+
+		if (simulator != null) simulator.stop();
+	}
+}
@@ -0,0 +1,240 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMDeltaStore;
+import de.dfki.omm.impl.OMMFactory;
+import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMSourceType;
+
+/**
+ * Tests dirty tracking and the incremental persistence of local memories in an XML file and a delta segment.
+ */
+public class DeltaStoreTests {
+
+	/** Numbers of blocks of the memories used for the benchmark. */
+	public static int[] BENCHMARK_SIZES = { 1000, 10000 };
+
+	private static final OMMEntity ENTITY = new OMMEntity("email", "editor@example.org", "2014-05-02T12:00:00Z");
+
+	@After
+	public void tearDown() {
+		OMMDeltaStore.INCREMENTAL_SAVES = false;
+		OMMDeltaStore.COMPACTION_MIN_BYTES = 1024 * 1024;
+		OMMDeltaStore.COMPACTION_RATIO = 0.5;
+	}
+
+	/**
+	 * Checks that changes of blocks are tracked and that only changed blocks are saved, without touching the XML file.
+	 * @throws Exception if the files cannot be written
+	 */
+	@Test
+	public void testIncrementalSave() throws Exception {
+
+		System.out.println("testIncrementalSave");
+
+		OMMDeltaStore.INCREMENTAL_SAVES = true;
+		File file = createFile();
+		OMMImpl omm = TestMemories.createMemory(100, file);
+		assertTrue(OMMFactory.saveOMM(omm, true));
+		assertFalse(omm.isDirty());
+		byte[] base = Files.readAllBytes(file.toPath());
+
+		((OMMBlockImpl) omm.getBlock("block5")).setTitle(Locale.ENGLISH, "Changed", ENTITY);
+		omm.removeBlock("block7", ENTITY);
+		omm.addBlock(TestMemories.createBlock(omm.getHeader().getPrimaryID(), "added"), ENTITY);
+		assertTrue(omm.isDirty());
+		assertTrue(((OMMBlockImpl) omm.getBlock("block5")).isDirty());
+		assertFalse(((OMMBlockImpl) omm.getBlock("block6")).isDirty());
+		assertEquals(Arrays.asList("block5", "added"), omm.getChangedBlockIDs());
+		assertEquals(Arrays.asList("block7"), omm.getRemovedBlockIDs());
+
+		assertTrue(OMMFactory.saveOMM(omm, true));
+		assertFalse(omm.isDirty());
+		assertFalse(((OMMBlockImpl) omm.getBlock("block5")).isDirty());
+		assertTrue(Arrays.equals(base, Files.readAllBytes(file.toPath())));
+		assertTrue(OMMDeltaStore.getDeltaFile(file).length() < base.length / 10);
+
+		String expected = reload(omm);
+		assertEquals(expected, OMMXMLConverter.toXMLFileString(OMMFactory.loadOMMFromXmlFile(file), true));
+		OMM lazy = OMMFactory.loadOMMFromXmlFileLazy(file);
+		assertNull(lazy.getBlock("block7"));
+		assertEquals("Changed", lazy.getBlock("block5").getTitle(Locale.ENGLISH));
+		assertEquals(expected, OMMXMLConverter.toXMLFileString(lazy, true));
+	}
+
+	/**
+	 * Checks that a record left incomplete by an interrupted save is discarded, while earlier records are kept.
+	 * @throws Exception if the files cannot be written
+	 */
+	@Test
+	public void testInterruptedSave() throws Exception {
+
+		System.out.println("testInterruptedSave");
+
+		OMMDeltaStore.INCREMENTAL_SAVES = true;
+		File file = createFile();
+		File deltaFile = OMMDeltaStore.getDeltaFile(file);
+		OMMImpl omm = TestMemories.createMemory(20, file);
+		assertTrue(OMMFactory.saveOMM(omm, true));
+
+		((OMMBlockImpl) omm.getBlock("block1")).setTitle(Locale.ENGLISH, "First", ENTITY);
+		assertTrue(OMMFactory.saveOMM(omm, true));
+		long firstRecord = deltaFile.length();
+		((OMMBlockImpl) omm.getBlock("block2")).setTitle(Locale.ENGLISH, "Second", ENTITY);
+		assertTrue(OMMFactory.saveOMM(omm, true));
+
+		RandomAccessFile raf = new RandomAccessFile(deltaFile, "rw");
+		raf.setLength(raf.length() - 5);
+		raf.close();
+
+		OMM loaded = OMMFactory.loadOMMFromXmlFile(file);
+		assertEquals("First", loaded.getBlock("block1").getTitle(Locale.ENGLISH));
+		assertEquals("Block 2", loaded.getBlock("block2").getTitle(Locale.ENGLISH));
+		assertEquals(firstRecord, deltaFile.length());
+	}
+
+	/**
+	 * Checks that the delta segment is merged into the XML file explicitly and in the background.
+	 * @throws Exception if the files cannot be written
+	 */
+	@Test
+	public void testCompaction() throws Exception {
+
+		System.out.println("testCompaction");
+
+		OMMDeltaStore.INCREMENTAL_SAVES = true;
+		File file = createFile();
+		File deltaFile = OMMDeltaStore.getDeltaFile(file);
+		OMMImpl omm = TestMemories.createMemory(20, file);
+		assertTrue(OMMFactory.saveOMM(omm, true));
+
+		((OMMBlockImpl) omm.getBlock("block1")).setTitle(Locale.ENGLISH, "Compacted", ENTITY);
+		assertTrue(OMMFactory.saveOMM(omm, true));
+		assertTrue(deltaFile.exists());
+		assertTrue(OMMDeltaStore.compact(file, true));
+		assertFalse(deltaFile.exists());
+		assertEquals(reload(omm), OMMXMLConverter.toXMLFileString(OMMXMLConverter.loadFromXmlFile(file), true));
+
+		OMMDeltaStore.COMPACTION_MIN_BYTES = 0;
+		OMMDeltaStore.COMPACTION_RATIO = 0;
+		((OMMBlockImpl) omm.getBlock("block2")).setTitle(Locale.ENGLISH, "In background", ENTITY);
+		assertTrue(OMMFactory.saveOMM(omm, true));
+		for (int i = 0; i < 100 && deltaFile.exists(); i++) Thread.sleep(100);
+		assertFalse(deltaFile.exists());
+		assertEquals("In background", OMMXMLConverter.loadFromXmlFile(file).getBlock("block2").getTitle(Locale.ENGLISH));
+
+		// further changes are saved relative to the compacted file
+		((OMMBlockImpl) omm.getBlock("block3")).setTitle(Locale.ENGLISH, "After compaction", ENTITY);
+		OMMDeltaStore.COMPACTION_MIN_BYTES = 1024 * 1024;
+		assertTrue(OMMFactory.saveOMM(omm, true));
+		assertEquals(reload(omm), OMMXMLConverter.toXMLFileString(OMMFactory.loadOMMFromXmlFile(file), true));
+	}
+
+	/**
+	 * Checks that a block whose ID is changed is saved under its new ID, and that changes are kept when a save fails.
+	 * @throws Exception if the files cannot be written
+	 */
+	@Test
+	public void testChangedIDAndFailedSave() throws Exception {
+
+		System.out.println("testChangedIDAndFailedSave");
+
+		OMMDeltaStore.INCREMENTAL_SAVES = true;
+		File file = createFile();
+		File deltaFile = OMMDeltaStore.getDeltaFile(file);
+		OMMImpl omm = TestMemories.createMemory(10, file);
+		assertTrue(OMMFactory.saveOMM(omm, true));
+
+		omm.getBlock("block3").setID("renamed");
+		assertNull(omm.getBlock("block3"));
+		assertEquals("Block 3", omm.getBlock("renamed").getTitle(Locale.ENGLISH));
+		assertEquals("renamed", omm.getAllBlockIDs().get(3));
+		assertEquals(Arrays.asList("renamed"), omm.getChangedBlockIDs());
+		assertEquals(Arrays.asList("block3"), omm.getRemovedBlockIDs());
+
+		// a directory in place of the delta segment lets the save fail
+		assertTrue(deltaFile.mkdir());
+		try {
+			assertFalse(OMMFactory.saveOMM(omm, true));
+		}
+		finally {
+			deltaFile.delete();
+		}
+		assertEquals(Arrays.asList("renamed"), omm.getChangedBlockIDs());
+		assertEquals(Arrays.asList("block3"), omm.getRemovedBlockIDs());
+		assertTrue(((OMMBlockImpl) omm.getBlock("renamed")).isDirty());
+
+		assertTrue(OMMFactory.saveOMM(omm, true));
+		assertFalse(omm.isDirty());
+		OMM loaded = OMMFactory.loadOMMFromXmlFile(file);
+		assertNull(loaded.getBlock("block3"));
+		assertEquals("Block 3", loaded.getBlock("renamed").getTitle(Locale.ENGLISH));
+		assertEquals(10, loaded.getAllBlockIDs().size());
+	}
+
+	/**
+	 * Compares the time needed for saving a memory after changing a single block, completely and incrementally.
+	 * @throws Exception if the files cannot be written
+	 */
+	@Test
+	public void testSaveCost() throws Exception {
+
+		System.out.println("testSaveCost");
+		Benchmarks.assumeEnabled();
+
+		for (int size : BENCHMARK_SIZES) {
+			File file = createFile();
+			OMMImpl omm = TestMemories.createMemory(size, file);
+			int iterations = Math.max(10, 20000 / size);
+
+			for (int incremental = 0; incremental < 2; incremental++) {
+				OMMDeltaStore.INCREMENTAL_SAVES = incremental == 1;
+				OMMFactory.saveOMM(omm, true);
+				long start = System.nanoTime();
+				for (int i = 0; i < iterations; i++) {
+					((OMMBlockImpl) omm.getBlock("block" + (i % size))).setTitle(Locale.ENGLISH, "Changed " + i, ENTITY);
+					OMMFactory.saveOMM(omm, true);
+				}
+				long nanos = System.nanoTime() - start;
+				System.out.println(String.format("%d blocks, %s: %10.2f ms/save, file %d KB, delta %d KB", size, incremental == 1 ? "incremental" : "full       ",
+						nanos / 1000000.0 / iterations, file.length() / 1024, OMMDeltaStore.getDeltaFile(file).length() / 1024));
+			}
+			OMMDeltaStore.compact(file, true);
+		}
+	}
+
+	// helper methods
+
+	private static File createFile() throws Exception {
+
+		File file = File.createTempFile("omm", ".xml");
+		file.deleteOnExit();
+		OMMDeltaStore.getDeltaFile(file).deleteOnExit();
+		return file;
+	}
+
+	/** Returns the XML of the given memory after loading it once, as loaded blocks are serialized slightly differently than created ones. */
+	private static String reload(OMM omm) throws Exception {
+
+		OMM loaded = OMMXMLConverter.loadFromXmlString(OMMXMLConverter.toXMLFileString(omm, true), new URL("http://example.org/memory"), null, OMMSourceType.OMS);
+		return OMMXMLConverter.toXMLFileString(loaded, true);
+	}
+}
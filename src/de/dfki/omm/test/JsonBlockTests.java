@@ -0,0 +1,186 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringReader;
+import java.net.URI;
+import java.net.URL;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMFactory;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.impl.rest.OMMRestBlockMetaCache;
+import de.dfki.omm.impl.rest.OMMRestImpl;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.tools.OMMJsonConverter;
+import de.dfki.omm.tools.OMMJsonReader;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMEntityCollection;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMRestAccessMode;
+import de.dfki.omm.types.OMMSubjectCollection;
+import de.dfki.omm.types.OMMSubjectTag;
+import de.dfki.omm.types.OMMSubjectTagType;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests the streaming JSON mapper for blocks, its use for REST reads, and compares its parse cost with the XML parsers.
+ */
+public class JsonBlockTests {
+
+	/**
+	 * Checks the tokens of a JSON document with nesting, escapes and literals.
+	 * @throws Exception if the document cannot be read
+	 */
+	@Test
+	public void testReader() throws Exception {
+
+		System.out.println("testReader");
+
+		OMMJsonReader reader = new OMMJsonReader(new StringReader("{\"a\" : [1, -2.5e3, true, null], \"b\":{\"c\":\"x\\\"y\\u00e4\\n\"}, \"d\":[]}"));
+		reader.beginObject();
+		assertEquals("a", reader.nextName());
+		reader.beginArray();
+		assertEquals("1", reader.nextString());
+		assertEquals(OMMJsonReader.Token.Number, reader.peek());
+		assertEquals("-2.5e3", reader.nextString());
+		assertEquals("true", reader.nextString());
+		assertEquals(null, reader.nextString());
+		assertFalse(reader.hasNext());
+		reader.endArray();
+		assertEquals("b", reader.nextName());
+		reader.beginObject();
+		assertEquals("c", reader.nextName());
+		assertEquals("x\"yä\n", reader.nextString());
+		reader.endObject();
+		assertEquals("d", reader.nextName());
+		reader.skipValue();
+		reader.endObject();
+		assertEquals(OMMJsonReader.Token.EndDocument, reader.peek());
+	}
+
+	/**
+	 * Checks that a block survives the way through its JSON representation.
+	 * @throws Exception if the block cannot be created
+	 */
+	@Test
+	public void testRoundTrip() throws Exception {
+
+		System.out.println("testRoundTrip");
+
+		OMMBlock block = createBlock();
+		OMMBlockImpl parsed = OMMJsonConverter.parseBlock(new ByteArrayInputStream(block.getJsonRepresentation().getBytes("UTF-8")), "other");
+
+		assertNotNull(parsed);
+		assertEquals(block.getID(), parsed.getID());
+		assertEquals(block.getNamespace(), parsed.getNamespace());
+		assertEquals(block.getType(), parsed.getType());
+		assertEquals(block.getPrimaryID().getValue().toString(), parsed.getPrimaryID().getValue().toString());
+		assertEquals(block.getTitle(), parsed.getTitle());
+		assertEquals(block.getDescription(), parsed.getDescription());
+		assertEquals(block.getFormat().getMIMEType(), parsed.getFormat().getMIMEType());
+		assertEquals(block.getFormat().getSchema(), parsed.getFormat().getSchema());
+		assertTrue(block.getCreator().equalsTypeAndValue(parsed.getCreator()));
+		assertTrue(block.getContributors().get(0).equalsTypeAndValue(parsed.getContributors().get(0)));
+		assertTrue(parsed.isSubjectPresent(OMMSubjectTagType.Text, "pump"));
+		assertTrue(parsed.isSubjectPresent(OMMSubjectTagType.Text, "hydraulic"));
+	}
+
+	/**
+	 * Checks that meta data is requested and read as JSON from a simulated OMS.
+	 * @throws Exception if the simulated OMS cannot be started
+	 */
+	@Test
+	public void testNegotiation() throws Exception {
+
+		System.out.println("testNegotiation");
+
+		OMSSimulator simulator = OMSSimulator.start(0);
+		OMMRestImpl.REST_ACCEPT_JSON = true;
+		try {
+			OMMHeaderImpl header = (OMMHeaderImpl) OMMHeaderImpl.create(new URLType(new URL(simulator.getMemoryURL("jsonMemory"))), null);
+			String ownerString = OMMFactory.createOMMOwnerStringFromUsernamePassword("Json", "owner", "ownerpasswd");
+			OMMFactory.createOMMViaOMSRestInterface(simulator.getURL() + "mgmt/createMemory", header, OMMFactory.createOMMOwnerBlock(header, ownerString));
+			OMMRestImpl omm = new OMMRestImpl(simulator.getMemoryURL("jsonMemory"), OMMRestAccessMode.SingleAccess);
+			OMMBlock block = createBlock();
+			omm.addBlock(block, null);
+
+			OMMBlock read = omm.getBlock(block.getID());
+			assertEquals("Hydraulic pump", read.getTitle(Locale.ENGLISH));
+			assertEquals("Hydraulikpumpe", read.getTitle(Locale.GERMAN));
+			assertTrue(read.isSubjectPresent(OMMSubjectTagType.Text, "pump"));
+			assertEquals(1, simulator.getRequestCount("meta"));
+		}
+		finally {
+			OMMRestImpl.REST_ACCEPT_JSON = false;
+			simulator.stop();
+		}
+	}
+
+	/**
+	 * Compares time and allocation of parsing block meta data as JSON, with SAX and into a DOM.
+	 * @throws Exception if the meta data cannot be parsed
+	 */
+	@Test
+	public void testParseCost() throws Exception {
+
+		System.out.println("testParseCost");
+		Benchmarks.assumeEnabled();
+
+		OMMBlock block = createBlock();
+		final byte[] xml = OMMXMLConverter.toXMLFileString(OMMXMLConverter.generateCompleteBlock(block, false)).getBytes("UTF-8");
+		final byte[] json = block.getJsonRepresentation().getBytes("UTF-8");
+		final String id = block.getID();
+		int iterations = 2000;
+
+		Benchmarks.Task dom = new Benchmarks.Task() {
+			public void run() throws Exception {
+				OMMXMLConverter.parseBlock(OMMXMLConverter.getXmlDocumentFromString(new ByteArrayInputStream(xml)).getDocumentElement(), id);
+			}
+		};
+		Benchmarks.Task sax = new Benchmarks.Task() {
+			public void run() throws Exception {
+				OMMRestBlockMetaCache.parse(xml, id, null);
+			}
+		};
+		Benchmarks.Task stream = new Benchmarks.Task() {
+			public void run() throws Exception {
+				OMMJsonConverter.parseBlock(new ByteArrayInputStream(json), id);
+			}
+		};
+
+		System.out.println("XML: " + xml.length + " bytes, JSON: " + json.length + " bytes");
+		Benchmarks.measure("DOM ", dom, iterations);
+		Benchmarks.measure("SAX ", sax, iterations);
+		Benchmarks.measure("JSON", stream, iterations);
+	}
+
+	// helper methods
+
+	private static OMMBlock createBlock() throws Exception {
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, "Hydraulic pump");
+		title.put(Locale.GERMAN, "Hydraulikpumpe");
+		OMMMultiLangText description = new OMMMultiLangText();
+		description.put(Locale.ENGLISH, "Maintenance log of the \"main\" pump");
+		OMMEntity creator = new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z");
+		OMMEntityCollection contributors = new OMMEntityCollection();
+		contributors.add(new OMMEntity("email", "contributor@example.org", "2014-05-02T12:00:00Z"));
+		OMMSubjectCollection subjects = new OMMSubjectCollection();
+		subjects.add(new OMMSubjectTag(OMMSubjectTagType.Text, "pump", new OMMSubjectTag(OMMSubjectTagType.Text, "hydraulic", null)));
+		OMMFormat format = new OMMFormat("text/plain", new URL("http://example.org/schema.xsd"), null);
+
+		return OMMBlockImpl.create("42", new URLType(new URL("http://example.org/memory")), URI.create("urn:sample:jsonBlock"), new URL("http://example.org/type"), title, description, contributors, creator, format, subjects, null, new GenericTypedValue("text/plain", "payload"), null, null, null);
+	}
+}
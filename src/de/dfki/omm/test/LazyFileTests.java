@@ -0,0 +1,226 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Test;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMFactory;
+import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.impl.OMMLazyFileImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMToCEntry;
+import de.dfki.omm.tools.OMMStaxSerializer;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMSourceType;
+
+/**
+ * Tests opening local memory files lazily, with blocks parsed on demand from the buffered file.
+ */
+public class LazyFileTests {
+
+	/** Numbers of blocks of the memories used for the benchmark. */
+	public static int[] BENCHMARK_SIZES = { 1000, 10000, 50000 };
+
+	@After
+	public void tearDown() {
+		OMMLazyFileImpl.PERSIST_INDEX = false;
+	}
+
+	/**
+	 * Checks that only requested blocks are parsed, and that the lazily opened memory equals the completely loaded one.
+	 * @throws Exception if the file cannot be written
+	 */
+	@Test
+	public void testOpenLazily() throws Exception {
+
+		System.out.println("testOpenLazily");
+
+		File file = writeMemory(TestMemories.createMemory(200));
+		OMM eager = OMMFactory.loadOMMFromXmlFile(file);
+		OMMLazyFileImpl lazy = (OMMLazyFileImpl) OMMFactory.loadOMMFromXmlFileLazy(file);
+
+		assertEquals(eager.getHeader().getPrimaryID().getValue().toString(), lazy.getHeader().getPrimaryID().getValue().toString());
+		assertEquals(eager.getAllBlockIDs(), lazy.getAllBlockIDs());
+		assertFalse(lazy.isBlockLoaded("block42"));
+
+		OMMBlock block = lazy.getBlock("block42");
+		assertEquals("Block 42", block.getTitle(Locale.ENGLISH));
+		assertEquals(eager.getBlock("block42").getPayloadAsString(), block.getPayloadAsString());
+		assertTrue(lazy.isBlockLoaded("block42"));
+		assertFalse(lazy.isBlockLoaded("block43"));
+		assertNull(lazy.getBlock("unknown"));
+
+		assertToCEquals(eager.getTableOfContents(), lazy.getTableOfContents());
+		assertFalse(lazy.isBlockLoaded("block43"));
+
+		assertEquals(OMMXMLConverter.toXMLFileString(eager, true), OMMXMLConverter.toXMLFileString(lazy, true));
+		assertTrue(lazy.isBlockLoaded("block43"));
+	}
+
+	/**
+	 * Checks that titles and namespaces with references, line breaks and markup are read from the index like the parser reads them.
+	 * @throws Exception if the file cannot be written
+	 */
+	@Test
+	public void testToCFromIndex() throws Exception {
+
+		System.out.println("testToCFromIndex");
+
+		OMM omm = TestMemories.createMemory(3);
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, "Special <characters> & \"quotes\"\r\n\ttab \u00e4 \ud83d\ude00");
+		title.put(Locale.GERMAN, "");
+		omm.addBlock(OMMBlockImpl.create("special", omm.getHeader().getPrimaryID(), URI.create("urn:sample:lazy?a=1&b=2"), null, title, null, null,
+				new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z"), new OMMFormat("text/plain", null, null), null, new GenericTypedValue("text/plain", "payload"), null, null, null),
+				new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z"));
+
+		File file = writeMemory(omm);
+		String xml = OMMXMLConverter.toXMLFileString(omm, true).replace("<omm:title xml:lang=\"en\">Block 1<", "<omm:title xml:lang=\"en\">Block<!-- one --> 1<");
+		OutputStream os = new FileOutputStream(file);
+		os.write(xml.getBytes("UTF-8"));
+		os.close();
+
+		OMM eager = OMMFactory.loadOMMFromXmlFile(file);
+		OMMLazyFileImpl lazy = (OMMLazyFileImpl) OMMFactory.loadOMMFromXmlFileLazy(file);
+		assertToCEquals(eager.getTableOfContents(), lazy.getTableOfContents());
+		assertFalse(lazy.isBlockLoaded("special"));
+		assertTrue(lazy.isBlockLoaded("block1"));
+	}
+
+	/**
+	 * Checks that the index is persisted next to the file, reused, and created again after the file was saved.
+	 * @throws Exception if the file cannot be written
+	 */
+	@Test
+	public void testIndexFile() throws Exception {
+
+		System.out.println("testIndexFile");
+
+		OMMLazyFileImpl.PERSIST_INDEX = true;
+		File file = writeMemory(TestMemories.createMemory(50));
+		File indexFile = OMMLazyFileImpl.getIndexFile(file);
+		indexFile.deleteOnExit();
+
+		OMMLazyFileImpl lazy = (OMMLazyFileImpl) OMMFactory.loadOMMFromXmlFileLazy(file);
+		assertTrue(indexFile.exists());
+		long indexModified = indexFile.lastModified();
+		OMMLazyFileImpl reopened = (OMMLazyFileImpl) OMMFactory.loadOMMFromXmlFileLazy(file);
+		assertEquals(indexModified, indexFile.lastModified());
+		assertToCEquals(lazy.getTableOfContents(), reopened.getTableOfContents());
+		assertEquals("Block 7", reopened.getBlock("block7").getTitle(Locale.ENGLISH));
+
+		// saving overwrites the file, so all blocks have to be parsed before
+		reopened.getBlock("block7").getTitle().put(Locale.ENGLISH, "Changed");
+		Thread.sleep(1000); // modification times may have a resolution of seconds
+		assertTrue(OMMFactory.saveOMM(reopened, true));
+
+		OMMLazyFileImpl saved = (OMMLazyFileImpl) OMMFactory.loadOMMFromXmlFileLazy(file);
+		assertEquals(50, saved.getAllBlockIDs().size());
+		assertEquals("Changed", saved.getBlock("block7").getTitle(Locale.ENGLISH));
+		assertEquals("Block 8", saved.getBlock("block8").getTitle(Locale.ENGLISH));
+	}
+
+	/**
+	 * Checks that the file is not held open, so that it can be overwritten and deleted while blocks have not been parsed yet.
+	 * @throws Exception if the file cannot be written
+	 */
+	@Test
+	public void testFileReleased() throws Exception {
+
+		System.out.println("testFileReleased");
+
+		File file = writeMemory(TestMemories.createMemory(20));
+		OMMLazyFileImpl lazy = (OMMLazyFileImpl) OMMFactory.loadOMMFromXmlFileLazy(file);
+		assertFalse(lazy.isBlockLoaded("block7"));
+
+		OutputStream os = new FileOutputStream(file);
+		os.write(new byte[(int) file.length()]);
+		os.close();
+		assertTrue(file.delete());
+
+		assertEquals("Block 7", lazy.getBlock("block7").getTitle(Locale.ENGLISH));
+		assertEquals(20, lazy.getAllBlocks().size());
+	}
+
+	/**
+	 * Compares time and allocation of loading memory files completely, and for opening them and reading a few blocks.
+	 * @throws Exception if the files cannot be written
+	 */
+	@Test
+	public void testOpenCost() throws Exception {
+
+		System.out.println("testOpenCost");
+		Benchmarks.assumeEnabled();
+
+		for (int size : BENCHMARK_SIZES) {
+			final File file = writeMemory(TestMemories.createMemory(size));
+			final int blocks = size;
+
+			Benchmarks.Task eager = new Benchmarks.Task() {
+				public void run() throws Exception {
+					OMM omm = OMMFactory.loadOMMFromXmlFile(file);
+					for (int i = 0; i < 5; i++) omm.getBlock("block" + (i * blocks / 5)).getTitle(Locale.ENGLISH);
+				}
+			};
+			Benchmarks.Task lazy = new Benchmarks.Task() {
+				public void run() throws Exception {
+					OMM omm = OMMFactory.loadOMMFromXmlFileLazy(file);
+					omm.getTableOfContents();
+					for (int i = 0; i < 5; i++) omm.getBlock("block" + (i * blocks / 5)).getTitle(Locale.ENGLISH);
+				}
+			};
+
+			int iterations = Math.max(1, 20000 / size);
+			Benchmarks.measure(size + " blocks, eager", eager, iterations);
+			Benchmarks.measure(size + " blocks, lazy ", lazy, iterations);
+		}
+	}
+
+	// helper methods
+
+	private static void assertToCEquals(Collection<OMMToCEntry> expected, Collection<OMMToCEntry> actual) {
+
+		assertEquals(expected.size(), actual.size());
+		List<OMMToCEntry> actualList = new ArrayList<OMMToCEntry>(actual);
+		int i = 0;
+		for (OMMToCEntry entry : expected) {
+			OMMToCEntry other = actualList.get(i++);
+			assertNotNull(other);
+			assertEquals(entry.getID(), other.getID());
+			assertEquals(entry.getNamespace(), other.getNamespace());
+			assertEquals(entry.getTitle(), other.getTitle());
+		}
+	}
+
+	private static File writeMemory(OMM omm) throws Exception {
+
+		File file = File.createTempFile("omm", ".xml");
+		file.deleteOnExit();
+		OutputStream os = new FileOutputStream(file);
+		OMMStaxSerializer.write(omm, true, os);
+		os.close();
+		((OMMImpl) omm).setSource(file);
+		((OMMImpl) omm).setSourceType(OMMSourceType.LocalFile);
+		return file;
+	}
+}
@@ -0,0 +1,248 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.Locale;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMFactory;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.impl.rest.OMMRestImpl;
+import de.dfki.omm.impl.rest.OMMRestMirror;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.tools.OMMActionResultType;
+import de.dfki.omm.tools.OMMMetrics;
+import de.dfki.omm.types.BinaryValue;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMRestAccessMode;
+import de.dfki.omm.types.OMMSubjectTag;
+import de.dfki.omm.types.OMMSubjectTagType;
+import de.dfki.omm.types.TypedValue;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests the local mirror of REST memories against a simulated OMS: reads from the replica, synchronization of changes made by other clients and visibility of own changes.
+ */
+public class LocalMirrorTests {
+
+	static OMSSimulator simulator = null;
+	static OMMHeaderImpl header = null;
+	static OMMRestImpl mirrored = null;
+	static OMMRestImpl other = null;
+
+	/**
+	 * (Before all tests) Starts a simulated OMS with a memory containing one block and opens it twice, once mirrored.
+	 * @throws Exception if the simulated OMS cannot be started
+	 */
+	@BeforeClass
+	public static void startSimulator() throws Exception {
+
+		simulator = OMSSimulator.start(0);
+		header = (OMMHeaderImpl) OMMHeaderImpl.create(new URLType(new URL(simulator.getMemoryURL("mirrorMemory"))), null);
+		String ownerString = OMMFactory.createOMMOwnerStringFromUsernamePassword("Mirror", "owner", "ownerpasswd");
+		OMMFactory.createOMMViaOMSRestInterface(simulator.getURL() + "mgmt/createMemory", header, OMMFactory.createOMMOwnerBlock(header, ownerString));
+
+		other = new OMMRestImpl(simulator.getMemoryURL("mirrorMemory"), OMMRestAccessMode.SingleAccess);
+		assertEquals(OMMActionResultType.OK, other.addBlock(createBlock("first"), null));
+
+		mirrored = new OMMRestImpl(simulator.getMemoryURL("mirrorMemory"), OMMRestAccessMode.LocalMirror);
+		mirrored.getMirror().setStalenessBounds(60000, 60000);
+	}
+
+	/**
+	 * Checks that repeated reads are served from the replica without further requests.
+	 */
+	@Test
+	public void testReadsAreLocal() {
+
+		System.out.println("testReadsAreLocal");
+
+		String id = mirrored.getAllBlockIDs().get(0);
+		assertEquals("first", mirrored.getBlock(id).getTitle(Locale.ENGLISH));
+		simulator.resetStatistics();
+
+		for (int i = 0; i < 50; i++) {
+			assertEquals("first", mirrored.getBlock(id).getTitle(Locale.ENGLISH));
+			assertEquals("first", mirrored.getBlock(id).getPayloadAsString());
+			assertNotNull(mirrored.getHeader());
+		}
+		assertEquals("reads should not reach the OMS", 0, simulator.getRequestCount());
+	}
+
+	/**
+	 * Checks that blocks added and removed by another client appear after a synchronization, downloading only the changed blocks.
+	 */
+	@Test
+	public void testExternalChangesAreSynchronized() {
+
+		System.out.println("testExternalChangesAreSynchronized");
+
+		mirrored.getAllBlockIDs(); // initial download
+		OMMBlock added = createBlock("external");
+		other.addBlock(added, null);
+		assertFalse("change should not be visible before the synchronization", mirrored.getAllBlockIDs().contains(added.getID()));
+
+		simulator.resetStatistics();
+		assertTrue("synchronization should succeed", mirrored.getMirror().sync());
+		assertEquals("only the new payload should be downloaded", 1, simulator.getRequestCount("payload"));
+		assertTrue("added block should be visible", mirrored.getAllBlockIDs().contains(added.getID()));
+		assertEquals("external", mirrored.getBlock(added.getID()).getTitle(Locale.ENGLISH));
+
+		other.removeBlock(added.getID(), null);
+		mirrored.getMirror().sync();
+		assertFalse("removed block should disappear", mirrored.getAllBlockIDs().contains(added.getID()));
+	}
+
+	/**
+	 * Checks that a synchronization only compares the meta data of a bounded number of unchanged blocks, so that all are compared within a few intervals.
+	 */
+	@Test
+	public void testSynchronizationIsIncremental() {
+
+		System.out.println("testSynchronizationIsIncremental");
+
+		int verified = OMMRestMirror.VERIFIED_BLOCKS_PER_SYNC;
+		try {
+			for (int i = 0; i < 4; i++) other.addBlock(createBlock("block " + i), null);
+			assertTrue(mirrored.getMirror().sync());
+			int blocks = mirrored.getAllBlockIDs().size();
+			assertTrue("memory should contain several blocks", blocks >= 5);
+
+			OMMRestMirror.VERIFIED_BLOCKS_PER_SYNC = 2;
+			String first = mirrored.getAllBlockIDs().get(0);
+			other.getBlock(first).addSubject(new OMMSubjectTag(OMMSubjectTagType.Text, "external", null), OMMEntity.getDummyEntity());
+
+			int syncs = 0;
+			do {
+				simulator.resetStatistics();
+				assertTrue(mirrored.getMirror().sync());
+				assertEquals("only the selected blocks should be compared", 2, simulator.getRequestCount("meta"));
+				syncs++;
+			} while (!mirrored.getBlock(first).isSubjectPresent(OMMSubjectTagType.Text, "external") && syncs <= blocks);
+			assertTrue("external change should be found within a few synchronizations", syncs <= (blocks + 1) / 2);
+		}
+		finally {
+			OMMRestMirror.VERIFIED_BLOCKS_PER_SYNC = verified;
+		}
+	}
+
+	/**
+	 * Checks that binary payloads keep their encoding in the replica.
+	 */
+	@Test
+	public void testBinaryPayloads() {
+
+		System.out.println("testBinaryPayloads");
+
+		byte[] data = { 0, 1, 2, (byte) 0xff, (byte) 0xfe, 'O', 'M', 'M' };
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, "binary");
+		OMMBlock block = OMMBlockImpl.create("mirrorID", header.getPrimaryID(), URI.create("urn:sample:mirrorBlock"), null, title, null, null, OMMEntity.getDummyEntity(), new OMMFormat("application/octet-stream", null, "base64"), null, new BinaryValue("base64", data), null, null, null);
+		assertEquals(OMMActionResultType.OK, other.addBlock(block, null));
+		assertTrue(mirrored.getMirror().sync());
+
+		TypedValue payload = mirrored.getBlock(block.getID()).getPayload();
+		assertEquals("payload should keep its encoding", "base64", payload.getType());
+		assertTrue("payload should be binary", payload instanceof BinaryValue);
+		assertArrayEquals("payload should keep its data", data, ((BinaryValue) payload).getValueAsByteArray());
+	}
+
+	/**
+	 * Checks that own changes are visible on the next read and that the synchronization lag is recorded.
+	 */
+	@Test
+	public void testOwnChangesAreVisible() {
+
+		System.out.println("testOwnChangesAreVisible");
+
+		OMMBlock added = createBlock("own");
+		assertEquals(OMMActionResultType.OK, mirrored.addBlock(added, null));
+		assertTrue("own block should be visible right away", mirrored.getAllBlockIDs().contains(added.getID()));
+
+		mirrored.getBlock(added.getID()).setPayload(new GenericTypedValue("text/plain", "changed"), OMMEntity.getDummyEntity());
+		assertEquals("own payload should be visible right away", "changed", mirrored.getBlock(added.getID()).getPayloadAsString());
+
+		OMMMetrics.reset();
+		mirrored.getHeader();
+		assertEquals("synchronization lag should be recorded", 1, OMMMetrics.getSyncLagHistogram().getCount());
+		assertTrue("replica should be fresh", mirrored.getMirror().getSyncLagInMillis() < 60000);
+	}
+
+	/**
+	 * Checks that switching away from the mirror during a synchronization neither deadlocks nor waits for the synchronization.
+	 * @throws InterruptedException if interrupted while waiting for the threads
+	 */
+	@Test
+	public void testSwitchModeDuringSync() throws InterruptedException {
+
+		System.out.println("testSwitchModeDuringSync");
+
+		final OMMRestImpl switched = new OMMRestImpl(simulator.getMemoryURL("mirrorMemory"), OMMRestAccessMode.LocalMirror);
+		final OMMRestMirror mirror = switched.getMirror();
+		Thread sync = new Thread() {
+			public void run() {
+				mirror.sync();
+			}
+		};
+		Thread change = new Thread() {
+			public void run() {
+				switched.setRestAccessMode(OMMRestAccessMode.SingleAccess);
+			}
+		};
+		sync.setDaemon(true);
+		change.setDaemon(true);
+
+		long millis;
+		simulator.setLatency(500, 500);
+		try {
+			sync.start();
+			Thread.sleep(200);
+			long start = System.currentTimeMillis();
+			change.start();
+			change.join(10000);
+			millis = System.currentTimeMillis() - start;
+			sync.join(10000);
+		}
+		finally {
+			simulator.setLatency(0, 0);
+		}
+
+		assertFalse("switching should not deadlock with the synchronization", change.isAlive());
+		assertFalse("synchronization should finish", sync.isAlive());
+		assertTrue("switching should not wait for the synchronization, took " + millis + " ms", millis < 400);
+		assertNull("mirror should be dropped", switched.getMirror());
+	}
+
+	/**
+	 * (After all tests) Stops the simulated OMS.
+	 */
+	@AfterClass
+	public static void stopSimulator() {
+
+		if (mirrored != null) mirrored.setRestAccessMode(OMMRestAccessMode.SingleAccess);
+		if (simulator != null) simulator.stop();
+	}
+
+	// helper methods
+
+	private static OMMBlock createBlock(String titleString) {
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, titleString);
+		return OMMBlockImpl.create("mirrorID", header.getPrimaryID(), URI.create("urn:sample:mirrorBlock"), null, title, null, null, OMMEntity.getDummyEntity(), new OMMFormat("text/plain", null, null), null, new GenericTypedValue("text/plain", titleString), null, null, null);
+	}
+}
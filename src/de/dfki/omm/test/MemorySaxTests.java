@@ -0,0 +1,213 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.tools.OMMMemorySaxHandler;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.types.BinaryValue;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMEntityCollection;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMSourceType;
+import de.dfki.omm.types.OMMSubjectCollection;
+import de.dfki.omm.types.OMMSubjectTag;
+import de.dfki.omm.types.OMMSubjectTagType;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests parsing complete memories with a single SAX handler, and compares its cost with the StAX and DOM loaders.
+ */
+public class MemorySaxTests {
+
+	/** Numbers of blocks of the memories used for the benchmark. */
+	public static int[] BENCHMARK_SIZES = { 100, 1000, 10000 };
+
+	/**
+	 * Checks that memories parsed by the SAX handler equal those loaded by the StAX loader, for blocks using all fields.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testSameAsLoader() throws Exception {
+
+		System.out.println("testSameAsLoader");
+
+		OMM omm = createMemory(50, true);
+		String xml = OMMXMLConverter.toXMLFileString(omm, true);
+		OMM loaded = OMMXMLConverter.loadFromXmlString(xml, new URL("http://example.org/memory"), null, OMMSourceType.OMS);
+		OMM parsed = new OMMMemorySaxHandler().load(new ByteArrayInputStream(xml.getBytes("UTF-8")), new URL("http://example.org/memory"), null, OMMSourceType.OMS);
+
+		assertNotNull(parsed);
+		assertEquals(loaded.getAllBlockIDs(), parsed.getAllBlockIDs());
+		assertEquals(OMMXMLConverter.toXMLFileString(loaded, true), OMMXMLConverter.toXMLFileString(parsed, true));
+
+		OMMBlock inline = parsed.getBlock("inline");
+		assertEquals("urn:foo", inline.getPayloadElement().getFirstChild().getNamespaceURI());
+		assertEquals("dXJuOmZvbw==", parsed.getBlock("binary").getPayload().getValue());
+		assertEquals(1, parsed.getBlock("block3").getSubject().size());
+		assertEquals("hash3", parsed.getBlock("block3").getLinkHash());
+	}
+
+	/**
+	 * Checks that a reused handler hands each block to the consumer in document order, without keeping values of earlier blocks or documents.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testReuse() throws Exception {
+
+		System.out.println("testReuse");
+
+		final List<String> ids = new ArrayList<String>();
+		OMMMemorySaxHandler.BlockConsumer consumer = new OMMMemorySaxHandler.BlockConsumer() {
+			public void blockParsed(OMMBlockImpl block) {
+				ids.add(block.getID());
+				if (block.getID().startsWith("plain")) {
+					assertTrue(block.getDescription() == null || block.getDescription().isEmpty());
+					assertNull(block.getContributors());
+					assertNull(block.getSubject());
+					assertNull(block.getPayloadElement());
+				}
+			}
+		};
+
+		OMMMemorySaxHandler handler = new OMMMemorySaxHandler();
+		OMMHeader header = handler.parse(new ByteArrayInputStream(OMMXMLConverter.toXMLFileString(createMemory(10, true), true).getBytes("UTF-8")), consumer);
+		assertEquals("http://example.org/memory", header.getPrimaryID().getValue().toString());
+		assertEquals(12, handler.getBlockCount());
+		assertEquals("block0", ids.get(0));
+
+		ids.clear();
+		OMM plain = createMemory(0, false);
+		for (int i = 0; i < 5; i++) plain.addBlock(createPlainBlock("plain" + i), new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z"));
+		handler.parse(new ByteArrayInputStream(OMMXMLConverter.toXMLFileString(plain, false).getBytes("UTF-8")), consumer);
+		assertEquals(plain.getAllBlockIDs(), ids);
+		assertEquals(5, handler.getBlockCount());
+	}
+
+	/**
+	 * Checks that documents which are no memories are rejected.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testInvalidDocument() throws Exception {
+
+		System.out.println("testInvalidDocument");
+
+		OMMMemorySaxHandler handler = new OMMMemorySaxHandler();
+		assertNull(handler.load(new ByteArrayInputStream("<?xml version=\"1.0\"?><other/>".getBytes("UTF-8")), null, null, OMMSourceType.OMS));
+		String xml = OMMXMLConverter.toXMLFileString(createMemory(10, false), true);
+		assertNull(handler.load(new ByteArrayInputStream(xml.substring(0, xml.length() / 2).getBytes("UTF-8")), null, null, OMMSourceType.OMS));
+
+		// the handler is still usable
+		assertEquals(10, handler.load(new ByteArrayInputStream(xml.getBytes("UTF-8")), null, null, OMMSourceType.OMS).getAllBlockIDs().size());
+	}
+
+	/**
+	 * Compares time and allocation of parsing memories with the reused SAX handler, the StAX loader and a DOM of the whole document.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testParseCost() throws Exception {
+
+		System.out.println("testParseCost");
+		Benchmarks.assumeEnabled();
+
+		final OMMMemorySaxHandler handler = new OMMMemorySaxHandler();
+		final OMMMemorySaxHandler.BlockConsumer consumer = new OMMMemorySaxHandler.BlockConsumer() {
+			public void blockParsed(OMMBlockImpl block) {
+			}
+		};
+
+		for (int size : BENCHMARK_SIZES) {
+			final byte[] xml = OMMXMLConverter.toXMLFileString(createMemory(size, false), true).getBytes("UTF-8");
+			int iterations = Math.max(1, 20000 / size);
+
+			Benchmarks.measure(size + " blocks, SAX handler", new Benchmarks.Task() {
+				public void run() throws Exception {
+					handler.parse(new ByteArrayInputStream(xml), consumer);
+				}
+			}, iterations);
+			Benchmarks.measure(size + " blocks, StAX loader", new Benchmarks.Task() {
+				public void run() throws Exception {
+					OMMXMLConverter.loadFromXmlStringReader(new ByteArrayInputStream(xml), null, null, OMMSourceType.OMS);
+				}
+			}, iterations);
+			Benchmarks.measure(size + " blocks, DOM        ", new Benchmarks.Task() {
+				public void run() throws Exception {
+					Element root = OMMXMLConverter.getXmlDocumentFromString(new ByteArrayInputStream(xml)).getDocumentElement();
+					for (Element block = OMMXMLConverter.findChild(root, "omm:block"); block != null; block = nextBlock(block)) OMMXMLConverter.parseBlock(block);
+				}
+			}, iterations);
+		}
+	}
+
+	// helper methods
+
+	private static Element nextBlock(Element block) {
+		for (org.w3c.dom.Node node = block.getNextSibling(); node != null; node = node.getNextSibling()) {
+			if (node instanceof Element && node.getNodeName().equals("omm:block")) return (Element) node;
+		}
+		return null;
+	}
+
+	private static OMMBlock createPlainBlock(String id) throws Exception {
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, "Block " + id);
+		return OMMBlockImpl.create(id, new URLType(new URL("http://example.org/memory")), URI.create("urn:sample:saxBlock"), null, title, null, null,
+				new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z"), new OMMFormat("text/plain", null, null), null, new GenericTypedValue("text/plain", "payload <" + id + "> & more"), null, null, null);
+	}
+
+	private static OMM createMemory(int size, boolean special) throws Exception {
+
+		OMMHeader header = TestMemories.createHeader();
+		OMMEntity creator = TestMemories.createCreator();
+		List<OMMBlock> blocks = new ArrayList<OMMBlock>(size);
+		for (int i = 0; i < size; i++) {
+			if (!special) {
+				blocks.add(createPlainBlock("block" + i));
+				continue;
+			}
+			OMMMultiLangText title = new OMMMultiLangText();
+			title.put(Locale.ENGLISH, "Block \u00e4 " + i);
+			title.put(Locale.GERMAN, "Block " + i);
+			OMMMultiLangText description = new OMMMultiLangText();
+			description.put(Locale.ENGLISH, "Description of block " + i);
+			OMMEntityCollection contributors = new OMMEntityCollection();
+			contributors.add(new OMMEntity("email", "contributor@example.org", "2014-05-02T12:00:00Z"));
+			OMMSubjectCollection subject = new OMMSubjectCollection();
+			subject.add(new OMMSubjectTag(OMMSubjectTagType.Text, "outer" + i, new OMMSubjectTag(OMMSubjectTagType.Ontology, "inner" + i, null)));
+			blocks.add(OMMBlockImpl.create("block" + i, header.getPrimaryID(), URI.create("urn:sample:saxBlock"), new URL("http://example.org/type"), title, description, contributors, creator,
+					new OMMFormat("text/plain", null, null), subject, new GenericTypedValue("text/plain", "payload <" + i + "> & more"), null, new URLType(new URL("http://example.org/link" + i)), "hash" + i));
+		}
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, "Inline");
+		if (special) {
+			Element payload = OMMXMLConverter.getXmlDocumentFromString(OMMXMLConverter.getInputStreamFromText(
+					"<f:data xmlns:f=\"urn:foo\" attr=\"a > b\"><omm:block xmlns:omm=\"urn:other\"><f:item f:attr=\"x\"/></omm:block>text<![CDATA[</omm:block>]]></f:data>")).getDocumentElement();
+			blocks.add(OMMBlockImpl.create("inline", header.getPrimaryID(), URI.create("urn:sample:inlineBlock"), null, title, null, null, creator, new OMMFormat("application/xml", null, null), null, null, payload, null, null));
+			blocks.add(OMMBlockImpl.create("binary", header.getPrimaryID(), URI.create("urn:sample:binaryBlock"), null, title, null, null, creator, new OMMFormat("application/octet-stream", null, null), null, new BinaryValue("base64", "urn:foo".getBytes("UTF-8")), null, null, null));
+		}
+
+		return TestMemories.createMemory(header, blocks, null);
+	}
+}
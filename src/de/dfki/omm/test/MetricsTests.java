@@ -0,0 +1,130 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.net.URL;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMFactory;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.impl.rest.OMMRestImpl;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.tools.OMMMetrics;
+import de.dfki.omm.tools.OMMMetricsReporter;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMRestAccessMode;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests the collection of client-side metrics and their publication via JMX and reporters, using a simulated OMS.
+ */
+public class MetricsTests {
+
+	static OMSSimulator simulator = null;
+	static OMMRestImpl omm = null;
+	static String blockID = null;
+
+	/**
+	 * (Before all tests) Starts a simulated OMS with a memory containing one block.
+	 * @throws Exception if the simulated OMS cannot be started
+	 */
+	@BeforeClass
+	public static void startSimulator() throws Exception {
+
+		simulator = OMSSimulator.start(0);
+		OMMHeaderImpl header = (OMMHeaderImpl) OMMHeaderImpl.create(new URLType(new URL(simulator.getMemoryURL("metricsMemory"))), null);
+		String ownerString = OMMFactory.createOMMOwnerStringFromUsernamePassword("Metrics", "owner", "ownerpasswd");
+		OMMFactory.createOMMViaOMSRestInterface(simulator.getURL() + "mgmt/createMemory", header, OMMFactory.createOMMOwnerBlock(header, ownerString));
+
+		omm = new OMMRestImpl(simulator.getMemoryURL("metricsMemory"), OMMRestAccessMode.CompleteDownloadUnlimited);
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, "Metrics");
+		OMMBlock block = OMMBlockImpl.create("metricsID", header.getPrimaryID(), URI.create("urn:sample:metricsBlock"), null, title, null, null, OMMEntity.getDummyEntity(), new OMMFormat("text/plain", null, null), null, new GenericTypedValue("text/plain", "payload"), null, null, null);
+		omm.addBlock(block, null);
+		blockID = block.getID();
+	}
+
+	/**
+	 * Checks that reading a block is recorded as requests, transferred bytes, parse times and cache accesses.
+	 */
+	@Test
+	public void testRequestAndCacheMetrics() {
+
+		System.out.println("testRequestAndCacheMetrics");
+
+		OMMMetrics.reset();
+		OMMBlock block = omm.getBlock(blockID);
+		assertEquals("Metrics", block.getTitle(Locale.ENGLISH));
+		block.getNamespace();
+		omm.getHeader();
+		omm.getHeader();
+
+		Map<String, Number> values = OMMMetrics.getValues();
+		System.out.println(values);
+		assertTrue("meta requests should be recorded", OMMMetrics.getRequestHistogram(OMMMetrics.ENDPOINT_META).getCount() > 0);
+		assertTrue("received bytes should be recorded", values.get("rest.bytesIn").longValue() > 0);
+		assertTrue("parsed documents should be recorded", OMMMetrics.getParseHistogram().getCount() > 0);
+		assertTrue("repeated header reads should hit the cache", OMMMetrics.getCacheHits(OMMMetrics.CACHE_METADATA) > 0);
+		assertTrue("first block access should load the block", OMMMetrics.getCacheMisses(OMMMetrics.CACHE_BLOCK) > 0);
+		assertTrue("further block accesses should reuse the loaded block", OMMMetrics.getCacheHits(OMMMetrics.CACHE_BLOCK) > 0);
+	}
+
+	/**
+	 * Checks that the metrics can be read via JMX and are handed to a reporter.
+	 * @throws Exception if the metrics cannot be read via JMX or the reporter is not called
+	 */
+	@Test
+	public void testPublishing() throws Exception {
+
+		System.out.println("testPublishing");
+
+		omm.getBlock(blockID).getTitle(Locale.ENGLISH);
+		assertTrue("metrics should be registered", OMMMetrics.registerMBean());
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		Object count = server.getAttribute(new ObjectName(OMMMetrics.OBJECT_NAME), "RequestCount");
+		assertNotNull("request count should be readable via JMX", count);
+		assertTrue("request count should be positive", ((Long) count) > 0);
+		OMMMetrics.unregisterMBean();
+
+		final CountDownLatch reported = new CountDownLatch(1);
+		OMMMetricsReporter reporter = new OMMMetricsReporter() {
+			public void report(Map<String, Number> values) {
+				if (values.containsKey("rest.meta.count")) reported.countDown();
+			}
+		};
+		OMMMetrics.addReporter(reporter, 1);
+		try {
+			assertTrue("reporter should be called", reported.await(5, TimeUnit.SECONDS));
+		}
+		finally {
+			OMMMetrics.removeReporter(reporter);
+		}
+	}
+
+	/**
+	 * (After all tests) Stops the simulated OMS.
+	 */
+	@AfterClass
+	public static void stopSimulator() {
+
+		if (simulator != null) simulator.stop();
+	}
+}
@@ -0,0 +1,642 @@
+package de.dfki.omm.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+
+import org.restlet.Context;
+import org.restlet.Request;
+import org.restlet.Response;
+import org.restlet.Restlet;
+import org.restlet.Server;
+import org.restlet.data.CharacterSet;
+import org.restlet.data.Encoding;
+import org.restlet.data.MediaType;
+import org.restlet.data.Method;
+import org.restlet.data.Preference;
+import org.restlet.data.Protocol;
+import org.restlet.data.Status;
+import org.restlet.representation.ByteArrayRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMFactory;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.tools.RestCompression;
+import de.dfki.omm.tools.SunCodec;
+import de.dfki.omm.types.BinaryValue;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMSubjectTag;
+import de.dfki.omm.types.OMMSubjectTagType;
+
+/**
+ * An in-process stand-in for the OMS, serving the REST endpoints used by the client from memory.
+ * Latency, failures and bandwidth of the simulated server can be configured to run tests and load benchmarks offline.
+ * Clients which read the OMS's local files, like {@link OMMFactory#getOwnerBlockFromOMM(String)}, need {@link #setLocalResources(boolean)}.
+ */
+public class OMSSimulator extends Restlet {
+
+	// server
+	private Server server = null;
+	private String baseURL = null;
+	private final ConcurrentMap<String, SimulatedMemory> memories = new ConcurrentHashMap<String, SimulatedMemory>();
+
+	// simulated conditions
+	private volatile long minLatencyInMillis = 0, maxLatencyInMillis = 0;
+	private volatile double errorRate = 0;
+	private volatile long bytesPerSecond = 0;
+	private volatile boolean compression = true;
+	private volatile boolean localResources = false;
+	private final Random rnd = new Random(42);
+
+	// statistics
+	private final ConcurrentMap<String, AtomicLong> requestCounts = new ConcurrentHashMap<String, AtomicLong>();
+	private final AtomicLong bytesSent = new AtomicLong();
+
+	private OMSSimulator() {}
+
+	/**
+	 * Starts a simulated OMS.
+	 * @param port port to listen on, 0 to pick a free one
+	 * @return the running simulator
+	 * @throws Exception if the server cannot be started
+	 */
+	public static OMSSimulator start(int port) throws Exception {
+
+		OMSSimulator simulator = new OMSSimulator();
+		Context context = new Context();
+		context.getParameters().add("maxThreads", "128");
+		context.getParameters().add("maxQueued", "-1");
+		simulator.server = new Server(context, Protocol.HTTP, port, simulator);
+		simulator.server.start();
+		simulator.baseURL = "http://localhost:" + simulator.server.getActualPort() + "/";
+		return simulator;
+	}
+
+	/**
+	 * Stops the simulated OMS.
+	 */
+	public void stop() {
+
+		try {
+			if (server != null) server.stop();
+		}
+		catch (Exception e) { e.printStackTrace(); }
+	}
+
+	/**
+	 * @return address of the simulated OMS, for example <code>http://localhost:10082/</code>
+	 */
+	public String getURL() {
+		return baseURL;
+	}
+
+	/**
+	 * Sets the time every request is delayed by, chosen randomly between both values.
+	 * @param minMillis minimal delay in milliseconds
+	 * @param maxMillis maximal delay in milliseconds
+	 */
+	public void setLatency(long minMillis, long maxMillis) {
+		minLatencyInMillis = minMillis;
+		maxLatencyInMillis = Math.max(minMillis, maxMillis);
+	}
+
+	/**
+	 * @param rate share of requests (0 to 1) which are answered with "503 Service Unavailable"
+	 */
+	public void setErrorRate(double rate) {
+		errorRate = rate;
+	}
+
+	/**
+	 * @param bytes simulated bandwidth of responses in bytes per second, 0 for unlimited
+	 */
+	public void setBandwidth(long bytes) {
+		bytesPerSecond = bytes;
+	}
+
+	/**
+	 * @param enabled whether responses are gzip compressed for clients that accept it
+	 */
+	public void setCompression(boolean enabled) {
+		compression = enabled;
+	}
+
+	/**
+	 * Sets whether memories are also described in <code>resources/memories/{name}/info.xml</code> below the working directory,
+	 * as done by an OMS running there. Existing files are left untouched, the files written are deleted with their memory.
+	 * @param enabled whether the local files are written
+	 */
+	public void setLocalResources(boolean enabled) {
+		localResources = enabled;
+	}
+
+	/**
+	 * @param endpoint name of the endpoint, for example <code>meta</code>, <code>payload</code> or <code>block_ids</code>
+	 * @return number of requests the endpoint received
+	 */
+	public long getRequestCount(String endpoint) {
+		AtomicLong count = requestCounts.get(endpoint);
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * @return number of requests received by all endpoints
+	 */
+	public long getRequestCount() {
+		long sum = 0;
+		for (AtomicLong count : requestCounts.values()) sum += count.get();
+		return sum;
+	}
+
+	/**
+	 * @return number of response bytes sent (after compression)
+	 */
+	public long getBytesSent() {
+		return bytesSent.get();
+	}
+
+	/**
+	 * Sets all statistics back to zero.
+	 */
+	public void resetStatistics() {
+		requestCounts.clear();
+		bytesSent.set(0);
+	}
+
+	/**
+	 * Retrieves the address of a simulated memory.
+	 * @param memoryName name of the memory
+	 * @return the memory's REST address
+	 */
+	public String getMemoryURL(String memoryName) {
+		return baseURL + "rest/" + memoryName;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.restlet.Restlet#handle(org.restlet.Request, org.restlet.Response)
+	 */
+	@Override
+	public void handle(Request request, Response response) {
+
+		try {
+			simulateLatency();
+			if (errorRate > 0 && nextDouble() < errorRate) {
+				count("error");
+				response.setStatus(Status.SERVER_ERROR_SERVICE_UNAVAILABLE);
+				return;
+			}
+			route(request, response);
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+			response.setStatus(Status.SERVER_ERROR_INTERNAL);
+		}
+	}
+
+	// request handling
+
+	private void route(Request request, Response response) throws Exception {
+
+		Method method = request.getMethod();
+		String[] path = request.getResourceRef().getPath().replaceAll("^/+|/+$", "").split("/");
+
+		// /mgmt/createMemory and /mgmt/cloneMemory
+		if (path.length == 2 && path[0].equals("mgmt") && Method.POST.equals(method)) {
+			count(path[1]);
+			createMemory(readEntity(request), path[1].equals("cloneMemory"));
+			response.setStatus(Status.SUCCESS_CREATED);
+			return;
+		}
+		if (path.length < 2 || !path[0].equals("rest")) {
+			notFound(response);
+			return;
+		}
+
+		SimulatedMemory memory = memories.get(path[1]);
+		if (memory == null) {
+			notFound(response);
+			return;
+		}
+
+		// /rest/{memory}
+		if (path.length == 2) {
+			if (Method.DELETE.equals(method)) {
+				count("deleteMemory");
+				memories.remove(path[1]);
+				memory.deleteInfoFile();
+				answer(request, response, "Memory "+path[1]+" successfully deleted", MediaType.TEXT_PLAIN);
+			}
+			else {
+				count("negotiation");
+				answer(request, response, memory.getNegotiationJSON(), MediaType.APPLICATION_JSON);
+			}
+			return;
+		}
+
+		String node = path[2];
+		if (node.equals("mgmt") && path.length == 4 && path[3].equals("owner")) {
+			count("owner");
+			memory.changeOwner(readEntity(request));
+			response.setStatus(Status.SUCCESS_OK);
+			return;
+		}
+		if (node.equals("act") && path.length == 4 && path[3].equals("list")) {
+			count("activity");
+			answer(request, response, "{\"SNIPPET_LIST\":[]}", MediaType.APPLICATION_JSON);
+			return;
+		}
+		if (!node.equals("st") || path.length < 4) {
+			notFound(response);
+			return;
+		}
+
+		String resource = path[3];
+		if (resource.equals("header")) {
+			count("header");
+			answer(request, response, memory.getHeaderXML(), MediaType.APPLICATION_XML);
+		}
+		else if (resource.equals("block_ids")) {
+			count("block_ids");
+			answer(request, response, memory.getBlockIDsJSON(), MediaType.APPLICATION_JSON);
+		}
+		else if (resource.equals("block") && path.length == 4 && Method.POST.equals(method)) {
+			count("block");
+			String id = memory.addBlock(readEntity(request));
+			response.setStatus(Status.SUCCESS_CREATED);
+			response.setEntity(new StringRepresentation(id, MediaType.TEXT_PLAIN));
+		}
+		else if (resource.equals("block") && path.length >= 5) {
+			OMMBlock block = memory.getBlock(path[4]);
+			if (block == null) {
+				notFound(response);
+				return;
+			}
+			handleBlock(request, response, memory, block, path);
+		}
+		else notFound(response);
+	}
+
+	private void handleBlock(Request request, Response response, SimulatedMemory memory, OMMBlock block, String[] path) throws Exception {
+
+		Method method = request.getMethod();
+
+		// /rest/{memory}/st/block/{id}
+		if (path.length == 5) {
+			count("block");
+			if (Method.DELETE.equals(method)) {
+				memory.removeBlock(block.getID());
+				response.setStatus(Status.SUCCESS_OK);
+			}
+			else answer(request, response, memory.toXML(block, true), MediaType.APPLICATION_XML);
+			return;
+		}
+
+		String part = path[5];
+		if (part.equals("payload")) {
+			count("payload");
+			synchronized (memory) {
+				if (Method.POST.equals(method) && isBinary(request.getEntity())) {
+					block.setPayload(new BinaryValue(SunCodec.BASE64_TYPE, readEntityData(request)), OMMEntity.getDummyEntity());
+					response.setStatus(Status.SUCCESS_OK);
+				}
+				else if (Method.POST.equals(method)) {
+					String type = block.getPayload() != null ? block.getPayload().getType() : "none";
+					block.setPayload(new GenericTypedValue(type, readEntity(request)), OMMEntity.getDummyEntity());
+					response.setStatus(Status.SUCCESS_OK);
+				}
+				else if (Method.DELETE.equals(method)) {
+					block.removePayload(OMMEntity.getDummyEntity());
+					response.setStatus(Status.SUCCESS_OK);
+				}
+				else if (block.getPayload() == null) notFound(response);
+				else if (block.getPayload() instanceof BinaryValue) answer(request, response, ((BinaryValue) block.getPayload()).getValueAsByteArray(), MediaType.APPLICATION_OCTET_STREAM);
+				else answer(request, response, block.getPayloadAsString(), MediaType.TEXT_PLAIN);
+			}
+		}
+		else if (part.equals("meta")) {
+			count("meta");
+			String field = path.length > 6 ? path[6] : null;
+			if (field == null && acceptsJSON(request)) answer(request, response, block.getJsonRepresentation(), MediaType.APPLICATION_JSON);
+			else if (field == null) answer(request, response, memory.toXML(block, false), MediaType.APPLICATION_XML);
+			else if (field.equals("subject") && Method.POST.equals(method)) {
+				memory.addSubject(block, readEntity(request));
+				answer(request, response, "OK", MediaType.TEXT_PLAIN);
+			}
+			else if (field.equals("encoding")) {
+				String encoding = block.getFormat() != null ? block.getFormat().getEncryption() : null;
+				answer(request, response, encoding == null ? "" : encoding, MediaType.TEXT_PLAIN);
+			}
+			else {
+				String xml = memory.getMetaField(block, field);
+				if (xml == null) notFound(response);
+				else answer(request, response, xml, MediaType.APPLICATION_XML);
+			}
+		}
+		else notFound(response);
+	}
+
+	private void createMemory(String xml, boolean withBlocks) throws Exception {
+
+		Document doc = OMMXMLConverter.getXmlDocumentFromString(OMMXMLConverter.getInputStreamFromText(xml));
+		OMMHeader header = null;
+		OMMBlock owner = null;
+		List<OMMBlock> blocks = new LinkedList<OMMBlock>();
+
+		NodeList children = doc.getDocumentElement().getChildNodes();
+		for (int i = 0; i < children.getLength(); i++) {
+			Node child = children.item(i);
+			if (!(child instanceof Element)) continue;
+			Element element = (Element) child;
+			if (element.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":header")) header = OMMXMLConverter.parseHeader(element);
+			else if (element.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":block")) {
+				OMMBlock block = OMMXMLConverter.parseBlock(element);
+				if (OMMFactory.OWNER_BLOCK_ID.equals(block.getID())) owner = block;
+				else if (withBlocks) blocks.add(block);
+			}
+		}
+		if (header == null) throw new IllegalArgumentException("memory description contains no header");
+
+		String[] primaryID = header.getPrimaryID().getValue().toString().replaceAll("/+$", "").split("/");
+		String name = primaryID[primaryID.length - 1];
+		SimulatedMemory memory = new SimulatedMemory(name, header, owner);
+		for (OMMBlock block : blocks) memory.putBlock(block);
+		SimulatedMemory previous = memories.put(name, memory);
+		if (previous != null) previous.deleteInfoFile();
+		if (localResources) memory.writeInfoFile();
+	}
+
+	// helper methods
+
+	private void answer(Request request, Response response, String text, MediaType mediaType) throws IOException {
+
+		answer(request, response, text.getBytes("UTF-8"), mediaType);
+		response.getEntity().setCharacterSet(CharacterSet.UTF_8);
+	}
+
+	private void answer(Request request, Response response, byte[] data, MediaType mediaType) throws IOException {
+
+		Representation entity;
+		if (compression && data.length > 256 && acceptsGzip(request)) {
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			GZIPOutputStream gzos = new GZIPOutputStream(baos);
+			gzos.write(data);
+			gzos.close();
+			data = baos.toByteArray();
+			entity = new ByteArrayRepresentation(data, mediaType);
+			entity.getEncodings().add(Encoding.GZIP);
+		}
+		else entity = new ByteArrayRepresentation(data, mediaType);
+
+		simulateBandwidth(data.length);
+		bytesSent.addAndGet(data.length);
+		response.setStatus(Status.SUCCESS_OK);
+		response.setEntity(entity);
+	}
+
+	private boolean acceptsGzip(Request request) {
+
+		for (Preference<Encoding> preference : request.getClientInfo().getAcceptedEncodings()) {
+			if (Encoding.GZIP.equals(preference.getMetadata()) && preference.getQuality() > 0) return true;
+		}
+		return false;
+	}
+
+	private boolean acceptsJSON(Request request) {
+
+		float json = 0, xml = 0;
+		for (Preference<MediaType> preference : request.getClientInfo().getAcceptedMediaTypes()) {
+			if (MediaType.APPLICATION_JSON.equals(preference.getMetadata())) json = preference.getQuality();
+			else if (MediaType.APPLICATION_XML.equals(preference.getMetadata()) || MediaType.TEXT_XML.equals(preference.getMetadata())) xml = Math.max(xml, preference.getQuality());
+		}
+		return json > xml;
+	}
+
+	private boolean isBinary(Representation entity) {
+
+		return entity != null && MediaType.APPLICATION_OCTET_STREAM.equals(entity.getMediaType());
+	}
+
+	private String readEntity(Request request) throws IOException {
+
+		return new String(readEntityData(request), "UTF-8");
+	}
+
+	private byte[] readEntityData(Request request) throws IOException {
+
+		Representation entity = request.getEntity();
+		if (entity == null) return new byte[0];
+		InputStream is = entity.getStream();
+		if (is == null) return new byte[0];
+		for (Encoding encoding : entity.getEncodings()) is = RestCompression.decode(is, encoding.getName());
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = is.read(buffer)) > -1) baos.write(buffer, 0, read);
+		is.close();
+		return baos.toByteArray();
+	}
+
+	private void notFound(Response response) {
+		count("notFound");
+		response.setStatus(Status.CLIENT_ERROR_NOT_FOUND);
+	}
+
+	private void count(String endpoint) {
+		AtomicLong count = requestCounts.get(endpoint);
+		if (count == null) {
+			requestCounts.putIfAbsent(endpoint, new AtomicLong());
+			count = requestCounts.get(endpoint);
+		}
+		count.incrementAndGet();
+	}
+
+	private void simulateLatency() throws InterruptedException {
+
+		long min = minLatencyInMillis, max = maxLatencyInMillis;
+		if (max <= 0) return;
+		long delay = min + (long) (nextDouble() * (max - min));
+		if (delay > 0) Thread.sleep(delay);
+	}
+
+	private void simulateBandwidth(long bytes) {
+
+		long limit = bytesPerSecond;
+		if (limit <= 0) return;
+		try {
+			Thread.sleep(bytes * 1000 / limit);
+		}
+		catch (InterruptedException e) { Thread.currentThread().interrupt(); }
+	}
+
+	private double nextDouble() {
+		synchronized (rnd) {
+			return rnd.nextDouble();
+		}
+	}
+
+	/**
+	 * The state of a single simulated memory.
+	 */
+	private class SimulatedMemory {
+
+		final String name;
+		final OMMHeader header;
+		OMMBlock owner;
+		final Map<String, OMMBlock> blocks = new LinkedHashMap<String, OMMBlock>();
+		int nextID = 1;
+		File infoFile = null, infoRoot = null;
+
+		SimulatedMemory(String name, OMMHeader header, OMMBlock owner) {
+			this.name = name;
+			this.header = header;
+			this.owner = owner;
+		}
+
+		String getNegotiationJSON() {
+			// the order of the entries is the one of the OMS, which some clients rely on
+			String memoryURL = getMemoryURL(name);
+			return "{\"STORAGE\":{\"LINK\":\""+memoryURL+"/st\",\"DISTRIBUTED\":false,\"CAPACITY\":\"UNLIMITED\",\"FREE_SPACE\":\"UNLIMITED\",\"DELETE_DISABLED\":false},"
+					+ "\"MANAGEMENT\":{\"LINK\":\""+memoryURL+"/mgmt\",\"FLUSH\":false},\"VERSION\":1}";
+		}
+
+		/**
+		 * Writes the owner to <code>info.xml</code> like the OMS, remembering the first folder created so that all can be deleted again.
+		 */
+		synchronized void writeInfoFile() throws IOException {
+			File folder = new File(System.getProperty("user.dir"), "resources" + File.separator + "memories" + File.separator + name);
+			File file = new File(folder, "info.xml");
+			if (file.exists() || owner == null) return;
+
+			for (File f = folder; f != null && !f.exists(); f = f.getParentFile()) infoRoot = f;
+			if (!folder.isDirectory() && !folder.mkdirs()) throw new IOException("cannot create " + folder);
+
+			Document doc = OMMXMLConverter.createNewXmlDocument();
+			Element oms = OMMXMLConverter.createXmlElement(doc, "oms", OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
+			doc.appendChild(oms);
+			Element ownership = OMMXMLConverter.createXmlElement(doc, "ownership");
+			oms.appendChild(ownership);
+			ownership.appendChild(doc.importNode(OMMXMLConverter.generateCompleteBlock(owner, true).getDocumentElement(), true));
+
+			Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+			try {
+				writer.write(OMMXMLConverter.toXMLFileString(doc));
+			}
+			finally {
+				writer.close();
+			}
+			infoFile = file;
+		}
+
+		/**
+		 * Deletes the <code>info.xml</code> written for this memory and the folders created for it.
+		 */
+		synchronized void deleteInfoFile() {
+			if (infoFile == null) return;
+			infoFile.delete();
+			if (infoRoot != null) {
+				for (File f = infoFile.getParentFile(); f != null && f.delete() && !f.equals(infoRoot); f = f.getParentFile());
+			}
+			infoFile = null;
+		}
+
+		synchronized String getHeaderXML() {
+			return OMMXMLConverter.toXMLFileString(OMMXMLConverter.generateHeaderDocument(header));
+		}
+
+		synchronized String getBlockIDsJSON() {
+			StringBuilder sb = new StringBuilder("{\"IDs\":[");
+			boolean first = true;
+			for (String id : blocks.keySet()) {
+				if (!first) sb.append(',');
+				sb.append('"').append(id).append('"');
+				first = false;
+			}
+			return sb.append("]}").toString();
+		}
+
+		synchronized OMMBlock getBlock(String id) {
+			return blocks.get(id);
+		}
+
+		synchronized String addBlock(String xml) {
+			Document doc = OMMXMLConverter.getXmlDocumentFromString(OMMXMLConverter.getInputStreamFromText(xml));
+			String id = Integer.toString(nextID++);
+			OMMBlock block = OMMXMLConverter.parseBlock(doc.getDocumentElement(), id);
+			blocks.put(id, block);
+			return id;
+		}
+
+		synchronized void putBlock(OMMBlock block) {
+			String id = Integer.toString(nextID++);
+			block.setID(id);
+			blocks.put(id, block);
+		}
+
+		synchronized void removeBlock(String id) {
+			blocks.remove(id);
+		}
+
+		synchronized void changeOwner(String xml) throws IOException {
+			Document doc = OMMXMLConverter.getXmlDocumentFromString(OMMXMLConverter.getInputStreamFromText(xml));
+			OMMBlock newOwner = null;
+			NodeList children = doc.getDocumentElement().getChildNodes();
+			for (int i = 0; i < children.getLength(); i++) {
+				if (children.item(i) instanceof Element) newOwner = OMMXMLConverter.parseBlock((Element) children.item(i));
+			}
+			if (newOwner != null) owner = newOwner;
+			if (newOwner != null && infoFile != null) {
+				infoFile.delete();
+				writeInfoFile();
+			}
+		}
+
+		synchronized void addSubject(OMMBlock block, String xml) {
+			Document doc = OMMXMLConverter.getXmlDocumentFromString(OMMXMLConverter.getInputStreamFromText(xml));
+			NodeList tags = doc.getElementsByTagNameNS(OMMXMLConverter.OMM_NAMESPACE_URI, "tag");
+			for (int i = 0; i < tags.getLength(); i++) {
+				Element tag = (Element) tags.item(i);
+				OMMSubjectTagType type = OMMSubjectTagType.valueOf(tag.getAttributeNS(OMMXMLConverter.OMM_NAMESPACE_URI, "type"));
+				((OMMBlockImpl) block).addSubject(new OMMSubjectTag(type, tag.getAttributeNS(OMMXMLConverter.OMM_NAMESPACE_URI, "value"), null), OMMEntity.getDummyEntity());
+			}
+		}
+
+		synchronized String toXML(OMMBlock block, boolean withPayload) {
+			return OMMXMLConverter.toXMLFileString(OMMXMLConverter.generateCompleteBlock(block, withPayload));
+		}
+
+		synchronized String getMetaField(OMMBlock block, String field) {
+			Document doc = OMMXMLConverter.generateCompleteBlock(block, false);
+			NodeList children = doc.getDocumentElement().getChildNodes();
+			for (int i = 0; i < children.getLength(); i++) {
+				Node child = children.item(i);
+				if (child instanceof Element && child.getNodeName().equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":"+field)) {
+					return OMMXMLConverter.toXMLFileString(child);
+				}
+			}
+			return null;
+		}
+	}
+}
@@ -0,0 +1,142 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.tools.OMMStaxLoader;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMSourceType;
+
+/**
+ * Tests that memories loaded with parallel block parsing equal those loaded sequentially, and compares the load time of both modes.
+ */
+public class ParallelLoadTests {
+
+	/** Numbers of blocks of the memories used for the benchmark. */
+	public static int[] BENCHMARK_SIZES = { 100, 1000, 10000 };
+
+	@After
+	public void tearDown() {
+		OMMStaxLoader.PARALLEL_LOADING = false;
+	}
+
+	/**
+	 * Checks that all blocks are loaded identically and in document order, including inline XML payloads with markup that looks like blocks.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testSameBlocks() throws Exception {
+
+		System.out.println("testSameBlocks");
+
+		OMM omm = createMemory(500);
+		omm.addBlock(createInlineBlock(omm), new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z"));
+		String xml = OMMXMLConverter.toXMLFileString(omm, true);
+
+		OMM sequential = load(xml, false);
+		OMM parallel = load(xml, true);
+		assertNotNull(parallel);
+		assertEquals(501, parallel.getAllBlockIDs().size());
+		assertEquals(sequential.getAllBlockIDs(), parallel.getAllBlockIDs());
+		assertEquals(OMMXMLConverter.toXMLFileString(sequential, true), OMMXMLConverter.toXMLFileString(parallel, true));
+		assertEquals("Block \u00e4 42", parallel.getBlock("block42").getTitle(Locale.ENGLISH));
+	}
+
+	/**
+	 * Checks that documents which the scanner does not handle are loaded sequentially, and that invalid documents are still rejected.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testFallback() throws Exception {
+
+		System.out.println("testFallback");
+
+		String xml = OMMXMLConverter.toXMLFileString(createMemory(20), true);
+		String latin1 = "<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>" + xml.substring(xml.indexOf("?>") + 2);
+		OMMStaxLoader.PARALLEL_LOADING = true;
+		OMM loaded = OMMXMLConverter.loadFromXmlStringReader(new ByteArrayInputStream(latin1.getBytes("ISO-8859-1")), new URL("http://example.org/memory"), null, OMMSourceType.OMS);
+		assertEquals("Block \u00e4 7", loaded.getBlock("block7").getTitle(Locale.ENGLISH));
+
+		assertNull(load("<?xml version=\"1.0\"?><other/>", true));
+		assertNull(load(xml.substring(0, xml.length() / 2), true));
+	}
+
+	/**
+	 * Compares the time needed for loading memories of different sizes sequentially and in parallel.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testLoadCost() throws Exception {
+
+		System.out.println("testLoadCost");
+		Benchmarks.assumeEnabled();
+		System.out.println("parallelism: " + OMMStaxLoader.PARALLELISM);
+
+		for (int size : BENCHMARK_SIZES) {
+			final String xml = OMMXMLConverter.toXMLFileString(createMemory(size), true);
+			int iterations = Math.max(1, 20000 / size);
+			Benchmarks.measure(size + " blocks, sequential", new Benchmarks.Task() {
+				public void run() throws Exception {
+					load(xml, false);
+				}
+			}, iterations);
+			Benchmarks.measure(size + " blocks, parallel  ", new Benchmarks.Task() {
+				public void run() throws Exception {
+					load(xml, true);
+				}
+			}, iterations);
+		}
+	}
+
+	// helper methods
+
+	private static OMM load(String xml, boolean parallel) throws Exception {
+
+		OMMStaxLoader.PARALLEL_LOADING = parallel;
+		try {
+			return OMMXMLConverter.loadFromXmlString(xml, new URL("http://example.org/memory"), null, OMMSourceType.OMS);
+		}
+		finally {
+			OMMStaxLoader.PARALLEL_LOADING = false;
+		}
+	}
+
+	private static OMM createMemory(int size) throws Exception {
+
+		OMMHeader header = TestMemories.createHeader();
+		List<OMMBlock> blocks = new ArrayList<OMMBlock>(size);
+		for (int i = 0; i < size; i++) blocks.add(TestMemories.createBlock(header.getPrimaryID(), "block" + i, "Block \u00e4 " + i, "payload <" + i + "> & more"));
+		return TestMemories.createMemory(header, blocks, null);
+	}
+
+	private static OMMBlock createInlineBlock(OMM omm) throws Exception {
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, "Inline");
+		Element payload = OMMXMLConverter.getXmlDocumentFromString(OMMXMLConverter.getInputStreamFromText(
+				"<f:data xmlns:f=\"urn:foo\" attr=\"a > b\" other='&lt;/omm:block>'><omm:block xmlns:omm=\"urn:other\"><f:item/></omm:block>"
+				+ "<![CDATA[</omm:block><omm:block>]]><!-- </omm:block> --><?target </omm:block>?></f:data>")).getDocumentElement();
+
+		return OMMBlockImpl.create("inline", omm.getHeader().getPrimaryID(), URI.create("urn:sample:inlineBlock"), null, title, null, null,
+				new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z"), new OMMFormat("application/xml", null, null), null, null, payload, null, null);
+	}
+}
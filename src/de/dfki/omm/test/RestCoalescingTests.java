@@ -0,0 +1,197 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.dfki.omm.impl.rest.OMMRestImpl;
+import de.dfki.omm.impl.rest.OMMRestMetadataResolver;
+import de.dfki.omm.impl.rest.OMMRestRequestCoalescer;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.types.OMMRestAccessMode;
+
+/**
+ * Benchmarks many threads reading the same block via the REST interface, with and without merging of identical requests,
+ * and checks that shared metadata downloads are not joined after the cache was invalidated.
+ */
+public class RestCoalescingTests {
+
+	static HttpServer server = null;
+	static String memoryURL = null;
+	static AtomicInteger metaRequests = new AtomicInteger();
+
+	static int threads = 32;
+	static int latencyInMillis = 100;
+
+	/**
+	 * (Before all tests) Starts a local stand-in for the OMS which answers slowly with negotiation data and block meta data.
+	 * @throws IOException if the server cannot be started
+	 */
+	@BeforeClass
+	public static void startServer() throws IOException {
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(java.util.concurrent.Executors.newCachedThreadPool());
+		memoryURL = "http://localhost:"+server.getAddress().getPort()+"/rest/benchMemory";
+		server.createContext("/rest/benchMemory", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				String path = exchange.getRequestURI().getPath();
+				String answer;
+				if (path.endsWith("/meta")) {
+					metaRequests.incrementAndGet();
+					try { Thread.sleep(latencyInMillis); } catch (InterruptedException e) { }
+					answer = "<omm:block xmlns:omm=\"http://www.w3.org/2005/Incubator/omm/elements/1.0/\" omm:id=\"1\">"
+							+ "<omm:namespace>urn:bench</omm:namespace>"
+							+ "<omm:creation><omm:creator omm:type=\"email\">bench@example.org</omm:creator><omm:date omm:encoding=\"ISO8601\">2015-07-01T12:00:00+02:00</omm:date></omm:creation>"
+							+ "<omm:title xml:lang=\"en\">Benchmark</omm:title>"
+							+ "</omm:block>";
+				}
+				else {
+					answer = "{\"VERSION\":1,\"STORAGE\":{\"LINK\":\""+memoryURL+"/st\",\"DISTRIBUTED\":false,\"CAPACITY\":\"UNLIMITED\",\"FREE_SPACE\":\"UNLIMITED\",\"DELETE_DISABLED\":false},"
+							+ "\"MANAGEMENT\":{\"LINK\":\""+memoryURL+"/mgmt\"}}";
+				}
+				byte[] data = answer.getBytes("UTF-8");
+				exchange.sendResponseHeaders(200, data.length);
+				OutputStream os = exchange.getResponseBody();
+				os.write(data);
+				os.close();
+			}
+		});
+		server.start();
+	}
+
+	/**
+	 * Reads the same block's title from many threads at once and compares the number of requests reaching the server.
+	 * @throws InterruptedException if the test is interrupted
+	 */
+	@Test
+	public void testConcurrentIdenticalReads() throws InterruptedException {
+
+		System.out.println("testConcurrentIdenticalReads");
+
+		boolean enabled = OMMRestRequestCoalescer.COALESCING_ENABLED;
+		try {
+			OMMRestRequestCoalescer.COALESCING_ENABLED = false;
+			long[] plain = readConcurrently();
+			OMMRestRequestCoalescer.COALESCING_ENABLED = true;
+			long[] coalesced = readConcurrently();
+
+			System.out.println("without coalescing: "+plain[0]+" requests, "+plain[1]+" ms");
+			System.out.println("with coalescing:    "+coalesced[0]+" requests ("+OMMRestRequestCoalescer.getRequestsSaved()+" saved), "+coalesced[1]+" ms");
+
+			assertEquals("every thread should send its own request", threads, plain[0]);
+			assertTrue("concurrent readers should share requests", coalesced[0] < threads);
+			assertEquals("every read should be answered", threads, coalesced[0] + OMMRestRequestCoalescer.getRequestsSaved());
+		}
+		finally {
+			OMMRestRequestCoalescer.COALESCING_ENABLED = enabled;
+		}
+	}
+
+	/**
+	 * Checks that a metadata download started before the cache was invalidated, for example with old credentials, is neither joined nor used.
+	 * @throws InterruptedException if the test is interrupted
+	 */
+	@Test
+	public void testInvalidatedDownload() throws InterruptedException {
+
+		System.out.println("testInvalidatedDownload");
+
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger downloads = new AtomicInteger();
+		final OMMRestMetadataResolver<String> resolver = new OMMRestMetadataResolver<String>() {
+			@Override
+			protected String download() {
+				if (downloads.incrementAndGet() > 1) return "new";
+				started.countDown();
+				try { release.await(); } catch (InterruptedException e) { }
+				return "old";
+			}
+			@Override
+			protected long getLifetimeInMillis() {
+				return 60000;
+			}
+		};
+
+		final String[] result = new String[1];
+		Thread first = new Thread() {
+			public void run() {
+				result[0] = resolver.get();
+			}
+		};
+		first.start();
+		started.await();
+		resolver.invalidate();
+		assertEquals("the old download should not be joined", "new", resolver.get());
+
+		release.countDown();
+		first.join();
+		assertEquals("the old result should be discarded", "new", result[0]);
+		assertEquals("new", resolver.peek());
+		assertEquals(2, downloads.get());
+	}
+
+	/**
+	 * (After all tests) Stops the local server.
+	 */
+	@AfterClass
+	public static void stopServer() {
+
+		if (server != null) server.stop(0);
+	}
+
+	// helper methods
+
+	/**
+	 * Lets all threads read the title of the same block at the same time.
+	 * @return requests received by the server and elapsed time in milliseconds
+	 * @throws InterruptedException if waiting for the threads is interrupted
+	 */
+	private long[] readConcurrently() throws InterruptedException {
+
+		final OMMRestImpl omm = new OMMRestImpl(memoryURL, OMMRestAccessMode.CompleteDownloadUnlimited);
+		omm.getNegotiationData();
+		metaRequests.set(0);
+		OMMRestRequestCoalescer.resetStatistics();
+
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicInteger failures = new AtomicInteger();
+		for (int i = 0; i < threads; i++) {
+			new Thread() {
+				public void run() {
+					try {
+						start.await();
+						OMMBlock block = omm.getBlock("1");
+						if (!"Benchmark".equals(block.getTitle(new Locale("en")))) failures.incrementAndGet();
+					}
+					catch (Exception e) { failures.incrementAndGet(); }
+					finally { done.countDown(); }
+				}
+			}.start();
+		}
+
+		long begin = System.currentTimeMillis();
+		start.countDown();
+		done.await();
+		long elapsed = System.currentTimeMillis() - begin;
+
+		assertEquals("all reads should succeed", 0, failures.get());
+		return new long[] { metaRequests.get(), elapsed };
+	}
+}
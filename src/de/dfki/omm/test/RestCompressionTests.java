@@ -0,0 +1,172 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.restlet.data.Encoding;
+import org.restlet.data.MediaType;
+import org.restlet.representation.InputRepresentation;
+import org.restlet.representation.Representation;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.dfki.omm.tools.DownloadHelper;
+import de.dfki.omm.tools.RestCompression;
+
+/**
+ * Measures the data transferred by the REST client with and without compression against a local HTTP server.
+ */
+public class RestCompressionTests {
+
+	static HttpServer server = null;
+	static String serverURL = null;
+	static String metaXML = null;
+
+	static int repetitions = 50;
+
+	/**
+	 * (Before all tests) Starts a local server which answers with a block's meta data, compressed if the client accepts gzip.
+	 * @throws IOException if the server cannot be started
+	 */
+	@BeforeClass
+	public static void startServer() throws IOException {
+
+		StringBuilder sb = new StringBuilder("<omm:block xmlns:omm=\"http://www.w3.org/2005/Incubator/omm/elements/1.0/\" omm:id=\"1\">");
+		sb.append("<omm:namespace>urn:test</omm:namespace>");
+		sb.append("<omm:creation><omm:creator omm:type=\"email\">test@example.org</omm:creator><omm:date omm:encoding=\"ISO8601\">2015-07-01T12:00:00+02:00</omm:date></omm:creation>");
+		for (int i = 0; i < 100; i++) sb.append("<omm:title xml:lang=\"en\">Title number "+i+"</omm:title>");
+		sb.append("</omm:block>");
+		metaXML = sb.toString();
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/", new HttpHandler() {
+			public void handle(HttpExchange exchange) throws IOException {
+				byte[] data = metaXML.getBytes("UTF-8");
+				String accepted = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+				if (accepted != null && accepted.contains("gzip")) {
+					ByteArrayOutputStream baos = new ByteArrayOutputStream();
+					GZIPOutputStream gzos = new GZIPOutputStream(baos);
+					gzos.write(data);
+					gzos.close();
+					data = baos.toByteArray();
+					exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+				}
+				exchange.getResponseHeaders().set("Content-Type", "application/xml; charset=UTF-8");
+				exchange.sendResponseHeaders(200, data.length);
+				OutputStream os = exchange.getResponseBody();
+				os.write(data);
+				os.close();
+			}
+		});
+		server.start();
+		serverURL = "http://localhost:"+server.getAddress().getPort()+"/rest/testMemory/block/1/meta";
+	}
+
+	/**
+	 * Downloads the same data with compression disabled and enabled and compares bytes on the wire and latency.
+	 */
+	@Test
+	public void testCompressedDownload() {
+
+		System.out.println("testCompressedDownload");
+
+		boolean enabled = RestCompression.COMPRESSION_ENABLED;
+		try {
+			long[] plain = download(false);
+			long[] compressed = download(true);
+
+			System.out.println("uncompressed: "+plain[0]+" bytes on the wire, "+(plain[1]/repetitions/1000)+" us per request");
+			System.out.println("compressed:   "+compressed[0]+" bytes on the wire, "+(compressed[1]/repetitions/1000)+" us per request");
+
+			assertEquals("decoded data should equal the uncompressed data", plain[2], compressed[2]);
+			assertTrue("compressed transfer should be smaller", compressed[0] < plain[0]);
+		}
+		finally {
+			RestCompression.COMPRESSION_ENABLED = enabled;
+		}
+	}
+
+	/**
+	 * Checks that small entities are sent as they are and large ones are compressed.
+	 */
+	@Test
+	public void testCompressionThreshold() {
+
+		System.out.println("testCompressionThreshold");
+
+		assertTrue("small entities should not be encoded", RestCompression.encode("small", null).getEncodings().isEmpty());
+		assertTrue("large entities should be gzip encoded", !RestCompression.encode(metaXML, null).getEncodings().isEmpty());
+
+		// the threshold and the counters refer to UTF-8 bytes, not to characters
+		StringBuilder umlauts = new StringBuilder();
+		while (umlauts.length() < RestCompression.COMPRESSION_THRESHOLD_IN_BYTES / 2) umlauts.append("\u00e4\u00f6\u00fc\u00df");
+		assertTrue("texts above the threshold in bytes should be gzip encoded", !RestCompression.encode(umlauts.toString(), null).getEncodings().isEmpty());
+		long encoded = RestCompression.getBytesEncoded();
+		RestCompression.encode("\u00e4\u00f6\u00fc", null);
+		assertEquals("encoded bytes should be counted in UTF-8", 6, RestCompression.getBytesEncoded() - encoded);
+	}
+
+	/**
+	 * Checks that stacked content codings are undone in reverse order of their application.
+	 * @throws IOException if the data cannot be encoded or decoded
+	 */
+	@Test
+	public void testStackedEncodings() throws IOException {
+
+		System.out.println("testStackedEncodings");
+
+		ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+		GZIPOutputStream gzos = new GZIPOutputStream(gzipped);
+		gzos.write(metaXML.getBytes("UTF-8"));
+		gzos.close();
+		ByteArrayOutputStream deflated = new ByteArrayOutputStream();
+		DeflaterOutputStream dos = new DeflaterOutputStream(deflated);
+		gzipped.writeTo(dos);
+		dos.close();
+
+		// Content-Encoding: gzip, deflate
+		Representation rep = new InputRepresentation(new ByteArrayInputStream(deflated.toByteArray()), MediaType.APPLICATION_XML);
+		rep.getEncodings().add(Encoding.GZIP);
+		rep.getEncodings().add(Encoding.DEFLATE);
+		assertEquals(metaXML, RestCompression.getText(rep));
+	}
+
+	/**
+	 * (After all tests) Stops the local server.
+	 */
+	@AfterClass
+	public static void stopServer() {
+
+		if (server != null) server.stop(0);
+	}
+
+	// helper methods
+
+	/**
+	 * Downloads the test data several times.
+	 * @param compression whether to accept compressed responses
+	 * @return bytes received over the wire, time in nanoseconds and decoded bytes
+	 */
+	private long[] download(boolean compression) {
+
+		RestCompression.COMPRESSION_ENABLED = compression;
+		RestCompression.resetStatistics();
+		for (int i = 0; i < repetitions; i++) {
+			assertEquals("downloaded data should be complete", metaXML, DownloadHelper.downloadData(serverURL, null));
+		}
+		return new long[] { RestCompression.getBytesReceived(), RestCompression.getRequestTimeInNanos(), RestCompression.getBytesDecoded() };
+	}
+}
@@ -0,0 +1,200 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMFactory;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.impl.rest.OMMRestImpl;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMRestAccessMode;
+import de.dfki.omm.types.URLType;
+
+/**
+ * A load test for the REST interface, reading and writing blocks from many threads at once against a simulated OMS with network delays.
+ */
+public class RestLoadTests {
+
+	static OMSSimulator simulator = null;
+	static String memoryName = "loadMemory";
+	static OMMHeaderImpl header = null;
+
+	static int threads = 16;
+	static int operationsPerThread = 25;
+	static int initialBlocks = 20;
+	static double writeShare = 0.2;
+
+	/**
+	 * (Before all tests) Starts a simulated OMS and fills a memory with blocks.
+	 * @throws Exception if the simulated OMS cannot be started
+	 */
+	@BeforeClass
+	public static void startSimulator() throws Exception {
+
+		simulator = OMSSimulator.start(0);
+		String ownerString = OMMFactory.createOMMOwnerStringFromUsernamePassword("Load Test", "owner", "ownerpasswd");
+		header = (OMMHeaderImpl) OMMHeaderImpl.create(new URLType(new URL(simulator.getMemoryURL(memoryName))), null);
+		OMMFactory.createOMMViaOMSRestInterface(simulator.getURL() + "mgmt/createMemory", header, OMMFactory.createOMMOwnerBlock(header, ownerString));
+
+		OMMRestImpl omm = new OMMRestImpl(simulator.getMemoryURL(memoryName), OMMRestAccessMode.CompleteDownloadUnlimited);
+		for (int i = 0; i < initialBlocks; i++) omm.addBlock(createBlock("Block " + i), null);
+	}
+
+	/**
+	 * Runs a mix of block reads and writes from many threads with simulated network delays and reports throughput and latencies.
+	 * @throws InterruptedException if waiting for the threads is interrupted
+	 */
+	@Test
+	public void testMixedLoad() throws InterruptedException {
+
+		System.out.println("testMixedLoad");
+
+		simulator.setLatency(2, 20);
+		simulator.setErrorRate(0);
+		simulator.resetStatistics();
+		Result result = runLoad();
+
+		result.print("mixed load");
+		assertEquals("all operations should succeed", 0, result.failures);
+		assertEquals("all operations should be measured", threads * operationsPerThread, result.latencies.size());
+	}
+
+	/**
+	 * Runs the same mix while the simulated OMS rejects part of the requests, checking that failures stay isolated and nothing hangs.
+	 * @throws InterruptedException if waiting for the threads is interrupted
+	 */
+	@Test
+	public void testLoadWithErrors() throws InterruptedException {
+
+		System.out.println("testLoadWithErrors");
+
+		simulator.setLatency(2, 20);
+		simulator.setErrorRate(0.05);
+		simulator.resetStatistics();
+		try {
+			Result result = runLoad();
+			result.print("load with 5% errors");
+			assertEquals("every operation should either succeed or fail", threads * operationsPerThread, result.latencies.size());
+			assertTrue("most operations should succeed", result.failures < threads * operationsPerThread / 2);
+		}
+		finally {
+			simulator.setErrorRate(0);
+		}
+	}
+
+	/**
+	 * (After all tests) Stops the simulated OMS.
+	 */
+	@AfterClass
+	public static void stopSimulator() {
+
+		if (simulator != null) simulator.stop();
+	}
+
+	// helper methods
+
+	/**
+	 * Lets all threads run their operations at the same time, every thread with its own client.
+	 * @return latencies and failures of all operations
+	 * @throws InterruptedException if waiting for the threads is interrupted
+	 */
+	private Result runLoad() throws InterruptedException {
+
+		final Result result = new Result();
+		final CountDownLatch start = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(threads);
+		final AtomicInteger failures = new AtomicInteger();
+
+		for (int t = 0; t < threads; t++) {
+			final int seed = t;
+			new Thread() {
+				public void run() {
+					Random rnd = new Random(seed);
+					OMMRestImpl omm = new OMMRestImpl(simulator.getMemoryURL(memoryName), OMMRestAccessMode.CompleteDownloadUnlimited);
+					try {
+						start.await();
+						for (int i = 0; i < operationsPerThread; i++) {
+							long begin = System.nanoTime();
+							try {
+								if (rnd.nextDouble() < writeShare) {
+									if (!"OK".equals(omm.addBlock(createBlock("Thread " + seed), null).toString())) failures.incrementAndGet();
+								}
+								else {
+									String id = Integer.toString(1 + rnd.nextInt(initialBlocks));
+									OMMBlock block = omm.getBlock(id);
+									if (block == null || block.getTitle(Locale.ENGLISH) == null) failures.incrementAndGet();
+								}
+							}
+							catch (Exception e) { failures.incrementAndGet(); }
+							result.add(System.nanoTime() - begin);
+						}
+					}
+					catch (InterruptedException e) { }
+					finally { done.countDown(); }
+				}
+			}.start();
+		}
+
+		long begin = System.currentTimeMillis();
+		start.countDown();
+		done.await();
+		result.elapsedInMillis = System.currentTimeMillis() - begin;
+		result.failures = failures.get();
+		return result;
+	}
+
+	private static OMMBlock createBlock(String titleString) {
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, titleString);
+		return OMMBlockImpl.create("loadID", header.getPrimaryID(), URI.create("urn:sample:loadBlock"), null, title, null, null, OMMEntity.getDummyEntity(), new OMMFormat("text/plain", null, null), null, new GenericTypedValue("text/plain", titleString), null, null, null);
+	}
+
+	/**
+	 * Latencies and failures of a load run.
+	 */
+	private static class Result {
+
+		final List<Long> latencies = Collections.synchronizedList(new ArrayList<Long>());
+		long elapsedInMillis = 0;
+		int failures = 0;
+
+		void add(long nanos) {
+			latencies.add(nanos);
+		}
+
+		double getPercentileInMillis(double percentile) {
+			List<Long> sorted = new ArrayList<Long>(latencies);
+			if (sorted.isEmpty()) return 0;
+			Collections.sort(sorted);
+			int index = (int) Math.ceil(percentile * sorted.size()) - 1;
+			return sorted.get(Math.max(0, index)) / 1000000.0;
+		}
+
+		void print(String name) {
+			System.out.println(String.format(Locale.ENGLISH, "%s: %d operations in %d ms (%.1f ops/s), %d failed, %d requests to OMS",
+					name, latencies.size(), elapsedInMillis, latencies.size() * 1000.0 / Math.max(1, elapsedInMillis), failures, simulator.getRequestCount()));
+			System.out.println(String.format(Locale.ENGLISH, "latency p50 %.1f ms, p95 %.1f ms, p99 %.1f ms",
+					getPercentileInMillis(0.5), getPercentileInMillis(0.95), getPercentileInMillis(0.99)));
+		}
+	}
+}
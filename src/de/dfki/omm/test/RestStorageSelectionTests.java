@@ -0,0 +1,201 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import de.dfki.omm.impl.rest.OMMRestNegotiationStorage;
+import de.dfki.omm.impl.rest.OMMRestStorageSelector;
+
+/**
+ * Tests the selection of storage nodes of a distributed storage, using local stand-in nodes with injected delays.
+ */
+public class RestStorageSelectionTests {
+
+	static HttpServer server = null;
+	static String[] nodeURLs = new String[3];
+	static AtomicIntegerArray delays = new AtomicIntegerArray(3);
+	static AtomicIntegerArray requests = new AtomicIntegerArray(3);
+	static AtomicInteger active = new AtomicInteger();
+
+	/**
+	 * (Before all tests) Starts a local server with three storage nodes.
+	 * @throws IOException if the server cannot be started
+	 */
+	@BeforeClass
+	public static void startServer() throws IOException {
+
+		server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		for (int i = 0; i < nodeURLs.length; i++) {
+			final int node = i;
+			nodeURLs[i] = "http://localhost:"+server.getAddress().getPort()+"/node"+i+"/st";
+			server.createContext("/node"+i, new HttpHandler() {
+				public void handle(HttpExchange exchange) throws IOException {
+					requests.incrementAndGet(node);
+					active.incrementAndGet();
+					try { Thread.sleep(delays.get(node)); } catch (InterruptedException e) { }
+					finally { active.decrementAndGet(); }
+					byte[] data = ("<omm:header xmlns:omm=\"http://www.w3.org/2005/Incubator/omm/elements/1.0/\"><omm:version>1</omm:version><omm:node>"+node+"</omm:node></omm:header>").getBytes("UTF-8");
+					exchange.sendResponseHeaders(200, data.length);
+					OutputStream os = exchange.getResponseBody();
+					os.write(data);
+					os.close();
+				}
+			});
+		}
+		server.start();
+	}
+
+	/**
+	 * Sets tunables which keep the timing of the tests well apart from the overhead of a local request.
+	 */
+	@Before
+	public void setTunables() {
+
+		OMMRestStorageSelector.DEFAULT_HEDGE_DELAY_IN_MILLIS = 2000;
+		OMMRestStorageSelector.LATENCY_EXPIRY_IN_MILLIS = 60000;
+		resetRequests();
+	}
+
+	/**
+	 * Restores the default tunables and waits for reads which are still running on the nodes.
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	@After
+	public void resetTunables() throws InterruptedException {
+
+		for (int i = 0; i < 100 && active.get() > 0; i++) Thread.sleep(50);
+
+		OMMRestStorageSelector.DEFAULT_HEDGE_DELAY_IN_MILLIS = 50;
+		OMMRestStorageSelector.LATENCY_EXPIRY_IN_MILLIS = 30000;
+	}
+
+	/**
+	 * Checks that reads settle on the fastest node and that a slow node is tried again once its measurements are outdated.
+	 * @throws IOException if a read fails
+	 */
+	@Test
+	public void testLatencyAwareReads() throws IOException {
+
+		System.out.println("testLatencyAwareReads");
+
+		setDelays(600, 100, 300);
+		OMMRestStorageSelector selector = createSelector(100, 100, 100);
+
+		// nodes without measurements are explored one after the other
+		for (int i = 0; i < 3; i++) assertNotNull(selector.read("/header", null));
+		assertEquals("every node should have been explored once", "[1, 1, 1]", requests.toString());
+		resetRequests();
+		for (int i = 0; i < 10; i++) assertNotNull(selector.read("/header", null));
+
+		System.out.println("nodes by latency: "+selector.getNodeLinks());
+		assertEquals("fastest node should be ranked first", nodeURLs[1], selector.getNodeLinks().get(0));
+		assertEquals("slow node should be ranked last", nodeURLs[0], selector.getNodeLinks().get(2));
+		assertEquals("slow node should not be asked any more", 0, requests.get(0));
+
+		// the slow node has recovered, it is found again once its measurements are outdated
+		setDelays(0, 100, 300);
+		OMMRestStorageSelector.LATENCY_EXPIRY_IN_MILLIS = 0;
+		assertEquals("least recently asked node should be explored first", nodeURLs[0], selector.getNodeLinks().get(0));
+		resetRequests();
+		assertNotNull(selector.read("/header", null));
+		OMMRestStorageSelector.LATENCY_EXPIRY_IN_MILLIS = 60000;
+
+		System.out.println("nodes by latency after exploration: "+selector.getNodeLinks());
+		assertEquals("explored node should have been asked", 1, requests.get(0));
+		assertEquals("recovered node should be ranked first", nodeURLs[0], selector.getNodeLinks().get(0));
+	}
+
+	/**
+	 * Checks that a read is answered by another node when the usually fast node suddenly stalls.
+	 * @throws IOException if a read fails
+	 */
+	@Test
+	public void testHedgedRead() throws IOException {
+
+		System.out.println("testHedgedRead");
+
+		setDelays(0, 500, 500);
+		OMMRestStorageSelector selector = createSelector(100, 100, 100);
+		for (int i = 0; i < 30; i++) assertNotNull(selector.read("/block/1/meta", null));
+		assertEquals("fastest node should be ranked first", nodeURLs[0], selector.getNodeLinks().get(0));
+
+		// a different path than in the other tests, so that no read joins the stalled one
+		setDelays(2500, 500, 500);
+		long wins = selector.getHedgeWins();
+		long start = System.currentTimeMillis();
+		assertNotNull(selector.read("/block/1/meta", null));
+		long elapsed = System.currentTimeMillis() - start;
+
+		System.out.println("stalled read took "+elapsed+" ms, hedged reads: "+selector.getHedgedReads()+", won by hedge: "+selector.getHedgeWins());
+		assertEquals("read should have been won by the hedge", wins + 1, selector.getHedgeWins());
+		assertTrue("stalled read should not wait for the stalled node", elapsed < 2000);
+	}
+
+	/**
+	 * Checks that writes are routed to the node with the most free space.
+	 */
+	@Test
+	public void testWriteRouting() {
+
+		System.out.println("testWriteRouting");
+
+		OMMRestStorageSelector selector = createSelector(100, 300, 200);
+		assertEquals("write should go to the emptiest node", nodeURLs[1], selector.selectWriteNode());
+		selector.setFreeSpace(nodeURLs[2], 400);
+		assertEquals("write should follow free space updates", nodeURLs[2], selector.selectWriteNode());
+	}
+
+	/**
+	 * (After all tests) Stops the local server.
+	 */
+	@AfterClass
+	public static void stopServer() {
+
+		if (server != null) server.stop(0);
+	}
+
+	// helper methods
+
+	/**
+	 * Creates a selector for the three local nodes.
+	 * @param freeSpace free space of each node
+	 * @return the selector
+	 */
+	private OMMRestStorageSelector createSelector(long... freeSpace) {
+
+		OMMRestNegotiationStorage storage = OMMRestNegotiationStorage.create(nodeURLs[0], 1000, freeSpace[0], true, false);
+		for (int i = 1; i < nodeURLs.length; i++) {
+			storage.addNode(OMMRestNegotiationStorage.create(nodeURLs[i], 1000, freeSpace[i], true, false));
+		}
+		return OMMRestStorageSelector.create(storage);
+	}
+
+	private void setDelays(int... millis) {
+
+		for (int i = 0; i < millis.length; i++) delays.set(i, millis[i]);
+	}
+
+	private void resetRequests() {
+
+		for (int i = 0; i < requests.length(); i++) requests.set(i, 0);
+	}
+}
@@ -0,0 +1,222 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.After;
+import org.junit.Test;
+import org.w3c.dom.Element;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.tools.OMMBlockSigner;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.types.BinaryValue;
+import de.dfki.omm.types.OMMSourceType;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests signing and verifying blocks, and compares the throughput of signing and verifying with and without caching and in parallel.
+ */
+public class SignatureTests {
+
+	/** Number of blocks signed and verified by the benchmark. */
+	public static int BENCHMARK_SIZE = 500;
+
+	// EC P-256 key and self-signed certificate of "CN=OMM Test Signer", for testing only
+	private static final String KEY = "MIGHAgEAMBMGByqGSM49AgEGCCqGSM49AwEHBG0wawIBAQQgftIq7xjHQG+ZaB96Mdvu4hcMAKAak5F+UL+1zb5rvkOhRANCAAQ1yPstnxtPMgAqvWIuxqJXWSZHqNNuxAXyq4qhP+qcKuzP31IjsO8kUg7D6P2hQm92k72oNkVYsEUABPOprrRj";
+	private static final String CERTIFICATE = "MIIBsDCCAVWgAwIBAgIUJMc6vWumiQyItxUOVgYUNaV1270wCgYIKoZIzj0EAwIwLDEYMBYGA1UEAwwPT01NIFRlc3QgU2lnbmVyMRAwDgYDVQQKDAdFeGFtcGxlMCAXDTI2MTAxOTA4MTcwN1oYDzIxMjYwOTI1MDgxNzA3WjAsMRgwFgYDVQQDDA9PTU0gVGVzdCBTaWduZXIxEDAOBgNVBAoMB0V4YW1wbGUwWTATBgcqhkjOPQIBBggqhkjOPQMBBwNCAAQ1yPstnxtPMgAqvWIuxqJXWSZHqNNuxAXyq4qhP+qcKuzP31IjsO8kUg7D6P2hQm92k72oNkVYsEUABPOprrRjo1MwUTAdBgNVHQ4EFgQUYkxPMUT/wcjpJ0QL3dfOyzXamU4wHwYDVR0jBBgwFoAUYkxPMUT/wcjpJ0QL3dfOyzXamU4wDwYDVR0TAQH/BAUwAwEB/zAKBggqhkjOPQQDAgNJADBGAiEAmPfEVKhcUOptY7MTSd48D1DNwHQwbRjjO/F65ekuuvMCIQCgMpN2AP28W2XT7OIPGIB1MhrtenxifDKkbGkA9sJFGg==";
+
+	@After
+	public void tearDown() {
+		OMMBlockSigner.CACHING = true;
+		OMMBlockSigner.clearCache();
+	}
+
+	/**
+	 * Checks that a signature is valid for the signed block only as long as the block is not changed.
+	 * @throws Exception if the key cannot be read
+	 */
+	@Test
+	public void testSignAndVerify() throws Exception {
+
+		System.out.println("testSignAndVerify");
+
+		OMMBlockImpl block = (OMMBlockImpl) TestMemories.createBlock(new URLType(new URL("http://example.org/memory")), "block1");
+		Element signature = OMMBlockSigner.sign(block, getKey(), getCertificate());
+		assertNotNull(signature);
+		assertTrue(OMMBlockSigner.verify(block, signature));
+		assertTrue(OMMBlockSigner.verify(block, signature, getCertificate().getPublicKey()));
+		assertEquals(getCertificate(), OMMBlockSigner.getSigner(signature).getValueAsCertificate());
+
+		// a stored signature is still valid
+		String stored = OMMXMLConverter.toXMLFileString(signature);
+		assertTrue(OMMBlockSigner.verify(block, parse(stored)));
+
+		// an equal block is valid, a changed one is not
+		assertTrue(OMMBlockSigner.verify(TestMemories.createBlock(block.getPrimaryID(), "block1"), signature));
+		assertFalse(OMMBlockSigner.verify(TestMemories.createBlock(block.getPrimaryID(), "block2"), signature));
+		block.setTitle(Locale.ENGLISH, "Changed", null);
+		assertFalse(OMMBlockSigner.verify(block, signature));
+		block.setTitle(Locale.ENGLISH, "Block 1", null);
+		assertTrue(OMMBlockSigner.verify(block, signature));
+	}
+
+	/**
+	 * Checks that a block changed through the objects returned by its getters is not valid anymore, although its revision is unchanged.
+	 * @throws Exception if the key cannot be read
+	 */
+	@Test
+	public void testChangeThroughGetter() throws Exception {
+
+		System.out.println("testChangeThroughGetter");
+
+		OMMBlockSigner.CACHING = true;
+		OMMBlockImpl block = (OMMBlockImpl) TestMemories.createBlock(new URLType(new URL("http://example.org/memory")), "block1");
+		Element signature = OMMBlockSigner.sign(block, getKey(), getCertificate());
+		assertTrue(OMMBlockSigner.verify(block, signature));
+
+		long revision = block.getRevision();
+		block.getTitle().put(Locale.ENGLISH, "Tampered");
+		assertEquals(revision, block.getRevision());
+		assertFalse(OMMBlockSigner.verify(block, signature));
+		assertFalse(OMMBlockSigner.verify(Collections.<OMMBlock>singletonList(block), Collections.singletonList(signature))[0]);
+
+		block.getTitle().put(Locale.ENGLISH, "Block 1");
+		assertTrue(OMMBlockSigner.verify(block, signature));
+	}
+
+	/**
+	 * Checks that signatures with a changed digest or signature value are rejected.
+	 * @throws Exception if the key cannot be read
+	 */
+	@Test
+	public void testTamperedSignature() throws Exception {
+
+		System.out.println("testTamperedSignature");
+
+		OMMBlock block = TestMemories.createBlock(new URLType(new URL("http://example.org/memory")), "block1");
+		String stored = OMMXMLConverter.toXMLFileString(OMMBlockSigner.sign(block, getKey(), getCertificate()));
+		String digest = BinaryValue.encodePayload("base64", OMMBlockSigner.getDigest(block));
+		assertTrue(stored.contains(digest));
+
+		byte[] otherDigest = OMMBlockSigner.getDigest(TestMemories.createBlock(new URLType(new URL("http://example.org/memory")), "block2"));
+		assertFalse(OMMBlockSigner.verify(block, parse(stored.replace(digest, BinaryValue.encodePayload("base64", otherDigest)))));
+
+		int value = stored.indexOf("SignatureValue>") + "SignatureValue>".length();
+		char changed = stored.charAt(value) == 'A' ? 'B' : 'A';
+		assertFalse(OMMBlockSigner.verify(block, parse(stored.substring(0, value) + changed + stored.substring(value + 1))));
+	}
+
+	/**
+	 * Checks that the signatures of blocks remain valid after their memory has been saved and loaded again.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testSavedMemory() throws Exception {
+
+		System.out.println("testSavedMemory");
+
+		OMM omm = TestMemories.createMemory(20);
+		List<Element> signatures = new ArrayList<Element>();
+		for (OMMBlock block : omm.getAllBlocks()) signatures.add(OMMBlockSigner.sign(block, getKey(), getCertificate()));
+
+		OMM loaded = OMMXMLConverter.loadFromXmlString(OMMXMLConverter.toXMLFileString(omm, true), new URL("http://example.org/memory"), null, OMMSourceType.OMS);
+		boolean[] valid = OMMBlockSigner.verify(new ArrayList<OMMBlock>(loaded.getAllBlocks()), signatures);
+		for (boolean v : valid) assertTrue(v);
+	}
+
+	/**
+	 * Checks that verifying in parallel gives the same results as verifying sequentially.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testParallelVerify() throws Exception {
+
+		System.out.println("testParallelVerify");
+
+		List<OMMBlock> blocks = new ArrayList<OMMBlock>(TestMemories.createMemory(100).getAllBlocks());
+		List<Element> signatures = sign(blocks);
+		Collections.swap(signatures, 10, 11);
+		((OMMBlockImpl) blocks.get(50)).setTitle(Locale.ENGLISH, "Changed", null);
+
+		boolean[] valid = OMMBlockSigner.verify(blocks, signatures);
+		for (int i = 0; i < blocks.size(); i++) {
+			assertEquals(OMMBlockSigner.verify(blocks.get(i), signatures.get(i)), valid[i]);
+			assertEquals(i != 10 && i != 11 && i != 50, valid[i]);
+		}
+	}
+
+	/**
+	 * Compares the throughput of signing blocks with and without cached canonical forms, and of verifying sequentially and in parallel.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testThroughput() throws Exception {
+
+		System.out.println("testThroughput");
+		Benchmarks.assumeEnabled();
+		System.out.println("parallelism: " + OMMBlockSigner.PARALLELISM);
+
+		List<OMMBlock> blocks = new ArrayList<OMMBlock>(TestMemories.createMemory(BENCHMARK_SIZE).getAllBlocks());
+		sign(blocks); // warm up
+
+		for (int caching = 0; caching < 2; caching++) {
+			OMMBlockSigner.CACHING = caching == 1;
+			String mode = caching == 1 ? "cached  " : "uncached";
+
+			long start = System.nanoTime();
+			List<Element> signatures = sign(blocks);
+			print("sign, " + mode + "               ", start);
+
+			start = System.nanoTime();
+			for (int i = 0; i < blocks.size(); i++) assertTrue(OMMBlockSigner.verify(blocks.get(i), signatures.get(i)));
+			print("verify, " + mode + ", sequential ", start);
+
+			start = System.nanoTime();
+			for (boolean valid : OMMBlockSigner.verify(blocks, signatures)) assertTrue(valid);
+			print("verify, " + mode + ", parallel   ", start);
+		}
+	}
+
+	// helper methods
+
+	private static void print(String name, long start) {
+		long nanos = System.nanoTime() - start;
+		System.out.println(String.format("%s: %8.0f blocks/s", name, BENCHMARK_SIZE * 1000000000.0 / nanos));
+	}
+
+	private static List<Element> sign(List<OMMBlock> blocks) throws Exception {
+
+		List<Element> signatures = new ArrayList<Element>(blocks.size());
+		for (OMMBlock block : blocks) signatures.add(OMMBlockSigner.sign(block, getKey(), getCertificate()));
+		return signatures;
+	}
+
+	private static Element parse(String xml) {
+		return OMMXMLConverter.getXmlDocumentFromString(new ByteArrayInputStream(xml.getBytes())).getDocumentElement();
+	}
+
+	private static PrivateKey getKey() throws Exception {
+		return KeyFactory.getInstance("EC").generatePrivate(new PKCS8EncodedKeySpec(BinaryValue.decodePayload("base64", KEY)));
+	}
+
+	private static X509Certificate getCertificate() throws Exception {
+		return (X509Certificate) CertificateFactory.getInstance("X.509").generateCertificate(new ByteArrayInputStream(BinaryValue.decodePayload("base64", CERTIFICATE)));
+	}
+}
@@ -0,0 +1,118 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URL;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMSourceType;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests loading whole memories from XML files with the streaming loader.
+ */
+public class StaxLoaderTests {
+
+	/**
+	 * Checks that header and blocks of a saved memory are loaded again, including a large payload.
+	 * @throws Exception if the memory cannot be saved
+	 */
+	@Test
+	public void testLoadFile() throws Exception {
+
+		System.out.println("testLoadFile");
+
+		OMM omm = createMemory(20, 1000);
+		File file = File.createTempFile("omm", ".xml");
+		file.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		writer.write(OMMXMLConverter.toXMLFileString(omm, true));
+		writer.close();
+
+		OMM loaded = OMMXMLConverter.loadFromXmlFile(file);
+		assertNotNull(loaded);
+		assertEquals(omm.getHeader().getPrimaryID().getValue().toString(), loaded.getHeader().getPrimaryID().getValue().toString());
+		assertEquals(omm.getAllBlockIDs(), loaded.getAllBlockIDs());
+		for (OMMBlock block : omm.getAllBlocks()) {
+			OMMBlock other = loaded.getBlock(block.getID());
+			assertEquals(block.getTitle(Locale.ENGLISH), other.getTitle(Locale.ENGLISH));
+			assertEquals(block.getNamespace(), other.getNamespace());
+			assertEquals(block.getPayloadAsString(), other.getPayloadAsString());
+		}
+	}
+
+	/**
+	 * Checks that documents which are no memories are rejected.
+	 * @throws Exception if the URL is invalid
+	 */
+	@Test
+	public void testInvalidDocument() throws Exception {
+
+		System.out.println("testInvalidDocument");
+
+		assertNull(OMMXMLConverter.loadFromXmlString("<?xml version=\"1.0\"?><other/>", new URL("http://example.org/memory"), null, OMMSourceType.OMS));
+	}
+
+	/**
+	 * Compares the heap used while loading a large memory file with its size.
+	 * @throws Exception if the memory cannot be saved
+	 */
+	@Test
+	public void testMemoryFootprint() throws Exception {
+
+		System.out.println("testMemoryFootprint");
+
+		File file = File.createTempFile("omm", ".xml");
+		file.deleteOnExit();
+		Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+		writer.write(OMMXMLConverter.toXMLFileString(createMemory(200, 50000), true));
+		writer.close();
+
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		long before = runtime.totalMemory() - runtime.freeMemory();
+		long start = System.nanoTime();
+		OMM loaded = OMMXMLConverter.loadFromXmlFile(file);
+		long nanos = System.nanoTime() - start;
+		long after = runtime.totalMemory() - runtime.freeMemory();
+
+		assertEquals(200, loaded.getAllBlockIDs().size());
+		System.out.println(String.format("file: %d KB, heap growth: %d KB, load time: %.1f ms", file.length() / 1024, (after - before) / 1024, nanos / 1000000.0));
+	}
+
+	// helper methods
+
+	private static OMM createMemory(int blocks, int payloadSize) throws Exception {
+
+		OMM omm = OMMImpl.create(new URLType(new URL("http://example.org/memory")));
+		StringBuilder payload = new StringBuilder();
+		for (int i = 0; i < payloadSize; i++) payload.append((char) ('a' + i % 26));
+
+		for (int i = 0; i < blocks; i++) {
+			OMMMultiLangText title = new OMMMultiLangText();
+			title.put(Locale.ENGLISH, "Block " + i);
+			OMMEntity creator = new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z");
+			OMMBlock block = OMMBlockImpl.create("block" + i, omm.getHeader().getPrimaryID(), URI.create("urn:sample:staxBlock"), null, title, null, null, creator, new OMMFormat("text/plain", null, null), null, new GenericTypedValue("text/plain", i + " <&> " + payload), null, null, null);
+			omm.addBlock(block, creator);
+		}
+		return omm;
+	}
+}
@@ -0,0 +1,157 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.Locale;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.tools.OMMStaxSerializer;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMEntityCollection;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMPreviousBlockLink;
+import de.dfki.omm.types.OMMSubjectCollection;
+import de.dfki.omm.types.OMMSubjectTag;
+import de.dfki.omm.types.OMMSubjectTagType;
+
+/**
+ * Tests that the streaming serializer writes the same documents as the DOM based one, and compares their cost.
+ */
+public class StaxSerializerTests {
+
+	/** Numbers of blocks of the memories used for the benchmark. */
+	public static int[] BENCHMARK_SIZES = { 1000, 10000, 100000 };
+
+	/**
+	 * Checks that memories with all kinds of block meta data, inline XML payloads and special characters are serialized byte-identically.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testIdenticalOutput() throws Exception {
+
+		System.out.println("testIdenticalOutput");
+
+		OMM omm = TestMemories.createMemory(3);
+		omm.addBlock(createDetailedBlock(omm), new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z"));
+
+		assertEquals(toXMLFileStringWithDOM(omm, true), OMMXMLConverter.toXMLFileString(omm, true));
+		assertEquals(toXMLFileStringWithDOM(omm, false), OMMXMLConverter.toXMLFileString(omm, false));
+	}
+
+	/**
+	 * Checks that a memory written to a file equals its String representation and can be loaded again.
+	 * @throws Exception if the file cannot be written
+	 */
+	@Test
+	public void testWriteFile() throws Exception {
+
+		System.out.println("testWriteFile");
+
+		OMM omm = TestMemories.createMemory(10);
+		File file = File.createTempFile("omm", ".xml");
+		file.deleteOnExit();
+		OutputStream os = new FileOutputStream(file);
+		OMMStaxSerializer.write(omm, true, os);
+		os.close();
+
+		assertEquals(OMMXMLConverter.toXMLFileString(omm, true), new String(Files.readAllBytes(file.toPath()), "UTF-8"));
+		OMM loaded = OMMXMLConverter.loadFromXmlFile(file);
+		assertEquals(omm.getAllBlockIDs(), loaded.getAllBlockIDs());
+		assertEquals("Block 9", loaded.getBlock("block9").getTitle(Locale.ENGLISH));
+	}
+
+	/**
+	 * Compares time and allocation of saving memories of different sizes via DOM and String, and by streaming.
+	 * @throws Exception if the files cannot be written
+	 */
+	@Test
+	public void testSaveCost() throws Exception {
+
+		System.out.println("testSaveCost");
+		Benchmarks.assumeEnabled();
+
+		final File file = File.createTempFile("omm", ".xml");
+		file.deleteOnExit();
+
+		for (int size : BENCHMARK_SIZES) {
+			final OMM omm = TestMemories.createMemory(size);
+
+			Benchmarks.Task dom = new Benchmarks.Task() {
+				public void run() throws Exception {
+					Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+					writer.write(toXMLFileStringWithDOM(omm, true));
+					writer.close();
+				}
+			};
+			Benchmarks.Task stream = new Benchmarks.Task() {
+				public void run() throws Exception {
+					OutputStream os = new BufferedOutputStream(new FileOutputStream(file));
+					OMMStaxSerializer.write(omm, true, os);
+					os.close();
+				}
+			};
+
+			int iterations = Math.max(1, 10000 / size);
+			Benchmarks.measure(size + " blocks, DOM   ", dom, iterations);
+			Benchmarks.measure(size + " blocks, stream", stream, iterations);
+			System.out.println(String.format("%d blocks: %d KB", size, file.length() / 1024));
+		}
+	}
+
+	// helper methods
+
+	/** Serializes a memory the way {@link OMMXMLConverter#toXMLFileString(OMM, boolean)} did before streaming, by building a DOM of the whole document. */
+	private static String toXMLFileStringWithDOM(OMM omm, boolean withToC) {
+
+		Document doc = OMMXMLConverter.createNewXmlDocument();
+		Element root = OMMXMLConverter.createXmlElementAndAppend(doc, "omm", OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
+		root.setAttribute("xmlns:" + OMMXMLConverter.OMM_NAMESPACE_PREFIX, OMMXMLConverter.OMM_NAMESPACE_URI);
+		root.appendChild(doc.importNode(OMMXMLConverter.generateHeaderDocument(omm.getHeader()).getDocumentElement(), true));
+		if (withToC) root.appendChild(doc.importNode(OMMXMLConverter.generateToCElement(omm.getTableOfContents()), true));
+		for (OMMBlock block : omm.getAllBlocks()) {
+			root.appendChild(doc.importNode(OMMXMLConverter.generateCompleteBlock(block, true).getDocumentElement(), true));
+		}
+		return OMMXMLConverter.toXMLFileString(root);
+	}
+
+	private static OMMBlock createDetailedBlock(OMM omm) throws Exception {
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, "Special <characters> & \"quotes\"\r\n\ttab \u00e4 \u0085 \ud83d\ude00");
+		title.put(Locale.GERMAN, "");
+		OMMMultiLangText description = new OMMMultiLangText();
+		description.put(Locale.ENGLISH, "Description");
+		OMMEntity creator = new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z");
+		OMMEntityCollection contributors = new OMMEntityCollection();
+		contributors.add(new OMMEntity("email", "first@example.org", "2014-05-02T12:00:00Z"));
+		contributors.add(new OMMEntity("email", "second@example.org", "2014-05-03T12:00:00Z"));
+		OMMSubjectCollection subjects = new OMMSubjectCollection();
+		subjects.add(new OMMSubjectTag(OMMSubjectTagType.Text, "a \"b\" <c>\n", new OMMSubjectTag(OMMSubjectTagType.Text, "child", null)));
+		OMMFormat format = new OMMFormat("application/xml", new URL("http://example.org/schema.xsd"), "none");
+
+		Element payload = OMMXMLConverter.getXmlDocumentFromString(OMMXMLConverter.getInputStreamFromText(
+				"<f:data xmlns:f=\"urn:foo\" xmlns:b=\"urn:bar\" b:attr=\"1\" plain=\"2\"><f:item>text</f:item><item xmlns=\"urn:default\"><inner/></item>"
+				+ "<![CDATA[a<b]]><!-- comment --><?target data?></f:data>")).getDocumentElement();
+
+		return OMMBlockImpl.create("detailed", omm.getHeader().getPrimaryID(), URI.create("urn:sample:detailedBlock"), new URL("http://example.org/type"), title, description, contributors, creator, format, subjects,
+				OMMPreviousBlockLink.createFromString("block0", "supersedes"), null, payload, new GenericTypedValue("url", "http://example.org/link"), "hash");
+	}
+}
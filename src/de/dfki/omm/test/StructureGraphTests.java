@@ -0,0 +1,239 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.impl.OMMStructureBlockImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMStructureBlock;
+import de.dfki.omm.tools.OMMStructureGraph;
+import de.dfki.omm.tools.OMMStructureGraph.Direction;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.ISO8601;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMSourceType;
+import de.dfki.omm.types.OMMStructureInfo;
+import de.dfki.omm.types.OMMStructureRelation;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests the structure relation graph, its incremental updates and compares its traversals with scanning the structure blocks.
+ */
+public class StructureGraphTests {
+
+	/** Numbers of parts of the assemblies used for the benchmark. */
+	public static int[] BENCHMARK_SIZES = { 100, 1000, 2000 };
+
+	private static final OMMEntity CREATOR = new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z");
+
+	/**
+	 * Checks neighbours, breadth and depth first traversals and the transitive closure on a small assembly with a cycle.
+	 * @throws Exception if the memories cannot be created
+	 */
+	@Test
+	public void testTraversal() throws Exception {
+
+		System.out.println("testTraversal");
+
+		OMMStructureGraph graph = OMMStructureGraph.create(
+				createMemory("a", OMMStructureRelation.isPartOf, "root"),
+				createMemory("b", OMMStructureRelation.isPartOf, "root"),
+				createMemory("a1", OMMStructureRelation.isPartOf, "a"),
+				createMemory("a2", OMMStructureRelation.isPartOf, "a"),
+				createMemory("b1", OMMStructureRelation.isPartOf, "b"),
+				createMemory("c", OMMStructureRelation.isConnectedWith, "d"),
+				createMemory("d", OMMStructureRelation.isConnectedWith, "c"));
+
+		assertEquals(7, graph.getEdgeCount());
+		assertEquals(Arrays.asList(id("a"), id("b")), graph.getNeighbours(id("root"), OMMStructureRelation.isPartOf, Direction.Incoming, null, null));
+		assertEquals(Collections.emptyList(), graph.getNeighbours(id("root"), OMMStructureRelation.isBuiltIn, Direction.Incoming, null, null));
+		assertEquals(Arrays.asList(id("a"), id("b"), id("a1"), id("a2"), id("b1")), graph.breadthFirst(id("root"), OMMStructureRelation.isPartOf, Direction.Incoming, null, null));
+		assertEquals(Arrays.asList(id("a"), id("a1"), id("a2"), id("b"), id("b1")), graph.depthFirst(id("root"), OMMStructureRelation.isPartOf, Direction.Incoming, null, null));
+		assertEquals(Arrays.asList(id("a"), id("root")), graph.breadthFirst(id("a1"), null, Direction.Outgoing, null, null));
+
+		assertEquals(new HashSet<String>(Arrays.asList(id("a1"), id("a2"))), graph.getTransitiveClosure(id("a"), OMMStructureRelation.isPartOf, Direction.Incoming, null, null));
+		assertEquals(new HashSet<String>(Arrays.asList(id("c"), id("d"))), graph.getTransitiveClosure(id("c"), OMMStructureRelation.isConnectedWith, Direction.Outgoing, null, null));
+	}
+
+	/**
+	 * Checks that edges are only followed when they are valid during the queried interval.
+	 * @throws Exception if the memories cannot be created
+	 */
+	@Test
+	public void testTimeFiltering() throws Exception {
+
+		System.out.println("testTimeFiltering");
+
+		OMM part = createMemory("part", null, null);
+		OMMStructureBlock block = (OMMStructureBlock) part.getBlock("structure");
+		block.addStructureInfo(new OMMStructureInfo(OMMStructureRelation.isBuiltIn, new URLType(new URL(id("car1"))), date("2014-01-01T00:00:00+00:00"), date("2014-06-30T00:00:00+00:00")));
+		block.addStructureInfo(new OMMStructureInfo(OMMStructureRelation.isBuiltIn, new URLType(new URL(id("car2"))), date("2014-07-01T00:00:00+00:00")));
+
+		OMM car1 = createMemory("car1", null, null);
+		((OMMStructureBlock) car1.getBlock("structure")).addStructureInfo(new OMMStructureInfo(OMMStructureRelation.isPartOf, new URLType(new URL(id("fleet"))), date("2014-03-01T00:00:00+00:00"), date("2014-04-01T00:00:00+00:00")));
+
+		OMMStructureGraph graph = OMMStructureGraph.create(part, car1);
+		assertEquals(Arrays.asList(id("car1"), id("car2")), graph.getNeighbours(id("part"), null, Direction.Outgoing, null, null));
+		assertEquals(Arrays.asList(id("car1")), graph.getNeighbours(id("part"), null, Direction.Outgoing, date("2014-02-01T00:00:00+00:00"), date("2014-02-01T00:00:00+00:00")));
+		assertEquals(Arrays.asList(id("car2")), graph.getNeighbours(id("part"), null, Direction.Outgoing, date("2015-01-01T00:00:00+00:00"), null));
+		assertEquals(Arrays.asList(id("car1"), id("car2")), graph.getNeighbours(id("part"), null, Direction.Outgoing, date("2014-06-01T00:00:00+00:00"), date("2014-08-01T00:00:00+00:00")));
+		assertEquals(1, graph.getEdges(id("part"), OMMStructureRelation.isBuiltIn, Direction.Outgoing, date("2014-08-01T00:00:00+00:00"), null).size());
+
+		// paths only use edges valid during the whole query
+		assertEquals(Arrays.asList(id("car1"), id("fleet")), graph.breadthFirst(id("part"), null, Direction.Outgoing, date("2014-03-15T00:00:00+00:00"), date("2014-03-20T00:00:00+00:00")));
+		assertEquals(Arrays.asList(id("car1")), graph.breadthFirst(id("part"), null, Direction.Outgoing, date("2014-05-15T00:00:00+00:00"), date("2014-05-20T00:00:00+00:00")));
+	}
+
+	/**
+	 * Checks that added and removed structure information and blocks, also of memories loaded from XML, are reflected by the graph.
+	 * @throws Exception if the memories cannot be created
+	 */
+	@Test
+	public void testIncrementalUpdate() throws Exception {
+
+		System.out.println("testIncrementalUpdate");
+
+		OMM saved = createMemory("a", OMMStructureRelation.isPartOf, "root");
+		OMM a = OMMXMLConverter.loadFromXmlString(OMMXMLConverter.toXMLFileString(saved, true), null, null, OMMSourceType.LocalFile);
+		OMM b = createMemory("b", null, null);
+		OMMStructureGraph graph = OMMStructureGraph.create(a, b);
+		assertEquals(Arrays.asList(id("a")), graph.getNeighbours(id("root"), OMMStructureRelation.isPartOf, Direction.Incoming, null, null));
+
+		OMMStructureBlock block = (OMMStructureBlock) b.getBlock("structure");
+		OMMStructureInfo info = new OMMStructureInfo(OMMStructureRelation.isPartOf, new URLType(new URL(id("root"))), date("2014-01-01T00:00:00+00:00"));
+		block.addStructureInfo(info);
+		assertEquals(Arrays.asList(id("a"), id("b")), graph.getNeighbours(id("root"), OMMStructureRelation.isPartOf, Direction.Incoming, null, null));
+		block.removeStructureInfo(info);
+		assertEquals(Arrays.asList(id("a")), graph.getNeighbours(id("root"), OMMStructureRelation.isPartOf, Direction.Incoming, null, null));
+		assertEquals(1, graph.getEdgeCount());
+
+		// blocks added to or removed from a memory are announced asynchronously
+		OMMStructureBlockImpl added = createStructureBlock("structure2", id("b"));
+		added.addStructureInfo(new OMMStructureInfo(OMMStructureRelation.isBuiltIn, new URLType(new URL(id("c"))), date("2014-01-01T00:00:00+00:00")));
+		b.addBlock(added, CREATOR);
+		assertTrue(waitFor(graph, 2));
+		assertEquals(Arrays.asList(id("c")), graph.getNeighbours(id("b"), null, Direction.Outgoing, null, null));
+		a.removeBlock("structure", CREATOR);
+		assertTrue(waitFor(graph, 1));
+		assertEquals(Collections.emptyList(), graph.getNeighbours(id("root"), null, Direction.Incoming, null, null));
+
+		graph.removeMemory(b);
+		assertEquals(0, graph.getEdgeCount());
+		added.addStructureInfo(new OMMStructureInfo(OMMStructureRelation.isBuiltIn, new URLType(new URL(id("d"))), date("2014-01-01T00:00:00+00:00")));
+		assertEquals(0, graph.getEdgeCount());
+	}
+
+	/**
+	 * Compares the time to collect all parts of an assembly with the graph and by scanning the structure blocks level by level.
+	 * @throws Exception if the blocks cannot be created
+	 */
+	@Test
+	public void testQueryCost() throws Exception {
+
+		System.out.println("testQueryCost");
+		Benchmarks.assumeEnabled();
+
+		for (int size : BENCHMARK_SIZES) {
+			// tree of parts with a fan out of 10, each part in a memory with one structure block
+			Map<String, OMMStructureBlock> blocks = new LinkedHashMap<String, OMMStructureBlock>();
+			OMMStructureGraph graph = OMMStructureGraph.create();
+			for (int i = 1; i < size; i++) {
+				OMMStructureBlockImpl block = createStructureBlock("structure", id("p" + i));
+				block.addStructureInfo(new OMMStructureInfo(OMMStructureRelation.isPartOf, new URLType(new URL(id("p" + ((i - 1) / 10)))), date("2014-01-01T00:00:00+00:00")));
+				blocks.put(id("p" + i), block);
+				graph.addBlock(id("p" + i), block);
+			}
+
+			Set<String> expected = scanClosure(blocks, id("p0"));
+			assertEquals(size - 1, expected.size());
+			assertEquals(expected, graph.getTransitiveClosure(id("p0"), OMMStructureRelation.isPartOf, Direction.Incoming, null, null));
+
+			int iterations = Math.max(1, 10000 / size);
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) graph.getTransitiveClosure(id("p0"), OMMStructureRelation.isPartOf, Direction.Incoming, null, null);
+			double graphMs = (System.nanoTime() - start) / 1000000.0 / iterations;
+
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) scanClosure(blocks, id("p0"));
+			double scanMs = (System.nanoTime() - start) / 1000000.0 / iterations;
+
+			System.out.println(String.format("%5d parts: graph %10.3f ms/query, block scan %10.3f ms/query", size, graphMs, scanMs));
+		}
+	}
+
+	// helper methods
+
+	private static Set<String> scanClosure(Map<String, OMMStructureBlock> blocks, String root) {
+
+		Set<String> result = new HashSet<String>();
+		ArrayDeque<String> queue = new ArrayDeque<String>();
+		queue.add(root);
+		while (!queue.isEmpty()) {
+			String node = queue.poll();
+			for (Map.Entry<String, OMMStructureBlock> entry : blocks.entrySet()) {
+				for (OMMStructureInfo info : entry.getValue().getStructureInfoByType(OMMStructureRelation.isPartOf)) {
+					if (node.equals(info.getRelationTarget().getValue().toString()) && result.add(entry.getKey())) queue.add(entry.getKey());
+				}
+			}
+		}
+		return result;
+	}
+
+	private static boolean waitFor(OMMStructureGraph graph, int edgeCount) throws InterruptedException {
+
+		for (int i = 0; i < 200 && graph.getEdgeCount() != edgeCount; i++) Thread.sleep(10);
+		return graph.getEdgeCount() == edgeCount;
+	}
+
+	private static String id(String name) {
+		return "http://example.org/part/" + name;
+	}
+
+	private static Date date(String iso8601) {
+		return ISO8601.parseDate(iso8601).getTime();
+	}
+
+	private static OMMStructureBlockImpl createStructureBlock(String id, String primaryID) throws Exception {
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, "Structure");
+		OMMBlockImpl block = (OMMBlockImpl) OMMBlockImpl.create(id, new URLType(new URL(primaryID)), URI.create(OMMXMLConverter.OMM_STRUCTURE_BLOCK_NAMESPACE), null, title, null, null, CREATOR,
+				new OMMFormat("application/xml", null, null), null, new GenericTypedValue("none", "<omm:structure xmlns:omm=\"" + OMMXMLConverter.OMM_NAMESPACE_URI + "\"/>"), null, null, null);
+		return new OMMStructureBlockImpl(block);
+	}
+
+	private static OMM createMemory(String name, OMMStructureRelation relation, String target) throws Exception {
+
+		OMMStructureBlockImpl block = createStructureBlock("structure", id(name));
+		if (relation != null) block.addStructureInfo(new OMMStructureInfo(relation, new URLType(new URL(id(target))), date("2014-01-01T00:00:00+00:00")));
+
+		List<OMMBlock> blocks = new ArrayList<OMMBlock>();
+		blocks.add(block);
+		OMMImpl omm = (OMMImpl) OMMImpl.create(OMMHeaderImpl.create(new URLType(new URL(id(name))), null), blocks, (URL) null, OMMSourceType.LocalFile);
+		block.setParentOMM(omm);
+		return omm;
+	}
+}
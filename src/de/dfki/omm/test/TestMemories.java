@@ -0,0 +1,116 @@
+package de.dfki.omm.test;
+
+import java.io.File;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMSourceType;
+import de.dfki.omm.types.OMMSubjectCollection;
+import de.dfki.omm.types.OMMSubjectTag;
+import de.dfki.omm.types.OMMSubjectTagType;
+import de.dfki.omm.types.TypedValue;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Shared fixtures for the test suites which need local memories with many blocks.
+ */
+public class TestMemories {
+
+	/** Primary ID of the memories created by {@link #createHeader()}. */
+	public static final String MEMORY_URL = "http://example.org/memory";
+
+	/**
+	 * Creates a local memory with the blocks <code>block0</code> to <code>block&lt;size-1&gt;</code>, see {@link #createBlock(TypedValue, String)}.
+	 * @param size the number of blocks
+	 * @return the memory
+	 * @throws Exception if the memory cannot be created
+	 */
+	public static OMMImpl createMemory(int size) throws Exception {
+		return createMemory(size, null);
+	}
+
+	/**
+	 * Creates a local memory like {@link #createMemory(int)}, which is stored in a file.
+	 * @param size the number of blocks
+	 * @param file the source file of the memory, may be null
+	 * @return the memory
+	 * @throws Exception if the memory cannot be created
+	 */
+	public static OMMImpl createMemory(int size, File file) throws Exception {
+
+		OMMHeader header = createHeader();
+		List<OMMBlock> blocks = new ArrayList<OMMBlock>(size);
+		for (int i = 0; i < size; i++) blocks.add(createBlock(header.getPrimaryID(), "block" + i));
+		return createMemory(header, blocks, file);
+	}
+
+	/**
+	 * Creates a local memory with all blocks at once, as adding them one by one checks each ID against all others.
+	 * @param header the header of the memory
+	 * @param blocks the blocks, whose parent is set to the memory
+	 * @param file the source file of the memory, may be null
+	 * @return the memory
+	 */
+	public static OMMImpl createMemory(OMMHeader header, List<OMMBlock> blocks, File file) {
+
+		OMMImpl omm = (OMMImpl) (file == null ? OMMImpl.create(header, blocks, (URL) null, OMMSourceType.LocalFile) : OMMImpl.create(header, blocks, file, OMMSourceType.LocalFile));
+		for (OMMBlock block : blocks) ((OMMBlockImpl) block).setParentOMM(omm);
+		return omm;
+	}
+
+	/**
+	 * Creates the header of a memory with the primary ID {@link #MEMORY_URL}.
+	 * @return the header
+	 * @throws Exception if the header cannot be created
+	 */
+	public static OMMHeader createHeader() throws Exception {
+		return OMMHeaderImpl.create(new URLType(new URL(MEMORY_URL)), null);
+	}
+
+	/**
+	 * Creates a text block with the title "Block &lt;n&gt;" for the ID "block&lt;n&gt;" and the payload "payload of &lt;id&gt;".
+	 * @param primaryID the primary ID of the memory
+	 * @param id the ID of the block
+	 * @return the block
+	 */
+	public static OMMBlock createBlock(TypedValue primaryID, String id) {
+		return createBlock(primaryID, id, "Block " + id.replace("block", ""), "payload of " + id);
+	}
+
+	/**
+	 * Creates a text block with an English title and a text subject.
+	 * @param primaryID the primary ID of the memory
+	 * @param id the ID of the block
+	 * @param titleString the English title
+	 * @param payload the payload text
+	 * @return the block
+	 */
+	public static OMMBlock createBlock(TypedValue primaryID, String id, String titleString, String payload) {
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, titleString);
+		OMMSubjectCollection subjects = new OMMSubjectCollection();
+		subjects.add(new OMMSubjectTag(OMMSubjectTagType.Text, "sample", null));
+		return OMMBlockImpl.create(id, primaryID, URI.create("urn:sample:block"), null, title, null, null, createCreator(), new OMMFormat("text/plain", null, null), subjects, new GenericTypedValue("text/plain", payload), null, null, null);
+	}
+
+	/**
+	 * Creates the creator of the blocks.
+	 * @return the creator
+	 */
+	public static OMMEntity createCreator() {
+		return new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z");
+	}
+}
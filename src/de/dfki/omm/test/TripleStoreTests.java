@@ -0,0 +1,306 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.impl.OMMSemanticsBlockImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMSemanticsBlock;
+import de.dfki.omm.tools.OMMTripleStore;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.ISO8601;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMSemanticsGroup;
+import de.dfki.omm.types.OMMSemanticsInfo;
+import de.dfki.omm.types.OMMSourceType;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests the triple store over semantics blocks, its incremental updates and compares its lookups with scanning the statements.
+ */
+public class TripleStoreTests {
+
+	/** Numbers of statements used for the benchmark. */
+	public static int[] BENCHMARK_SIZES = { 10000, 100000, 1000000 };
+
+	private static final OMMEntity CREATOR = new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z");
+	private static final String MEMORY = "http://example.org/memory/press";
+
+	/**
+	 * Checks pattern lookups on all index combinations, including statements about the memory itself.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testMatch() throws Exception {
+
+		System.out.println("testMatch");
+
+		OMMTripleStore store = OMMTripleStore.create(createMemory(MEMORY,
+				group(info("[this]", "rdf:type", "ex:Press", null, null), info("[this]", "ex:locatedIn", "ex:Hall1", null, null)),
+				group(info("ex:Hall1", "ex:partOf", "ex:Plant", null, null), info("ex:Hall2", "ex:partOf", "ex:Plant", null, null))));
+
+		assertEquals(4, store.size());
+		assertEquals(2, store.match(MEMORY, null, null, null, null).size());
+		assertEquals("ex:Press", store.match(MEMORY, "rdf:type", null, null, null).get(0).getObject());
+		assertEquals(MEMORY, store.match(null, null, "ex:Press", null, null).get(0).getSubject());
+		assertEquals(2, store.match(null, "ex:partOf", "ex:Plant", null, null).size());
+		assertEquals(2, store.count(null, "ex:partOf", null, null, null));
+		assertEquals(1, store.count("ex:Hall1", null, "ex:Plant", null, null));
+		assertEquals(1, store.count(MEMORY, "ex:locatedIn", "ex:Hall1", null, null));
+		assertEquals(4, store.count(null, null, null, null, null));
+		assertEquals(0, store.count("ex:Unknown", null, null, null, null));
+		assertEquals(0, store.count("ex:Hall1", "rdf:type", null, null, null));
+	}
+
+	/**
+	 * Checks that statements are only returned when they are valid during the queried interval.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testTemporalValidity() throws Exception {
+
+		System.out.println("testTemporalValidity");
+
+		OMMTripleStore store = OMMTripleStore.create(createMemory(MEMORY,
+				group(info("[this]", "ex:locatedIn", "ex:Hall1", date("2014-01-01T00:00:00+00:00"), date("2014-06-30T00:00:00+00:00")),
+						info("[this]", "ex:locatedIn", "ex:Hall2", date("2014-07-01T00:00:00+00:00"), null),
+						info("[this]", "ex:ownedBy", "ex:Company", null, null))));
+
+		assertEquals(2, store.count(MEMORY, "ex:locatedIn", null, null, null));
+		assertEquals("ex:Hall1", store.match(MEMORY, "ex:locatedIn", null, date("2014-03-01T00:00:00+00:00"), date("2014-03-01T00:00:00+00:00")).get(0).getObject());
+		assertEquals("ex:Hall2", store.match(MEMORY, "ex:locatedIn", null, date("2015-01-01T00:00:00+00:00"), null).get(0).getObject());
+		assertEquals(1, store.count(MEMORY, null, null, null, date("2013-12-31T00:00:00+00:00")));
+		assertEquals(2, store.count(MEMORY, null, null, date("2014-03-01T00:00:00+00:00"), date("2014-03-02T00:00:00+00:00")));
+		assertEquals(date("2014-06-30T00:00:00+00:00"), store.match(null, null, "ex:Hall1", null, null).get(0).getEndDate());
+	}
+
+	/**
+	 * Checks conjunctive queries with shared, repeated and unknown variables.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testQuery() throws Exception {
+
+		System.out.println("testQuery");
+
+		OMMTripleStore store = OMMTripleStore.create();
+		store.add("ex:anna", "ex:worksFor", "ex:dfki", null, null);
+		store.add("ex:bert", "ex:worksFor", "ex:dfki", null, null);
+		store.add("ex:carl", "ex:worksFor", "ex:uni", null, null);
+		store.add("ex:dfki", "ex:locatedIn", "ex:Saarbruecken", null, null);
+		store.add("ex:uni", "ex:locatedIn", "ex:Saarbruecken", null, null);
+		store.add("ex:anna", "ex:knows", "ex:anna", null, null);
+		store.add("ex:anna", "ex:knows", "ex:bert", date("2014-01-01T00:00:00+00:00"), date("2014-02-01T00:00:00+00:00"));
+		for (int i = 0; i < 100; i++) store.add("ex:other" + i, "ex:worksFor", "ex:company" + i, null, null);
+
+		List<Map<String, String>> result = store.query(null, null,
+				new String[] { "?person", "ex:worksFor", "?org" },
+				new String[] { "?org", "ex:locatedIn", "ex:Saarbruecken" });
+		assertEquals(3, result.size());
+		Set<String> people = new HashSet<String>();
+		for (Map<String, String> solution : result) people.add(solution.get("?person"));
+		assertEquals(new HashSet<String>(Arrays.asList("ex:anna", "ex:bert", "ex:carl")), people);
+
+		result = store.query(null, null, new String[] { "?x", "ex:knows", "?x" });
+		assertEquals(1, result.size());
+		assertEquals("ex:anna", result.get(0).get("?x"));
+
+		result = store.query(null, null,
+				new String[] { "?a", "ex:knows", "?b" },
+				new String[] { "?a", "ex:worksFor", "?org" },
+				new String[] { "?b", "ex:worksFor", "?org" });
+		assertEquals(2, result.size());
+		assertEquals(1, store.query(date("2015-01-01T00:00:00+00:00"), null,
+				new String[] { "?a", "ex:knows", "?b" },
+				new String[] { "?b", "ex:worksFor", null }).size());
+
+		assertEquals(0, store.query(null, null, new String[] { "?x", "ex:unknown", "?y" }).size());
+	}
+
+	/**
+	 * Checks that added and removed groups and blocks, also of memories loaded from XML, are reflected by the store.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testIncrementalUpdate() throws Exception {
+
+		System.out.println("testIncrementalUpdate");
+
+		OMM saved = createMemory(MEMORY, group(info("[this]", "rdf:type", "ex:Press", date("2014-01-01T00:00:00+00:00"), null),
+				info("ex:Hall1", "ex:partOf", "ex:Plant", date("2014-01-01T00:00:00+00:00"), date("2014-12-31T00:00:00+00:00"))));
+		OMM loaded = OMMXMLConverter.loadFromXmlString(OMMXMLConverter.toXMLFileString(saved, true), null, null, OMMSourceType.LocalFile);
+		assertTrue(loaded.getBlock("semantics") instanceof OMMSemanticsBlock);
+
+		OMMTripleStore store = OMMTripleStore.create(loaded);
+		assertEquals(2, store.size());
+		assertEquals(date("2014-12-31T00:00:00+00:00"), store.match("ex:Hall1", null, null, null, null).get(0).getEndDate());
+		assertEquals(1, store.count(MEMORY, "rdf:type", "ex:Press", null, null));
+
+		OMMSemanticsBlock block = (OMMSemanticsBlock) loaded.getBlock("semantics");
+		OMMSemanticsGroup group = group(info("[this]", "ex:locatedIn", "ex:Hall1", null, null));
+		block.addSemanticsGroup(group);
+		assertEquals(1, store.count(MEMORY, "ex:locatedIn", null, null, null));
+		block.removeSemanticsGroup(group);
+		assertEquals(0, store.count(MEMORY, "ex:locatedIn", null, null, null));
+		assertEquals(2, store.size());
+
+		// blocks added to or removed from a memory are announced asynchronously
+		OMMSemanticsBlockImpl added = createSemanticsBlock("semantics2", MEMORY);
+		added.addSemanticsGroup(group(info("[this]", "ex:ownedBy", "ex:Company", null, null)));
+		loaded.addBlock(added, CREATOR);
+		assertTrue(waitFor(store, 3));
+		loaded.removeBlock("semantics", CREATOR);
+		assertTrue(waitFor(store, 1));
+		assertEquals(0, store.count(null, "rdf:type", null, null, null));
+
+		store.removeMemory(loaded);
+		assertEquals(0, store.size());
+		added.addSemanticsGroup(group(info("[this]", "ex:ownedBy", "ex:Other", null, null)));
+		assertEquals(0, store.size());
+	}
+
+	/**
+	 * Checks that removing many statements compacts the indexes without losing the remaining ones.
+	 */
+	@Test
+	public void testCompaction() {
+
+		System.out.println("testCompaction");
+
+		OMMTripleStore store = OMMTripleStore.create();
+		List<OMMTripleStore.Triple> triples = new ArrayList<OMMTripleStore.Triple>();
+		for (int i = 0; i < 20000; i++) triples.add(store.add("ex:s" + (i % 100), "ex:p" + (i % 7), "ex:o" + i, null, null));
+		for (int i = 0; i < 20000; i += 4) store.remove(triples.get(i + 1));
+		for (int i = 0; i < 20000; i += 4) store.remove(triples.get(i + 2));
+		for (int i = 0; i < 20000; i += 4) store.remove(triples.get(i + 3));
+
+		assertEquals(5000, store.size());
+		assertEquals(5000, store.count(null, null, null, null, null));
+		assertEquals(200, store.count("ex:s0", null, null, null, null));
+		assertEquals(0, store.count("ex:s1", null, null, null, null));
+		assertEquals("ex:o400", store.match(null, null, "ex:o400", null, null).get(0).getObject());
+		assertEquals(0, store.count(null, null, "ex:o401", null, null));
+	}
+
+	/**
+	 * Compares the time of pattern lookups and a join with scanning the list of statements.
+	 */
+	@Test
+	public void testLookupCost() {
+
+		System.out.println("testLookupCost");
+		Benchmarks.assumeEnabled();
+
+		for (int size : BENCHMARK_SIZES) {
+			// statements about parts: type, location and manufacturer with a skewed number of values
+			Random random = new Random(42);
+			OMMTripleStore store = OMMTripleStore.create();
+			List<OMMSemanticsInfo> infos = new ArrayList<OMMSemanticsInfo>(size);
+			int parts = size / 3;
+			for (int i = 0; i < size; i++) {
+				String subject = "ex:part" + (i % parts);
+				String relation = i / parts == 0 ? "rdf:type" : i / parts == 1 ? "ex:locatedIn" : "ex:madeBy";
+				String object = i / parts == 0 ? "ex:Type" + random.nextInt(100) : i / parts == 1 ? "ex:Hall" + random.nextInt(10) : "ex:Vendor" + random.nextInt(1000);
+				store.add(subject, relation, object, null, null);
+				infos.add(new OMMSemanticsInfo(subject, relation, object, null));
+			}
+
+			final String part = "ex:part" + (parts / 2);
+			int iterations = 200;
+			long start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) store.match(part, "ex:madeBy", null, null, null);
+			double subjectStore = (System.nanoTime() - start) / 1000.0 / iterations;
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) store.count(null, "ex:madeBy", "ex:Vendor7", null, null);
+			double objectStore = (System.nanoTime() - start) / 1000.0 / iterations;
+			start = System.nanoTime();
+			for (int i = 0; i < iterations; i++) store.query(null, null, new String[] { "?p", "ex:madeBy", "ex:Vendor7" }, new String[] { "?p", "ex:locatedIn", "ex:Hall3" });
+			double joinStore = (System.nanoTime() - start) / 1000.0 / iterations;
+
+			int scanIterations = Math.max(1, 1000000 / size);
+			start = System.nanoTime();
+			for (int i = 0; i < scanIterations; i++) scan(infos, part, "ex:madeBy", null);
+			double subjectScan = (System.nanoTime() - start) / 1000.0 / scanIterations;
+			start = System.nanoTime();
+			for (int i = 0; i < scanIterations; i++) scan(infos, null, "ex:madeBy", "ex:Vendor7");
+			double objectScan = (System.nanoTime() - start) / 1000.0 / scanIterations;
+
+			System.out.println(String.format("%8d statements: subject %8.1f us (scan %9.1f us), relation+object %8.1f us (scan %9.1f us), join %8.1f us",
+					size, subjectStore, subjectScan, objectStore, objectScan, joinStore));
+		}
+	}
+
+	// helper methods
+
+	private static int scan(List<OMMSemanticsInfo> infos, String subject, String relation, String object) {
+
+		int count = 0;
+		for (OMMSemanticsInfo info : infos) {
+			if ((subject == null || subject.equals(info.getSubject())) && (relation == null || relation.equals(info.getRelation())) && (object == null || object.equals(info.getObject()))) count++;
+		}
+		return count;
+	}
+
+	private static boolean waitFor(OMMTripleStore store, int size) throws InterruptedException {
+
+		for (int i = 0; i < 200 && store.size() != size; i++) Thread.sleep(10);
+		return store.size() == size;
+	}
+
+	private static Date date(String iso8601) {
+		return ISO8601.parseDate(iso8601).getTime();
+	}
+
+	private static OMMSemanticsInfo info(String subject, String relation, String object, Date start, Date end) {
+		return new OMMSemanticsInfo(subject, relation, object, start, end);
+	}
+
+	private static OMMSemanticsGroup group(OMMSemanticsInfo... infos) {
+
+		OMMSemanticsGroup group = new OMMSemanticsGroup();
+		for (OMMSemanticsInfo info : infos) group.add(info);
+		return group;
+	}
+
+	private static OMMSemanticsBlockImpl createSemanticsBlock(String id, String primaryID) throws Exception {
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, "Semantics");
+		OMMBlockImpl block = (OMMBlockImpl) OMMBlockImpl.create(id, new URLType(new URL(primaryID)), URI.create(OMMXMLConverter.OMM_SEMANTICS_BLOCK_NAMESPACE), null, title, null, null, CREATOR,
+				new OMMFormat("application/xml", null, null), null, new GenericTypedValue("none", "<omm:semantic xmlns:omm=\"" + OMMXMLConverter.OMM_NAMESPACE_URI + "\"/>"), null, null, null);
+		return new OMMSemanticsBlockImpl(block);
+	}
+
+	private static OMM createMemory(String primaryID, OMMSemanticsGroup... groups) throws Exception {
+
+		OMMSemanticsBlockImpl block = createSemanticsBlock("semantics", primaryID);
+		for (OMMSemanticsGroup group : groups) block.addSemanticsGroup(group);
+
+		List<OMMBlock> blocks = new ArrayList<OMMBlock>();
+		blocks.add(block);
+		OMMImpl omm = (OMMImpl) OMMImpl.create(OMMHeaderImpl.create(new URLType(new URL(primaryID)), null), blocks, (URL) null, OMMSourceType.LocalFile);
+		block.setParentOMM(omm);
+		return omm;
+	}
+}
@@ -0,0 +1,229 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.Field;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.impl.OMMIdentifierBlockImpl;
+import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.impl.OMMSemanticsBlockImpl;
+import de.dfki.omm.impl.OMMStructureBlockImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMIdentifierBlock;
+import de.dfki.omm.interfaces.OMMSemanticsBlock;
+import de.dfki.omm.interfaces.OMMStructureBlock;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.ISO8601;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMSemanticsGroup;
+import de.dfki.omm.types.OMMSemanticsInfo;
+import de.dfki.omm.types.OMMSourceType;
+import de.dfki.omm.types.OMMStructureInfo;
+import de.dfki.omm.types.OMMStructureRelation;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests the lazy parsing of structure, semantics and identifier blocks and compares loading memories for their table of contents with typed access.
+ */
+public class TypedViewTests {
+
+	/** Numbers of blocks of each type in the memories used for the benchmark. */
+	public static int[] BENCHMARK_SIZES = { 50, 200, 500 };
+
+	/** Number of relations, statements or identifiers per block used for the benchmark. */
+	public static int BENCHMARK_ENTRIES = 20;
+
+	private static final OMMEntity CREATOR = new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z");
+	private static final String MEMORY = "http://example.org/memory";
+
+	/**
+	 * Checks that loaded blocks parse their payload on first typed access only and still serialize unchanged.
+	 * @throws Exception if the memory cannot be created
+	 */
+	@Test
+	public void testLazyParsing() throws Exception {
+
+		System.out.println("testLazyParsing");
+
+		OMM omm = createMemory(1, 3);
+		String xml = OMMXMLConverter.toXMLFileString(omm, true);
+		OMM loaded = OMMXMLConverter.loadFromXmlString(xml, null, null, OMMSourceType.LocalFile);
+
+		OMMStructureBlock structure = (OMMStructureBlock) loaded.getBlock("structure0");
+		OMMSemanticsBlock semantics = (OMMSemanticsBlock) loaded.getBlock("semantics0");
+		OMMIdentifierBlock identifier = (OMMIdentifierBlock) loaded.getBlock("identifier0");
+		assertNull(parsed(structure, "m_structureInfos"));
+		assertNull(parsed(semantics, "m_semantics"));
+		assertNull(parsed(identifier, "m_ids"));
+
+		assertEquals(xml, OMMXMLConverter.toXMLFileString(loaded, true));
+		assertEquals("Structure", structure.getTitle(Locale.ENGLISH));
+		assertNull(parsed(structure, "m_structureInfos"));
+
+		assertEquals(3, structure.getStructureInfos().size());
+		assertEquals(3, structure.getStructureInfoByType(OMMStructureRelation.isPartOf).size());
+		assertEquals(1, semantics.getSemanticGroups().size());
+		assertEquals(3, semantics.getSemanticGroups().iterator().next().size());
+		assertEquals(3, identifier.getIdentifier().size());
+		assertNotNull(parsed(structure, "m_structureInfos"));
+		assertNotNull(parsed(semantics, "m_semantics"));
+		assertNotNull(parsed(identifier, "m_ids"));
+
+		assertEquals(xml, OMMXMLConverter.toXMLFileString(loaded, true));
+	}
+
+	/**
+	 * Checks that replacing the payload invalidates the parsed typed data.
+	 * @throws Exception if the blocks cannot be created
+	 */
+	@Test
+	public void testInvalidation() throws Exception {
+
+		System.out.println("testInvalidation");
+
+		OMMStructureBlockImpl structure = createStructureBlock("structure", 1);
+		assertEquals(1, structure.getStructureInfos().size());
+		String replacement = OMMXMLConverter.toXMLFileString(createStructureBlock("other", 2).getPayloadElement());
+		structure.setPayload(new GenericTypedValue("none", replacement), CREATOR);
+		assertEquals(2, structure.getStructureInfos().size());
+		assertEquals(MEMORY + "/part1", structure.getStructureInfos().toArray(new OMMStructureInfo[0])[1].getRelationTarget().getValue().toString());
+
+		OMMIdentifierBlockImpl identifier = createIdentifierBlock("identifier", 2);
+		assertEquals(2, identifier.getIdentifier().size());
+		identifier.setPayload(new GenericTypedValue("none", "<omm:identification xmlns:omm=\"" + OMMXMLConverter.OMM_NAMESPACE_URI + "\"/>"), CREATOR);
+		assertEquals(0, identifier.getIdentifier().size());
+
+		OMMSemanticsBlockImpl semantics = createSemanticsBlock("semantics", 2);
+		assertEquals(2, semantics.getSemanticGroups().iterator().next().size());
+		semantics.setPayload(new GenericTypedValue("none", "<omm:semantic xmlns:omm=\"" + OMMXMLConverter.OMM_NAMESPACE_URI + "\"/>"), CREATOR);
+		assertEquals(0, semantics.getSemanticGroups().size());
+		semantics.addSemanticsGroup(group(1));
+		assertEquals(1, semantics.getSemanticGroups().size());
+		assertTrue(semantics.isDirty());
+	}
+
+	/**
+	 * Compares loading memories and reading their table of contents with loading them and reading all typed data.
+	 * @throws Exception if the memories cannot be created
+	 */
+	@Test
+	public void testTableOfContentsCost() throws Exception {
+
+		System.out.println("testTableOfContentsCost");
+		Benchmarks.assumeEnabled();
+
+		for (int size : BENCHMARK_SIZES) {
+			String xml = OMMXMLConverter.toXMLFileString(createMemory(size, BENCHMARK_ENTRIES), true);
+			int iterations = Math.max(3, 1000 / size);
+			OMMXMLConverter.loadFromXmlString(xml, null, null, OMMSourceType.LocalFile);
+
+			long start = System.nanoTime();
+			int titles = 0;
+			for (int i = 0; i < iterations; i++) {
+				OMM omm = OMMXMLConverter.loadFromXmlString(xml, null, null, OMMSourceType.LocalFile);
+				for (OMMBlock block : omm.getAllBlocks()) {
+					if (block.getID() != null && block.getTitle(Locale.ENGLISH) != null) titles++;
+				}
+			}
+			double tableOfContents = (System.nanoTime() - start) / 1000000.0 / iterations;
+
+			start = System.nanoTime();
+			int entries = 0;
+			for (int i = 0; i < iterations; i++) {
+				OMM omm = OMMXMLConverter.loadFromXmlString(xml, null, null, OMMSourceType.LocalFile);
+				for (OMMBlock block : omm.getAllBlocks()) {
+					if (block instanceof OMMStructureBlock) entries += ((OMMStructureBlock) block).getStructureInfos().size();
+					else if (block instanceof OMMSemanticsBlock) entries += ((OMMSemanticsBlock) block).getSemanticGroups().iterator().next().size();
+					else if (block instanceof OMMIdentifierBlock) entries += ((OMMIdentifierBlock) block).getIdentifier().size();
+				}
+			}
+			double typed = (System.nanoTime() - start) / 1000000.0 / iterations;
+
+			assertEquals(3 * size * iterations, titles);
+			assertEquals(3 * size * BENCHMARK_ENTRIES * iterations, entries);
+			System.out.println(String.format("%6d blocks: table of contents %10.2f ms/load, typed access %10.2f ms/load", 3 * size, tableOfContents, typed));
+		}
+	}
+
+	// helper methods
+
+	/** Reads the parsed typed data of a block, which is null as long as the payload was not parsed. */
+	private static Object parsed(Object block, String field) throws Exception {
+
+		Field f = block.getClass().getDeclaredField(field);
+		f.setAccessible(true);
+		return f.get(block);
+	}
+
+	private static Date date(String iso8601) {
+		return ISO8601.parseDate(iso8601).getTime();
+	}
+
+	private static OMMSemanticsGroup group(int entries) {
+
+		OMMSemanticsGroup group = new OMMSemanticsGroup();
+		for (int i = 0; i < entries; i++) group.add(new OMMSemanticsInfo("[this]", "ex:has", "ex:part" + i, date("2014-01-01T00:00:00+00:00"), null));
+		return group;
+	}
+
+	private static OMMBlockImpl createBlock(String id, String title, String namespace, String payload) throws Exception {
+
+		OMMMultiLangText text = new OMMMultiLangText();
+		text.put(Locale.ENGLISH, title);
+		return (OMMBlockImpl) OMMBlockImpl.create(id, new URLType(new URL(MEMORY)), URI.create(namespace), null, text, null, null, CREATOR,
+				new OMMFormat("application/xml", null, null), null, new GenericTypedValue("none", "<omm:" + payload + " xmlns:omm=\"" + OMMXMLConverter.OMM_NAMESPACE_URI + "\"/>"), null, null, null);
+	}
+
+	private static OMMStructureBlockImpl createStructureBlock(String id, int entries) throws Exception {
+
+		OMMStructureBlockImpl block = new OMMStructureBlockImpl(createBlock(id, "Structure", OMMXMLConverter.OMM_STRUCTURE_BLOCK_NAMESPACE, "structure"));
+		for (int i = 0; i < entries; i++) {
+			block.addStructureInfo(new OMMStructureInfo(OMMStructureRelation.isPartOf, new URLType(new URL(MEMORY + "/part" + i)), date("2014-01-01T00:00:00+00:00")));
+		}
+		return block;
+	}
+
+	private static OMMSemanticsBlockImpl createSemanticsBlock(String id, int entries) throws Exception {
+
+		OMMSemanticsBlockImpl block = new OMMSemanticsBlockImpl(createBlock(id, "Semantics", OMMXMLConverter.OMM_SEMANTICS_BLOCK_NAMESPACE, "semantic"));
+		block.addSemanticsGroup(group(entries));
+		return block;
+	}
+
+	private static OMMIdentifierBlockImpl createIdentifierBlock(String id, int entries) throws Exception {
+
+		OMMIdentifierBlockImpl block = new OMMIdentifierBlockImpl(createBlock(id, "Identifier", OMMXMLConverter.OMM_IDS_BLOCK_NAMESPACE, "identification"));
+		for (int i = 0; i < entries; i++) block.addIdentifier(new URLType(new URL(MEMORY + "/id" + i)));
+		return block;
+	}
+
+	private static OMM createMemory(int size, int entries) throws Exception {
+
+		List<OMMBlock> blocks = new ArrayList<OMMBlock>();
+		for (int i = 0; i < size; i++) {
+			blocks.add(createStructureBlock("structure" + i, entries));
+			blocks.add(createSemanticsBlock("semantics" + i, entries));
+			blocks.add(createIdentifierBlock("identifier" + i, entries));
+		}
+		OMMImpl omm = (OMMImpl) OMMImpl.create(OMMHeaderImpl.create(new URLType(new URL(MEMORY)), null), blocks, (URL) null, OMMSourceType.LocalFile);
+		for (OMMBlock block : blocks) ((OMMBlockImpl) block).setParentOMM(omm);
+		return omm;
+	}
+}
@@ -0,0 +1,262 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.net.URI;
+import java.net.URL;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMFactory;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.impl.rest.OMMRestImpl;
+import de.dfki.omm.impl.rest.OMMRestWriteBuffer;
+import de.dfki.omm.impl.rest.OMMRestWriteListener;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.tools.OMMActionResultType;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMRestAccessMode;
+import de.dfki.omm.types.OMMSubjectTag;
+import de.dfki.omm.types.OMMSubjectTagType;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests the write-behind mode of REST memories against a simulated OMS: merging of changes, the local view of pending changes and failure reports.
+ */
+public class WriteBehindTests {
+
+	static OMSSimulator simulator = null;
+	static OMMHeaderImpl header = null;
+	static OMMRestImpl omm = null;
+	static List<String> failures = new CopyOnWriteArrayList<String>();
+
+	/**
+	 * (Before all tests) Starts a simulated OMS with an empty memory.
+	 * @throws Exception if the simulated OMS cannot be started
+	 */
+	@BeforeClass
+	public static void startSimulator() throws Exception {
+
+		simulator = OMSSimulator.start(0);
+		header = (OMMHeaderImpl) OMMHeaderImpl.create(new URLType(new URL(simulator.getMemoryURL("bufferMemory"))), null);
+		String ownerString = OMMFactory.createOMMOwnerStringFromUsernamePassword("Buffer", "owner", "ownerpasswd");
+		OMMFactory.createOMMViaOMSRestInterface(simulator.getURL() + "mgmt/createMemory", header, OMMFactory.createOMMOwnerBlock(header, ownerString));
+		omm = new OMMRestImpl(simulator.getMemoryURL("bufferMemory"), OMMRestAccessMode.SingleAccess);
+		OMMRestWriteBuffer.FLUSH_DELAY_IN_MILLIS = 60000;
+	}
+
+	/**
+	 * Checks that many payload changes to a block are sent as a single request, while reads see the latest one.
+	 */
+	@Test
+	public void testPayloadChangesAreMerged() {
+
+		System.out.println("testPayloadChangesAreMerged");
+
+		String id = addStoredBlock("merge");
+		omm.enableWriteBehind(createListener());
+		simulator.resetStatistics();
+
+		OMMBlock block = omm.getBlock(id);
+		for (int i = 0; i < 20; i++) block.setPayload(new GenericTypedValue("text/plain", "value " + i), OMMEntity.getDummyEntity());
+		assertEquals("no change should be sent before the flush", 0, simulator.getRequestCount("payload"));
+		assertEquals("reads should see the pending payload", "value 19", omm.getBlock(id).getPayloadAsString());
+
+		assertTrue("flush should succeed", omm.flush());
+		assertEquals("merged changes should be sent at once", 1, simulator.getRequestCount("payload"));
+		omm.disableWriteBehind();
+		assertEquals("the last payload should be stored", "value 19", omm.getBlock(id).getPayloadAsString());
+	}
+
+	/**
+	 * Checks that added subjects accumulate and that added and removed blocks are reflected before the flush.
+	 */
+	@Test
+	public void testPendingBlocksAndSubjects() {
+
+		System.out.println("testPendingBlocksAndSubjects");
+
+		String removedID = addStoredBlock("removed");
+		String subjectID = addStoredBlock("subjects");
+		omm.enableWriteBehind(createListener());
+
+		OMMBlock added = createBlock("added");
+		assertEquals(OMMActionResultType.OK, omm.addBlock(added, null));
+		assertEquals("added block should keep its ID until it is stored", "bufferID", added.getID());
+		String temporaryID = getTemporaryID();
+		assertNotNull("added block should be listed under a temporary ID", temporaryID);
+		assertEquals("added block should be available under its temporary ID", temporaryID, omm.getBlock(temporaryID).getID());
+		omm.removeBlock(removedID, null);
+		assertFalse("removed block should not be listed", omm.getAllBlockIDs().contains(removedID));
+		assertNull("removed block should not be available", omm.getBlock(removedID));
+
+		OMMBlock block = omm.getBlock(subjectID);
+		block.addSubject(new OMMSubjectTag(OMMSubjectTagType.Text, "first", null), OMMEntity.getDummyEntity());
+		block.addSubject(new OMMSubjectTag(OMMSubjectTagType.Text, "second", null), OMMEntity.getDummyEntity());
+		assertTrue("pending subject should be visible", omm.getBlock(subjectID).isSubjectPresent(OMMSubjectTagType.Text, "second"));
+		assertFalse("subject without value should not be present", omm.getBlock(subjectID).isSubjectPresent(OMMSubjectTagType.Text, null));
+
+		assertTrue("flush should succeed", omm.disableWriteBehind());
+		assertFalse("block should have its final ID", added.getID().startsWith(OMMRestWriteBuffer.TEMPORARY_ID_PREFIX));
+		assertTrue("added block should be stored", omm.getAllBlockIDs().contains(added.getID()));
+		assertFalse("removed block should be deleted", omm.getAllBlockIDs().contains(removedID));
+		assertTrue("subjects should be stored", omm.getBlock(subjectID).isSubjectPresent(OMMSubjectTagType.Text, "first"));
+		assertTrue("subjects should be stored", omm.getBlock(subjectID).isSubjectPresent(OMMSubjectTagType.Text, "second"));
+	}
+
+	/**
+	 * Checks that a block removed while its addition is being sent is deleted under its final ID.
+	 * @throws InterruptedException if interrupted while waiting for the flush
+	 */
+	@Test
+	public void testRemovalDuringAdd() throws InterruptedException {
+
+		System.out.println("testRemovalDuringAdd");
+
+		omm.enableWriteBehind(createListener());
+		final OMMBlock added = createBlock("short-lived");
+		omm.addBlock(added, null);
+		String temporaryID = getTemporaryID();
+
+		simulator.setLatency(500, 500);
+		Thread flush = new Thread() {
+			public void run() {
+				omm.flush();
+			}
+		};
+		try {
+			flush.start();
+			Thread.sleep(200);
+			omm.removeBlock(temporaryID, null);
+			flush.join();
+		}
+		finally {
+			simulator.setLatency(0, 0);
+		}
+
+		assertFalse("block should have its final ID", added.getID().startsWith(OMMRestWriteBuffer.TEMPORARY_ID_PREFIX));
+		assertTrue("removal should be sent", omm.flush());
+		assertEquals("removal should not fail", Collections.emptyList(), failures);
+		assertFalse("block should be deleted under its final ID", omm.getAllBlockIDs().contains(added.getID()));
+	}
+
+	/**
+	 * Checks that write-behind can be disabled while a scheduled flush is sending, which locks the memory to resolve the storage node.
+	 * @throws InterruptedException if interrupted while waiting for the flush
+	 */
+	@Test
+	public void testDisableDuringScheduledFlush() throws InterruptedException {
+
+		System.out.println("testDisableDuringScheduledFlush");
+
+		String id = addStoredBlock("disabled");
+		omm.enableWriteBehind(createListener());
+		OMMRestWriteBuffer.FLUSH_DELAY_IN_MILLIS = 0;
+		simulator.setLatency(500, 500);
+		Thread disable = new Thread() {
+			public void run() {
+				omm.disableWriteBehind();
+			}
+		};
+		disable.setDaemon(true);
+		try {
+			omm.addBlock(createBlock("scheduled"), null);
+			omm.getBlock(id).setPayload(new GenericTypedValue("text/plain", "scheduled"), OMMEntity.getDummyEntity());
+			Thread.sleep(200);
+			disable.start();
+			disable.join(10000);
+		}
+		finally {
+			simulator.setLatency(0, 0);
+			OMMRestWriteBuffer.FLUSH_DELAY_IN_MILLIS = 60000;
+		}
+
+		assertFalse("disabling should not deadlock with the scheduled flush", disable.isAlive());
+		assertNull("changes should be sent right away", omm.getWriteBuffer());
+		assertEquals("the scheduled changes should be sent", "scheduled", omm.getBlock(id).getPayloadAsString());
+		assertEquals(Collections.emptyList(), failures);
+	}
+
+	/**
+	 * Checks that failing writes are reported to the listener.
+	 */
+	@Test
+	public void testFailuresAreReported() {
+
+		System.out.println("testFailuresAreReported");
+
+		omm.enableWriteBehind(createListener());
+		omm.getBlock("4711").setPayload(new GenericTypedValue("text/plain", "lost"), OMMEntity.getDummyEntity());
+		assertFalse("flush should fail", omm.flush());
+		assertEquals("failure should be reported", Collections.singletonList("4711:" + OMMRestWriteBuffer.Operation.SetPayload), failures);
+	}
+
+	/**
+	 * (After each test) Returns to writing right away.
+	 */
+	@After
+	public void disableWriteBehind() {
+
+		omm.disableWriteBehind();
+		failures.clear();
+	}
+
+	/**
+	 * (After all tests) Stops the simulated OMS.
+	 */
+	@AfterClass
+	public static void stopSimulator() {
+
+		OMMRestWriteBuffer.FLUSH_DELAY_IN_MILLIS = 1000;
+		if (simulator != null) simulator.stop();
+	}
+
+	// helper methods
+
+	private String addStoredBlock(String titleString) {
+
+		OMMBlock block = createBlock(titleString);
+		assertEquals(OMMActionResultType.OK, omm.addBlock(block, null));
+		assertNotNull(block.getID());
+		return block.getID();
+	}
+
+	private String getTemporaryID() {
+
+		for (String id : omm.getAllBlockIDs()) {
+			if (id.startsWith(OMMRestWriteBuffer.TEMPORARY_ID_PREFIX)) return id;
+		}
+		return null;
+	}
+
+	private OMMBlock createBlock(String titleString) {
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, titleString);
+		return OMMBlockImpl.create("bufferID", header.getPrimaryID(), URI.create("urn:sample:bufferBlock"), null, title, null, null, OMMEntity.getDummyEntity(), new OMMFormat("text/plain", null, null), null, new GenericTypedValue("text/plain", titleString), null, null, null);
+	}
+
+	private OMMRestWriteListener createListener() {
+
+		return new OMMRestWriteListener() {
+			public void writeFailed(String blockID, OMMRestWriteBuffer.Operation operation, OMMActionResultType result, Exception cause) {
+				failures.add(blockID + ":" + operation);
+			}
+		};
+	}
+}
@@ -0,0 +1,192 @@
+package de.dfki.omm.test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.StringWriter;
+import java.net.URI;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMSource;
+import javax.xml.transform.stream.StreamResult;
+
+import org.junit.Test;
+import org.w3c.dom.Document;
+import org.xml.sax.InputSource;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.rest.OMMRestBlockMetaCache;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.tools.OMMBlockSaxHandler;
+import de.dfki.omm.tools.OMMXMLConverter;
+import de.dfki.omm.tools.OMMXMLPool;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.URLType;
+
+/**
+ * Tests the reuse of pooled XML parsers and transformers, and compares the cost of parsing and serializing blocks with and without pooling.
+ */
+public class XMLPoolTests {
+
+	/**
+	 * Checks that released instances are reused and do not keep their handlers, whatever other tests left in the pool.
+	 * @throws Exception if no parser can be created
+	 */
+	@Test
+	public void testReuse() throws Exception {
+
+		System.out.println("testReuse");
+
+		SAXParser parser = OMMXMLPool.acquireSAXParser();
+		parser.getXMLReader().setContentHandler(new DefaultHandler());
+		OMMXMLPool.release(parser);
+
+		// other tests may have left idle parsers in the shared pool, which hands them out first
+		List<SAXParser> acquired = new ArrayList<SAXParser>();
+		try {
+			for (int i = 0; i <= OMMXMLPool.MAX_IDLE_INSTANCES; i++) acquired.add(OMMXMLPool.acquireSAXParser());
+			assertTrue("released parser should be reused", acquired.contains(parser));
+			for (SAXParser reused : acquired) assertNull(reused.getXMLReader().getContentHandler());
+		}
+		finally {
+			for (SAXParser reused : acquired) OMMXMLPool.release(reused);
+		}
+	}
+
+	/**
+	 * Checks that pooled parsers still work after a document could not be parsed.
+	 * @throws Exception if the block cannot be created
+	 */
+	@Test
+	public void testReuseAfterError() throws Exception {
+
+		System.out.println("testReuseAfterError");
+
+		byte[] xml = getBlockXML();
+		assertNull(OMMXMLConverter.getXmlDocumentFromString(new ByteArrayInputStream("<omm:block".getBytes("UTF-8"))));
+		Document doc = OMMXMLConverter.getXmlDocumentFromString(new ByteArrayInputStream(xml));
+		assertNotNull(doc);
+		assertEquals(OMMXMLConverter.OMM_NAMESPACE_URI, doc.getDocumentElement().getNamespaceURI());
+
+		try {
+			OMMRestBlockMetaCache.parse("<omm:block".getBytes("UTF-8"), "42", null);
+		}
+		catch (Exception e) {
+			// expected
+		}
+		assertEquals("Pooled block", OMMRestBlockMetaCache.parse(xml, "42", null).getTitle(Locale.ENGLISH));
+	}
+
+	/**
+	 * Checks that blocks are parsed and serialized correctly by many threads at once.
+	 * @throws Exception if a block cannot be parsed
+	 */
+	@Test
+	public void testConcurrentUse() throws Exception {
+
+		System.out.println("testConcurrentUse");
+
+		final byte[] xml = getBlockXML();
+		final String expected = new String(xml, "UTF-8");
+		ExecutorService executor = Executors.newFixedThreadPool(8);
+		try {
+			List<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
+			for (int i = 0; i < 64; i++) {
+				results.add(executor.submit(new Callable<Boolean>() {
+					public Boolean call() throws Exception {
+						for (int j = 0; j < 50; j++) {
+							Document doc = OMMXMLConverter.getXmlDocumentFromString(new ByteArrayInputStream(xml));
+							if (!expected.equals(OMMXMLConverter.toXMLFileString(doc.getDocumentElement()))) return false;
+							if (!"Pooled block".equals(OMMRestBlockMetaCache.parse(xml, "42", null).getTitle(Locale.ENGLISH))) return false;
+						}
+						return true;
+					}
+				}));
+			}
+			for (Future<Boolean> result : results) assertEquals(Boolean.TRUE, result.get());
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	/**
+	 * Compares time and allocation of parsing and serializing a single block with new factories per call and with pooled instances.
+	 * @throws Exception if the block cannot be created
+	 */
+	@Test
+	public void testBlockCost() throws Exception {
+
+		System.out.println("testBlockCost");
+		Benchmarks.assumeEnabled();
+
+		final byte[] xml = getBlockXML();
+		final Document doc = OMMXMLConverter.getXmlDocumentFromString(new ByteArrayInputStream(xml));
+		int iterations = 5000;
+
+		Benchmarks.measure("DOM parse, new factory  ", new Benchmarks.Task() {
+			public void run() throws Exception {
+				DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
+				factory.setNamespaceAware(true);
+				factory.newDocumentBuilder().parse(new ByteArrayInputStream(xml));
+			}
+		}, iterations);
+		Benchmarks.measure("DOM parse, pooled       ", new Benchmarks.Task() {
+			public void run() throws Exception {
+				OMMXMLConverter.getXmlDocumentFromString(new ByteArrayInputStream(xml));
+			}
+		}, iterations);
+		Benchmarks.measure("SAX parse, new factory  ", new Benchmarks.Task() {
+			public void run() throws Exception {
+				XMLReader reader = SAXParserFactory.newInstance().newSAXParser().getXMLReader();
+				reader.setContentHandler(new OMMBlockSaxHandler("42", null));
+				reader.parse(new InputSource(new ByteArrayInputStream(xml)));
+			}
+		}, iterations);
+		Benchmarks.measure("SAX parse, pooled       ", new Benchmarks.Task() {
+			public void run() throws Exception {
+				OMMRestBlockMetaCache.parse(xml, "42", null);
+			}
+		}, iterations);
+		Benchmarks.measure("serialize, new factory  ", new Benchmarks.Task() {
+			public void run() throws Exception {
+				TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc.getDocumentElement()), new StreamResult(new StringWriter()));
+			}
+		}, iterations);
+		Benchmarks.measure("serialize, pooled       ", new Benchmarks.Task() {
+			public void run() throws Exception {
+				OMMXMLConverter.toXMLFileString(doc.getDocumentElement());
+			}
+		}, iterations);
+	}
+
+	// helper methods
+
+	private static byte[] getBlockXML() throws Exception {
+
+		OMMMultiLangText title = new OMMMultiLangText();
+		title.put(Locale.ENGLISH, "Pooled block");
+		OMMEntity creator = new OMMEntity("email", "creator@example.org", "2014-05-01T12:00:00Z");
+		OMMBlock block = OMMBlockImpl.create("42", new URLType(new URL("http://example.org/memory")), URI.create("urn:sample:pooledBlock"), null, title, null, null, creator, new OMMFormat("text/plain", null, null), null, new GenericTypedValue("text/plain", "payload"), null, null, null);
+		return OMMXMLConverter.toXMLFileString(OMMXMLConverter.generateCompleteBlock(block, true)).getBytes("UTF-8");
+	}
+}
@@ -65,14 +65,13 @@ public class DownloadHelper {
 	    StringBuffer buffer = new StringBuffer();
 
 	    try {
-	    	ClientResource c = new ClientResource(restURL);
-			if (credentials != null) credentials.updateClientResource(c);
-			Representation representation = c.get();
+	    	ClientResource c = RestCompression.createClientResource(restURL, credentials);
+			Representation representation = RestCompression.get(c);
 			BufferedReader br = null;
 			Reader reader = null;
 			if (representation == null) return null;
 			else {
-				reader = representation.getReader();
+				reader = RestCompression.getReader(representation);
 				if (reader == null) return null;
 			}
 			br = new BufferedReader(reader);
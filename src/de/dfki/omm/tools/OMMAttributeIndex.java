@@ -0,0 +1,234 @@
+package de.dfki.omm.tools;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.dfki.omm.events.OMMEvent;
+import de.dfki.omm.events.OMMEventListener;
+import de.dfki.omm.events.OMMEventType;
+import de.dfki.omm.impl.OMMAttributeListBlockImpl;
+import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMAttributeListBlock;
+import de.dfki.omm.interfaces.OMMBlock;
+
+/** Index over the attribute list blocks of one or more memories, answering which blocks have an attribute (key)
+ * or an attribute with a certain value without reading every block. Changes of indexed {@link OMMAttributeListBlockImpl}s
+ * are applied synchronously. */
+public class OMMAttributeIndex
+{
+	protected HashMap<String, Set<OMMAttributeListBlock>> m_byKey = new HashMap<String, Set<OMMAttributeListBlock>>();
+	protected HashMap<String, HashMap<String, Set<OMMAttributeListBlock>>> m_byKeyValue = new HashMap<String, HashMap<String, Set<OMMAttributeListBlock>>>();
+	protected IdentityHashMap<OMMAttributeListBlock, Boolean> m_blocks = new IdentityHashMap<OMMAttributeListBlock, Boolean>();
+	protected IdentityHashMap<OMM, OMMEventListener> m_memories = new IdentityHashMap<OMM, OMMEventListener>();
+
+	protected OMMAttributeListBlockImpl.AttributeListener m_attributeListener = new OMMAttributeListBlockImpl.AttributeListener()
+	{
+		@Override
+		public void attributeChanged(OMMAttributeListBlock block, String key, String oldValue, String newValue)
+		{
+			synchronized(OMMAttributeIndex.this)
+			{
+				if (!m_blocks.containsKey(block)) return;
+				if (oldValue != null) unindex(block, key, oldValue, newValue == null);
+				else if (newValue == null) unindex(block, key, null, true);
+				if (newValue != null) index(block, key, newValue);
+			}
+		}
+	};
+
+	protected OMMAttributeIndex()
+	{
+	}
+
+	/** Creates an empty attribute index.
+	 * @return The new {@link OMMAttributeIndex}.
+	 */
+	public static OMMAttributeIndex create()
+	{
+		return new OMMAttributeIndex();
+	}
+
+	/** Creates an attribute index over the attribute list blocks of the given memories.
+	 * @param memories The memories to index.
+	 * @return The new {@link OMMAttributeIndex}.
+	 */
+	public static OMMAttributeIndex create(OMM... memories)
+	{
+		OMMAttributeIndex index = new OMMAttributeIndex();
+		for(OMM omm : memories) index.addMemory(omm);
+		return index;
+	}
+
+	/** Indexes all attribute list blocks of a memory.
+	 * Blocks added to or removed from an {@link OMMImpl} are picked up via its (asynchronous) event listeners.
+	 * @param omm The memory to index.
+	 */
+	public synchronized void addMemory(OMM omm)
+	{
+		if (m_memories.containsKey(omm)) return;
+
+		for(OMMBlock block : omm.getAllBlocks())
+		{
+			if (block instanceof OMMAttributeListBlock) addBlock((OMMAttributeListBlock)block);
+		}
+
+		OMMEventListener listener = null;
+		if (omm instanceof OMMImpl)
+		{
+			listener = new OMMEventListener()
+			{
+				@Override
+				public void eventOccured(OMMEvent event)
+				{
+					if (!(event.block instanceof OMMAttributeListBlock)) return;
+					if (event.type == OMMEventType.BLOCK_ADDED) addBlock((OMMAttributeListBlock)event.block);
+					else if (event.type == OMMEventType.BLOCK_REMOVED) removeBlock((OMMAttributeListBlock)event.block);
+				}
+			};
+			((OMMImpl)omm).addEventListener(listener);
+		}
+		m_memories.put(omm, listener);
+	}
+
+	/** Removes a memory added by {@link #addMemory(OMM)} together with its attribute list blocks.
+	 * @param omm The memory to remove.
+	 */
+	public synchronized void removeMemory(OMM omm)
+	{
+		if (!m_memories.containsKey(omm)) return;
+		OMMEventListener listener = m_memories.remove(omm);
+		if (listener != null) ((OMMImpl)omm).removeEventListener(listener);
+
+		for(OMMBlock block : omm.getAllBlocks())
+		{
+			if (block instanceof OMMAttributeListBlock) removeBlock((OMMAttributeListBlock)block);
+		}
+	}
+
+	/** Indexes the attributes of a single block.
+	 * @param block The {@link OMMAttributeListBlock} to index.
+	 */
+	public synchronized void addBlock(OMMAttributeListBlock block)
+	{
+		if (block == null || m_blocks.containsKey(block)) return;
+		m_blocks.put(block, Boolean.TRUE);
+		for(Map.Entry<String, String> entry : block.getAllAttributes().entrySet())
+		{
+			if (entry.getValue() != null) index(block, entry.getKey(), entry.getValue());
+		}
+		if (block instanceof OMMAttributeListBlockImpl) ((OMMAttributeListBlockImpl)block).addAttributeListener(m_attributeListener);
+	}
+
+	/** Removes a block added by {@link #addBlock(OMMAttributeListBlock)}.
+	 * @param block The {@link OMMAttributeListBlock} to remove.
+	 */
+	public synchronized void removeBlock(OMMAttributeListBlock block)
+	{
+		if (m_blocks.remove(block) == null) return;
+		if (block instanceof OMMAttributeListBlockImpl) ((OMMAttributeListBlockImpl)block).removeAttributeListener(m_attributeListener);
+		for(Map.Entry<String, String> entry : block.getAllAttributes().entrySet())
+		{
+			unindex(block, entry.getKey(), entry.getValue(), true);
+		}
+	}
+
+	/** Retrieves all blocks having an attribute.
+	 * @param key The attribute name.
+	 * @return List of {@link OMMAttributeListBlock}s, in the order they got the attribute.
+	 */
+	public synchronized List<OMMAttributeListBlock> getBlocks(String key)
+	{
+		Set<OMMAttributeListBlock> blocks = m_byKey.get(key);
+		if (blocks == null) return new ArrayList<OMMAttributeListBlock>();
+		return new ArrayList<OMMAttributeListBlock>(blocks);
+	}
+
+	/** Retrieves all blocks having an attribute with the given value.
+	 * @param key The attribute name.
+	 * @param value The attribute value.
+	 * @return List of {@link OMMAttributeListBlock}s, in the order they got the value.
+	 */
+	public synchronized List<OMMAttributeListBlock> getBlocks(String key, String value)
+	{
+		HashMap<String, Set<OMMAttributeListBlock>> values = m_byKeyValue.get(key);
+		Set<OMMAttributeListBlock> blocks = values == null ? null : values.get(value);
+		if (blocks == null) return new ArrayList<OMMAttributeListBlock>();
+		return new ArrayList<OMMAttributeListBlock>(blocks);
+	}
+
+	/** Retrieves the distinct values of an attribute over all indexed blocks.
+	 * @param key The attribute name.
+	 * @return Set of values.
+	 */
+	public synchronized Set<String> getValues(String key)
+	{
+		HashMap<String, Set<OMMAttributeListBlock>> values = m_byKeyValue.get(key);
+		if (values == null) return new LinkedHashSet<String>();
+		return new LinkedHashSet<String>(values.keySet());
+	}
+
+	/** Retrieves all indexed attribute names.
+	 * @return Set of keys.
+	 */
+	public synchronized Set<String> getKeys()
+	{
+		return new LinkedHashSet<String>(m_byKey.keySet());
+	}
+
+	protected void index(OMMAttributeListBlock block, String key, String value)
+	{
+		Set<OMMAttributeListBlock> blocks = m_byKey.get(key);
+		if (blocks == null)
+		{
+			blocks = newBlockSet();
+			m_byKey.put(key, blocks);
+		}
+		blocks.add(block);
+
+		HashMap<String, Set<OMMAttributeListBlock>> values = m_byKeyValue.get(key);
+		if (values == null)
+		{
+			values = new HashMap<String, Set<OMMAttributeListBlock>>();
+			m_byKeyValue.put(key, values);
+		}
+		blocks = values.get(value);
+		if (blocks == null)
+		{
+			blocks = newBlockSet();
+			values.put(value, blocks);
+		}
+		blocks.add(block);
+	}
+
+	protected void unindex(OMMAttributeListBlock block, String key, String value, boolean removeKey)
+	{
+		if (removeKey)
+		{
+			Set<OMMAttributeListBlock> blocks = m_byKey.get(key);
+			if (blocks != null && blocks.remove(block) && blocks.isEmpty()) m_byKey.remove(key);
+		}
+
+		HashMap<String, Set<OMMAttributeListBlock>> values = m_byKeyValue.get(key);
+		if (values == null || value == null) return;
+		Set<OMMAttributeListBlock> blocks = values.get(value);
+		if (blocks != null && blocks.remove(block) && blocks.isEmpty())
+		{
+			values.remove(value);
+			if (values.isEmpty()) m_byKeyValue.remove(key);
+		}
+	}
+
+	/** Creates a block set keeping the insertion order. */
+	private static Set<OMMAttributeListBlock> newBlockSet()
+	{
+		return Collections.newSetFromMap(new LinkedHashMap<OMMAttributeListBlock, Boolean>());
+	}
+}
@@ -0,0 +1,913 @@
+package de.dfki.omm.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMEntityCollection;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMSubjectCollection;
+import de.dfki.omm.types.OMMSubjectTag;
+import de.dfki.omm.types.OMMSubjectTagType;
+import de.dfki.omm.types.TypedValue;
+
+/** <p>Version 2 of the custom binary format for blocks and memories, see {@link de.dfki.omm.impl.OMMFactory#saveOMMToBinary(de.dfki.omm.interfaces.OMM, java.io.File, boolean)}.</p>
+ *
+ * <p>A file starts with {@link #MAGIC}, the version byte and the kind of content ({@link #KIND_BLOCK} or {@link #KIND_MEMORY}),
+ * followed by records, each starting with a record tag:</p>
+ * <ul>
+ * <li>{@link #RECORD_STRINGS}: count, then strings appended to the string table of the file,</li>
+ * <li>{@link #RECORD_HEADER}, {@link #RECORD_OWNER}, {@link #RECORD_BLOCK}: a frame of body length, body and CRC32 of the body,</li>
+ * <li>{@link #RECORD_END}: end of the content.</li>
+ * <li>{@link #RECORD_CONTINUE}: an end record replaced when blocks were appended, followed by the old index record and its trailer,
+ * behind which the records continue.</li>
+ * </ul>
+ *
+ * <p>All lengths, counts and references are unsigned varints. A block body is a sequence of fields, each being a single byte
+ * field tag, the length of the field and its data, ended by {@link #FIELD_END}, so readers skip fields they do not know.
+ * Strings are written as their UTF-8 byte count plus one followed by the bytes (0 stands for null). Entity types, locales,
+ * namespaces, formats and other repeated values are written as references into the string table (index plus one, 0 stands for null),
+ * where new strings are defined by a string record right before the frame using them.</p>
+ *
+ * <p>Memory files may have a block offset table behind the end record, which allows random access to single blocks
+ * and appending blocks without rewriting the file, see {@link OMMBinaryIndex}.</p>
+ */
+public class OMMBinaryFormat
+{
+	/** Magic number at the start of every file, which cannot be the start of a version 1 file. */
+	public static final byte[] MAGIC = { (byte)0x89, 'O', 'M', 'M' };
+	/** Version written by the {@link Encoder}. */
+	public static final int VERSION = 2;
+
+	public static final int KIND_BLOCK = 1;
+	public static final int KIND_MEMORY = 2;
+
+	public static final int RECORD_END = 0;
+	public static final int RECORD_STRINGS = 1;
+	public static final int RECORD_HEADER = 2;
+	public static final int RECORD_OWNER = 3;
+	public static final int RECORD_BLOCK = 4;
+	/** Block offset table behind the end record, see {@link OMMBinaryIndex}. */
+	public static final int RECORD_INDEX = 5;
+	/** End record of an indexed file to which blocks were appended, see {@link OMMBinaryIndex}. */
+	public static final int RECORD_CONTINUE = 6;
+
+	public static final int FIELD_END = 0;
+	public static final int FIELD_ID = 1;
+	public static final int FIELD_TITLE = 2;
+	public static final int FIELD_CREATOR = 3;
+	public static final int FIELD_PRIMARYID = 4;
+	public static final int FIELD_NAMESPACE = 5;
+	public static final int FIELD_TYPE = 6;
+	public static final int FIELD_DESCRIPTION = 7;
+	public static final int FIELD_CONTRIBUTORS = 8;
+	public static final int FIELD_FORMAT = 9;
+	public static final int FIELD_SUBJECT = 10;
+	public static final int FIELD_PAYLOAD = 11;
+	public static final int FIELD_LINK = 12;
+
+	private OMMBinaryFormat() {}
+
+	/** Checks whether a buffer starts with the {@link #MAGIC} number of version 2 and later, without changing its position.
+	 * @param buffer The {@link ByteBuffer} to check.
+	 * @return True, if the remaining content is not in the version 1 format.
+	 */
+	public static boolean isVersion2(ByteBuffer buffer)
+	{
+		if (buffer.remaining() < MAGIC.length) return false;
+		for(int i = 0; i < MAGIC.length; i++)
+		{
+			if (buffer.get(buffer.position() + i) != MAGIC[i]) return false;
+		}
+		return true;
+	}
+
+	/** Writes blocks and memories in version 2 format to a stream. */
+	public static class Encoder
+	{
+		protected OutputStream m_out;
+		protected HashMap<String, Integer> m_strings = new HashMap<String, Integer>();
+		protected ArrayList<String> m_newStrings = new ArrayList<String>();
+		protected ByteArrayOutputStream m_body = new ByteArrayOutputStream(1024);
+		protected ByteArrayOutputStream m_field = new ByteArrayOutputStream(1024);
+		protected ByteArrayOutputStream m_record = new ByteArrayOutputStream(1024);
+		protected CRC32 m_crc = new CRC32();
+		protected long m_position = 0;
+		protected OMMBinaryIndex m_index = null;
+
+		protected Encoder(OutputStream out)
+		{
+			m_out = out;
+		}
+
+		/** Creates an encoder and writes the file prologue.
+		 * @param out The {@link OutputStream} to write to, which should be buffered.
+		 * @param kind {@link #KIND_BLOCK} or {@link #KIND_MEMORY}.
+		 * @return The new {@link Encoder}.
+		 * @throws IOException If the stream cannot be written.
+		 */
+		public static Encoder create(OutputStream out, int kind) throws IOException
+		{
+			return create(out, kind, false);
+		}
+
+		/** Creates an encoder and writes the file prologue.
+		 * @param out The {@link OutputStream} to write to, which should be buffered.
+		 * @param kind {@link #KIND_BLOCK} or {@link #KIND_MEMORY}.
+		 * @param indexed True, if an {@link OMMBinaryIndex} of header, owner and blocks is written by {@link #finish()}.
+		 * @return The new {@link Encoder}.
+		 * @throws IOException If the stream cannot be written.
+		 */
+		public static Encoder create(OutputStream out, int kind, boolean indexed) throws IOException
+		{
+			Encoder encoder = new Encoder(out);
+			if (indexed) encoder.m_index = new OMMBinaryIndex();
+			encoder.m_record.write(MAGIC);
+			encoder.m_record.write(VERSION);
+			encoder.m_record.write(kind);
+			encoder.flushRecord();
+			return encoder;
+		}
+
+		/** Creates an encoder appending blocks to an indexed file.
+		 * The stream has to write at {@link OMMBinaryIndex#getLength()}, behind the trailer of the old index, and {@link #finish()}
+		 * writes a new end record and the updated index. The blocks become visible to sequential readers when the old end record
+		 * is replaced by {@link #RECORD_CONTINUE}. Blocks with the ID of an indexed block replace it in the index.
+		 * @param out The {@link OutputStream} to write to, which should be buffered.
+		 * @param index The {@link OMMBinaryIndex} read from the file, which is updated.
+		 * @return The new {@link Encoder}.
+		 */
+		public static Encoder create(OutputStream out, OMMBinaryIndex index)
+		{
+			Encoder encoder = new Encoder(out);
+			encoder.m_index = index;
+			encoder.m_position = index.getLength();
+			index.setPreviousEndOffset(index.getEndOffset());
+			List<String> strings = index.getStrings();
+			for(int i = 0; i < strings.size(); i++) encoder.m_strings.put(strings.get(i), i);
+			return encoder;
+		}
+
+		/** Retrieves the number of bytes written so far.
+		 * @return The position in the output.
+		 */
+		public long getPosition()
+		{
+			return m_position;
+		}
+
+		/** Writes the header of a memory.
+		 * @param header The {@link OMMHeader} to write.
+		 * @throws IOException If the stream cannot be written.
+		 */
+		public void writeHeader(OMMHeader header) throws IOException
+		{
+			m_body.reset();
+			TypedValue primaryID = header.getPrimaryID();
+			writeRef(m_body, primaryID.getType());
+			writeString(m_body, primaryID.getValue().toString());
+			TypedValue additionalBlocks = header.getAdditionalBlocks();
+			writeRef(m_body, additionalBlocks == null ? null : additionalBlocks.getType());
+			writeString(m_body, additionalBlocks == null ? null : additionalBlocks.getValue().toString());
+			long position = writeFrame(RECORD_HEADER);
+			if (m_index != null) m_index.setHeaderOffset(checkOffset(position));
+		}
+
+		/** Writes the owner block of a memory with all its contents.
+		 * @param owner The owner {@link OMMBlock}.
+		 * @throws IOException If the stream cannot be written.
+		 */
+		public void writeOwner(OMMBlock owner) throws IOException
+		{
+			encodeBlock(owner, true, true, true, true, true, true, true, true, true);
+			long position = writeFrame(RECORD_OWNER);
+			if (m_index != null) m_index.setOwnerOffset(checkOffset(position));
+		}
+
+		/** Writes a block with all its contents.
+		 * @param block The {@link OMMBlock} to write.
+		 * @return The position of the block record in the output.
+		 * @throws IOException If the stream cannot be written.
+		 */
+		public long writeBlock(OMMBlock block) throws IOException
+		{
+			return writeBlock(block, true, true, true, true, true, true, true, true, true);
+		}
+
+		/** Writes a block with the selected contents, see {@link de.dfki.omm.impl.OMMFactory#saveBlockToBinary(OMMBlock, java.io.File, boolean, boolean, boolean, boolean, boolean, boolean, boolean, boolean, boolean)}.
+		 * @return The position of the block record in the output.
+		 * @throws IOException If the stream cannot be written.
+		 */
+		public long writeBlock(OMMBlock block,
+			boolean savePrimaryID, boolean saveNamespace, boolean saveType, boolean saveDescription,
+			boolean saveContributors, boolean saveFormat, boolean saveSubject, boolean savePayload,
+			boolean saveLink) throws IOException
+		{
+			encodeBlock(block, savePrimaryID, saveNamespace, saveType, saveDescription, saveContributors, saveFormat, saveSubject, savePayload, saveLink);
+			long position = writeFrame(RECORD_BLOCK);
+			if (m_index != null)
+			{
+				String namespace = (saveNamespace && block.getNamespace() != null) ? block.getNamespace().toString() : null;
+				m_index.putBlock(block.getID(), checkOffset(position), checkOffset(m_position - position), (int)m_crc.getValue(), namespace, block.getTitle());
+			}
+			return position;
+		}
+
+		/** Writes the end record, the index if requested, and flushes the stream, which is not closed.
+		 * @throws IOException If the stream cannot be written.
+		 */
+		public void finish() throws IOException
+		{
+			m_record.write(RECORD_END);
+			flushRecord();
+			if (m_index != null)
+			{
+				m_index.setEndOffset(checkOffset(m_position - 1));
+				String[] strings = new String[m_strings.size()];
+				for(Map.Entry<String, Integer> entry : m_strings.entrySet()) strings[entry.getValue()] = entry.getKey();
+				m_index.setStrings(new ArrayList<String>(Arrays.asList(strings)));
+
+				m_body.reset();
+				m_index.encode(m_body);
+				long position = writeFrame(RECORD_INDEX);
+				writeInt(m_record, checkOffset(position));
+				m_record.write(MAGIC);
+				flushRecord();
+				m_index.setLength(checkOffset(m_position));
+			}
+			m_out.flush();
+		}
+
+		/** Checks that a position can be stored in the index. */
+		protected int checkOffset(long position) throws IOException
+		{
+			if (position > Integer.MAX_VALUE - OMMBinaryIndex.TRAILER_LENGTH) throw new IOException("binary OMM data too large for a block index");
+			return (int)position;
+		}
+
+		/** Writes pending strings and the current body as frame.
+		 * @return The position of the frame record. */
+		protected long writeFrame(int record) throws IOException
+		{
+			if (!m_newStrings.isEmpty())
+			{
+				m_record.write(RECORD_STRINGS);
+				writeVarint(m_record, m_newStrings.size());
+				for(String s : m_newStrings) writeString(m_record, s);
+				m_newStrings.clear();
+			}
+			long position = m_position + m_record.size();
+
+			m_record.write(record);
+			writeVarint(m_record, m_body.size());
+			m_body.writeTo(m_record);
+			m_crc.reset();
+			m_crc.update(m_body.toByteArray());
+			writeInt(m_record, (int)m_crc.getValue());
+			flushRecord();
+			return position;
+		}
+
+		protected void flushRecord() throws IOException
+		{
+			m_record.writeTo(m_out);
+			m_position += m_record.size();
+			m_record.reset();
+		}
+
+		protected void encodeBlock(OMMBlock block,
+			boolean savePrimaryID, boolean saveNamespace, boolean saveType, boolean saveDescription,
+			boolean saveContributors, boolean saveFormat, boolean saveSubject, boolean savePayload,
+			boolean saveLink) throws IOException
+		{
+			m_body.reset();
+
+			// mandatory fields
+			writeString(m_field, block.getID());
+			endField(FIELD_ID);
+			writeText(block.getTitle());
+			endField(FIELD_TITLE);
+			writeEntity(m_field, block.getCreator());
+			endField(FIELD_CREATOR);
+
+			if (savePrimaryID && block.getPrimaryID() != null)
+			{
+				writeTypedValue(block.getPrimaryID());
+				endField(FIELD_PRIMARYID);
+			}
+			if (saveNamespace && block.getNamespace() != null)
+			{
+				writeRef(m_field, block.getNamespace().toString());
+				endField(FIELD_NAMESPACE);
+			}
+			if (saveType && block.getType() != null)
+			{
+				writeRef(m_field, block.getType().toString());
+				endField(FIELD_TYPE);
+			}
+			if (saveDescription && block.getDescription() != null)
+			{
+				writeText(block.getDescription());
+				endField(FIELD_DESCRIPTION);
+			}
+			if (saveContributors && block.getContributors() != null)
+			{
+				OMMEntityCollection contributors = block.getContributors();
+				writeVarint(m_field, contributors.size());
+				for(OMMEntity contributor : contributors) writeEntity(m_field, contributor);
+				endField(FIELD_CONTRIBUTORS);
+			}
+			if (saveFormat && block.getFormat() != null)
+			{
+				OMMFormat format = block.getFormat();
+				writeRef(m_field, format.getMIMEType());
+				writeRef(m_field, format.getSchema() == null ? null : format.getSchema().toString());
+				writeRef(m_field, format.getEncryption());
+				endField(FIELD_FORMAT);
+			}
+			if (saveSubject && block.getSubject() != null)
+			{
+				OMMSubjectCollection subject = block.getSubject();
+				writeVarint(m_field, subject.size());
+				for(OMMSubjectTag tag : subject) writeTag(tag);
+				endField(FIELD_SUBJECT);
+			}
+			if (savePayload && block.getPayload() != null)
+			{
+				writeTypedValue(block.getPayload());
+				endField(FIELD_PAYLOAD);
+			}
+			if (saveLink && block.getLink() != null)
+			{
+				writeTypedValue(block.getLink());
+				endField(FIELD_LINK);
+			}
+
+			m_body.write(FIELD_END);
+		}
+
+		/** Appends the current field to the body. */
+		protected void endField(int tag) throws IOException
+		{
+			m_body.write(tag);
+			writeVarint(m_body, m_field.size());
+			m_field.writeTo(m_body);
+			m_field.reset();
+		}
+
+		protected void writeText(OMMMultiLangText text) throws IOException
+		{
+			writeVarint(m_field, text == null ? 0 : text.size());
+			if (text == null) return;
+			for(Map.Entry<Locale, String> entry : text.entrySet())
+			{
+				writeRef(m_field, entry.getKey().toString());
+				writeString(m_field, entry.getValue());
+			}
+		}
+
+		protected void writeEntity(ByteArrayOutputStream out, OMMEntity entity) throws IOException
+		{
+			writeRef(out, entity == null ? null : entity.getType());
+			writeString(out, entity == null ? null : entity.getValue());
+			writeString(out, entity == null ? null : entity.getDateAsISO8601());
+		}
+
+		protected void writeTypedValue(TypedValue value) throws IOException
+		{
+			writeRef(m_field, value.getType());
+			writeString(m_field, value.getValue() == null ? null : value.getValue().toString());
+		}
+
+		protected void writeTag(OMMSubjectTag tag) throws IOException
+		{
+			writeRef(m_field, tag.getType().toString());
+			writeString(m_field, tag.getValue());
+			if (tag.getChild() == null) m_field.write(0);
+			else
+			{
+				m_field.write(1);
+				writeTag(tag.getChild());
+			}
+		}
+
+		/** Writes a reference to a string of the string table, adding the string if necessary. */
+		protected void writeRef(ByteArrayOutputStream out, String s)
+		{
+			if (s == null)
+			{
+				out.write(0);
+				return;
+			}
+			Integer index = m_strings.get(s);
+			if (index == null)
+			{
+				index = m_strings.size();
+				m_strings.put(s, index);
+				m_newStrings.add(s);
+			}
+			writeVarint(out, index + 1);
+		}
+	}
+
+	/** Reads blocks and memories in version 2 format from a buffer. */
+	public static class Decoder
+	{
+		protected ByteBuffer m_buffer;
+		protected int m_kind;
+		protected List<String> m_strings = new ArrayList<String>();
+		protected CRC32 m_crc = new CRC32();
+		protected byte[] m_chunk = null;
+		protected int m_frameChecksum = 0;
+
+		protected Decoder(ByteBuffer buffer)
+		{
+			m_buffer = buffer;
+		}
+
+		/** Creates a decoder and reads the file prologue.
+		 * @param buffer The {@link ByteBuffer} to read from its position on.
+		 * @return The new {@link Decoder}.
+		 * @throws IOException If the buffer does not contain a supported version.
+		 */
+		public static Decoder create(ByteBuffer buffer) throws IOException
+		{
+			Decoder decoder = new Decoder(buffer);
+			decoder.readPrologue();
+			return decoder;
+		}
+
+		/** Creates a decoder for random access to the records of an indexed file, see {@link #seek(int)}.
+		 * @param buffer The {@link ByteBuffer} containing the whole file from position 0 on, for example memory mapped.
+		 * @param index The {@link OMMBinaryIndex} of the file, whose string table is used.
+		 * @return The new {@link Decoder}.
+		 * @throws IOException If the buffer does not contain a supported version.
+		 */
+		public static Decoder create(ByteBuffer buffer, OMMBinaryIndex index) throws IOException
+		{
+			Decoder decoder = create(buffer);
+			decoder.m_strings.addAll(index.getStrings());
+			return decoder;
+		}
+
+		/** Creates a decoder reading from a channel through a reusable buffer, which grows only for frames larger than the buffer.
+		 * @param channel The {@link ReadableByteChannel} to read from.
+		 * @param buffer A heap buffer ready for reading, which may already contain the first bytes read from the channel.
+		 * @return The new {@link Decoder}.
+		 * @throws IOException If the channel cannot be read or does not contain a supported version.
+		 */
+		public static Decoder create(ReadableByteChannel channel, ByteBuffer buffer) throws IOException
+		{
+			Decoder decoder = new ChannelDecoder(channel, buffer);
+			decoder.readPrologue();
+			return decoder;
+		}
+
+		protected void readPrologue() throws IOException
+		{
+			fill(MAGIC.length + 2);
+			if (!isVersion2(m_buffer)) throw new IOException("no binary OMM data of version 2 or later");
+			m_buffer.position(m_buffer.position() + MAGIC.length);
+			int version = m_buffer.get() & 0xff;
+			if (version > VERSION) throw new IOException("unsupported binary OMM version " + version);
+			m_kind = m_buffer.get() & 0xff;
+		}
+
+		/** Makes the given number of bytes available in the buffer, if possible.
+		 * @param length The number of bytes needed.
+		 * @return True, if they are available.
+		 * @throws IOException If the source cannot be read.
+		 */
+		protected boolean fill(int length) throws IOException
+		{
+			return m_buffer.remaining() >= length;
+		}
+
+		/** Retrieves the kind of content.
+		 * @return {@link #KIND_BLOCK} or {@link #KIND_MEMORY}.
+		 */
+		public int getKind()
+		{
+			return m_kind;
+		}
+
+		/** Reads string records and returns the tag of the next frame record, whose content is read by {@link #readHeader()} or {@link #readBlock()}.
+		 * Continue records are followed to the appended records.
+		 * @return {@link #RECORD_HEADER}, {@link #RECORD_OWNER}, {@link #RECORD_BLOCK} or {@link #RECORD_END}, which is also returned at the end of the buffer.
+		 * @throws IOException For unknown records.
+		 */
+		public int nextRecord() throws IOException
+		{
+			while (fill(1))
+			{
+				int record = m_buffer.get() & 0xff;
+				if (record == RECORD_CONTINUE)
+				{
+					// skip the old index and its trailer
+					if (!fill(1) || (m_buffer.get() & 0xff) != RECORD_INDEX) throw new IOException("no index record behind continue record");
+					skipFrame();
+					if (!fill(OMMBinaryIndex.TRAILER_LENGTH)) throw new IOException("truncated trailer");
+					m_buffer.position(m_buffer.position() + OMMBinaryIndex.TRAILER_LENGTH);
+					continue;
+				}
+				if (record != RECORD_STRINGS)
+				{
+					if (record > RECORD_BLOCK) throw new IOException("unknown record " + record);
+					return record;
+				}
+				int count = readRecordVarint();
+				for(int i = 0; i < count; i++)
+				{
+					int length = readRecordVarint() - 1;
+					if (length >= 0 && !fill(length)) throw new IOException("truncated string");
+					m_strings.add(length < 0 ? null : decodeString(m_buffer, length));
+				}
+			}
+			return RECORD_END;
+		}
+
+		/** Moves to a record of a decoder created by {@link #create(ByteBuffer, OMMBinaryIndex)}, whose content is read by {@link #readHeader()} or {@link #readBlock()}.
+		 * @param position The position of the record, as stored in the index.
+		 * @return The tag of the record.
+		 * @throws IOException If the position is outside of the buffer.
+		 */
+		public int seek(int position) throws IOException
+		{
+			if (position < 0 || position >= m_buffer.limit()) throw new IOException("invalid record position " + position);
+			m_buffer.position(position);
+			return m_buffer.get() & 0xff;
+		}
+
+		/** Retrieves the CRC32 of the body of the frame read last, which can be compared with {@link OMMBinaryIndex#getBlockChecksum(int)}.
+		 * @return The checksum.
+		 */
+		public int getFrameChecksum()
+		{
+			return m_frameChecksum;
+		}
+
+		/** Reads a header frame.
+		 * @return The {@link OMMHeader}.
+		 * @throws IOException If the frame is damaged.
+		 */
+		public OMMHeader readHeader() throws IOException
+		{
+			return decodeHeader(readFrame());
+		}
+
+		/** Reads an owner or block frame.
+		 * @return The {@link OMMBlock}.
+		 * @throws IOException If the frame is damaged.
+		 */
+		public OMMBlock readBlock() throws IOException
+		{
+			return decodeBlock(readFrame());
+		}
+
+		/** Reads a frame and checks its CRC.
+		 * @return The body as buffer. */
+		protected ByteBuffer readFrame() throws IOException
+		{
+			int length = readRecordVarint();
+			if (length < 0 || !fill(length + 4)) throw new IOException("truncated frame");
+
+			ByteBuffer body = m_buffer.slice();
+			body.limit(length);
+			m_buffer.position(m_buffer.position() + length);
+			int crc = m_buffer.getInt();
+			if (crc != checksum(body)) throw new IOException("checksum mismatch");
+			m_frameChecksum = crc;
+			return body;
+		}
+
+		/** Skips a frame without checking its CRC. */
+		protected void skipFrame() throws IOException
+		{
+			int length = readRecordVarint();
+			if (length < 0 || !fill(length + 4)) throw new IOException("truncated frame");
+			m_buffer.position(m_buffer.position() + length + 4);
+		}
+
+		/** Reads a varint of a record, filling the buffer as far as needed.
+		 * @return The value.
+		 * @throws IOException If the data ends within the varint.
+		 */
+		protected int readRecordVarint() throws IOException
+		{
+			// a varint at the end of the data may be shorter than five bytes, but has to end before it
+			if (!fill(5))
+			{
+				int position = m_buffer.position();
+				while (position < m_buffer.limit() && (m_buffer.get(position) & 0x80) != 0) position++;
+				if (position == m_buffer.limit()) throw new IOException("truncated record");
+			}
+			return readVarint(m_buffer);
+		}
+
+		/** Computes the CRC32 of the remaining content of a buffer, without changing its position. */
+		protected int checksum(ByteBuffer body)
+		{
+			m_crc.reset();
+			if (body.hasArray())
+			{
+				m_crc.update(body.array(), body.arrayOffset() + body.position(), body.remaining());
+			}
+			else
+			{
+				if (m_chunk == null) m_chunk = new byte[8192];
+				ByteBuffer copy = body.duplicate();
+				while (copy.hasRemaining())
+				{
+					int n = Math.min(m_chunk.length, copy.remaining());
+					copy.get(m_chunk, 0, n);
+					m_crc.update(m_chunk, 0, n);
+				}
+			}
+			return (int)m_crc.getValue();
+		}
+
+		protected OMMHeader decodeHeader(ByteBuffer body) throws IOException
+		{
+			String type = readRef(body);
+			String value = readString(body);
+			TypedValue primaryID = new GenericTypedValue(type, value);
+			type = readRef(body);
+			value = readString(body);
+			TypedValue additionalBlocks = null;
+			if (type != null && value != null && value.length() > 0) additionalBlocks = new GenericTypedValue(type, value);
+			return OMMHeaderImpl.create(primaryID, additionalBlocks);
+		}
+
+		protected OMMBlock decodeBlock(ByteBuffer body) throws IOException
+		{
+			String id = null;
+			TypedValue primaryID = null;
+			URI namespace = null;
+			URL type = null;
+			OMMMultiLangText title = null;
+			OMMMultiLangText description = null;
+			OMMEntityCollection contributors = null;
+			OMMEntity creator = null;
+			OMMFormat format = null;
+			OMMSubjectCollection subject = null;
+			TypedValue payload = null;
+			TypedValue link = null;
+
+			try
+			{
+				int field;
+				while ((field = body.get() & 0xff) != FIELD_END)
+				{
+					int length = readVarint(body);
+					int end = body.position() + length;
+					switch (field)
+					{
+						case FIELD_ID:
+							id = readString(body);
+							break;
+						case FIELD_TITLE:
+							title = readText(body);
+							break;
+						case FIELD_CREATOR:
+							creator = readEntity(body);
+							break;
+						case FIELD_PRIMARYID:
+							primaryID = readTypedValue(body);
+							break;
+						case FIELD_NAMESPACE:
+							namespace = new URI(readRef(body));
+							break;
+						case FIELD_TYPE:
+							type = new URL(readRef(body));
+							break;
+						case FIELD_DESCRIPTION:
+							description = readText(body);
+							break;
+						case FIELD_CONTRIBUTORS:
+							contributors = new OMMEntityCollection();
+							for(int i = readVarint(body); i > 0; i--) contributors.add(readEntity(body));
+							break;
+						case FIELD_FORMAT:
+							String mimeType = readRef(body);
+							String schema = readRef(body);
+							String encryption = readRef(body);
+							format = new OMMFormat(mimeType, schema == null ? null : new URL(schema), encryption);
+							break;
+						case FIELD_SUBJECT:
+							subject = new OMMSubjectCollection();
+							for(int i = readVarint(body); i > 0; i--) subject.add(readTag(body));
+							break;
+						case FIELD_PAYLOAD:
+							payload = readTypedValue(body);
+							break;
+						case FIELD_LINK:
+							link = readTypedValue(body);
+							break;
+						default:
+							// field of a later version
+							break;
+					}
+					body.position(end);
+				}
+			}
+			catch(IOException e) { throw e; }
+			catch(Exception e) { throw new IOException("invalid block " + id, e); }
+
+			return OMMBlockImpl.create(id, primaryID, namespace, type, title, description, contributors,
+					creator, format, subject, payload, null, link, null);
+		}
+
+		protected OMMMultiLangText readText(ByteBuffer body) throws IOException
+		{
+			OMMMultiLangText text = new OMMMultiLangText();
+			for(int i = readVarint(body); i > 0; i--)
+			{
+				Locale locale = new Locale(readRef(body));
+				text.put(locale, readString(body));
+			}
+			return text;
+		}
+
+		protected OMMEntity readEntity(ByteBuffer body) throws IOException
+		{
+			String type = readRef(body);
+			String value = readString(body);
+			String date = readString(body);
+			if (type == null && value == null) return null;
+			return new OMMEntity(type, value, date);
+		}
+
+		protected TypedValue readTypedValue(ByteBuffer body) throws IOException
+		{
+			String type = readRef(body);
+			return new GenericTypedValue(type, readString(body));
+		}
+
+		protected OMMSubjectTag readTag(ByteBuffer body) throws IOException
+		{
+			OMMSubjectTagType type = OMMSubjectTagType.valueOf(readRef(body));
+			String text = readString(body);
+			OMMSubjectTag child = body.get() != 0 ? readTag(body) : null;
+			return new OMMSubjectTag(type, text, child);
+		}
+
+		/** Reads a string, decoding strings of direct buffers through a reusable array. */
+		protected String readString(ByteBuffer body) throws IOException
+		{
+			if (body.hasArray()) return OMMBinaryFormat.readString(body);
+			int length = readVarint(body) - 1;
+			if (length < 0) return null;
+			if (length > body.remaining()) throw new IOException("truncated string");
+			if (m_chunk == null || m_chunk.length < length) m_chunk = new byte[Math.max(length, 8192)];
+			body.get(m_chunk, 0, length);
+			return new String(m_chunk, 0, length, StandardCharsets.UTF_8);
+		}
+
+		protected String readRef(ByteBuffer body) throws IOException
+		{
+			int ref = readVarint(body);
+			if (ref == 0) return null;
+			if (ref > m_strings.size()) throw new IOException("unknown string " + ref);
+			return m_strings.get(ref - 1);
+		}
+	}
+
+	/** Decoder reading from a channel, see {@link Decoder#create(ReadableByteChannel, ByteBuffer)}. */
+	protected static class ChannelDecoder extends Decoder
+	{
+		protected ReadableByteChannel m_channel;
+		protected boolean m_eof = false;
+
+		protected ChannelDecoder(ReadableByteChannel channel, ByteBuffer buffer)
+		{
+			super(buffer);
+			m_channel = channel;
+		}
+
+		/* (non-Javadoc)
+		 * @see de.dfki.omm.tools.OMMBinaryFormat.Decoder#fill(int)
+		 */
+		@Override
+		protected boolean fill(int length) throws IOException
+		{
+			if (m_buffer.remaining() >= length) return true;
+			if (m_eof) return false;
+
+			if (length > m_buffer.capacity())
+			{
+				ByteBuffer larger = ByteBuffer.allocate(Math.max(length, m_buffer.capacity() * 2));
+				larger.put(m_buffer);
+				m_buffer = larger;
+			}
+			else m_buffer.compact();
+
+			while (m_buffer.position() < length)
+			{
+				if (m_channel.read(m_buffer) < 0)
+				{
+					m_eof = true;
+					break;
+				}
+			}
+			m_buffer.flip();
+			return m_buffer.remaining() >= length;
+		}
+	}
+
+	// helper methods
+
+	/** Writes an unsigned varint, 7 bits per byte with the least significant group first.
+	 * @param out The stream to write to.
+	 * @param value The non-negative value.
+	 */
+	public static void writeVarint(ByteArrayOutputStream out, int value)
+	{
+		while ((value & ~0x7f) != 0)
+		{
+			out.write((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		out.write(value);
+	}
+
+	/** Reads an unsigned varint written by {@link #writeVarint(ByteArrayOutputStream, int)}.
+	 * @param buffer The buffer to read from.
+	 * @return The value.
+	 * @throws IOException If the varint is longer than five bytes or ends with the buffer.
+	 */
+	public static int readVarint(ByteBuffer buffer) throws IOException
+	{
+		int value = 0;
+		for(int shift = 0; shift < 35; shift += 7)
+		{
+			if (!buffer.hasRemaining()) throw new IOException("truncated varint");
+			int b = buffer.get();
+			value |= (b & 0x7f) << shift;
+			if ((b & 0x80) == 0) return value;
+		}
+		throw new IOException("malformed varint");
+	}
+
+	/** Writes a nullable string as UTF-8 byte count plus one and its bytes. */
+	protected static void writeString(ByteArrayOutputStream out, String s)
+	{
+		if (s == null)
+		{
+			out.write(0);
+			return;
+		}
+		byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+		writeVarint(out, bytes.length + 1);
+		out.write(bytes, 0, bytes.length);
+	}
+
+	/** Reads a string written by {@link #writeString(ByteArrayOutputStream, String)}. */
+	protected static String readString(ByteBuffer buffer) throws IOException
+	{
+		int length = readVarint(buffer) - 1;
+		if (length < 0) return null;
+		if (length > buffer.remaining()) throw new IOException("truncated string");
+		return decodeString(buffer, length);
+	}
+
+	/** Decodes the given number of UTF-8 bytes of a buffer. */
+	protected static String decodeString(ByteBuffer buffer, int length)
+	{
+		if (buffer.hasArray())
+		{
+			String s = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+			buffer.position(buffer.position() + length);
+			return s;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	protected static void writeInt(ByteArrayOutputStream out, int value)
+	{
+		out.write(value >>> 24);
+		out.write(value >>> 16);
+		out.write(value >>> 8);
+		out.write(value);
+	}
+}
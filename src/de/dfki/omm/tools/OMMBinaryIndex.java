@@ -0,0 +1,371 @@
+package de.dfki.omm.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import de.dfki.omm.types.OMMMultiLangText;
+
+/** Block offset table of a binary memory file, which allows to read single blocks without decoding the blocks before them.
+ * <p>The index is written by {@link OMMBinaryFormat.Encoder#create(java.io.OutputStream, int, boolean)} behind the end record
+ * as a {@link OMMBinaryFormat#RECORD_INDEX} frame, followed by a trailer of {@link #TRAILER_LENGTH} bytes: the position of the index
+ * record as four byte integer and {@link OMMBinaryFormat#MAGIC}. Readers which decode the file sequentially stop at the end record.</p>
+ * <p>The index contains the complete string table of the file, the positions of header and owner and, for every block, its ID,
+ * the position and length of its record, the CRC32 of its body, its namespace and its titles. As positions are stored as integers,
+ * indexed files are limited to 2 GB.</p>
+ * <p>New blocks are appended behind the trailer, followed by a new end record, index and trailer, see
+ * {@link OMMBinaryFormat.Encoder#create(java.io.OutputStream, OMMBinaryIndex)}. The append is committed by replacing the old end record
+ * with a single {@link OMMBinaryFormat#RECORD_CONTINUE} byte, whose position is stored in the new index. Until then, and if the trailer
+ * or the index at the end of the file are incomplete after an interrupted append, the index of the last committed append is recovered
+ * by following the records from the start of the file to the end record.</p>
+ */
+public class OMMBinaryIndex
+{
+	/** Length of the trailer at the end of an indexed file. */
+	public static final int TRAILER_LENGTH = 4 + OMMBinaryFormat.MAGIC.length;
+
+	private List<String> m_strings = new ArrayList<String>();
+	private int m_headerOffset = -1;
+	private int m_ownerOffset = -1;
+	private int m_endOffset = -1;
+	private int m_previousEndOffset = -1;
+	private int m_length = -1;
+	private ArrayList<Entry> m_entries = new ArrayList<Entry>();
+	private HashMap<String, Integer> m_positions = new HashMap<String, Integer>();
+
+	/** Creates an empty index, which is filled by the {@link OMMBinaryFormat.Encoder}. */
+	public OMMBinaryIndex() {}
+
+	/** Reads the index of a complete file.
+	 * @param data The content of the file from position 0 on, for example memory mapped.
+	 * @return The {@link OMMBinaryIndex}, or null if the file has no index.
+	 * @throws IOException If the index is damaged.
+	 */
+	public static OMMBinaryIndex read(ByteBuffer data) throws IOException
+	{
+		IOException damage = null;
+		try
+		{
+			int position = readTrailer(data, data.limit() - TRAILER_LENGTH, data.limit());
+			if (position >= 0)
+			{
+				ByteBuffer record = data.duplicate();
+				record.limit(data.limit() - TRAILER_LENGTH);
+				record.position(position);
+				OMMBinaryIndex index = decode(record.slice(), position);
+				index.m_length = data.limit();
+				if (index.m_previousEndOffset < 0 || data.get(index.m_previousEndOffset) == OMMBinaryFormat.RECORD_CONTINUE) return index;
+			}
+		}
+		catch(IOException e) { damage = e; }
+
+		OMMBinaryIndex index = recover(data);
+		if (index == null && damage != null) throw damage;
+		return index;
+	}
+
+	/** Reads the index of a file without mapping the whole file.
+	 * @param channel The {@link FileChannel} of the file, whose position is not changed.
+	 * @return The {@link OMMBinaryIndex}, or null if the file has no index.
+	 * @throws IOException If the file cannot be read or the index is damaged.
+	 */
+	public static OMMBinaryIndex read(FileChannel channel) throws IOException
+	{
+		long size = channel.size();
+		if (size < TRAILER_LENGTH || size > Integer.MAX_VALUE) return null;
+
+		IOException damage = null;
+		try
+		{
+			ByteBuffer trailer = readFully(channel, size - TRAILER_LENGTH, TRAILER_LENGTH);
+			int position = readTrailer(trailer, 0, size);
+			if (position >= 0)
+			{
+				OMMBinaryIndex index = decode(readFully(channel, position, (int)size - TRAILER_LENGTH - position), position);
+				index.m_length = (int)size;
+				if (index.m_previousEndOffset < 0 || readFully(channel, index.m_previousEndOffset, 1).get() == OMMBinaryFormat.RECORD_CONTINUE) return index;
+			}
+		}
+		catch(IOException e) { damage = e; }
+
+		// the whole file is read only if it has no index or the last append was not committed
+		OMMBinaryIndex index = recover(readFully(channel, 0, (int)size));
+		if (index == null && damage != null) throw damage;
+		return index;
+	}
+
+	/** Recovers the index of the last committed append, which directly follows the end record reached by decoding the file sequentially.
+	 * @return The {@link OMMBinaryIndex}, or null if there is no index behind the end record.
+	 */
+	private static OMMBinaryIndex recover(ByteBuffer data) throws IOException
+	{
+		ByteBuffer buffer = data.duplicate();
+		buffer.position(0);
+		if (!OMMBinaryFormat.isVersion2(buffer)) return null;
+
+		OMMBinaryFormat.Decoder decoder = OMMBinaryFormat.Decoder.create(buffer);
+		while (decoder.nextRecord() != OMMBinaryFormat.RECORD_END) decoder.skipFrame();
+		int position = buffer.position();
+		if (!buffer.hasRemaining() || buffer.get(position - 1) != OMMBinaryFormat.RECORD_END) return null;
+
+		ByteBuffer record = buffer.slice();
+		OMMBinaryIndex index = decode(record, position);
+		int trailer = position + record.position();
+		if (readTrailer(buffer, trailer, buffer.limit()) != position) throw new IOException("no trailer behind index record at " + position);
+		index.m_length = trailer + TRAILER_LENGTH;
+		return index;
+	}
+
+	/** Retrieves the position of the index record from the trailer, or -1 if there is no trailer. */
+	private static int readTrailer(ByteBuffer data, int start, long size) throws IOException
+	{
+		if (start < 0 || start + TRAILER_LENGTH > data.limit()) return -1;
+		for(int i = 0; i < OMMBinaryFormat.MAGIC.length; i++)
+		{
+			if (data.get(start + 4 + i) != OMMBinaryFormat.MAGIC[i]) return -1;
+		}
+		int position = data.getInt(start);
+		if (position <= OMMBinaryFormat.MAGIC.length + 2 || position >= size - TRAILER_LENGTH) throw new IOException("invalid index position " + position);
+		return position;
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining())
+		{
+			if (channel.read(buffer, position + buffer.position()) < 0) throw new IOException("truncated index");
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/** Decodes the index record, which directly follows the end record. */
+	private static OMMBinaryIndex decode(ByteBuffer record, int position) throws IOException
+	{
+		if (!record.hasRemaining() || (record.get() & 0xff) != OMMBinaryFormat.RECORD_INDEX) throw new IOException("no index record at " + position);
+		ByteBuffer body = new OMMBinaryFormat.Decoder(record).readFrame();
+
+		OMMBinaryIndex index = new OMMBinaryIndex();
+		index.m_endOffset = position - 1;
+		try
+		{
+			index.m_headerOffset = OMMBinaryFormat.readVarint(body) - 1;
+			index.m_ownerOffset = OMMBinaryFormat.readVarint(body) - 1;
+			int count = OMMBinaryFormat.readVarint(body);
+			for(int i = 0; i < count; i++) index.m_strings.add(OMMBinaryFormat.readString(body));
+
+			count = OMMBinaryFormat.readVarint(body);
+			for(int i = 0; i < count; i++)
+			{
+				Entry entry = new Entry();
+				entry.id = OMMBinaryFormat.readString(body);
+				entry.offset = OMMBinaryFormat.readVarint(body);
+				entry.length = OMMBinaryFormat.readVarint(body);
+				entry.checksum = body.getInt();
+				entry.namespace = index.readRef(body);
+				entry.title = new OMMMultiLangText();
+				for(int k = OMMBinaryFormat.readVarint(body); k > 0; k--)
+				{
+					Locale locale = new Locale(index.readRef(body));
+					entry.title.put(locale, OMMBinaryFormat.readString(body));
+				}
+				if (entry.offset + entry.length > index.m_endOffset) throw new IOException("invalid offset of block " + entry.id);
+				index.put(entry);
+			}
+			if (body.hasRemaining()) index.m_previousEndOffset = OMMBinaryFormat.readVarint(body) - 1;
+			if (index.m_previousEndOffset >= index.m_endOffset) throw new IOException("invalid position of the previous end record");
+		}
+		catch(RuntimeException e) { throw new IOException("invalid index", e); }
+		return index;
+	}
+
+	/** Encodes the index as body of the index record.
+	 * @param out The stream to write to.
+	 */
+	void encode(ByteArrayOutputStream out)
+	{
+		OMMBinaryFormat.writeVarint(out, m_headerOffset + 1);
+		OMMBinaryFormat.writeVarint(out, m_ownerOffset + 1);
+		OMMBinaryFormat.writeVarint(out, m_strings.size());
+		for(String s : m_strings) OMMBinaryFormat.writeString(out, s);
+
+		HashMap<String, Integer> refs = new HashMap<String, Integer>();
+		for(int i = 0; i < m_strings.size(); i++) refs.put(m_strings.get(i), i);
+		OMMBinaryFormat.writeVarint(out, m_entries.size());
+		for(Entry entry : m_entries)
+		{
+			OMMBinaryFormat.writeString(out, entry.id);
+			OMMBinaryFormat.writeVarint(out, entry.offset);
+			OMMBinaryFormat.writeVarint(out, entry.length);
+			OMMBinaryFormat.writeInt(out, entry.checksum);
+			writeRef(out, refs, entry.namespace);
+			OMMBinaryFormat.writeVarint(out, entry.title == null ? 0 : entry.title.size());
+			if (entry.title == null) continue;
+			for(Map.Entry<Locale, String> title : entry.title.entrySet())
+			{
+				writeRef(out, refs, title.getKey().toString());
+				OMMBinaryFormat.writeString(out, title.getValue());
+			}
+		}
+		OMMBinaryFormat.writeVarint(out, m_previousEndOffset + 1);
+	}
+
+	/** Writes a reference to a string of the table, which contains all namespaces and locales written by the encoder. */
+	private static void writeRef(ByteArrayOutputStream out, Map<String, Integer> refs, String s)
+	{
+		Integer index = (s == null) ? null : refs.get(s);
+		OMMBinaryFormat.writeVarint(out, index == null ? 0 : index + 1);
+	}
+
+	private String readRef(ByteBuffer body) throws IOException
+	{
+		int ref = OMMBinaryFormat.readVarint(body);
+		if (ref == 0) return null;
+		if (ref > m_strings.size()) throw new IOException("unknown string " + ref);
+		return m_strings.get(ref - 1);
+	}
+
+	/** Adds an entry or replaces the entry of a block with the same ID, keeping its place. */
+	private void put(Entry entry)
+	{
+		Integer position = m_positions.get(entry.id);
+		if (position != null)
+		{
+			m_entries.set(position, entry);
+			return;
+		}
+		m_positions.put(entry.id, m_entries.size());
+		m_entries.add(entry);
+	}
+
+	/** Adds a block written by the encoder, replacing the entry of an earlier block with the same ID.
+	 * @param id The ID of the block.
+	 * @param offset The position of the block record.
+	 * @param length The length of the block record.
+	 * @param checksum The CRC32 of the block body.
+	 * @param namespace The namespace of the block, which has to be in the string table.
+	 * @param title The titles of the block, whose locales have to be in the string table.
+	 */
+	void putBlock(String id, int offset, int length, int checksum, String namespace, OMMMultiLangText title)
+	{
+		Entry entry = new Entry();
+		entry.id = id;
+		entry.offset = offset;
+		entry.length = length;
+		entry.checksum = checksum;
+		entry.namespace = namespace;
+		entry.title = title;
+		put(entry);
+	}
+
+	void setStrings(List<String> strings) { m_strings = strings; }
+
+	void setHeaderOffset(int offset) { m_headerOffset = offset; }
+
+	void setOwnerOffset(int offset) { m_ownerOffset = offset; }
+
+	void setEndOffset(int offset) { m_endOffset = offset; }
+
+	void setPreviousEndOffset(int offset) { m_previousEndOffset = offset; }
+
+	void setLength(int length) { m_length = length; }
+
+	/** Retrieves the string table of the file, which is needed to decode single records.
+	 * @return The strings in the order of their references.
+	 */
+	public List<String> getStrings() { return Collections.unmodifiableList(m_strings); }
+
+	/** Retrieves the position of the header record.
+	 * @return The position, or -1 if the file has no header.
+	 */
+	public int getHeaderOffset() { return m_headerOffset; }
+
+	/** Retrieves the position of the owner record.
+	 * @return The position, or -1 if the file has no owner.
+	 */
+	public int getOwnerOffset() { return m_ownerOffset; }
+
+	/** Retrieves the position of the end record, which is replaced by a continue record when blocks are appended.
+	 * @return The position, or -1 for an index which has not been written or read.
+	 */
+	public int getEndOffset() { return m_endOffset; }
+
+	/** Retrieves the position of the end record which has to be replaced by a continue record to commit the blocks appended last.
+	 * @return The position, or -1 if no blocks have been appended.
+	 */
+	public int getPreviousEndOffset() { return m_previousEndOffset; }
+
+	/** Retrieves the length of the file up to the trailer of the index. Data behind it is left by an interrupted append.
+	 * @return The length, or -1 for an index which has not been written or read.
+	 */
+	public int getLength() { return m_length; }
+
+	/** Retrieves the number of blocks.
+	 * @return The number of blocks.
+	 */
+	public int getBlockCount() { return m_entries.size(); }
+
+	/** Retrieves the number of a block.
+	 * @param id The ID of the block.
+	 * @return The number of the block, or -1 if there is no such block.
+	 */
+	public int indexOf(String id)
+	{
+		Integer position = m_positions.get(id);
+		return (position == null) ? -1 : position;
+	}
+
+	/** Retrieves the ID of a block.
+	 * @param block The number of the block.
+	 * @return The ID.
+	 */
+	public String getBlockID(int block) { return m_entries.get(block).id; }
+
+	/** Retrieves the position of the record of a block.
+	 * @param block The number of the block.
+	 * @return The position in the file.
+	 */
+	public int getBlockOffset(int block) { return m_entries.get(block).offset; }
+
+	/** Retrieves the length of the record of a block.
+	 * @param block The number of the block.
+	 * @return The length of tag, frame and checksum.
+	 */
+	public int getBlockLength(int block) { return m_entries.get(block).length; }
+
+	/** Retrieves the CRC32 of the body of a block, which is compared to the checksum of the record read.
+	 * @param block The number of the block.
+	 * @return The checksum.
+	 */
+	public int getBlockChecksum(int block) { return m_entries.get(block).checksum; }
+
+	/** Retrieves the namespace of a block.
+	 * @param block The number of the block.
+	 * @return The namespace, or null.
+	 */
+	public String getBlockNamespace(int block) { return m_entries.get(block).namespace; }
+
+	/** Retrieves the titles of a block.
+	 * @param block The number of the block.
+	 * @return The titles.
+	 */
+	public OMMMultiLangText getBlockTitle(int block) { return m_entries.get(block).title; }
+
+	private static class Entry
+	{
+		String id;
+		int offset;
+		int length;
+		int checksum;
+		String namespace;
+		OMMMultiLangText title;
+	}
+}
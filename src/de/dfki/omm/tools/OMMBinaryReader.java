@@ -0,0 +1,179 @@
+package de.dfki.omm.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMFactory;
+import de.dfki.omm.impl.OMMHeaderImpl;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.types.GenericTypedValue;
+import de.dfki.omm.types.TypedValue;
+
+/** Reads binary block and memory files, handing header, owner and blocks to a {@link Consumer} as soon as they are decoded.
+ * Files in version 2 of the format (see {@link OMMBinaryFormat}) are read through a small reusable buffer, or memory mapped
+ * if they are not compressed; files in version 1 are read completely before decoding. */
+public class OMMBinaryReader
+{
+	/** Size of the buffer used to read from channels. */
+	public static int BUFFER_SIZE = 65536;
+
+	/** Receives the parts of binary files in the order they are read. */
+	public interface Consumer
+	{
+		/** Called for the header of a memory.
+		 * @param header The read {@link OMMHeader}.
+		 */
+		void headerRead(OMMHeader header);
+
+		/** Called for the owner block of a memory.
+		 * @param owner The read owner {@link OMMBlock}.
+		 */
+		void ownerRead(OMMBlock owner);
+
+		/** Called for each block.
+		 * @param block The read {@link OMMBlock}.
+		 */
+		void blockRead(OMMBlock block);
+	}
+
+	private OMMBinaryReader() {}
+
+	/** Reads a binary file, which may be compressed with GZIP.
+	 * @param file The {@link File} to read.
+	 * @param kind {@link OMMBinaryFormat#KIND_BLOCK} or {@link OMMBinaryFormat#KIND_MEMORY}, needed for files in version 1 only.
+	 * @param consumer The {@link Consumer} to hand the content to.
+	 * @throws IOException If the file cannot be read or is damaged.
+	 */
+	public static void read(File file, int kind, Consumer consumer) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			ByteBuffer start = ByteBuffer.allocate(2);
+			channel.read(start, 0);
+			if (start.position() == 2 && (start.get(0) & 0xff) == 0x1f && (start.get(1) & 0xff) == 0x8b)
+			{
+				InputStream in = new GZIPInputStream(new FileInputStream(file), BUFFER_SIZE);
+				try
+				{
+					read(Channels.newChannel(in), kind, consumer);
+				}
+				finally { in.close(); }
+			}
+			else
+			{
+				read(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), kind, consumer);
+			}
+		}
+		finally { raf.close(); }
+	}
+
+	/** Reads binary data from a channel, which is not closed.
+	 * @param channel The {@link ReadableByteChannel} to read from.
+	 * @param kind {@link OMMBinaryFormat#KIND_BLOCK} or {@link OMMBinaryFormat#KIND_MEMORY}, needed for data in version 1 only.
+	 * @param consumer The {@link Consumer} to hand the content to.
+	 * @throws IOException If the channel cannot be read or the data is damaged.
+	 */
+	public static void read(ReadableByteChannel channel, int kind, Consumer consumer) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		while (buffer.position() < OMMBinaryFormat.MAGIC.length && channel.read(buffer) >= 0);
+		buffer.flip();
+
+		if (OMMBinaryFormat.isVersion2(buffer))
+		{
+			read(OMMBinaryFormat.Decoder.create(channel, buffer), consumer);
+			return;
+		}
+
+		// version 1 cannot be decoded in parts
+		ByteArrayOutputStream data = new ByteArrayOutputStream(BUFFER_SIZE);
+		while (true)
+		{
+			data.write(buffer.array(), buffer.position(), buffer.remaining());
+			buffer.clear();
+			if (channel.read(buffer) < 0) break;
+			buffer.flip();
+		}
+		readVersion1(ByteBuffer.wrap(data.toByteArray()), kind, consumer);
+	}
+
+	/** Reads binary data from a buffer, for example a memory mapped file.
+	 * @param buffer The {@link ByteBuffer} to read from its position on.
+	 * @param kind {@link OMMBinaryFormat#KIND_BLOCK} or {@link OMMBinaryFormat#KIND_MEMORY}, needed for data in version 1 only.
+	 * @param consumer The {@link Consumer} to hand the content to.
+	 * @throws IOException If the data is damaged.
+	 */
+	public static void read(ByteBuffer buffer, int kind, Consumer consumer) throws IOException
+	{
+		if (OMMBinaryFormat.isVersion2(buffer)) read(OMMBinaryFormat.Decoder.create(buffer), consumer);
+		else readVersion1(buffer, kind, consumer);
+	}
+
+	/** Hands all records of a decoder to a consumer. */
+	protected static void read(OMMBinaryFormat.Decoder decoder, Consumer consumer) throws IOException
+	{
+		int record;
+		while ((record = decoder.nextRecord()) != OMMBinaryFormat.RECORD_END)
+		{
+			if (record == OMMBinaryFormat.RECORD_HEADER) consumer.headerRead(decoder.readHeader());
+			else if (record == OMMBinaryFormat.RECORD_OWNER) consumer.ownerRead(decoder.readBlock());
+			else consumer.blockRead(decoder.readBlock());
+		}
+	}
+
+	/** Reads data in version 1 of the format, which has neither prologue nor checksums. */
+	protected static void readVersion1(ByteBuffer byteBuffer, int kind, Consumer consumer) throws IOException
+	{
+		try
+		{
+			if (kind == OMMBinaryFormat.KIND_BLOCK)
+			{
+				consumer.blockRead(OMMBlockImpl.createFromBinary(byteBuffer));
+				return;
+			}
+
+			// read header
+			String type = nextString(byteBuffer);
+			String value = nextString(byteBuffer);
+			TypedValue primaryId = new GenericTypedValue(type, value);
+			type = nextString(byteBuffer);
+			TypedValue additionalBlocks = null;
+			if (type.length() > 0)
+			{
+				value = nextString(byteBuffer);
+				if (value.length() > 0) additionalBlocks = new GenericTypedValue(type, value);
+			}
+			consumer.headerRead(OMMHeaderImpl.create(primaryId, additionalBlocks));
+
+			// read owner
+			if (nextString(byteBuffer).length() > 0) consumer.ownerRead(OMMBlockImpl.createFromBinary(byteBuffer));
+
+			// read memory blocks
+			int blockNumber = byteBuffer.getInt();
+			for(int i = 0; i < blockNumber; i++)
+			{
+				consumer.blockRead(OMMBlockImpl.createFromBinary(byteBuffer));
+			}
+		}
+		catch(RuntimeException e) { throw new IOException("invalid binary OMM data of version 1", e); }
+	}
+
+	private static String nextString(ByteBuffer byteBuffer)
+	{
+		return new String(OMMFactory.getNextDataFromBinary(byteBuffer), StandardCharsets.UTF_8);
+	}
+}
@@ -3,6 +3,7 @@ package de.dfki.omm.tools;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.util.EnumSet;
 import java.util.Locale;
 import java.util.Stack;
 
@@ -15,6 +16,7 @@ import de.dfki.omm.impl.OMMBlockImpl;
 import de.dfki.omm.types.OMMEntity;
 import de.dfki.omm.types.OMMEntityCollection;
 import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMetaAttribute;
 import de.dfki.omm.types.OMMMultiLangText;
 import de.dfki.omm.types.OMMPreviousBlockLink;
 import de.dfki.omm.types.OMMSubjectCollection;
@@ -34,10 +36,11 @@ public class OMMBlockSaxHandler extends DefaultHandler
 	protected OMMBlockSaxHandlerMode mode = OMMBlockSaxHandlerMode.Main;
 	protected Boolean currentElement = false;
 	protected String currentValue = "";
+	protected StringBuilder text = new StringBuilder();
 	protected String blockID = null;
 	protected  OMMBlockImpl block = null;
     
-	protected String xmlLang = null, ommType = null, previousBlockType = null, ommEncoding = null, ommSchema = null, ommDate = null, ommValue = null;
+	protected String xmlLang = null, ommType = null, previousBlockType = null, ommEncoding = null, ommSchema = null, ommDate = null, ommValue = null, ommHash = null;
     
 	protected URI namespace; 
 	protected URL type;
@@ -57,6 +60,7 @@ public class OMMBlockSaxHandler extends DefaultHandler
 	protected boolean isSecurityBlock = false;
 	
 	protected Stack<OMMSubjectTag> workingStack = null;
+	protected EnumSet<OMMMetaAttribute> fields = null;
 	    
     /** Constructor.
      * @param blockID ID of the block to parse. 
@@ -68,6 +72,93 @@ public class OMMBlockSaxHandler extends DefaultHandler
     	workingStack = new Stack<OMMSubjectTag>();
     }
     
+    /** Constructor for subclasses which take the block ID from the document. */
+    protected OMMBlockSaxHandler()
+    {
+    	workingStack = new Stack<OMMSubjectTag>();
+    }
+    
+    /** Constructor for a projection of the block, only the given fields are extracted. The remaining fields of the parsed block stay empty.
+     * @param blockID ID of the block to parse. 
+     * @param fields The {@link OMMMetaAttribute}s to extract, null for all.
+     */
+    public OMMBlockSaxHandler(String blockID, EnumSet<OMMMetaAttribute> fields)
+    {
+    	this(blockID);
+    	this.fields = fields;
+    }
+    
+    /** Checks whether a field is extracted by this handler.
+     * @param field The field as {@link OMMMetaAttribute}, null for elements not belonging to any field.
+     * @return True, if the field is part of the projection.
+     */
+    protected boolean isProjected(OMMMetaAttribute field)
+    {
+    	if (fields == null) return true;
+    	return field != null && fields.contains(field);
+    }
+    
+    /** Retrieves the field an element belongs to, depending on the current parsing mode.
+     * @param qName Name of the element.
+     * @return The field as {@link OMMMetaAttribute}, or null if the element does not belong to any field.
+     */
+    protected OMMMetaAttribute getField(String qName)
+    {
+    	switch(mode)
+    	{
+    		case Creator: return OMMMetaAttribute.Creator;
+    		case Contributor: return OMMMetaAttribute.Contributor;
+    		case Subject: return OMMMetaAttribute.Subject;
+    		default: break;
+    	}
+    	if (qName.equals("omm:primaryID")) return OMMMetaAttribute.ID;
+    	if (qName.equals("omm:title")) return OMMMetaAttribute.Title;
+    	if (qName.equals("omm:description")) return OMMMetaAttribute.Description;
+    	if (qName.equals("omm:format")) return OMMMetaAttribute.Format;
+    	if (qName.equals("omm:namespace")) return OMMMetaAttribute.Namespace;
+    	if (qName.equals("omm:type")) return OMMMetaAttribute.Type;
+    	if (qName.equals("omm:previousBlock")) return OMMMetaAttribute.PreviousBlock;
+    	if (qName.equals("omm:link")) return OMMMetaAttribute.Link;
+    	if (qName.equals("omm:payload")) return OMMMetaAttribute.Payload;
+    	return null;
+    }
+    
+    /** Clears the values collected for a block, so that the handler can parse the next one. */
+    protected void reset()
+    {
+    	mode = OMMBlockSaxHandlerMode.Main;
+    	currentElement = false;
+    	currentValue = "";
+    	text.setLength(0);
+    	block = null;
+    	xmlLang = ommType = previousBlockType = ommEncoding = ommSchema = ommDate = ommValue = ommHash = null;
+    	namespace = null;
+    	type = null;
+    	title = new OMMMultiLangText();
+    	description = new OMMMultiLangText();
+    	contributors = null;
+    	lastContributor = null;
+    	creator = null;
+    	format = null;
+    	subject = null;
+    	payload = null;
+    	payloadElement = null;
+    	link = null;
+    	primaryID = null;
+    	linkHash = null;
+    	previousID = null;
+    	isSecurityBlock = false;
+    	workingStack.clear();
+    }
+    
+    /** Creates a block from the collected values. 
+     * @return The block as {@link OMMBlockImpl}. 
+     */
+    protected OMMBlockImpl createBlock()
+    {
+    	return (OMMBlockImpl)OMMBlockImpl.create(blockID, primaryID, namespace, type, title, description, contributors, creator, format, subject, previousID, payload, payloadElement, link, linkHash);
+    }
+    
     /** Retrieves the parsed OMM block. 
      * @return Parsed block as {@link OMMBlockImpl}. 
      */
@@ -81,8 +172,8 @@ public class OMMBlockSaxHandler extends DefaultHandler
     public void startElement(String uri, String localName, String qName,
             Attributes attributes) throws SAXException {
  
-    	currentElement = true;
         currentValue = "";
+        text.setLength(0);
 
         xmlLang = attributes.getValue("xml:lang");
         ommType = attributes.getValue("omm:type");
@@ -90,6 +181,7 @@ public class OMMBlockSaxHandler extends DefaultHandler
         ommEncoding = attributes.getValue("omm:encoding");
         ommSchema = attributes.getValue("omm:schema");
         ommValue = attributes.getValue("omm:value");
+        ommHash = attributes.getValue("omm:hash");
         
         if (mode == OMMBlockSaxHandlerMode.Main)
         {
@@ -106,7 +198,7 @@ public class OMMBlockSaxHandler extends DefaultHandler
 	            mode = OMMBlockSaxHandlerMode.Subject;
 	        }
         }
-        else if (mode == OMMBlockSaxHandlerMode.Subject && qName.equals("omm:tag")) 
+        else if (mode == OMMBlockSaxHandlerMode.Subject && qName.equals("omm:tag") && isProjected(OMMMetaAttribute.Subject)) 
         {
         	OMMSubjectTagType type = OMMSubjectTagType.Text;	        		
     		if ("Ontology".equals(ommType)) type = OMMSubjectTagType.Ontology;
@@ -119,6 +211,9 @@ public class OMMBlockSaxHandler extends DefaultHandler
     		
         	workingStack.push(localTag);
         }
+        
+        // text of fields outside the projection is not collected
+        currentElement = isProjected(getField(qName));
     }
  
     // Called when tag closing
@@ -127,6 +222,14 @@ public class OMMBlockSaxHandler extends DefaultHandler
     throws SAXException {
  
         currentElement = false;
+        currentValue = text.toString();
+        
+        if (!isProjected(getField(qName)) && !qName.equals("ds:Signature"))
+        {
+        	leaveMode(qName);
+        	ommSchema = ommEncoding = ommType = xmlLang = ommDate = ommValue = ommHash = null; 
+        	return;
+        }
         
         switch(mode)
         {
@@ -171,8 +274,13 @@ public class OMMBlockSaxHandler extends DefaultHandler
 	        case Subject:
 	        	if (qName.equals("omm:tag"))
 	        	{
-	        		if (subject == null) subject = new OMMSubjectCollection();
-	        		subject.add(workingStack.pop());
+	        		// nested tags are children of their parent tag, only the outermost one belongs to the collection
+	        		OMMSubjectTag tag = workingStack.pop();
+	        		if (workingStack.isEmpty())
+	        		{
+	        			if (subject == null) subject = new OMMSubjectCollection();
+	        			subject.add(tag);
+	        		}
 	        	}
 	        	if (qName.equals("omm:subject")) mode = OMMBlockSaxHandlerMode.Main;
 	        	break;
@@ -218,10 +326,11 @@ public class OMMBlockSaxHandler extends DefaultHandler
 	        	else if (qName.equals("omm:link"))
 	        	{
 	        		link = OMMXMLConverter.getTypedValue(ommType, currentValue);
+	        		linkHash = ommHash;
 	        	}
 	        	else if (qName.equals("omm:payload"))
 	        	{
-	        		payload = OMMXMLConverter.getTypedValue(ommType, currentValue);
+	        		payload = OMMXMLConverter.getTypedValue(ommEncoding != null ? ommEncoding : ommType, currentValue);
 	        	}
 	        	else if (qName.equals("ds:Signature"))
 	        	{
@@ -230,21 +339,29 @@ public class OMMBlockSaxHandler extends DefaultHandler
 	        	break;
         }
         
-        ommSchema = ommEncoding = ommType = xmlLang = ommDate = ommValue = null; 
+        ommSchema = ommEncoding = ommType = xmlLang = ommDate = ommValue = ommHash = null; 
+    }
+
+    /** Returns to the main parsing mode at the end of a creation, contribution or subject element.
+     * @param qName Name of the closed element.
+     */
+    protected void leaveMode(String qName)
+    {
+    	if (qName.equals("omm:creation") || qName.equals("omm:contribution") || qName.equals("omm:subject")) mode = OMMBlockSaxHandlerMode.Main;
     }
 
     // Called at the end of the document
     @Override
     public void endDocument()
     {
-    	block = (OMMBlockImpl)OMMBlockImpl.create(blockID, primaryID, namespace, type, title, description, contributors, creator, format, subject, previousID, payload, payloadElement, link, linkHash);
+    	block = createBlock();
     }
 
     // Called to get tag characters inside tags
     @Override
     public void characters(char[] ch, int start, int length) throws SAXException {
        if (currentElement) {
-            currentValue = currentValue +  new String(ch, start, length);
+            text.append(ch, start, length);
         }
     }
 	
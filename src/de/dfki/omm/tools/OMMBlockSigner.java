@@ -0,0 +1,355 @@
+package de.dfki.omm.tools;
+
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.cert.X509Certificate;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.xml.crypto.AlgorithmMethod;
+import javax.xml.crypto.KeySelector;
+import javax.xml.crypto.KeySelectorException;
+import javax.xml.crypto.KeySelectorResult;
+import javax.xml.crypto.XMLCryptoContext;
+import javax.xml.crypto.dsig.CanonicalizationMethod;
+import javax.xml.crypto.dsig.DigestMethod;
+import javax.xml.crypto.dsig.Reference;
+import javax.xml.crypto.dsig.SignedInfo;
+import javax.xml.crypto.dsig.Transform;
+import javax.xml.crypto.dsig.XMLSignature;
+import javax.xml.crypto.dsig.XMLSignatureFactory;
+import javax.xml.crypto.dsig.dom.DOMSignContext;
+import javax.xml.crypto.dsig.dom.DOMValidateContext;
+import javax.xml.crypto.dsig.keyinfo.KeyInfo;
+import javax.xml.crypto.dsig.keyinfo.KeyInfoFactory;
+import javax.xml.crypto.dsig.keyinfo.X509Data;
+import javax.xml.crypto.dsig.spec.C14NMethodParameterSpec;
+import javax.xml.crypto.dsig.spec.TransformParameterSpec;
+
+import org.apache.xml.security.Init;
+import org.apache.xml.security.c14n.Canonicalizer;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.types.OMMEntity;
+
+/** Signs blocks with XML signatures and verifies them.
+ * A signature is a detached <code>ds:Signature</code> element with a single reference to the exclusive canonical form of the block's
+ * complete XML representation (see {@link OMMXMLConverter#generateCompleteBlock(OMMBlock, boolean)}), including its payload.
+ * <p>Canonical forms and digests of {@link OMMBlockImpl}s are cached per block revision (see {@link OMMBlockImpl#getRevision()}),
+ * so that signing a block repeatedly only canonicalizes it again after it has been changed.
+ * Changes which are made to objects returned by a block's getters instead of through its setters are not detected,
+ * call {@link #clearCache()} after such changes. Verification never uses the cache, but always digests the current canonical form
+ * of the block, so that such changes cannot make a signature appear valid for a block which has been modified since.</p>
+ * <p>Many signatures can be verified at once by a {@link ForkJoinPool}, see {@link #verify(List, List)}.</p>
+ */
+public class OMMBlockSigner
+{
+	/** Whether canonical forms and digests of blocks are cached for signing. */
+	public static boolean CACHING = true;
+	/** Number of threads verifying signatures in parallel, used when the pool is created. */
+	public static int PARALLELISM = Runtime.getRuntime().availableProcessors();
+	/** Maximum number of signatures verified by a single task of the pool, fewer signatures are verified by the calling thread. */
+	public static int BLOCKS_PER_TASK = 4;
+
+	/** The type of the references to blocks in signatures. */
+	public static final String BLOCK_REFERENCE_TYPE = OMMXMLConverter.OMM_NAMESPACE_URI + "block";
+
+	private static final String RSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#rsa-sha256";
+	private static final String ECDSA_SHA256 = "http://www.w3.org/2001/04/xmldsig-more#ecdsa-sha256";
+	private static final String DSA_SHA256 = "http://www.w3.org/2009/xmldsig11#dsa-sha256";
+
+	private static final XMLSignatureFactory s_factory = XMLSignatureFactory.getInstance("DOM");
+	private static final Map<OMMBlock, CanonicalBlock> s_cache = Collections.synchronizedMap(new WeakHashMap<OMMBlock, CanonicalBlock>());
+	private static ForkJoinPool s_pool = null;
+
+	static
+	{
+		if (!Init.isInitialized()) Init.init();
+	}
+
+	private OMMBlockSigner() {}
+
+	/** Creates the exclusive canonical form of a block's complete XML representation, which may be taken from the cache.
+	 * @param block The {@link OMMBlock} to canonicalize.
+	 * @return The canonical form as UTF-8 encoded bytes, which must not be modified, or null if the block could not be canonicalized.
+	 */
+	public static byte[] getCanonicalForm(OMMBlock block)
+	{
+		CanonicalBlock canonical = getCanonicalBlock(block, CACHING);
+		return canonical == null ? null : canonical.m_bytes;
+	}
+
+	/** Computes the SHA-256 digest of a block's canonical form, as referenced by its signatures, which may be taken from the cache.
+	 * @param block The {@link OMMBlock} to digest.
+	 * @return The digest, which must not be modified, or null if the block could not be canonicalized.
+	 */
+	public static byte[] getDigest(OMMBlock block)
+	{
+		CanonicalBlock canonical = getCanonicalBlock(block, CACHING);
+		return canonical == null ? null : canonical.m_digest;
+	}
+
+	/** Removes all canonical forms and digests from the cache. */
+	public static void clearCache()
+	{
+		s_cache.clear();
+	}
+
+	/** Signs a block.
+	 * @param block The {@link OMMBlock} to sign.
+	 * @param key The RSA, EC or DSA {@link PrivateKey} to sign with.
+	 * @param certificate The signer's {@link X509Certificate} to include in the signature, or null.
+	 * @return The <code>ds:Signature</code> element as root of its own {@link Document}, or null if the block could not be signed.
+	 */
+	public static Element sign(OMMBlock block, PrivateKey key, X509Certificate certificate)
+	{
+		try
+		{
+			byte[] digest = getDigest(block);
+			if (digest == null) return null;
+
+			Transform c14n = s_factory.newTransform(CanonicalizationMethod.EXCLUSIVE, (TransformParameterSpec)null);
+			Reference reference = s_factory.newReference(null, s_factory.newDigestMethod(DigestMethod.SHA256, null), Collections.singletonList(c14n), BLOCK_REFERENCE_TYPE, null, digest);
+			SignedInfo signedInfo = s_factory.newSignedInfo(s_factory.newCanonicalizationMethod(CanonicalizationMethod.EXCLUSIVE, (C14NMethodParameterSpec)null),
+					s_factory.newSignatureMethod(getSignatureMethod(key), null), Collections.singletonList(reference));
+
+			KeyInfo keyInfo = null;
+			if (certificate != null)
+			{
+				KeyInfoFactory keyInfoFactory = s_factory.getKeyInfoFactory();
+				keyInfo = keyInfoFactory.newKeyInfo(Collections.singletonList(keyInfoFactory.newX509Data(Collections.singletonList(certificate))));
+			}
+
+			Document doc = OMMXMLConverter.createNewXmlDocument();
+			s_factory.newXMLSignature(signedInfo, keyInfo).sign(new DOMSignContext(key, doc));
+			return doc.getDocumentElement();
+		}
+		catch(Exception e) { e.printStackTrace(); }
+
+		return null;
+	}
+
+	/** Verifies the signature of a block with the certificate contained in the signature.
+	 * This only shows that the block has not been changed since it was signed by the owner of the certificate,
+	 * whether the signer is trusted has to be checked separately, see {@link #getSigner(Element)}.
+	 * @param block The signed {@link OMMBlock}.
+	 * @param signature The <code>ds:Signature</code> element.
+	 * @return True, if the signature is valid for the block.
+	 */
+	public static boolean verify(OMMBlock block, Element signature)
+	{
+		return verify(block, signature, new CertificateKeySelector());
+	}
+
+	/** Verifies the signature of a block with a given key.
+	 * @param block The signed {@link OMMBlock}.
+	 * @param signature The <code>ds:Signature</code> element.
+	 * @param key The {@link PublicKey} of the signer.
+	 * @return True, if the signature is valid for the block.
+	 */
+	public static boolean verify(OMMBlock block, Element signature, PublicKey key)
+	{
+		return verify(block, signature, KeySelector.singletonKeySelector(key));
+	}
+
+	/** Verifies the signatures of many blocks in parallel, each with the certificate contained in its signature (see {@link #verify(OMMBlock, Element)}).
+	 * The signature elements must not share a {@link Document}, as DOM nodes may not be read by several threads at once.
+	 * @param blocks The signed {@link OMMBlock}s.
+	 * @param signatures The <code>ds:Signature</code> elements, in the order of the blocks.
+	 * @return For each block, whether its signature is valid.
+	 */
+	public static boolean[] verify(List<OMMBlock> blocks, List<Element> signatures)
+	{
+		if (blocks.size() != signatures.size()) throw new IllegalArgumentException("number of blocks and signatures must be equal!");
+
+		OMMBlock[] blockArray = blocks.toArray(new OMMBlock[blocks.size()]);
+		Element[] signatureArray = signatures.toArray(new Element[signatures.size()]);
+		boolean[] result = new boolean[blockArray.length];
+
+		VerifyTask task = new VerifyTask(blockArray, signatureArray, result, 0, blockArray.length);
+		if (blockArray.length <= BLOCKS_PER_TASK) task.compute();
+		else getPool().invoke(task);
+
+		return result;
+	}
+
+	/** Retrieves the signer of a block from the certificate contained in a signature.
+	 * @param signature The <code>ds:Signature</code> element.
+	 * @return The signer as {@link OMMEntity} of type "x509", or null if the signature contains no certificate.
+	 */
+	public static OMMEntity getSigner(Element signature)
+	{
+		try
+		{
+			XMLSignature xmlSignature = s_factory.unmarshalXMLSignature(new DOMValidateContext(new CertificateKeySelector(), signature));
+			X509Certificate certificate = getCertificate(xmlSignature.getKeyInfo());
+			if (certificate != null) return new OMMEntity(certificate);
+		}
+		catch(Exception e) { e.printStackTrace(); }
+
+		return null;
+	}
+
+	// helper methods
+
+	private static boolean verify(OMMBlock block, Element signature, KeySelector keySelector)
+	{
+		try
+		{
+			DOMValidateContext context = new DOMValidateContext(keySelector, signature);
+			context.setProperty("org.jcp.xml.dsig.secureValidation", Boolean.TRUE);
+			XMLSignature xmlSignature = s_factory.unmarshalXMLSignature(context);
+
+			// the reference is checked against the digest of the block's current content instead of being dereferenced
+			List<?> references = xmlSignature.getSignedInfo().getReferences();
+			if (references.size() != 1) return false;
+			Reference reference = (Reference)references.get(0);
+			if (!DigestMethod.SHA256.equals(reference.getDigestMethod().getAlgorithm())) return false;
+			if (reference.getTransforms().size() != 1 || !CanonicalizationMethod.EXCLUSIVE.equals(((Transform)reference.getTransforms().get(0)).getAlgorithm())) return false;
+
+			CanonicalBlock canonical = getCanonicalBlock(block, false);
+			if (canonical == null || !MessageDigest.isEqual(canonical.m_digest, reference.getDigestValue())) return false;
+
+			return xmlSignature.getSignatureValue().validate(context);
+		}
+		catch(Exception e) { e.printStackTrace(); }
+
+		return false;
+	}
+
+	private static CanonicalBlock getCanonicalBlock(OMMBlock block, boolean caching)
+	{
+		// only blocks with a revision can be cached
+		boolean cacheable = caching && block instanceof OMMBlockImpl;
+		long revision = cacheable ? ((OMMBlockImpl)block).getRevision() : 0;
+		if (cacheable)
+		{
+			CanonicalBlock cached = s_cache.get(block);
+			if (cached != null && cached.m_revision == revision) return cached;
+		}
+
+		try
+		{
+			Document doc = OMMXMLConverter.generateCompleteBlock(block, true);
+			if (doc == null) return null;
+
+			byte[] bytes = Canonicalizer.getInstance(Canonicalizer.ALGO_ID_C14N_EXCL_OMIT_COMMENTS).canonicalizeSubtree(doc.getDocumentElement());
+			CanonicalBlock canonical = new CanonicalBlock(revision, bytes, MessageDigest.getInstance("SHA-256").digest(bytes));
+			if (cacheable) s_cache.put(block, canonical);
+			return canonical;
+		}
+		catch(Exception e) { e.printStackTrace(); }
+
+		return null;
+	}
+
+	private static String getSignatureMethod(Key key)
+	{
+		if ("RSA".equals(key.getAlgorithm())) return RSA_SHA256;
+		if ("EC".equals(key.getAlgorithm())) return ECDSA_SHA256;
+		if ("DSA".equals(key.getAlgorithm())) return DSA_SHA256;
+		throw new IllegalArgumentException("unsupported key algorithm: " + key.getAlgorithm());
+	}
+
+	private static X509Certificate getCertificate(KeyInfo keyInfo)
+	{
+		if (keyInfo == null) return null;
+
+		for(Object info : keyInfo.getContent())
+		{
+			if (!(info instanceof X509Data)) continue;
+			for(Object data : ((X509Data)info).getContent())
+			{
+				if (data instanceof X509Certificate) return (X509Certificate)data;
+			}
+		}
+
+		return null;
+	}
+
+	private static synchronized ForkJoinPool getPool()
+	{
+		if (s_pool == null) s_pool = new ForkJoinPool(Math.max(1, PARALLELISM));
+		return s_pool;
+	}
+
+	/** The canonical form and digest of a block at a given revision. */
+	private static class CanonicalBlock
+	{
+		final long m_revision;
+		final byte[] m_bytes;
+		final byte[] m_digest;
+
+		public CanonicalBlock(long revision, byte[] bytes, byte[] digest)
+		{
+			m_revision = revision;
+			m_bytes = bytes;
+			m_digest = digest;
+		}
+	}
+
+	/** Selects the public key of the first X.509 certificate contained in a signature. */
+	private static class CertificateKeySelector extends KeySelector
+	{
+		/* (non-Javadoc)
+		 * @see javax.xml.crypto.KeySelector#select(javax.xml.crypto.dsig.keyinfo.KeyInfo, javax.xml.crypto.KeySelector.Purpose, javax.xml.crypto.AlgorithmMethod, javax.xml.crypto.XMLCryptoContext)
+		 */
+		@Override
+		public KeySelectorResult select(KeyInfo keyInfo, Purpose purpose, AlgorithmMethod method, XMLCryptoContext context) throws KeySelectorException
+		{
+			X509Certificate certificate = getCertificate(keyInfo);
+			if (certificate == null) throw new KeySelectorException("signature contains no X.509 certificate");
+
+			final PublicKey key = certificate.getPublicKey();
+			return new KeySelectorResult()
+			{
+				public Key getKey() { return key; }
+			};
+		}
+	}
+
+	/** Verifies a range of signatures, splitting the range until it is small enough to be verified by a single thread. */
+	private static class VerifyTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final OMMBlock[] m_blocks;
+		private final Element[] m_signatures;
+		private final boolean[] m_result;
+		private final int m_from, m_to;
+
+		public VerifyTask(OMMBlock[] blocks, Element[] signatures, boolean[] result, int from, int to)
+		{
+			m_blocks = blocks;
+			m_signatures = signatures;
+			m_result = result;
+			m_from = from;
+			m_to = to;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute()
+		{
+			if (m_to - m_from <= Math.max(1, BLOCKS_PER_TASK))
+			{
+				for(int i = m_from; i < m_to; i++) m_result[i] = verify(m_blocks[i], m_signatures[i]);
+				return;
+			}
+
+			int middle = (m_from + m_to) >>> 1;
+			invokeAll(new VerifyTask(m_blocks, m_signatures, m_result, m_from, middle), new VerifyTask(m_blocks, m_signatures, m_result, middle, m_to));
+		}
+	}
+}
@@ -0,0 +1,294 @@
+package de.dfki.omm.tools;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URL;
+import java.util.EnumSet;
+import java.util.Locale;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMEntityCollection;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMetaAttribute;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMPreviousBlockLink;
+import de.dfki.omm.types.OMMSubjectCollection;
+import de.dfki.omm.types.OMMSubjectTag;
+import de.dfki.omm.types.OMMSubjectTagType;
+import de.dfki.omm.types.TypedValue;
+
+/** Maps the JSON representation of blocks, as created by {@link OMMBlockImpl#getJsonRepresentation()}, to OMM objects.
+ * The document is read with an {@link OMMJsonReader} token by token, no DOM or JSON object tree is built.
+ */
+public class OMMJsonConverter
+{
+	/** Checks whether data starts like a JSON document, in order to tell JSON responses from XML ones.
+	 * @param data The data to check.
+	 * @return True, if the first non-whitespace character opens an object or array.
+	 */
+	public static boolean isJSON(byte[] data)
+	{
+		for(byte b : data)
+		{
+			if (b == '{' || b == '[') return true;
+			if (b != ' ' && b != '\t' && b != '\r' && b != '\n' && (b & 0xFF) != 0xEF && (b & 0xFF) != 0xBB && (b & 0xFF) != 0xBF) return false;
+		}
+		return false;
+	}
+
+	/** Parses a block from its JSON representation.
+	 * @param is The JSON document as UTF-8 encoded {@link InputStream}, either the block object or an object wrapping it as <code>block</code>.
+	 * @param blockID ID of the block, used if the document contains none.
+	 * @return The block as {@link OMMBlockImpl}, or null if the document is not valid.
+	 */
+	public static OMMBlockImpl parseBlock(InputStream is, String blockID)
+	{
+		return parseBlock(is, blockID, null);
+	}
+
+	/** Parses a projection of a block from its JSON representation, the values of all other fields are skipped.
+	 * @param is The JSON document as UTF-8 encoded {@link InputStream}, either the block object or an object wrapping it as <code>block</code>.
+	 * @param blockID ID of the block, used if the document contains none.
+	 * @param fields The {@link OMMMetaAttribute}s to extract, null for all.
+	 * @return The block as {@link OMMBlockImpl}, or null if the document is not valid.
+	 */
+	public static OMMBlockImpl parseBlock(InputStream is, String blockID, EnumSet<OMMMetaAttribute> fields)
+	{
+		long start = System.nanoTime();
+		try
+		{
+			OMMJsonReader reader = new OMMJsonReader(new InputStreamReader(is, "UTF-8"));
+			reader.beginObject();
+			if (!reader.hasNext()) return null;
+			String name = reader.nextName();
+			// without the wrapper, the members belong to the block itself
+			if (!name.equals("block")) return readBlockMembers(reader, name, blockID, fields);
+
+			reader.beginObject();
+			return readBlockMembers(reader, null, blockID, fields);
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			OMMMetrics.recordParse(System.nanoTime() - start);
+		}
+		return null;
+	}
+
+	/** Reads the remaining members of a block object, including its end.
+	 * @param name Name of the first member if it has already been read, otherwise null.
+	 */
+	private static OMMBlockImpl readBlockMembers(OMMJsonReader reader, String name, String blockID, EnumSet<OMMMetaAttribute> fields) throws IOException
+	{
+		String id = blockID;
+		TypedValue primaryID = null, link = null;
+		URI namespace = null;
+		URL type = null;
+		OMMFormat format = null;
+		OMMEntity creator = null;
+		OMMEntityCollection contributors = null;
+		OMMMultiLangText title = new OMMMultiLangText(), description = new OMMMultiLangText();
+		OMMSubjectCollection subject = null;
+		OMMPreviousBlockLink previous = null;
+
+		while (name != null || reader.hasNext())
+		{
+			if (name == null) name = reader.nextName();
+			if (name.equals("id")) id = reader.nextString();
+			else if (name.equals("primary_id") && isProjected(fields, OMMMetaAttribute.ID)) primaryID = readTypedValue(reader, null);
+			else if (name.equals("namespace") && isProjected(fields, OMMMetaAttribute.Namespace)) namespace = URI.create(reader.nextString());
+			else if (name.equals("type") && isProjected(fields, OMMMetaAttribute.Type)) type = URI.create(reader.nextString()).toURL();
+			else if (name.equals("format") && isProjected(fields, OMMMetaAttribute.Format)) format = readFormat(reader);
+			else if (name.equals("creation") && isProjected(fields, OMMMetaAttribute.Creator)) creator = readEntity(reader);
+			else if (name.equals("contribution") && isProjected(fields, OMMMetaAttribute.Contributor)) contributors = readContributors(reader);
+			else if (name.equals("title") && isProjected(fields, OMMMetaAttribute.Title)) readMultiLangText(reader, title);
+			else if (name.equals("description") && isProjected(fields, OMMMetaAttribute.Description)) readMultiLangText(reader, description);
+			else if (name.equals("subject") && isProjected(fields, OMMMetaAttribute.Subject)) subject = readSubjects(reader);
+			else if (name.equals("link") && isProjected(fields, OMMMetaAttribute.Link)) link = readTypedValue(reader, null);
+			else if (name.equals("previous_block") && isProjected(fields, OMMMetaAttribute.PreviousBlock))
+			{
+				TypedValue value = readTypedValue(reader, null);
+				if (value != null) previous = OMMPreviousBlockLink.createFromString(value.getValue().toString(), value.getType());
+			}
+			else reader.skipValue();
+			name = null;
+		}
+		reader.endObject();
+
+		return (OMMBlockImpl)OMMBlockImpl.create(id, primaryID, namespace, type, title, description, contributors, creator, format, subject, previous, null, null, link, null);
+	}
+
+	private static boolean isProjected(EnumSet<OMMMetaAttribute> fields, OMMMetaAttribute field)
+	{
+		return fields == null || fields.contains(field);
+	}
+
+	/** Reads a typed value either as object with type and value or as plain value of the given default type. */
+	private static TypedValue readTypedValue(OMMJsonReader reader, String defaultType) throws IOException
+	{
+		if (reader.peek() != OMMJsonReader.Token.BeginObject)
+		{
+			String value = reader.nextString();
+			if (value == null) return null;
+			if (defaultType == null) defaultType = value.contains("://") ? "url" : "";
+			return OMMXMLConverter.getTypedValue(defaultType, value);
+		}
+
+		String valueType = defaultType, value = null;
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			String name = reader.nextName();
+			if (name.equals("type") || name.equals("@type")) valueType = reader.nextString();
+			else if (name.equals("value") || name.equals("@value")) value = reader.nextString();
+			else reader.skipValue();
+		}
+		reader.endObject();
+		return OMMXMLConverter.getTypedValue(valueType == null ? "" : valueType, value);
+	}
+
+	/** Reads a format either as object or in the form of {@link OMMFormat#toString()}. */
+	private static OMMFormat readFormat(OMMJsonReader reader) throws IOException
+	{
+		String mime = null, schema = null, encoding = null;
+		if (reader.peek() == OMMJsonReader.Token.BeginObject)
+		{
+			reader.beginObject();
+			while (reader.hasNext())
+			{
+				String name = reader.nextName();
+				if (name.equals("mime") || name.equals("mimeType")) mime = reader.nextString();
+				else if (name.equals("schema")) schema = reader.nextString();
+				else if (name.equals("encoding")) encoding = reader.nextString();
+				else reader.skipValue();
+			}
+			reader.endObject();
+		}
+		else
+		{
+			String text = reader.nextString();
+			if (text == null) return null;
+			mime = text;
+			int index = text.indexOf(" (");
+			if (index >= 0)
+			{
+				mime = text.substring(0, index);
+				schema = getFormatPart(text, "Schema=");
+				encoding = getFormatPart(text, "Encoding=");
+			}
+		}
+		if (encoding != null && encoding.length() == 0) encoding = null;
+		return new OMMFormat(mime, (schema == null) ? null : URI.create(schema).toURL(), encoding);
+	}
+
+	private static String getFormatPart(String text, String key)
+	{
+		int start = text.indexOf("(" + key);
+		if (start < 0) return null;
+		start += key.length() + 1;
+		int end = text.indexOf(')', start);
+		return (end < 0) ? text.substring(start) : text.substring(start, end);
+	}
+
+	/** Reads an entity of the form <code>{"type":..., "creator" or "value":..., "date":...}</code>. */
+	private static OMMEntity readEntity(OMMJsonReader reader) throws IOException
+	{
+		String type = null, value = null, date = null;
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			String name = reader.nextName();
+			if (name.equals("type")) type = reader.nextString();
+			else if (name.equals("creator") || name.equals("contributor") || name.equals("value")) value = reader.nextString();
+			else if (name.equals("date")) date = reader.nextString();
+			else reader.skipValue();
+		}
+		reader.endObject();
+		return new OMMEntity(type, value, date);
+	}
+
+	/** Reads the contributions, which contain a single contributor or an array of them. */
+	private static OMMEntityCollection readContributors(OMMJsonReader reader) throws IOException
+	{
+		OMMEntityCollection contributors = new OMMEntityCollection();
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			if (!reader.nextName().equals("contributor"))
+			{
+				reader.skipValue();
+				continue;
+			}
+			if (reader.peek() == OMMJsonReader.Token.BeginArray)
+			{
+				reader.beginArray();
+				while (reader.hasNext()) contributors.add(readEntity(reader));
+				reader.endArray();
+			}
+			else contributors.add(readEntity(reader));
+		}
+		reader.endObject();
+		return contributors;
+	}
+
+	private static void readMultiLangText(OMMJsonReader reader, OMMMultiLangText text) throws IOException
+	{
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			String language = reader.nextName();
+			String value = reader.nextString();
+			int index = language.indexOf('_');
+			text.put((index < 0) ? new Locale(language) : new Locale(language.substring(0, index), language.substring(index + 1)), value);
+		}
+		reader.endObject();
+	}
+
+	private static OMMSubjectCollection readSubjects(OMMJsonReader reader) throws IOException
+	{
+		OMMSubjectCollection subjects = new OMMSubjectCollection();
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			if (!reader.nextName().equals("tag"))
+			{
+				reader.skipValue();
+				continue;
+			}
+			if (reader.peek() == OMMJsonReader.Token.BeginArray)
+			{
+				reader.beginArray();
+				while (reader.hasNext()) subjects.add(readTag(reader));
+				reader.endArray();
+			}
+			else subjects.add(readTag(reader));
+		}
+		reader.endObject();
+		return subjects;
+	}
+
+	/** Reads a subject tag of the form <code>{"@type":..., "@value":..., "tag":{...}}</code>, see {@link OMMSubjectTag#getJSONRepresentation()}. */
+	private static OMMSubjectTag readTag(OMMJsonReader reader) throws IOException
+	{
+		OMMSubjectTagType type = OMMSubjectTagType.Text;
+		String value = null;
+		OMMSubjectTag child = null;
+		reader.beginObject();
+		while (reader.hasNext())
+		{
+			String name = reader.nextName();
+			if (name.equals("@type") || name.equals("type")) type = OMMSubjectTagType.valueOf(reader.nextString());
+			else if (name.equals("@value") || name.equals("value")) value = reader.nextString();
+			else if (name.equals("tag")) child = readTag(reader);
+			else reader.skipValue();
+		}
+		reader.endObject();
+		return new OMMSubjectTag(type, value, child);
+	}
+}
@@ -0,0 +1,291 @@
+package de.dfki.omm.tools;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/** A streaming pull parser for JSON documents.
+ * The document is read token by token without building an object tree, so that values can be mapped to OMM objects directly.
+ */
+public class OMMJsonReader
+{
+	/** Enumerator listing the tokens of a JSON document. */
+	public enum Token
+	{
+		BeginObject, EndObject, BeginArray, EndArray, Name, String, Number, Boolean, Null, EndDocument
+	}
+
+	private static final int CONTEXT_DOCUMENT = 0, CONTEXT_OBJECT = 1, CONTEXT_ARRAY = 2;
+
+	private final Reader m_reader;
+	private final char[] m_buffer = new char[4096];
+	private int m_position = 0, m_limit = 0;
+	private final StringBuilder m_text = new StringBuilder();
+
+	private int[] m_contexts = new int[16];
+	private int m_depth = 1;
+	/** Whether the current object expects a name (and not a value) next. */
+	private boolean m_expectName = false;
+	/** Whether a value has already been read in the current object or array. */
+	private boolean m_hasElement = false;
+	private boolean[] m_hasElements = new boolean[16];
+
+	private Token m_peeked = null;
+	private String m_value = null;
+
+	/** Creates a reader for the given JSON text.
+	 * @param reader The {@link Reader} providing the JSON text.
+	 */
+	public OMMJsonReader(Reader reader)
+	{
+		m_reader = reader;
+		m_contexts[0] = CONTEXT_DOCUMENT;
+	}
+
+	/** Retrieves the type of the next token without consuming it.
+	 * @return The next {@link Token}.
+	 * @throws IOException If the text cannot be read or is no valid JSON.
+	 */
+	public Token peek() throws IOException
+	{
+		if (m_peeked == null) m_peeked = readToken();
+		return m_peeked;
+	}
+
+	/** Checks whether the current object or array has more elements.
+	 * @return True, if the next token is a name or a value.
+	 * @throws IOException If the text cannot be read or is no valid JSON.
+	 */
+	public boolean hasNext() throws IOException
+	{
+		Token t = peek();
+		return t != Token.EndObject && t != Token.EndArray && t != Token.EndDocument;
+	}
+
+	/** Consumes the beginning of an object. @throws IOException If the next token is something else. */
+	public void beginObject() throws IOException { expect(Token.BeginObject); }
+
+	/** Consumes the end of an object. @throws IOException If the next token is something else. */
+	public void endObject() throws IOException { expect(Token.EndObject); }
+
+	/** Consumes the beginning of an array. @throws IOException If the next token is something else. */
+	public void beginArray() throws IOException { expect(Token.BeginArray); }
+
+	/** Consumes the end of an array. @throws IOException If the next token is something else. */
+	public void endArray() throws IOException { expect(Token.EndArray); }
+
+	/** Consumes the name of the next member of an object.
+	 * @return The name.
+	 * @throws IOException If the next token is no name.
+	 */
+	public String nextName() throws IOException
+	{
+		expect(Token.Name);
+		return m_value;
+	}
+
+	/** Consumes a string, number or boolean value.
+	 * @return The value as text, or null for a JSON <code>null</code>.
+	 * @throws IOException If the next token is no primitive value.
+	 */
+	public String nextString() throws IOException
+	{
+		Token t = peek();
+		if (t != Token.String && t != Token.Number && t != Token.Boolean && t != Token.Null) throw new IOException("Expected a value but found " + t);
+		m_peeked = null;
+		return (t == Token.Null) ? null : m_value;
+	}
+
+	/** Consumes the next value, including all nested objects and arrays.
+	 * @throws IOException If the text cannot be read or is no valid JSON.
+	 */
+	public void skipValue() throws IOException
+	{
+		int depth = 0;
+		do
+		{
+			Token t = peek();
+			m_peeked = null;
+			if (t == Token.BeginObject || t == Token.BeginArray) depth++;
+			else if (t == Token.EndObject || t == Token.EndArray) depth--;
+			else if (t == Token.EndDocument) return;
+		}
+		while (depth > 0);
+	}
+
+	private void expect(Token expected) throws IOException
+	{
+		Token t = peek();
+		if (t != expected) throw new IOException("Expected " + expected + " but found " + t);
+		m_peeked = null;
+	}
+
+	private Token readToken() throws IOException
+	{
+		int context = m_contexts[m_depth - 1];
+		int c = nextNonWhitespace();
+
+		if (context == CONTEXT_OBJECT)
+		{
+			if (c == '}') return pop(Token.EndObject);
+			if (m_expectName)
+			{
+				if (m_hasElement)
+				{
+					if (c != ',') throw syntaxError("Expected ',' or '}'");
+					c = nextNonWhitespace();
+				}
+				if (c != '"') throw syntaxError("Expected a name");
+				m_value = readString();
+				if (nextNonWhitespace() != ':') throw syntaxError("Expected ':'");
+				m_expectName = false;
+				m_hasElement = true;
+				return Token.Name;
+			}
+			m_expectName = true;
+		}
+		else if (context == CONTEXT_ARRAY)
+		{
+			if (c == ']') return pop(Token.EndArray);
+			if (m_hasElement)
+			{
+				if (c != ',') throw syntaxError("Expected ',' or ']'");
+				c = nextNonWhitespace();
+			}
+			m_hasElement = true;
+		}
+		else if (c == -1) return Token.EndDocument;
+
+		switch(c)
+		{
+			case '{': push(CONTEXT_OBJECT); m_expectName = true; return Token.BeginObject;
+			case '[': push(CONTEXT_ARRAY); return Token.BeginArray;
+			case '"': m_value = readString(); return Token.String;
+			case -1: throw syntaxError("Unexpected end of document");
+			default: return readLiteral((char)c);
+		}
+	}
+
+	private void push(int context)
+	{
+		if (m_depth == m_contexts.length)
+		{
+			int[] contexts = new int[m_depth * 2];
+			System.arraycopy(m_contexts, 0, contexts, 0, m_depth);
+			m_contexts = contexts;
+			boolean[] hasElements = new boolean[m_depth * 2];
+			System.arraycopy(m_hasElements, 0, hasElements, 0, m_depth);
+			m_hasElements = hasElements;
+		}
+		m_hasElements[m_depth - 1] = m_hasElement;
+		m_contexts[m_depth++] = context;
+		m_hasElement = false;
+	}
+
+	private Token pop(Token token)
+	{
+		m_depth--;
+		m_hasElement = m_hasElements[m_depth - 1];
+		// after a value inside an object the next token is a name again
+		m_expectName = m_contexts[m_depth - 1] == CONTEXT_OBJECT;
+		return token;
+	}
+
+	private Token readLiteral(char first) throws IOException
+	{
+		m_text.setLength(0);
+		m_text.append(first);
+		while (true)
+		{
+			if (m_position == m_limit && !fill()) break;
+			char c = m_buffer[m_position];
+			if (c == ',' || c == '}' || c == ']' || c == ':' || Character.isWhitespace(c)) break;
+			m_text.append(c);
+			m_position++;
+		}
+		m_value = m_text.toString();
+		if (m_value.equals("null")) return Token.Null;
+		if (m_value.equals("true") || m_value.equals("false")) return Token.Boolean;
+		if (first == '-' || (first >= '0' && first <= '9')) return Token.Number;
+		throw syntaxError("Unexpected literal '" + m_value + "'");
+	}
+
+	private String readString() throws IOException
+	{
+		m_text.setLength(0);
+		while (true)
+		{
+			int start = m_position;
+			while (m_position < m_limit)
+			{
+				char c = m_buffer[m_position++];
+				if (c == '"')
+				{
+					m_text.append(m_buffer, start, m_position - start - 1);
+					return m_text.toString();
+				}
+				if (c == '\\')
+				{
+					m_text.append(m_buffer, start, m_position - start - 1);
+					m_text.append(readEscape());
+					start = m_position;
+				}
+			}
+			m_text.append(m_buffer, start, m_position - start);
+			if (!fill()) throw syntaxError("Unterminated string");
+		}
+	}
+
+	private char readEscape() throws IOException
+	{
+		int c = read();
+		switch(c)
+		{
+			case 'b': return '\b';
+			case 'f': return '\f';
+			case 'n': return '\n';
+			case 'r': return '\r';
+			case 't': return '\t';
+			case 'u':
+				int value = 0;
+				for(int i = 0; i < 4; i++)
+				{
+					int digit = Character.digit(read(), 16);
+					if (digit < 0) throw syntaxError("Invalid unicode escape");
+					value = (value << 4) | digit;
+				}
+				return (char)value;
+			case -1: throw syntaxError("Unterminated escape");
+			default: return (char)c;
+		}
+	}
+
+	private int nextNonWhitespace() throws IOException
+	{
+		int c;
+		do
+		{
+			c = read();
+		}
+		while (c != -1 && Character.isWhitespace(c));
+		return c;
+	}
+
+	private int read() throws IOException
+	{
+		if (m_position == m_limit && !fill()) return -1;
+		return m_buffer[m_position++];
+	}
+
+	private boolean fill() throws IOException
+	{
+		m_position = 0;
+		m_limit = m_reader.read(m_buffer, 0, m_buffer.length);
+		if (m_limit < 0) m_limit = 0;
+		return m_limit > 0;
+	}
+
+	private IOException syntaxError(String message)
+	{
+		return new IOException(message + " in JSON document");
+	}
+}
@@ -0,0 +1,89 @@
+package de.dfki.omm.tools;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Histogram of durations with exponentially growing buckets, bucket <i>i</i> counting durations below 2<sup><i>i</i></sup> microseconds.
+ * Recording is lock-free, percentiles are estimated by the upper bound of the bucket they fall in.
+ */
+public class OMMLatencyHistogram
+{
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray m_buckets = new AtomicLongArray(BUCKETS);
+	private final OMMStripedCounter m_count = new OMMStripedCounter();
+	private final OMMStripedCounter m_sumInNanos = new OMMStripedCounter();
+	private final AtomicLong m_maxInNanos = new AtomicLong();
+
+	/** Records a duration.
+	 * @param nanos The duration in nanoseconds.
+	 */
+	public void record(long nanos)
+	{
+		if (nanos < 0) nanos = 0;
+		long micros = nanos / 1000;
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		m_buckets.incrementAndGet(bucket);
+		m_count.increment();
+		m_sumInNanos.add(nanos);
+
+		long max = m_maxInNanos.get();
+		while (nanos > max && !m_maxInNanos.compareAndSet(max, nanos))
+		{
+			max = m_maxInNanos.get();
+		}
+	}
+
+	/** Retrieves the number of recorded durations. */
+	public long getCount() { return m_count.sum(); }
+
+	/** Retrieves the sum of all recorded durations in nanoseconds. */
+	public long getSumInNanos() { return m_sumInNanos.sum(); }
+
+	/** Retrieves the average of all recorded durations in milliseconds, 0 if none was recorded. */
+	public double getMeanInMillis()
+	{
+		long count = getCount();
+		return count == 0 ? 0 : getSumInNanos() / (count * 1000000.0);
+	}
+
+	/** Retrieves the longest recorded duration in milliseconds. */
+	public double getMaxInMillis() { return m_maxInNanos.get() / 1000000.0; }
+
+	/** Estimates a percentile of the recorded durations.
+	 * @param percentile The percentile between 0 and 1, for example 0.95.
+	 * @return The estimated duration in milliseconds, 0 if none was recorded.
+	 */
+	public double getPercentileInMillis(double percentile)
+	{
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			counts[i] = m_buckets.get(i);
+			total += counts[i];
+		}
+		if (total == 0) return 0;
+
+		long rank = (long)Math.ceil(Math.max(0, Math.min(1, percentile)) * total);
+		long seen = 0;
+		for(int i = 0; i < BUCKETS; i++)
+		{
+			seen += counts[i];
+			if (seen >= rank && counts[i] > 0)
+			{
+				return Math.min((1L << i) / 1000.0, getMaxInMillis());
+			}
+		}
+		return getMaxInMillis();
+	}
+
+	/** Deletes all recorded durations. */
+	public void reset()
+	{
+		for(int i = 0; i < BUCKETS; i++) m_buckets.set(i, 0L);
+		m_count.reset();
+		m_sumInNanos.reset();
+		m_maxInNanos.set(0L);
+	}
+}
@@ -0,0 +1,469 @@
+package de.dfki.omm.tools;
+
+import java.io.File;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.parsers.SAXParser;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.types.OMMSourceType;
+
+/** A SAX handler to parse complete object memories in a single pass.
+ * The header is parsed by {@link OMMXMLConverter#parseHeader(Element)}, the table of contents is skipped,
+ * and the blocks are parsed with the logic of {@link OMMBlockSaxHandler} and handed to a {@link BlockConsumer} as soon as they are complete.
+ * Only inline XML payloads are built as DOM, the remaining values of a block are collected directly from the SAX events.
+ * <p>A handler can be reused for any number of documents, but not by several threads at once.</p>
+ */
+public class OMMMemorySaxHandler extends OMMBlockSaxHandler
+{
+	/** Receives the blocks of a memory while it is parsed. */
+	public interface BlockConsumer
+	{
+		/** Called for each block of the memory, in document order.
+		 * @param block The parsed block as {@link OMMBlockImpl} or, if possible, one of its more specified subtypes.
+		 */
+		void blockParsed(OMMBlockImpl block);
+	}
+
+	private static final String OMM = OMMXMLConverter.OMM_NAMESPACE_PREFIX + ":omm";
+	private static final String HEADER = OMMXMLConverter.OMM_NAMESPACE_PREFIX + ":header";
+	private static final String BLOCK = OMMXMLConverter.OMM_NAMESPACE_PREFIX + ":block";
+	private static final String PAYLOAD = OMMXMLConverter.OMM_NAMESPACE_PREFIX + ":payload";
+	private static final String ID = OMMXMLConverter.OMM_NAMESPACE_PREFIX + ":id";
+
+	protected BlockConsumer consumer = null;
+	protected OMMHeader header = null;
+	protected int blockCount = 0;
+
+	// depth of the current element, the root element has depth 1
+	protected int depth = 0;
+	// depth of an element whose content is skipped, or 0
+	protected int skipDepth = 0;
+	// depth of the block element being parsed, or 0
+	protected int blockDepth = 0;
+
+	// the payload start element, kept until it is known whether the payload contains inline XML
+	protected boolean inPayload = false;
+	protected String payloadQName = null, payloadURI = null;
+	protected final AttributesImpl payloadAttributes = new AttributesImpl();
+
+	// the element being built as DOM (header or inline payload), and its depth
+	protected Element captureRoot = null;
+	protected Node captureNode = null;
+	protected int captureDepth = 0;
+
+	// namespace declarations in scope, as prefix and URI pairs, with the number of declarations in scope at each depth
+	protected final List<String> nsPrefixes = new ArrayList<String>();
+	protected final List<String> nsURIs = new ArrayList<String>();
+	protected int[] nsMarks = new int[16];
+	protected int pendingMark = -1;
+
+	/** Constructor, the consumer is passed to {@link #parse(InputStream, BlockConsumer)}. */
+	public OMMMemorySaxHandler()
+	{
+		super();
+	}
+
+	/** Constructor for handlers used with an {@link XMLReader} directly.
+	 * @param consumer The {@link BlockConsumer} receiving the blocks.
+	 */
+	public OMMMemorySaxHandler(BlockConsumer consumer)
+	{
+		super();
+		this.consumer = consumer;
+	}
+
+	/** Parses a memory and hands its blocks to a consumer.
+	 * @param xml The memory as XML {@link InputStream}.
+	 * @param consumer The {@link BlockConsumer} receiving the blocks.
+	 * @return The header of the memory.
+	 * @throws Exception If the XML parser cannot be created or the data is no valid memory.
+	 */
+	public OMMHeader parse(InputStream xml, BlockConsumer consumer) throws Exception
+	{
+		this.consumer = consumer;
+		SAXParser sp = OMMXMLPool.acquireSAXParser();
+		try
+		{
+			XMLReader xr = sp.getXMLReader();
+			xr.setContentHandler(this);
+			xr.parse(new InputSource(xml));
+			return header;
+		}
+		finally
+		{
+			this.consumer = null;
+			OMMXMLPool.release(sp);
+		}
+	}
+
+	/** Loads a memory with this handler, see {@link OMMStaxLoader#load(InputStream, URL, File, OMMSourceType)}.
+	 * @param xml The memory as XML {@link InputStream}.
+	 * @param urlSource The memory's source URL, if any.
+	 * @param fileSource The memory's source file, if any.
+	 * @param sourceType The type of the source.
+	 * @return The loaded {@link OMM}, or null if it could not be parsed.
+	 */
+	public OMM load(InputStream xml, URL urlSource, File fileSource, OMMSourceType sourceType)
+	{
+		try
+		{
+			final List<OMMBlock> blocks = new ArrayList<OMMBlock>();
+			OMMHeader header = parse(xml, new BlockConsumer()
+			{
+				public void blockParsed(OMMBlockImpl block) { blocks.add(block); }
+			});
+			if (header == null) throw new IllegalArgumentException("xml file is not valid");
+
+			OMMImpl omm = null;
+			if (sourceType == OMMSourceType.LocalFile)
+				omm = (OMMImpl) OMMImpl.create(header, blocks, fileSource, sourceType);
+			else
+				omm = (OMMImpl) OMMImpl.create(header, blocks, urlSource, sourceType);
+
+			for(OMMBlock block : blocks)
+			{
+				((OMMBlockImpl)block).setParentOMM(omm);
+			}
+
+			return omm;
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/** Retrieves the header of the last parsed memory.
+	 * @return The header, or null if the document contained none.
+	 */
+	public OMMHeader getHeader()
+	{
+		return header;
+	}
+
+	/** Retrieves the number of blocks of the last parsed memory.
+	 * @return The number of blocks handed to the consumer.
+	 */
+	public int getBlockCount()
+	{
+		return blockCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.helpers.DefaultHandler#startDocument()
+	 */
+	@Override
+	public void startDocument()
+	{
+		reset();
+		header = null;
+		blockCount = 0;
+		depth = skipDepth = blockDepth = captureDepth = 0;
+		inPayload = false;
+		captureRoot = null;
+		captureNode = null;
+		nsPrefixes.clear();
+		nsURIs.clear();
+		pendingMark = -1;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.xml.sax.helpers.DefaultHandler#startPrefixMapping(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void startPrefixMapping(String prefix, String uri)
+	{
+		// only reported by namespace aware parsers, declarations are taken from the attributes otherwise
+		if (pendingMark < 0) pendingMark = nsPrefixes.size();
+		nsPrefixes.add(prefix);
+		nsURIs.add(uri);
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.tools.OMMBlockSaxHandler#startElement(java.lang.String, java.lang.String, java.lang.String, org.xml.sax.Attributes)
+	 */
+	@Override
+	public void startElement(String uri, String localName, String qName, Attributes attributes) throws SAXException
+	{
+		depth++;
+		if (inPayload)
+		{
+			// the payload contains inline XML and is built as DOM from here on
+			Document doc = OMMXMLConverter.createNewXmlDocument();
+			captureRoot = createElement(doc, payloadURI, payloadQName, payloadAttributes, true);
+			doc.appendChild(captureRoot);
+			if (text.length() > 0) captureRoot.appendChild(doc.createTextNode(text.toString()));
+			captureNode = captureRoot;
+			captureDepth = depth - 1;
+			inPayload = false;
+		}
+		pushNamespaces(attributes);
+
+		if (skipDepth > 0) return;
+
+		if (captureNode != null)
+		{
+			Element e = createElement(captureNode.getOwnerDocument(), uri, qName, attributes, false);
+			captureNode.appendChild(e);
+			captureNode = e;
+			return;
+		}
+
+		if (depth == 1)
+		{
+			if (!qName.equals(OMM)) throw new SAXException("document is no object memory: " + qName);
+			return;
+		}
+
+		if (depth == 2)
+		{
+			if (qName.equals(BLOCK))
+			{
+				reset();
+				blockID = attributes.getValue(ID);
+				blockDepth = depth;
+			}
+			else if (qName.equals(HEADER))
+			{
+				Document doc = OMMXMLConverter.createNewXmlDocument();
+				captureRoot = createElement(doc, uri, qName, attributes, true);
+				doc.appendChild(captureRoot);
+				captureNode = captureRoot;
+				captureDepth = depth;
+			}
+			else
+			{
+				// table of contents and unknown elements
+				skipDepth = depth;
+			}
+			return;
+		}
+
+		if (blockDepth > 0)
+		{
+			super.startElement(uri, localName, qName, attributes);
+			if (depth == blockDepth + 1 && qName.equals(PAYLOAD))
+			{
+				// namespaces are resolved now, as those declared by the inline XML are not in scope of the payload element
+				inPayload = true;
+				payloadQName = qName;
+				payloadURI = (uri == null || uri.isEmpty()) ? resolve(getPrefix(qName)) : uri;
+				payloadAttributes.setAttributes(attributes);
+				for(int i = 0; i < payloadAttributes.getLength(); i++)
+				{
+					String name = payloadAttributes.getQName(i);
+					if (name.indexOf(':') > 0 && !name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":") && payloadAttributes.getURI(i).isEmpty()) payloadAttributes.setURI(i, resolve(getPrefix(name)));
+				}
+			}
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.tools.OMMBlockSaxHandler#endElement(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void endElement(String uri, String localName, String qName) throws SAXException
+	{
+		try
+		{
+			if (skipDepth > 0)
+			{
+				if (depth == skipDepth) skipDepth = 0;
+				return;
+			}
+
+			if (captureNode != null)
+			{
+				if (depth > captureDepth) captureNode = captureNode.getParentNode();
+				else finishCapture();
+				return;
+			}
+
+			if (blockDepth > 0)
+			{
+				if (depth == blockDepth)
+				{
+					block = OMMXMLConverter.specializeBlock(createBlock());
+					blockCount++;
+					if (consumer != null) consumer.blockParsed(block);
+					blockDepth = 0;
+				}
+				else
+				{
+					inPayload = false;
+					super.endElement(uri, localName, qName);
+				}
+			}
+		}
+		finally
+		{
+			popNamespaces();
+			depth--;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.tools.OMMBlockSaxHandler#characters(char[], int, int)
+	 */
+	@Override
+	public void characters(char[] ch, int start, int length) throws SAXException
+	{
+		if (skipDepth > 0) return;
+		if (captureNode != null)
+		{
+			captureNode.appendChild(captureNode.getOwnerDocument().createTextNode(new String(ch, start, length)));
+			return;
+		}
+		super.characters(ch, start, length);
+	}
+
+	/* (non-Javadoc)
+	 * @see de.dfki.omm.tools.OMMBlockSaxHandler#endDocument()
+	 */
+	@Override
+	public void endDocument()
+	{
+		// blocks are created at the end of their elements
+	}
+
+	// helper methods
+
+	/** Completes the header or payload built as DOM. */
+	private void finishCapture()
+	{
+		Element root = captureRoot;
+		captureRoot = null;
+		captureNode = null;
+		captureDepth = 0;
+
+		if (root.getNodeName().equals(HEADER))
+		{
+			header = OMMXMLConverter.parseHeader(root);
+		}
+		else
+		{
+			String encoding = root.getAttribute(OMMXMLConverter.OMM_NAMESPACE_PREFIX + ":encoding");
+			payloadElement = root;
+			payload = OMMXMLConverter.getTypedValue(encoding, root.getTextContent());
+			currentElement = false;
+			ommSchema = ommEncoding = ommType = xmlLang = ommDate = ommValue = ommHash = null;
+		}
+	}
+
+	/** Creates an element with the name and attributes of a start element, resolving namespaces if the parser does not.
+	 * The root of a DOM built from a part of the document declares all namespaces in scope, other elements only their own ones.
+	 */
+	private Element createElement(Document doc, String uri, String qName, Attributes attributes, boolean root)
+	{
+		if (uri == null || uri.isEmpty()) uri = resolve(getPrefix(qName));
+		Element e = doc.createElementNS(uri, qName);
+
+		if (root) declareNamespaces(e);
+		else for(int i = nsMarks[depth]; i < nsPrefixes.size(); i++) declareNamespace(e, i);
+
+		for(int i = 0; i < attributes.getLength(); i++)
+		{
+			String name = attributes.getQName(i);
+			String attributeURI = attributes.getURI(i);
+			if (name.equals(XMLConstants.XMLNS_ATTRIBUTE) || name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":")) attributeURI = XMLConstants.XMLNS_ATTRIBUTE_NS_URI;
+			else if (attributeURI == null || attributeURI.isEmpty()) attributeURI = (name.indexOf(':') < 0) ? null : resolve(getPrefix(name));
+			e.setAttributeNS(attributeURI, name, attributes.getValue(i));
+		}
+
+		return e;
+	}
+
+	/** Declares all namespaces in scope at the root of a DOM built from a part of the document, unless already declared. */
+	private void declareNamespaces(Element root)
+	{
+		// declarations reported for the next element are not in scope yet
+		int count = (pendingMark >= 0) ? pendingMark : nsPrefixes.size();
+		for(int i = count - 1; i >= 0; i--)
+		{
+			// declarations shadowed by later ones are skipped
+			if (!root.hasAttribute(getNamespaceAttribute(nsPrefixes.get(i)))) declareNamespace(root, i);
+		}
+	}
+
+	private void declareNamespace(Element e, int i)
+	{
+		e.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, getNamespaceAttribute(nsPrefixes.get(i)), nsURIs.get(i));
+	}
+
+	private static String getNamespaceAttribute(String prefix)
+	{
+		return (prefix == null || prefix.isEmpty()) ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+	}
+
+	private void pushNamespaces(Attributes attributes)
+	{
+		if (depth >= nsMarks.length)
+		{
+			int[] marks = new int[nsMarks.length * 2];
+			System.arraycopy(nsMarks, 0, marks, 0, nsMarks.length);
+			nsMarks = marks;
+		}
+		nsMarks[depth] = (pendingMark >= 0) ? pendingMark : nsPrefixes.size();
+		pendingMark = -1;
+
+		for(int i = 0; i < attributes.getLength(); i++)
+		{
+			String name = attributes.getQName(i);
+			if (name.equals(XMLConstants.XMLNS_ATTRIBUTE))
+			{
+				nsPrefixes.add("");
+				nsURIs.add(attributes.getValue(i));
+			}
+			else if (name.startsWith(XMLConstants.XMLNS_ATTRIBUTE + ":"))
+			{
+				nsPrefixes.add(name.substring(XMLConstants.XMLNS_ATTRIBUTE.length() + 1));
+				nsURIs.add(attributes.getValue(i));
+			}
+		}
+	}
+
+	private void popNamespaces()
+	{
+		int mark = nsMarks[depth];
+		while (nsPrefixes.size() > mark)
+		{
+			nsPrefixes.remove(nsPrefixes.size() - 1);
+			nsURIs.remove(nsURIs.size() - 1);
+		}
+	}
+
+	private String resolve(String prefix)
+	{
+		if (XMLConstants.XML_NS_PREFIX.equals(prefix)) return XMLConstants.XML_NS_URI;
+		for(int i = nsPrefixes.size() - 1; i >= 0; i--)
+		{
+			if (nsPrefixes.get(i).equals(prefix)) return nsURIs.get(i);
+		}
+		return null;
+	}
+
+	private static String getPrefix(String qName)
+	{
+		int colon = qName.indexOf(':');
+		return colon < 0 ? "" : qName.substring(0, colon);
+	}
+}
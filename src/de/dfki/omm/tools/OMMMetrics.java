@@ -0,0 +1,394 @@
+package de.dfki.omm.tools;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+
+/** Collects client-side metrics: request latencies per REST endpoint, transferred bytes, cache hit ratios, XML parse and serialize times and event queue depths.
+ * The metrics can be read directly, published via JMX (see {@link #registerMBean()}) or handed to {@link OMMMetricsReporter}s periodically.
+ */
+public class OMMMetrics
+{
+	/** Whether metrics are collected. */
+	public static boolean METRICS_ENABLED = true;
+	/** Name under which the metrics are registered with the platform MBean server. */
+	public static final String OBJECT_NAME = "de.dfki.omm:type=Metrics";
+
+	/** Endpoint type of requests for the memory header. */
+	public static final String ENDPOINT_HEADER = "header";
+	/** Endpoint type of requests for the list of block IDs. */
+	public static final String ENDPOINT_BLOCK_IDS = "block_ids";
+	/** Endpoint type of requests for block meta data. */
+	public static final String ENDPOINT_META = "meta";
+	/** Endpoint type of requests for block payloads. */
+	public static final String ENDPOINT_PAYLOAD = "payload";
+	/** Endpoint type of all POST requests. */
+	public static final String ENDPOINT_POST = "post";
+	/** Endpoint type of all other requests, such as negotiation data. */
+	public static final String ENDPOINT_OTHER = "other";
+
+	/** Cache of block documents and downloaded blocks in {@link de.dfki.omm.impl.rest.OMMBlockRestImpl}. */
+	public static final String CACHE_BLOCK = "block";
+	/** Cache of header and negotiation data in {@link de.dfki.omm.impl.rest.OMMRestImpl}. */
+	public static final String CACHE_METADATA = "metadata";
+
+	private static final ConcurrentMap<String, OMMLatencyHistogram> s_requests = new ConcurrentHashMap<String, OMMLatencyHistogram>();
+	private static final ConcurrentMap<String, OMMStripedCounter[]> s_caches = new ConcurrentHashMap<String, OMMStripedCounter[]>();
+	private static final OMMLatencyHistogram s_parse = new OMMLatencyHistogram();
+	private static final OMMLatencyHistogram s_serialize = new OMMLatencyHistogram();
+	private static final OMMLatencyHistogram s_sync = new OMMLatencyHistogram();
+	private static final OMMLatencyHistogram s_syncLag = new OMMLatencyHistogram();
+	private static final AtomicLong s_eventQueueDepth = new AtomicLong();
+	private static final AtomicLong s_maxEventQueueDepth = new AtomicLong();
+	private static final OMMStripedCounter s_eventsDispatched = new OMMStripedCounter();
+
+	private static final Map<OMMMetricsReporter, ScheduledFuture<?>> s_reporters = new ConcurrentHashMap<OMMMetricsReporter, ScheduledFuture<?>>();
+	private static ScheduledExecutorService s_scheduler = null;
+
+	private OMMMetrics() {}
+
+	// recording
+
+	/** Records a request to the REST interface.
+	 * @param endpoint Type of the endpoint, see {@link #getEndpoint(String, boolean)}.
+	 * @param nanos Duration of the request in nanoseconds.
+	 */
+	public static void recordRequest(String endpoint, long nanos)
+	{
+		if (!METRICS_ENABLED) return;
+		getRequestHistogram(endpoint).record(nanos);
+	}
+
+	/** Records the time it took to parse an XML document.
+	 * @param nanos Duration in nanoseconds.
+	 */
+	public static void recordParse(long nanos)
+	{
+		if (METRICS_ENABLED) s_parse.record(nanos);
+	}
+
+	/** Records the time it took to serialize an XML node.
+	 * @param nanos Duration in nanoseconds.
+	 */
+	public static void recordSerialize(long nanos)
+	{
+		if (METRICS_ENABLED) s_serialize.record(nanos);
+	}
+
+	/** Records the time it took to synchronize a local mirror of a memory.
+	 * @param nanos Duration in nanoseconds.
+	 */
+	public static void recordSync(long nanos)
+	{
+		if (METRICS_ENABLED) s_sync.record(nanos);
+	}
+
+	/** Records the age of the local mirror from which a read was answered.
+	 * @param millis Time since the mirror was last known to match the OMS in milliseconds.
+	 */
+	public static void recordSyncLag(long millis)
+	{
+		if (METRICS_ENABLED) s_syncLag.record(millis * 1000000L);
+	}
+
+	/** Records an access to a cache.
+	 * @param cache Name of the cache, for example {@link #CACHE_BLOCK}.
+	 * @param hit True, if the access was answered from the cache.
+	 */
+	public static void recordCacheAccess(String cache, boolean hit)
+	{
+		if (!METRICS_ENABLED) return;
+		getCacheCounters(cache)[hit ? 0 : 1].increment();
+	}
+
+	/** Records that an event was handed to the event executor. */
+	public static void recordEventQueued()
+	{
+		long depth = s_eventQueueDepth.incrementAndGet();
+		long max = s_maxEventQueueDepth.get();
+		while (depth > max && !s_maxEventQueueDepth.compareAndSet(max, depth))
+		{
+			max = s_maxEventQueueDepth.get();
+		}
+	}
+
+	/** Records that an event was delivered to its listener. */
+	public static void recordEventDispatched()
+	{
+		s_eventQueueDepth.decrementAndGet();
+		s_eventsDispatched.increment();
+	}
+
+	/** Determines the endpoint type of a request to the REST interface.
+	 * @param path Path of the requested address.
+	 * @param isPost True, if the request is a POST.
+	 * @return One of the <code>ENDPOINT_</code> constants.
+	 */
+	public static String getEndpoint(String path, boolean isPost)
+	{
+		if (isPost) return ENDPOINT_POST;
+		if (path == null) return ENDPOINT_OTHER;
+		if (path.endsWith("/header")) return ENDPOINT_HEADER;
+		if (path.endsWith("/block_ids")) return ENDPOINT_BLOCK_IDS;
+		if (path.contains("/payload")) return ENDPOINT_PAYLOAD;
+		if (path.contains("/meta") || path.contains("/block/")) return ENDPOINT_META;
+		return ENDPOINT_OTHER;
+	}
+
+	// reading
+
+	/** Retrieves the latency histogram of an endpoint type.
+	 * @param endpoint Type of the endpoint, for example {@link #ENDPOINT_META}.
+	 * @return The {@link OMMLatencyHistogram}, which is empty if no request was recorded yet.
+	 */
+	public static OMMLatencyHistogram getRequestHistogram(String endpoint)
+	{
+		OMMLatencyHistogram histogram = s_requests.get(endpoint);
+		if (histogram == null)
+		{
+			s_requests.putIfAbsent(endpoint, new OMMLatencyHistogram());
+			histogram = s_requests.get(endpoint);
+		}
+		return histogram;
+	}
+
+	/** Retrieves the histogram of XML parse times. */
+	public static OMMLatencyHistogram getParseHistogram() { return s_parse; }
+
+	/** Retrieves the histogram of XML serialize times. */
+	public static OMMLatencyHistogram getSerializeHistogram() { return s_serialize; }
+
+	/** Retrieves the histogram of mirror synchronization times. */
+	public static OMMLatencyHistogram getSyncHistogram() { return s_sync; }
+
+	/** Retrieves the histogram of the age of mirrors at the time of reads. */
+	public static OMMLatencyHistogram getSyncLagHistogram() { return s_syncLag; }
+
+	/** Retrieves the number of accesses to a cache that were answered from it. */
+	public static long getCacheHits(String cache) { return getCacheCounters(cache)[0].sum(); }
+
+	/** Retrieves the number of accesses to a cache that had to fetch the data. */
+	public static long getCacheMisses(String cache) { return getCacheCounters(cache)[1].sum(); }
+
+	/** Retrieves the share of accesses to a cache that were answered from it.
+	 * @param cache Name of the cache, for example {@link #CACHE_BLOCK}.
+	 * @return The ratio between 0 and 1, 0 if the cache was not accessed yet.
+	 */
+	public static double getCacheHitRatio(String cache)
+	{
+		long hits = getCacheHits(cache), total = hits + getCacheMisses(cache);
+		return total == 0 ? 0 : (double)hits / total;
+	}
+
+	/** Retrieves the number of events waiting to be delivered to listeners. */
+	public static long getEventQueueDepth() { return s_eventQueueDepth.get(); }
+
+	/** Retrieves the highest number of events that were waiting at the same time. */
+	public static long getMaxEventQueueDepth() { return s_maxEventQueueDepth.get(); }
+
+	/** Retrieves the number of events delivered to listeners. */
+	public static long getEventsDispatched() { return s_eventsDispatched.sum(); }
+
+	/** Retrieves the current values of all metrics.
+	 * @return The values by name, sorted by name.
+	 */
+	public static Map<String, Number> getValues()
+	{
+		Map<String, Number> values = new TreeMap<String, Number>();
+		for(Map.Entry<String, OMMLatencyHistogram> entry : s_requests.entrySet())
+		{
+			putHistogram(values, "rest." + entry.getKey(), entry.getValue());
+		}
+		values.put("rest.bytesIn", RestCompression.getBytesReceived());
+		values.put("rest.bytesInDecoded", RestCompression.getBytesDecoded());
+		values.put("rest.bytesOut", RestCompression.getBytesSent());
+		values.put("rest.bytesOutEncoded", RestCompression.getBytesEncoded());
+
+		for(String cache : s_caches.keySet())
+		{
+			values.put("cache." + cache + ".hits", getCacheHits(cache));
+			values.put("cache." + cache + ".misses", getCacheMisses(cache));
+			values.put("cache." + cache + ".hitRatio", getCacheHitRatio(cache));
+		}
+
+		putHistogram(values, "xml.parse", s_parse);
+		putHistogram(values, "xml.serialize", s_serialize);
+		putHistogram(values, "mirror.sync", s_sync);
+		putHistogram(values, "mirror.lag", s_syncLag);
+
+		values.put("events.queueDepth", getEventQueueDepth());
+		values.put("events.maxQueueDepth", getMaxEventQueueDepth());
+		values.put("events.dispatched", getEventsDispatched());
+		return values;
+	}
+
+	/** Sets all metrics back to zero, except for the number of events currently waiting. */
+	public static void reset()
+	{
+		for(OMMLatencyHistogram histogram : s_requests.values()) histogram.reset();
+		for(OMMStripedCounter[] counters : s_caches.values())
+		{
+			counters[0].reset();
+			counters[1].reset();
+		}
+		s_parse.reset();
+		s_serialize.reset();
+		s_sync.reset();
+		s_syncLag.reset();
+		s_maxEventQueueDepth.set(s_eventQueueDepth.get());
+		s_eventsDispatched.reset();
+		RestCompression.resetStatistics();
+	}
+
+	// publishing
+
+	/** Publishes the metrics with the platform MBean server under {@link #OBJECT_NAME}.
+	 * @return True, if the metrics are registered afterwards.
+	 */
+	public static synchronized boolean registerMBean()
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name))
+			{
+				server.registerMBean(new StandardMBean(new MBeanView(), OMMMetricsMBean.class), name);
+			}
+			return true;
+		}
+		catch(Exception e) { e.printStackTrace(); }
+		return false;
+	}
+
+	/** Removes the metrics from the platform MBean server. */
+	public static synchronized void unregisterMBean()
+	{
+		try
+		{
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (server.isRegistered(name)) server.unregisterMBean(name);
+		}
+		catch(Exception e) { e.printStackTrace(); }
+	}
+
+	/** Hands the current values to a reporter at a fixed rate.
+	 * @param reporter The {@link OMMMetricsReporter} to call.
+	 * @param periodInSeconds Time between two reports.
+	 */
+	public static synchronized void addReporter(final OMMMetricsReporter reporter, long periodInSeconds)
+	{
+		removeReporter(reporter);
+		if (s_scheduler == null)
+		{
+			s_scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+			{
+				public Thread newThread(Runnable r)
+				{
+					Thread t = new Thread(r, "OMM metrics reporter");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+		}
+
+		ScheduledFuture<?> future = s_scheduler.scheduleAtFixedRate(new Runnable()
+		{
+			public void run()
+			{
+				report(reporter);
+			}
+		}, periodInSeconds, periodInSeconds, TimeUnit.SECONDS);
+		s_reporters.put(reporter, future);
+	}
+
+	/** Stops handing values to a reporter.
+	 * @param reporter The {@link OMMMetricsReporter} added via {@link #addReporter(OMMMetricsReporter, long)}.
+	 */
+	public static synchronized void removeReporter(OMMMetricsReporter reporter)
+	{
+		ScheduledFuture<?> future = s_reporters.remove(reporter);
+		if (future != null) future.cancel(false);
+	}
+
+	/** Hands the current values to a reporter once.
+	 * @param reporter The {@link OMMMetricsReporter} to call.
+	 */
+	public static void report(OMMMetricsReporter reporter)
+	{
+		try
+		{
+			reporter.report(getValues());
+		}
+		catch(Exception e) { e.printStackTrace(); }
+	}
+
+	// helper methods
+
+	private static OMMStripedCounter[] getCacheCounters(String cache)
+	{
+		OMMStripedCounter[] counters = s_caches.get(cache);
+		if (counters == null)
+		{
+			s_caches.putIfAbsent(cache, new OMMStripedCounter[] { new OMMStripedCounter(), new OMMStripedCounter() });
+			counters = s_caches.get(cache);
+		}
+		return counters;
+	}
+
+	private static void putHistogram(Map<String, Number> values, String prefix, OMMLatencyHistogram histogram)
+	{
+		values.put(prefix + ".count", histogram.getCount());
+		values.put(prefix + ".meanMillis", histogram.getMeanInMillis());
+		values.put(prefix + ".p50Millis", histogram.getPercentileInMillis(0.5));
+		values.put(prefix + ".p95Millis", histogram.getPercentileInMillis(0.95));
+		values.put(prefix + ".p99Millis", histogram.getPercentileInMillis(0.99));
+		values.put(prefix + ".maxMillis", histogram.getMaxInMillis());
+	}
+
+	/** The view of the metrics published via JMX. */
+	private static class MBeanView implements OMMMetricsMBean
+	{
+		public long getRequestCount()
+		{
+			long count = 0;
+			for(OMMLatencyHistogram histogram : s_requests.values()) count += histogram.getCount();
+			return count;
+		}
+
+		public long getBytesIn() { return RestCompression.getBytesReceived(); }
+
+		public long getBytesOut() { return RestCompression.getBytesSent(); }
+
+		public double getBlockCacheHitRatio() { return getCacheHitRatio(CACHE_BLOCK); }
+
+		public double getMetadataCacheHitRatio() { return getCacheHitRatio(CACHE_METADATA); }
+
+		public double getMeanParseTimeInMillis() { return s_parse.getMeanInMillis(); }
+
+		public double getMeanSerializeTimeInMillis() { return s_serialize.getMeanInMillis(); }
+
+		public long getEventQueueDepth() { return OMMMetrics.getEventQueueDepth(); }
+
+		public long getMaxEventQueueDepth() { return OMMMetrics.getMaxEventQueueDepth(); }
+
+		public Map<String, Number> getValues() { return OMMMetrics.getValues(); }
+
+		public double getRequestLatencyInMillis(String endpoint, double percentile) { return getRequestHistogram(endpoint).getPercentileInMillis(percentile); }
+
+		public void reset() { OMMMetrics.reset(); }
+	}
+}
@@ -0,0 +1,47 @@
+package de.dfki.omm.tools;
+
+import java.util.Map;
+
+/** Management interface through which {@link OMMMetrics} are published via JMX. */
+public interface OMMMetricsMBean
+{
+	/** Retrieves the number of requests sent to the REST interface. */
+	long getRequestCount();
+
+	/** Retrieves the number of response bytes received over the wire. */
+	long getBytesIn();
+
+	/** Retrieves the number of request bytes sent over the wire. */
+	long getBytesOut();
+
+	/** Retrieves the share of block data requests answered from the cache. */
+	double getBlockCacheHitRatio();
+
+	/** Retrieves the share of header and negotiation data requests answered from the cache. */
+	double getMetadataCacheHitRatio();
+
+	/** Retrieves the average time to parse an XML document in milliseconds. */
+	double getMeanParseTimeInMillis();
+
+	/** Retrieves the average time to serialize an XML node in milliseconds. */
+	double getMeanSerializeTimeInMillis();
+
+	/** Retrieves the number of events waiting to be delivered to listeners. */
+	long getEventQueueDepth();
+
+	/** Retrieves the highest number of events that were waiting at the same time. */
+	long getMaxEventQueueDepth();
+
+	/** Retrieves the current values of all metrics by name. */
+	Map<String, Number> getValues();
+
+	/** Estimates a percentile of the request latency of an endpoint.
+	 * @param endpoint Type of the REST endpoint, for example <code>meta</code>.
+	 * @param percentile The percentile between 0 and 1.
+	 * @return The estimated latency in milliseconds.
+	 */
+	double getRequestLatencyInMillis(String endpoint, double percentile);
+
+	/** Sets all metrics back to zero. */
+	void reset();
+}
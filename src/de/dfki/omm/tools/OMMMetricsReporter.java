@@ -0,0 +1,12 @@
+package de.dfki.omm.tools;
+
+import java.util.Map;
+
+/** Receives the values collected by {@link OMMMetrics}, for example to write them to a log or to forward them to a monitoring system. */
+public interface OMMMetricsReporter
+{
+	/** Called with the current values of all metrics.
+	 * @param values The values by name, for example <code>rest.meta.p95Millis</code> or <code>cache.block.hitRatio</code>, sorted by name.
+	 */
+	void report(Map<String, Number> values);
+}
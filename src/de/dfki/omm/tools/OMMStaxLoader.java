@@ -0,0 +1,485 @@
+package de.dfki.omm.tools;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import de.dfki.omm.impl.OMMBlockImpl;
+import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.types.OMMSourceType;
+
+/** Loads object memories from their XML representation with a StAX parser.
+ * Instead of building a DOM of the whole <code>omm:omm</code> document, only the header and one block at a time are turned into a small DOM,
+ * which is parsed by {@link OMMXMLConverter#parseHeader(Element)} or {@link OMMXMLConverter#parseBlock(Element)} and then dropped.
+ * The memory needed for loading is therefore close to the size of the largest block instead of a multiple of the file size.
+ * <p>If {@link #PARALLEL_LOADING} is set, the document is read into memory instead and split into block regions by a scanner,
+ * and the blocks are parsed by a {@link ForkJoinPool}, see {@link #loadParallel(InputStream, URL, File, OMMSourceType)}.</p>
+ */
+public class OMMStaxLoader
+{
+	/** Whether {@link #load(InputStream, URL, File, OMMSourceType)} parses the blocks of a memory in parallel. */
+	public static boolean PARALLEL_LOADING = false;
+	/** Number of threads parsing blocks in parallel, used when the pool is created. */
+	public static int PARALLELISM = Runtime.getRuntime().availableProcessors();
+	/** Maximum number of blocks parsed by a single task of the pool, memories with fewer blocks are parsed by the calling thread. */
+	public static int BLOCKS_PER_TASK = 16;
+
+	private static final XMLInputFactory s_factory = createFactory();
+	private static ForkJoinPool s_pool = null;
+
+	private OMMStaxLoader() {}
+
+	private static XMLInputFactory createFactory()
+	{
+		XMLInputFactory factory = XMLInputFactory.newInstance();
+		factory.setProperty(XMLInputFactory.IS_NAMESPACE_AWARE, Boolean.TRUE);
+		factory.setProperty(XMLInputFactory.IS_COALESCING, Boolean.FALSE);
+		return factory;
+	}
+
+	/** <p>Creates an OMM from an XML representation given through an input stream with its respective source, see
+	 * {@link OMMXMLConverter#loadFromXmlStringReader(InputStream, URL, File, OMMSourceType)}.</p>
+	 * <p>The stream is read exactly once and closed afterwards.</p>
+	 * @param xml An XML representation wrapped in an {@link InputStream}.
+	 * @param urlSource Source of the OMM as {@link URL}.
+	 * @param fileSource Source of the OMM as a {@link File}.
+	 * @param sourceType The {@link OMMSourceType} of the source.
+	 * @return The loaded memory as a {@link OMM}, or null if it could not be loaded.
+	 */
+	public static OMM load(InputStream xml, URL urlSource, File fileSource, OMMSourceType sourceType)
+	{
+		if (PARALLEL_LOADING) return loadParallel(xml, urlSource, fileSource, sourceType);
+		return loadSequential(xml, urlSource, fileSource, sourceType);
+	}
+
+	private static OMM loadSequential(InputStream xml, URL urlSource, File fileSource, OMMSourceType sourceType)
+	{
+		XMLStreamReader reader = null;
+		try
+		{
+			reader = s_factory.createXMLStreamReader(xml);
+			reader.nextTag();
+			if (!getQName(reader).equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":omm")) throw new IllegalArgumentException("xml file is not valid");
+
+			// declarations of the root element are repeated on every block, so that inline XML keeps its namespaces
+			Map<String, String> namespaces = new LinkedHashMap<String, String>();
+			for(int i = 0; i < reader.getNamespaceCount(); i++)
+			{
+				namespaces.put(reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+			}
+
+			OMMHeader header = null;
+			Collection<OMMBlock> blocks = new LinkedList<OMMBlock>();
+
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+			{
+				String name = getQName(reader);
+				if (name.equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":header"))
+				{
+					header = OMMXMLConverter.parseHeader(readElement(reader, namespaces));
+				}
+				else if (name.equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":block"))
+				{
+					OMMBlock block = OMMXMLConverter.parseBlock(readElement(reader, namespaces));
+					if (block != null) blocks.add(block);
+				}
+				else skipElement(reader); // table of contents and unknown elements
+			}
+
+			return createOMM(header, blocks, urlSource, fileSource, sourceType);
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			try
+			{
+				if (reader != null) reader.close();
+				if (xml != null) xml.close();
+			}
+			catch(Exception e) { e.printStackTrace(); }
+		}
+		return null;
+	}
+
+	/** <p>Creates an OMM from an XML representation like {@link #load(InputStream, URL, File, OMMSourceType)}, but parses its blocks in parallel.</p>
+	 * <p>The stream is read into memory and split into the regions of the header and of the blocks by a scanner which only looks at the markup.
+	 * Runs of up to {@link #BLOCKS_PER_TASK} block regions are then parsed by the threads of a shared {@link ForkJoinPool}, and the blocks are added to the memory in document order.
+	 * Documents which are not encoded in UTF-8 or contain a document type declaration are loaded sequentially.</p>
+	 * @param xml An XML representation wrapped in an {@link InputStream}.
+	 * @param urlSource Source of the OMM as {@link URL}.
+	 * @param fileSource Source of the OMM as a {@link File}.
+	 * @param sourceType The {@link OMMSourceType} of the source.
+	 * @return The loaded memory as a {@link OMM}, or null if it could not be loaded.
+	 */
+	public static OMM loadParallel(InputStream xml, URL urlSource, File fileSource, OMMSourceType sourceType)
+	{
+		byte[] data = null;
+		try
+		{
+			data = readFully(xml);
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+			return null;
+		}
+
+		ByteBuffer buffer = ByteBuffer.wrap(data);
+		OMMXMLBlockIndex index = OMMXMLBlockIndex.scan(buffer, false);
+		if (index == null || index.getHeaderStart() < 0)
+		{
+			// leave everything the scanner does not understand, including invalid documents, to the parser
+			return loadSequential(new ByteArrayInputStream(data), urlSource, fileSource, sourceType);
+		}
+
+		try
+		{
+			OMMHeader header = parseHeader(buffer, index);
+
+			OMMBlock[] parsed = new OMMBlock[index.getBlockCount()];
+			ParseBlocksTask task = new ParseBlocksTask(buffer, index, parsed, 0, parsed.length);
+			if (parsed.length <= BLOCKS_PER_TASK) task.compute();
+			else getPool().invoke(task);
+
+			Collection<OMMBlock> blocks = new LinkedList<OMMBlock>();
+			for(OMMBlock block : parsed)
+			{
+				if (block != null) blocks.add(block);
+			}
+			return createOMM(header, blocks, urlSource, fileSource, sourceType);
+		}
+		catch(Exception e)
+		{
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	private static OMM createOMM(OMMHeader header, Collection<OMMBlock> blocks, URL urlSource, File fileSource, OMMSourceType sourceType)
+	{
+		if (header == null) throw new IllegalArgumentException("xml file is not valid");
+
+		OMMImpl omm = null;
+		if (sourceType == OMMSourceType.LocalFile)
+			omm = (OMMImpl) OMMImpl.create(header, blocks, fileSource, sourceType);
+		else
+			omm = (OMMImpl) OMMImpl.create(header, blocks, urlSource, sourceType);
+
+		for(OMMBlock block : blocks)
+		{
+			((OMMBlockImpl)block).setParentOMM(omm);
+		}
+
+		return omm;
+	}
+
+	private static synchronized ForkJoinPool getPool()
+	{
+		if (s_pool == null) s_pool = new ForkJoinPool(Math.max(1, PARALLELISM));
+		return s_pool;
+	}
+
+	private static byte[] readFully(InputStream xml) throws Exception
+	{
+		try
+		{
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(8192, xml.available()));
+			byte[] buffer = new byte[65536];
+			int read;
+			while ((read = xml.read(buffer)) != -1)
+			{
+				bytes.write(buffer, 0, read);
+			}
+			return bytes.toByteArray();
+		}
+		finally
+		{
+			xml.close();
+		}
+	}
+
+	/** Builds a DOM of the element the reader is positioned at, including all its content, and moves the reader to the element's end.
+	 * @param reader The {@link XMLStreamReader} positioned at a start element.
+	 * @param namespaces Namespace declarations in scope which are added to the element if it does not declare the prefix itself.
+	 * @return The element as root {@link Element} of its own {@link Document}.
+	 * @throws XMLStreamException If the XML is not well-formed.
+	 */
+	private static Element readElement(XMLStreamReader reader, Map<String, String> namespaces) throws XMLStreamException
+	{
+		Document doc = OMMXMLConverter.createNewXmlDocument();
+		Element root = createElement(doc, reader);
+		doc.appendChild(root);
+		for(Map.Entry<String, String> namespace : namespaces.entrySet())
+		{
+			String attribute = (namespace.getKey() == null || namespace.getKey().isEmpty()) ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + namespace.getKey();
+			if (!root.hasAttribute(attribute)) root.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attribute, namespace.getValue());
+		}
+
+		Node current = root;
+		while (current != null)
+		{
+			switch(reader.next())
+			{
+				case XMLStreamConstants.START_ELEMENT:
+					Element child = createElement(doc, reader);
+					current.appendChild(child);
+					current = child;
+					break;
+				case XMLStreamConstants.END_ELEMENT:
+					current = (current == root) ? null : current.getParentNode();
+					break;
+				case XMLStreamConstants.CHARACTERS:
+				case XMLStreamConstants.SPACE:
+				case XMLStreamConstants.ENTITY_REFERENCE:
+					current.appendChild(doc.createTextNode(reader.getText()));
+					break;
+				case XMLStreamConstants.CDATA:
+					current.appendChild(doc.createCDATASection(reader.getText()));
+					break;
+				case XMLStreamConstants.COMMENT:
+					current.appendChild(doc.createComment(reader.getText()));
+					break;
+				case XMLStreamConstants.PROCESSING_INSTRUCTION:
+					current.appendChild(doc.createProcessingInstruction(reader.getPITarget(), reader.getPIData()));
+					break;
+				default:
+					break;
+			}
+		}
+		return root;
+	}
+
+	/** Creates an element with the name, namespace declarations and attributes of the current start element. */
+	private static Element createElement(Document doc, XMLStreamReader reader)
+	{
+		String namespaceURI = reader.getNamespaceURI();
+		Element e = doc.createElementNS((namespaceURI == null || namespaceURI.isEmpty()) ? null : namespaceURI, getQName(reader));
+
+		for(int i = 0; i < reader.getNamespaceCount(); i++)
+		{
+			String prefix = reader.getNamespacePrefix(i);
+			String attribute = (prefix == null || prefix.isEmpty()) ? XMLConstants.XMLNS_ATTRIBUTE : XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix;
+			e.setAttributeNS(XMLConstants.XMLNS_ATTRIBUTE_NS_URI, attribute, reader.getNamespaceURI(i));
+		}
+
+		for(int i = 0; i < reader.getAttributeCount(); i++)
+		{
+			String attributeNS = reader.getAttributeNamespace(i);
+			String prefix = reader.getAttributePrefix(i);
+			String name = (prefix == null || prefix.isEmpty()) ? reader.getAttributeLocalName(i) : prefix + ":" + reader.getAttributeLocalName(i);
+			e.setAttributeNS((attributeNS == null || attributeNS.isEmpty()) ? null : attributeNS, name, reader.getAttributeValue(i));
+		}
+		return e;
+	}
+
+	/** Moves the reader from a start element to its end, skipping all content. */
+	private static void skipElement(XMLStreamReader reader) throws XMLStreamException
+	{
+		int depth = 1;
+		while (depth > 0)
+		{
+			int event = reader.next();
+			if (event == XMLStreamConstants.START_ELEMENT) depth++;
+			else if (event == XMLStreamConstants.END_ELEMENT) depth--;
+		}
+	}
+
+	private static String getQName(XMLStreamReader reader)
+	{
+		String prefix = reader.getPrefix();
+		return (prefix == null || prefix.isEmpty()) ? reader.getLocalName() : prefix + ":" + reader.getLocalName();
+	}
+
+	/** Parses the header of a memory scanned by {@link OMMXMLBlockIndex}.
+	 * @param data The document.
+	 * @param index The index of the document.
+	 * @return The parsed {@link OMMHeader}, or null if the memory has no header.
+	 * @throws XMLStreamException If the header is not well-formed.
+	 */
+	public static OMMHeader parseHeader(ByteBuffer data, OMMXMLBlockIndex index) throws XMLStreamException
+	{
+		if (index.getHeaderStart() < 0) return null;
+		return parseRange(data, index, index.getHeaderStart(), index.getHeaderEnd(), null, 0);
+	}
+
+	/** Parses a single block of a memory scanned by {@link OMMXMLBlockIndex}.
+	 * @param data The document.
+	 * @param index The index of the document.
+	 * @param block The position of the block in the document.
+	 * @return The parsed {@link OMMBlock}.
+	 * @throws XMLStreamException If the block is not well-formed.
+	 */
+	public static OMMBlock parseBlock(ByteBuffer data, OMMXMLBlockIndex index, int block) throws XMLStreamException
+	{
+		OMMBlock[] result = new OMMBlock[1];
+		parseRange(data, index, index.getBlockStart(block), index.getBlockEnd(block), result, 0);
+		return result[0];
+	}
+
+	/** Parses the header or the blocks in a range of the document.
+	 * The range is read behind the start tag of the root element, so that it sees the same namespace declarations as in the whole document.
+	 * Elements between the blocks, such as the table of contents, are skipped.
+	 * @param data The document.
+	 * @param index The index of the document.
+	 * @param start Index of the range's first byte.
+	 * @param end Index behind the range's last byte.
+	 * @param result Array the blocks are stored in, in document order, or null if the range contains the header.
+	 * @param offset Index of the first block in <code>result</code>.
+	 * @return The parsed {@link OMMHeader}, or null if blocks were parsed.
+	 * @throws XMLStreamException If the range is not well-formed.
+	 */
+	private static OMMHeader parseRange(ByteBuffer data, OMMXMLBlockIndex index, int start, int end, OMMBlock[] result, int offset) throws XMLStreamException
+	{
+		List<InputStream> parts = new ArrayList<InputStream>(3);
+		parts.add(new ByteBufferInputStream(data, index.getRootStart(), index.getRootEnd()));
+		parts.add(new ByteBufferInputStream(data, start, end));
+		parts.add(new ByteArrayInputStream(OMMXMLBlockIndex.ROOT_END));
+
+		XMLStreamReader reader = s_factory.createXMLStreamReader(new SequenceInputStream(Collections.enumeration(parts)));
+		try
+		{
+			reader.nextTag();
+			Map<String, String> namespaces = new LinkedHashMap<String, String>();
+			for(int i = 0; i < reader.getNamespaceCount(); i++)
+			{
+				namespaces.put(reader.getNamespacePrefix(i), reader.getNamespaceURI(i));
+			}
+
+			while (reader.nextTag() == XMLStreamConstants.START_ELEMENT)
+			{
+				String name = getQName(reader);
+				if (result == null && name.equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":header"))
+				{
+					return OMMXMLConverter.parseHeader(readElement(reader, namespaces));
+				}
+				else if (result != null && name.equals(OMMXMLConverter.OMM_NAMESPACE_PREFIX+":block"))
+				{
+					result[offset++] = OMMXMLConverter.parseBlock(readElement(reader, namespaces));
+				}
+				else skipElement(reader);
+			}
+			return null;
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	/** Parses a range of the scanned blocks into an array, splitting the range until it is small enough to be read by a single parser. */
+	private static class ParseBlocksTask extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		private final ByteBuffer m_data;
+		private final OMMXMLBlockIndex m_index;
+		private final OMMBlock[] m_result;
+		private final int m_from, m_to;
+
+		public ParseBlocksTask(ByteBuffer data, OMMXMLBlockIndex index, OMMBlock[] result, int from, int to)
+		{
+			m_data = data;
+			m_index = index;
+			m_result = result;
+			m_from = from;
+			m_to = to;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.util.concurrent.RecursiveAction#compute()
+		 */
+		@Override
+		protected void compute()
+		{
+			if (m_to - m_from <= Math.max(1, BLOCKS_PER_TASK))
+			{
+				if (m_from == m_to) return;
+				try
+				{
+					parseRange(m_data, m_index, m_index.getBlockStart(m_from), m_index.getBlockEnd(m_to - 1), m_result, m_from);
+				}
+				catch(XMLStreamException e)
+				{
+					throw new IllegalArgumentException(e);
+				}
+				return;
+			}
+
+			int middle = (m_from + m_to) >>> 1;
+			invokeAll(new ParseBlocksTask(m_data, m_index, m_result, m_from, middle), new ParseBlocksTask(m_data, m_index, m_result, middle, m_to));
+		}
+	}
+
+	/** Reads the bytes between position and limit of a buffer. */
+	private static class ByteBufferInputStream extends InputStream
+	{
+		private final ByteBuffer m_buffer;
+
+		public ByteBufferInputStream(ByteBuffer buffer, int start, int end)
+		{
+			m_buffer = buffer.duplicate();
+			m_buffer.limit(end);
+			m_buffer.position(start);
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.InputStream#read()
+		 */
+		@Override
+		public int read()
+		{
+			return m_buffer.hasRemaining() ? (m_buffer.get() & 0xFF) : -1;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.InputStream#read(byte[], int, int)
+		 */
+		@Override
+		public int read(byte[] b, int off, int len)
+		{
+			if (len == 0) return 0;
+			if (!m_buffer.hasRemaining()) return -1;
+			len = Math.min(len, m_buffer.remaining());
+			m_buffer.get(b, off, len);
+			return len;
+		}
+
+		/* (non-Javadoc)
+		 * @see java.io.InputStream#available()
+		 */
+		@Override
+		public int available()
+		{
+			return m_buffer.remaining();
+		}
+	}
+}
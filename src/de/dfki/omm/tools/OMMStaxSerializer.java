@@ -0,0 +1,351 @@
+package de.dfki.omm.tools;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.xml.XMLConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
+import org.w3c.dom.ProcessingInstruction;
+
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMHeader;
+import de.dfki.omm.interfaces.OMMToCEntry;
+import de.dfki.omm.types.OMMEntity;
+import de.dfki.omm.types.OMMEntityCollection;
+import de.dfki.omm.types.OMMFormat;
+import de.dfki.omm.types.OMMMultiLangText;
+import de.dfki.omm.types.OMMSubjectTag;
+
+/** Writes object memories in their XML representation to a stream with an {@link XMLStreamWriter}.
+ * Header, table of contents and blocks are written directly, without building a DOM of the document or a String of the whole output.
+ * Together with {@link OMMXMLStreamWriter} the output is byte-identical to the one of {@link OMMXMLConverter#generateCompleteBlock(OMMBlock, boolean)}
+ * and the other DOM based methods, therefore attributes are written in the alphabetical order a DOM keeps them in.
+ */
+public class OMMStaxSerializer
+{
+	private static final String P = OMMXMLConverter.OMM_NAMESPACE_PREFIX;
+	private static final String NS = OMMXMLConverter.OMM_NAMESPACE_URI;
+
+	private OMMStaxSerializer() {}
+
+	/** Writes an object memory as UTF-8 encoded XML document to a stream, which is flushed but not closed.
+	 * @param omm The {@link OMM} to write.
+	 * @param withToC True, if the Table of Contents is to be included.
+	 * @param os The {@link OutputStream} to write to.
+	 * @throws IOException If the stream cannot be written.
+	 */
+	public static void write(OMM omm, boolean withToC, OutputStream os) throws IOException
+	{
+		Writer writer = new BufferedWriter(new OutputStreamWriter(os, "UTF-8"), 65536);
+		write(omm, withToC, writer);
+		writer.flush();
+	}
+
+	/** Writes an object memory as XML document to a writer, see {@link OMMXMLConverter#toXMLFileString(OMM, boolean)}.
+	 * @param omm The {@link OMM} to write.
+	 * @param withToC True, if the Table of Contents is to be included.
+	 * @param writer The {@link Writer} to write to, which should be buffered.
+	 * @throws IOException If the writer cannot be written.
+	 */
+	public static void write(OMM omm, boolean withToC, Writer writer) throws IOException
+	{
+		long start = System.nanoTime();
+		try
+		{
+			XMLStreamWriter xml = new OMMXMLStreamWriter(writer);
+			xml.writeStartDocument("UTF-8", "1.0");
+			xml.writeStartElement(P, "omm", NS);
+			xml.writeNamespace(P, NS);
+
+			writeHeader(xml, omm.getHeader());
+			if (withToC) writeToC(xml, omm.getTableOfContents());
+
+			Collection<OMMBlock> blocks = omm.getAllBlocks();
+			if (blocks != null)
+			{
+				for(OMMBlock block : blocks)
+				{
+					writeBlock(xml, block, true);
+				}
+			}
+
+			xml.writeEndElement();
+			xml.writeEndDocument();
+			xml.flush();
+		}
+		catch(XMLStreamException e)
+		{
+			throw new IOException(e);
+		}
+		finally
+		{
+			OMMMetrics.recordSerialize(System.nanoTime() - start);
+		}
+	}
+
+	/** Writes the header of an object memory as <code>omm:header</code> element.
+	 * @param xml The {@link XMLStreamWriter} to write to, in which the OMM namespace is bound.
+	 * @param header The {@link OMMHeader} to write.
+	 * @throws XMLStreamException If the header cannot be written.
+	 */
+	public static void writeHeader(XMLStreamWriter xml, OMMHeader header) throws XMLStreamException
+	{
+		xml.writeStartElement(P, "header", NS);
+		writeElement(xml, "version", header.getVersion()+"");
+		writeElement(xml, "primaryID", header.getPrimaryID().getValue()+"", P+":type", header.getPrimaryID().getType());
+		xml.writeEndElement();
+	}
+
+	/** Writes a Table of Contents as <code>omm:toc</code> element.
+	 * @param xml The {@link XMLStreamWriter} to write to, in which the OMM namespace is bound.
+	 * @param toc The ToC as {@link Collection} of {@link OMMToCEntry}s.
+	 * @throws XMLStreamException If the ToC cannot be written.
+	 */
+	public static void writeToC(XMLStreamWriter xml, Collection<OMMToCEntry> toc) throws XMLStreamException
+	{
+		xml.writeStartElement(P, "toc", NS);
+		for(OMMToCEntry entry : toc)
+		{
+			xml.writeStartElement(P, "element", NS);
+			xml.writeAttribute(P+":id", entry.getID());
+			if (entry.getNamespace() != null) writeElement(xml, "namespace", entry.getNamespace().toString());
+			writeEntity(xml, "creation", "creator", entry.getCreator());
+			writeContributors(xml, entry.getContributors());
+			writeMultiLangText(xml, "title", entry.getTitle());
+			if (entry.getSubject() != null)
+			{
+				for(OMMSubjectTag tag : entry.getSubject()) writeTag(xml, tag);
+			}
+			xml.writeEndElement();
+		}
+		xml.writeEndElement();
+	}
+
+	/** Writes a block as <code>omm:block</code> element.
+	 * @param xml The {@link XMLStreamWriter} to write to, in which the OMM namespace is bound.
+	 * @param block The {@link OMMBlock} to write.
+	 * @param withPayload True, if the payload is to be included.
+	 * @throws XMLStreamException If the block cannot be written.
+	 */
+	public static void writeBlock(XMLStreamWriter xml, OMMBlock block, boolean withPayload) throws XMLStreamException
+	{
+		xml.writeStartElement(P, "block", NS);
+		xml.writeAttribute(P+":id", block.getID());
+
+		if (block.getPrimaryID() != null) writeElement(xml, "primaryID", block.getPrimaryID().getValue()+"", P+":type", block.getPrimaryID().getType());
+		if (block.getNamespace() != null) writeElement(xml, "namespace", block.getNamespace().toString());
+		writeEntity(xml, "creation", "creator", block.getCreator());
+		writeContributors(xml, block.getContributors());
+		writeMultiLangText(xml, "title", block.getTitle());
+		if (block.getDescription() != null) writeMultiLangText(xml, "description", block.getDescription());
+
+		OMMFormat format = block.getFormat();
+		if (format != null)
+		{
+			xml.writeStartElement(P, "format", NS);
+			if (format.getEncryption() != null && !format.getEncryption().isEmpty()) xml.writeAttribute(P+":encryption", format.getEncryption());
+			if (format.getSchema() != null) xml.writeAttribute(P+":schema", format.getSchema().toString());
+			xml.writeCharacters(format.getMIMEType());
+			xml.writeEndElement();
+		}
+
+		if (block.getType() != null) writeElement(xml, "type", block.getType().toString());
+
+		if (block.getSubject() != null && block.getSubject().size() > 0)
+		{
+			xml.writeStartElement(P, "subject", NS);
+			for(OMMSubjectTag tag : block.getSubject()) writeTag(xml, tag);
+			xml.writeEndElement();
+		}
+
+		if (block.getPreviousLink() != null)
+		{
+			writeElement(xml, "previousBlock", block.getPreviousLink().getBlockID()+"", P+":previousBlockType", block.getPreviousLink().getType().toString().toLowerCase());
+		}
+
+		if (block.getLink() != null)
+		{
+			xml.writeStartElement(P, "link", NS);
+			if (block.getLinkHash() != null) xml.writeAttribute(P+":hash", block.getLinkHash());
+			xml.writeAttribute(P+":type", block.getLink().getType());
+			xml.writeAttribute("type", block.getLink().getType());
+			xml.writeCharacters(block.getLink().getValue()+"");
+			xml.writeEndElement();
+		}
+
+		if (withPayload) writePayload(xml, block);
+
+		xml.writeEndElement();
+	}
+
+	/** Writes the payload of a block as <code>omm:payload</code> element, see {@link OMMXMLConverter#generatePayload(org.w3c.dom.Document, OMMBlock)}. */
+	private static void writePayload(XMLStreamWriter xml, OMMBlock block) throws XMLStreamException
+	{
+		Element payloadElement = block.getPayloadElement();
+		if (payloadElement != null)
+		{
+			if (payloadElement.getNodeName().equals(P+":payload"))
+			{
+				writeNode(xml, payloadElement);
+				return;
+			}
+			xml.writeStartElement(P, "payload", NS);
+			xml.writeAttribute(P+":encoding", "none");
+			writeNode(xml, payloadElement);
+			xml.writeEndElement();
+		}
+		else if (block.getPayload() != null)
+		{
+			writeElement(xml, "payload", block.getPayload().getValue()+"", P+":encoding", block.getPayload().getType());
+		}
+	}
+
+	private static void writeEntity(XMLStreamWriter xml, String wrapper, String name, OMMEntity entity) throws XMLStreamException
+	{
+		xml.writeStartElement(P, wrapper, NS);
+		writeElement(xml, name, entity.getValue(), P+":type", entity.getType());
+		writeElement(xml, "date", entity.getDateAsISO8601(), P+":encoding", "ISO8601");
+		xml.writeEndElement();
+	}
+
+	private static void writeContributors(XMLStreamWriter xml, OMMEntityCollection contributors) throws XMLStreamException
+	{
+		if (contributors == null) return;
+		for(OMMEntity contributor : contributors)
+		{
+			writeEntity(xml, "contribution", "contributor", contributor);
+		}
+	}
+
+	private static void writeMultiLangText(XMLStreamWriter xml, String name, OMMMultiLangText text) throws XMLStreamException
+	{
+		for(Map.Entry<Locale, String> entry : text.entrySet())
+		{
+			writeElement(xml, name, entry.getValue(), "xml:lang", entry.getKey().getLanguage());
+		}
+	}
+
+	private static void writeTag(XMLStreamWriter xml, OMMSubjectTag tag) throws XMLStreamException
+	{
+		xml.writeStartElement(P, "tag", NS);
+		xml.writeAttribute(P+":type", tag.getType().toString());
+		xml.writeAttribute(P+":value", tag.getValue());
+		if (tag.getChild() != null) writeTag(xml, tag.getChild());
+		xml.writeEndElement();
+	}
+
+	/** Writes an element of the OMM namespace with text content.
+	 * @param attributes Names and values of the attributes in alternation, in alphabetical order of the names.
+	 */
+	private static void writeElement(XMLStreamWriter xml, String name, String text, String... attributes) throws XMLStreamException
+	{
+		xml.writeStartElement(P, name, NS);
+		for(int i = 0; i < attributes.length; i += 2)
+		{
+			xml.writeAttribute(attributes[i], attributes[i + 1] == null ? "" : attributes[i + 1]);
+		}
+		xml.writeCharacters(text);
+		xml.writeEndElement();
+	}
+
+	/** Writes a DOM node with its descendants.
+	 * Namespace declarations are added where needed in the same way the JDK's identity Transformer does when serializing a DOM.
+	 */
+	private static void writeNode(XMLStreamWriter xml, Node node) throws XMLStreamException
+	{
+		switch(node.getNodeType())
+		{
+			case Node.ELEMENT_NODE:
+				writeDOMElement(xml, (Element)node);
+				break;
+			case Node.TEXT_NODE:
+				xml.writeCharacters(node.getNodeValue());
+				break;
+			case Node.CDATA_SECTION_NODE:
+				xml.writeCData(node.getNodeValue());
+				break;
+			case Node.COMMENT_NODE:
+				xml.writeComment(node.getNodeValue());
+				break;
+			case Node.PROCESSING_INSTRUCTION_NODE:
+				xml.writeProcessingInstruction(((ProcessingInstruction)node).getTarget(), ((ProcessingInstruction)node).getData());
+				break;
+			default:
+				break;
+		}
+	}
+
+	private static void writeDOMElement(XMLStreamWriter xml, Element e) throws XMLStreamException
+	{
+		String qname = e.getNodeName();
+		int colon = qname.indexOf(':');
+		String prefix = (colon > 0) ? qname.substring(0, colon) : XMLConstants.DEFAULT_NS_PREFIX;
+		xml.writeStartElement(prefix, qname.substring(colon + 1), e.getNamespaceURI() == null ? XMLConstants.NULL_NS_URI : e.getNamespaceURI());
+
+		Set<String> declared = new HashSet<String>();
+		NamedNodeMap attributes = e.getAttributes();
+
+		// explicit namespace declarations first
+		for(int i = 0; i < attributes.getLength(); i++)
+		{
+			Node attribute = attributes.item(i);
+			String name = attribute.getNodeName();
+			if (!name.startsWith(XMLConstants.XMLNS_ATTRIBUTE)) continue;
+			colon = name.lastIndexOf(':');
+			declareNamespace(xml, declared, (colon > 0) ? name.substring(colon + 1) : XMLConstants.DEFAULT_NS_PREFIX, attribute.getNodeValue());
+		}
+
+		// then attributes, each preceded by the declaration of its namespace if it is not in scope
+		int generatedPrefixes = 0;
+		for(int i = 0; i < attributes.getLength(); i++)
+		{
+			Node attribute = attributes.item(i);
+			String name = attribute.getNodeName();
+			if (name.startsWith(XMLConstants.XMLNS_ATTRIBUTE)) continue;
+			String uri = attribute.getNamespaceURI();
+			if (uri != null && !uri.isEmpty())
+			{
+				colon = name.lastIndexOf(':');
+				String attributePrefix = (colon > 0) ? name.substring(0, colon) : "ns" + (generatedPrefixes++);
+				declareNamespace(xml, declared, attributePrefix, uri);
+				name = attributePrefix + ":" + name.substring(colon + 1);
+			}
+			xml.writeAttribute(name, attribute.getNodeValue());
+		}
+
+		// and the namespace of the element itself
+		declareNamespace(xml, declared, prefix, e.getNamespaceURI() == null ? XMLConstants.NULL_NS_URI : e.getNamespaceURI());
+
+		for(Node child = e.getFirstChild(); child != null; child = child.getNextSibling())
+		{
+			writeNode(xml, child);
+		}
+		xml.writeEndElement();
+	}
+
+	private static void declareNamespace(XMLStreamWriter xml, Set<String> declared, String prefix, String uri) throws XMLStreamException
+	{
+		// the xml prefixes are reserved, and a prefix is declared only once per element
+		if (prefix.startsWith(XMLConstants.XML_NS_PREFIX) || declared.contains(prefix)) return;
+		if (uri.equals(xml.getNamespaceContext().getNamespaceURI(prefix))) return;
+
+		declared.add(prefix);
+		if (prefix.isEmpty()) xml.writeDefaultNamespace(uri);
+		else if (!uri.isEmpty()) xml.writeNamespace(prefix, uri);
+		else xml.setPrefix(prefix, uri);
+	}
+}
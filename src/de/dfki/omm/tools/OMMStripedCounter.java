@@ -0,0 +1,75 @@
+package de.dfki.omm.tools;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Counter which spreads concurrent updates over several cells, so that threads updating it at the same time rarely contend.
+ * Updates are cheap, reading the sum has to visit all cells and is therefore meant for statistics, not for control flow.
+ */
+public class OMMStripedCounter
+{
+	/** Distance between two cells in the backing array, so that each cell lies in a cache line of its own. */
+	private static final int PADDING = 8;
+
+	private final AtomicLongArray m_cells;
+	private final int m_mask;
+
+	/** Creates a counter with about two cells per available processor. */
+	public OMMStripedCounter()
+	{
+		int stripes = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() * 2 - 1)) << 1;
+		m_cells = new AtomicLongArray(stripes * PADDING);
+		m_mask = stripes - 1;
+	}
+
+	/** Adds a value to the counter.
+	 * @param x The value to add.
+	 */
+	public void add(long x)
+	{
+		m_cells.getAndAdd(getCell(), x);
+	}
+
+	/** Increases the counter by one. */
+	public void increment()
+	{
+		add(1L);
+	}
+
+	/** Retrieves the current value of the counter.
+	 * Updates that happen during the call may or may not be included.
+	 * @return The sum of all cells.
+	 */
+	public long sum()
+	{
+		long sum = 0L;
+		for(int i = 0; i < m_cells.length(); i += PADDING)
+		{
+			sum += m_cells.get(i);
+		}
+		return sum;
+	}
+
+	/** Sets the counter back to zero. */
+	public void reset()
+	{
+		for(int i = 0; i < m_cells.length(); i += PADDING)
+		{
+			m_cells.set(i, 0L);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString()
+	{
+		return Long.toString(sum());
+	}
+
+	private int getCell()
+	{
+		long id = Thread.currentThread().getId();
+		return (int)((id ^ (id >>> 16)) & m_mask) * PADDING;
+	}
+}
@@ -0,0 +1,437 @@
+package de.dfki.omm.tools;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import de.dfki.omm.events.OMMEvent;
+import de.dfki.omm.events.OMMEventListener;
+import de.dfki.omm.events.OMMEventType;
+import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.impl.OMMStructureBlockImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMStructureBlock;
+import de.dfki.omm.types.OMMStructureInfo;
+import de.dfki.omm.types.OMMStructureRelation;
+import de.dfki.omm.types.TypedValue;
+
+/** Indexed graph over the {@link OMMStructureInfo} edges of one or more memories.
+ * Nodes are the string values of primary IDs and relation targets, edges are kept per {@link OMMStructureRelation}
+ * in both directions, so neighbours and traversals do not have to scan the structure blocks.
+ * Every query can be restricted to a relation (null means any) and to a time interval (null bounds are open).
+ * An edge with a single date is regarded as valid from that date on. */
+public class OMMStructureGraph
+{
+	/** Direction in which edges are followed. */
+	public enum Direction { Outgoing, Incoming }
+
+	/** One indexed structure information. */
+	protected static class Edge
+	{
+		final String source, target;
+		final OMMStructureInfo info;
+		final long start, end;
+
+		Edge(String source, OMMStructureInfo info)
+		{
+			this.source = source;
+			this.info = info;
+			TypedValue t = info.getRelationTarget();
+			this.target = (t == null || t.getValue() == null) ? null : t.getValue().toString();
+			this.start = info.getStartDate() == null ? Long.MIN_VALUE : info.getStartDate().getTime();
+			this.end = info.getEndDate() == null ? Long.MAX_VALUE : info.getEndDate().getTime();
+		}
+
+		boolean isValid(long from, long to)
+		{
+			return start <= to && end >= from;
+		}
+	}
+
+	/** Indexed state of one structure block. */
+	protected static class BlockEntry
+	{
+		final String source;
+		final List<Edge> edges = new ArrayList<Edge>();
+
+		BlockEntry(String source)
+		{
+			this.source = source;
+		}
+	}
+
+	protected Map<String, EnumMap<OMMStructureRelation, List<Edge>>> m_outgoing = new HashMap<String, EnumMap<OMMStructureRelation, List<Edge>>>();
+	protected Map<String, EnumMap<OMMStructureRelation, List<Edge>>> m_incoming = new HashMap<String, EnumMap<OMMStructureRelation, List<Edge>>>();
+	protected IdentityHashMap<OMMStructureBlock, BlockEntry> m_blocks = new IdentityHashMap<OMMStructureBlock, BlockEntry>();
+	protected IdentityHashMap<OMM, OMMEventListener> m_memories = new IdentityHashMap<OMM, OMMEventListener>();
+	protected int m_edgeCount = 0;
+
+	protected OMMStructureBlockImpl.StructureListener m_structureListener = new OMMStructureBlockImpl.StructureListener()
+	{
+		@Override
+		public void structureInfoAdded(OMMStructureBlock block, OMMStructureInfo info)
+		{
+			synchronized(OMMStructureGraph.this)
+			{
+				BlockEntry entry = m_blocks.get(block);
+				if (entry != null) addEdge(entry, info);
+			}
+		}
+
+		@Override
+		public void structureInfoRemoved(OMMStructureBlock block, OMMStructureInfo info)
+		{
+			synchronized(OMMStructureGraph.this)
+			{
+				BlockEntry entry = m_blocks.get(block);
+				if (entry == null) return;
+				for(int i = 0; i < entry.edges.size(); i++)
+				{
+					if (entry.edges.get(i).info == info)
+					{
+						removeEdge(entry.edges.remove(i));
+						return;
+					}
+				}
+			}
+		}
+	};
+
+	protected OMMStructureGraph()
+	{
+	}
+
+	/** Creates an empty graph.
+	 * @return The new {@link OMMStructureGraph}.
+	 */
+	public static OMMStructureGraph create()
+	{
+		return new OMMStructureGraph();
+	}
+
+	/** Creates a graph over the structure blocks of the given memories.
+	 * @param memories The memories to index.
+	 * @return The new {@link OMMStructureGraph}.
+	 */
+	public static OMMStructureGraph create(OMM... memories)
+	{
+		OMMStructureGraph graph = new OMMStructureGraph();
+		for(OMM omm : memories) graph.addMemory(omm);
+		return graph;
+	}
+
+	/** Indexes all structure blocks of a memory, using the primary ID of its header as source node.
+	 * Later changes to the structure information of indexed blocks are applied synchronously;
+	 * blocks added to or removed from an {@link OMMImpl} are picked up via its (asynchronous) event listeners.
+	 * @param omm The memory to index.
+	 */
+	public synchronized void addMemory(final OMM omm)
+	{
+		if (m_memories.containsKey(omm)) return;
+		final String source = getNodeID(omm.getHeader() != null ? omm.getHeader().getPrimaryID() : null);
+
+		for(OMMBlock block : omm.getAllBlocks())
+		{
+			if (block instanceof OMMStructureBlock) addBlock(source, (OMMStructureBlock)block);
+		}
+
+		OMMEventListener listener = null;
+		if (omm instanceof OMMImpl)
+		{
+			listener = new OMMEventListener()
+			{
+				@Override
+				public void eventOccured(OMMEvent event)
+				{
+					if (!(event.block instanceof OMMStructureBlock)) return;
+					if (event.type == OMMEventType.BLOCK_ADDED) addBlock(source, (OMMStructureBlock)event.block);
+					else if (event.type == OMMEventType.BLOCK_REMOVED) removeBlock((OMMStructureBlock)event.block);
+				}
+			};
+			((OMMImpl)omm).addEventListener(listener);
+		}
+		m_memories.put(omm, listener);
+	}
+
+	/** Removes a memory added by {@link #addMemory(OMM)} together with all of its indexed structure blocks.
+	 * @param omm The memory to remove.
+	 */
+	public synchronized void removeMemory(OMM omm)
+	{
+		if (!m_memories.containsKey(omm)) return;
+		OMMEventListener listener = m_memories.remove(omm);
+		if (listener != null) ((OMMImpl)omm).removeEventListener(listener);
+
+		for(OMMBlock block : omm.getAllBlocks())
+		{
+			if (block instanceof OMMStructureBlock) removeBlock((OMMStructureBlock)block);
+		}
+	}
+
+	/** Indexes the structure information of a single block.
+	 * @param source Node from which the edges of the block start, usually the primary ID of its memory.
+	 * If null, the primary ID of the block is used.
+	 * @param block The {@link OMMStructureBlock} to index.
+	 */
+	public synchronized void addBlock(String source, OMMStructureBlock block)
+	{
+		if (block == null || m_blocks.containsKey(block)) return;
+		if (source == null) source = getNodeID(block.getPrimaryID());
+
+		BlockEntry entry = new BlockEntry(source);
+		m_blocks.put(block, entry);
+		Collection<OMMStructureInfo> infos = block.getStructureInfos();
+		if (infos != null) for(OMMStructureInfo info : infos) addEdge(entry, info);
+
+		if (block instanceof OMMStructureBlockImpl) ((OMMStructureBlockImpl)block).addStructureListener(m_structureListener);
+	}
+
+	/** Removes a block added by {@link #addBlock(String, OMMStructureBlock)} and all of its edges.
+	 * @param block The {@link OMMStructureBlock} to remove.
+	 */
+	public synchronized void removeBlock(OMMStructureBlock block)
+	{
+		BlockEntry entry = m_blocks.remove(block);
+		if (entry == null) return;
+		if (block instanceof OMMStructureBlockImpl) ((OMMStructureBlockImpl)block).removeStructureListener(m_structureListener);
+		for(Edge edge : entry.edges) removeEdge(edge);
+		entry.edges.clear();
+	}
+
+	/** Retrieves the number of indexed edges.
+	 * @return Edge count.
+	 */
+	public synchronized int getEdgeCount()
+	{
+		return m_edgeCount;
+	}
+
+	/** Retrieves all nodes that are source or target of at least one edge.
+	 * @return Set of node IDs.
+	 */
+	public synchronized Set<String> getNodes()
+	{
+		Set<String> nodes = new HashSet<String>(m_outgoing.keySet());
+		nodes.addAll(m_incoming.keySet());
+		return nodes;
+	}
+
+	/** Retrieves the structure information attached to a node.
+	 * @param node The node ID.
+	 * @param relation The relation to follow, or null for any.
+	 * @param direction Whether to return edges leaving or entering the node.
+	 * @param from Start of the time interval, or null.
+	 * @param to End of the time interval, or null.
+	 * @return List of matching {@link OMMStructureInfo}s.
+	 */
+	public synchronized List<OMMStructureInfo> getEdges(String node, OMMStructureRelation relation, Direction direction, Date from, Date to)
+	{
+		List<OMMStructureInfo> result = new ArrayList<OMMStructureInfo>();
+		long f = from == null ? Long.MIN_VALUE : from.getTime(), t = to == null ? Long.MAX_VALUE : to.getTime();
+		for(List<Edge> edges : getEdgeLists(node, relation, direction))
+		{
+			for(Edge edge : edges) if (edge.isValid(f, t)) result.add(edge.info);
+		}
+		return result;
+	}
+
+	/** Retrieves the direct neighbours of a node.
+	 * @param node The node ID.
+	 * @param relation The relation to follow, or null for any.
+	 * @param direction Whether to follow edges forwards (to targets) or backwards (to sources).
+	 * @param from Start of the time interval, or null.
+	 * @param to End of the time interval, or null.
+	 * @return Neighbour node IDs in index order, without duplicates.
+	 */
+	public synchronized List<String> getNeighbours(String node, OMMStructureRelation relation, Direction direction, Date from, Date to)
+	{
+		long f = from == null ? Long.MIN_VALUE : from.getTime(), t = to == null ? Long.MAX_VALUE : to.getTime();
+		LinkedHashSet<String> result = new LinkedHashSet<String>();
+		collectNeighbours(node, relation, direction, f, t, result);
+		return new ArrayList<String>(result);
+	}
+
+	/** Traverses the graph breadth first.
+	 * @param start The start node ID.
+	 * @param relation The relation to follow, or null for any.
+	 * @param direction Direction in which edges are followed.
+	 * @param from Start of the time interval every followed edge must be valid in, or null.
+	 * @param to End of the time interval, or null.
+	 * @return Reachable node IDs (without the start node) in visiting order.
+	 */
+	public synchronized List<String> breadthFirst(String start, OMMStructureRelation relation, Direction direction, Date from, Date to)
+	{
+		return breadthFirst(start, relation, direction, from, to, null);
+	}
+
+	/** Traverses the graph depth first (pre-order).
+	 * @param start The start node ID.
+	 * @param relation The relation to follow, or null for any.
+	 * @param direction Direction in which edges are followed.
+	 * @param from Start of the time interval every followed edge must be valid in, or null.
+	 * @param to End of the time interval, or null.
+	 * @return Reachable node IDs (without the start node) in visiting order.
+	 */
+	public synchronized List<String> depthFirst(String start, OMMStructureRelation relation, Direction direction, Date from, Date to)
+	{
+		long f = from == null ? Long.MIN_VALUE : from.getTime(), t = to == null ? Long.MAX_VALUE : to.getTime();
+		List<String> result = new ArrayList<String>();
+		Set<String> visited = new HashSet<String>();
+		ArrayDeque<String> stack = new ArrayDeque<String>();
+		stack.push(start);
+		LinkedHashSet<String> neighbours = new LinkedHashSet<String>();
+		while(!stack.isEmpty())
+		{
+			String node = stack.pop();
+			if (!visited.add(node)) continue;
+			if (node != start) result.add(node);
+
+			neighbours.clear();
+			collectNeighbours(node, relation, direction, f, t, neighbours);
+			List<String> list = new ArrayList<String>(neighbours);
+			for(int i = list.size() - 1; i >= 0; i--)
+			{
+				if (!visited.contains(list.get(i))) stack.push(list.get(i));
+			}
+		}
+		return result;
+	}
+
+	/** Computes the transitive closure of a node, e.g. all parts of an assembly via {@link OMMStructureRelation#isPartOf} and {@link Direction#Incoming}.
+	 * @param start The start node ID.
+	 * @param relation The relation to follow, or null for any.
+	 * @param direction Direction in which edges are followed.
+	 * @param from Start of the time interval every followed edge must be valid in, or null.
+	 * @param to End of the time interval, or null.
+	 * @return Set of reachable node IDs, without the start node unless it lies on a cycle.
+	 */
+	public synchronized Set<String> getTransitiveClosure(String start, OMMStructureRelation relation, Direction direction, Date from, Date to)
+	{
+		boolean[] cycle = new boolean[1];
+		Set<String> result = new LinkedHashSet<String>(breadthFirst(start, relation, direction, from, to, cycle));
+		if (cycle[0]) result.add(start);
+		return result;
+	}
+
+	/** Converts a primary ID or relation target into a node ID.
+	 * @param value The {@link TypedValue}.
+	 * @return The node ID, or null.
+	 */
+	public static String getNodeID(TypedValue value)
+	{
+		if (value == null || value.getValue() == null) return null;
+		return value.getValue().toString();
+	}
+
+	protected List<String> breadthFirst(String start, OMMStructureRelation relation, Direction direction, Date from, Date to, boolean[] cycle)
+	{
+		long f = from == null ? Long.MIN_VALUE : from.getTime(), t = to == null ? Long.MAX_VALUE : to.getTime();
+		List<String> result = new ArrayList<String>();
+		Set<String> visited = new HashSet<String>();
+		visited.add(start);
+		ArrayDeque<String> queue = new ArrayDeque<String>();
+		queue.add(start);
+		LinkedHashSet<String> neighbours = new LinkedHashSet<String>();
+		while(!queue.isEmpty())
+		{
+			neighbours.clear();
+			collectNeighbours(queue.poll(), relation, direction, f, t, neighbours);
+			for(String n : neighbours)
+			{
+				if (visited.add(n))
+				{
+					result.add(n);
+					queue.add(n);
+				}
+				else if (cycle != null && n.equals(start)) cycle[0] = true;
+			}
+		}
+		return result;
+	}
+
+	protected void collectNeighbours(String node, OMMStructureRelation relation, Direction direction, long from, long to, Set<String> result)
+	{
+		for(List<Edge> edges : getEdgeLists(node, relation, direction))
+		{
+			for(Edge edge : edges)
+			{
+				if (edge.isValid(from, to)) result.add(direction == Direction.Outgoing ? edge.target : edge.source);
+			}
+		}
+	}
+
+	protected Collection<List<Edge>> getEdgeLists(String node, OMMStructureRelation relation, Direction direction)
+	{
+		EnumMap<OMMStructureRelation, List<Edge>> map = (direction == Direction.Outgoing ? m_outgoing : m_incoming).get(node);
+		if (map == null) return Collections.emptyList();
+		if (relation == null) return map.values();
+		List<Edge> edges = map.get(relation);
+		if (edges == null) return Collections.emptyList();
+		return Collections.singletonList(edges);
+	}
+
+	protected void addEdge(BlockEntry entry, OMMStructureInfo info)
+	{
+		if (info == null || info.getRelationType() == null || entry.source == null) return;
+		Edge edge = new Edge(entry.source, info);
+		if (edge.target == null) return;
+
+		entry.edges.add(edge);
+		getList(m_outgoing, edge.source, info.getRelationType()).add(edge);
+		getList(m_incoming, edge.target, info.getRelationType()).add(edge);
+		m_edgeCount++;
+	}
+
+	protected void removeEdge(Edge edge)
+	{
+		removeFromList(m_outgoing, edge.source, edge);
+		removeFromList(m_incoming, edge.target, edge);
+		m_edgeCount--;
+	}
+
+	private static List<Edge> getList(Map<String, EnumMap<OMMStructureRelation, List<Edge>>> index, String node, OMMStructureRelation relation)
+	{
+		EnumMap<OMMStructureRelation, List<Edge>> map = index.get(node);
+		if (map == null)
+		{
+			map = new EnumMap<OMMStructureRelation, List<Edge>>(OMMStructureRelation.class);
+			index.put(node, map);
+		}
+		List<Edge> list = map.get(relation);
+		if (list == null)
+		{
+			list = new ArrayList<Edge>(2);
+			map.put(relation, list);
+		}
+		return list;
+	}
+
+	private static void removeFromList(Map<String, EnumMap<OMMStructureRelation, List<Edge>>> index, String node, Edge edge)
+	{
+		EnumMap<OMMStructureRelation, List<Edge>> map = index.get(node);
+		if (map == null) return;
+		List<Edge> list = map.get(edge.info.getRelationType());
+		if (list == null) return;
+		for(int i = 0; i < list.size(); i++)
+		{
+			if (list.get(i) == edge)
+			{
+				list.remove(i);
+				break;
+			}
+		}
+		if (list.isEmpty()) map.remove(edge.info.getRelationType());
+		if (map.isEmpty()) index.remove(node);
+	}
+}
@@ -0,0 +1,690 @@
+package de.dfki.omm.tools;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.dfki.omm.events.OMMEvent;
+import de.dfki.omm.events.OMMEventListener;
+import de.dfki.omm.events.OMMEventType;
+import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.impl.OMMSemanticsBlockImpl;
+import de.dfki.omm.interfaces.OMM;
+import de.dfki.omm.interfaces.OMMBlock;
+import de.dfki.omm.interfaces.OMMSemanticsBlock;
+import de.dfki.omm.types.OMMSemanticsGroup;
+import de.dfki.omm.types.OMMSemanticsInfo;
+
+/** In-memory triple store over the statements of semantics blocks of one or more memories.
+ * Subjects, relations and objects are dictionary encoded as ints, statements are kept in primitive arrays
+ * and indexed by subject, relation and object as well as by the pairs SP, PO and OS, so every pattern with at least one
+ * bound term is answered from a single posting list.
+ * Every query can be restricted to a time interval (null bounds are open); a statement with a single date is regarded as valid from that date on.
+ * The subject "[this]" is replaced by the primary ID of the memory the statement belongs to. */
+public class OMMTripleStore
+{
+	/** Subject of statements about the memory itself. */
+	public static final String THIS_SUBJECT = "[this]";
+	/** Initial number of statements the arrays are allocated for. */
+	public static int INITIAL_CAPACITY = 1024;
+	/** Minimum number of removed statements before the arrays and indexes are compacted. */
+	public static int COMPACTION_THRESHOLD = 4096;
+
+	/** One statement of the store. */
+	public static class Triple
+	{
+		final OMMTripleStore m_store;
+		final int m_subject, m_relation, m_object;
+		final long m_start, m_end;
+		final OMMSemanticsInfo m_info;
+		final OMMSemanticsGroup m_group;
+		int m_index = -1;
+
+		Triple(OMMTripleStore store, int subject, int relation, int object, long start, long end, OMMSemanticsInfo info, OMMSemanticsGroup group)
+		{
+			m_store = store;
+			m_subject = subject;
+			m_relation = relation;
+			m_object = object;
+			m_start = start;
+			m_end = end;
+			m_info = info;
+			m_group = group;
+		}
+
+		/** Retrieves the subject, with "[this]" resolved to the primary ID of the memory.
+		 * @return Subject as String.
+		 */
+		public String getSubject()
+		{
+			return m_store.decode(m_subject);
+		}
+
+		/** Retrieves the predicate.
+		 * @return Relation as String.
+		 */
+		public String getRelation()
+		{
+			return m_store.decode(m_relation);
+		}
+
+		/** Retrieves the object.
+		 * @return Object as String.
+		 */
+		public String getObject()
+		{
+			return m_store.decode(m_object);
+		}
+
+		/** Retrieves the semantic information the statement was created from.
+		 * @return The {@link OMMSemanticsInfo}, or null if the statement was added directly.
+		 */
+		public OMMSemanticsInfo getInfo()
+		{
+			return m_info;
+		}
+
+		/** Retrieves the start of the validity of the statement.
+		 * @return Start date, or null if open.
+		 */
+		public Date getStartDate()
+		{
+			return m_start == Long.MIN_VALUE ? null : new Date(m_start);
+		}
+
+		/** Retrieves the end of the validity of the statement.
+		 * @return End date, or null if open.
+		 */
+		public Date getEndDate()
+		{
+			return m_end == Long.MAX_VALUE ? null : new Date(m_end);
+		}
+
+		@Override
+		public String toString()
+		{
+			return "(" + getSubject() + ", " + getRelation() + ", " + getObject() + ")";
+		}
+	}
+
+	/** Indexed state of one semantics block. */
+	protected static class BlockEntry
+	{
+		final String source;
+		final List<Triple> triples = new ArrayList<Triple>();
+
+		BlockEntry(String source)
+		{
+			this.source = source;
+		}
+	}
+
+	/** Growable list of statement indexes. */
+	protected static class IntList
+	{
+		int[] data = new int[4];
+		int size = 0;
+
+		void add(int value)
+		{
+			if (size == data.length) data = Arrays.copyOf(data, size * 2);
+			data[size++] = value;
+		}
+	}
+
+	/** Open addressing hash map from non-negative long keys to {@link IntList}s. */
+	protected static class LongListMap
+	{
+		long[] keys;
+		IntList[] values;
+		int size = 0, shift;
+
+		LongListMap()
+		{
+			clear();
+		}
+
+		void clear()
+		{
+			keys = new long[16];
+			Arrays.fill(keys, -1);
+			values = new IntList[16];
+			size = 0;
+			shift = 64 - 4;
+		}
+
+		IntList get(long key)
+		{
+			int mask = keys.length - 1;
+			for(int i = (int)((key * 0x9E3779B97F4A7C15L) >>> shift); ; i = (i + 1) & mask)
+			{
+				if (keys[i] == key) return values[i];
+				if (keys[i] == -1) return null;
+			}
+		}
+
+		IntList getOrCreate(long key)
+		{
+			int mask = keys.length - 1;
+			int i = (int)((key * 0x9E3779B97F4A7C15L) >>> shift);
+			for(; keys[i] != -1; i = (i + 1) & mask)
+			{
+				if (keys[i] == key) return values[i];
+			}
+			IntList list = new IntList();
+			keys[i] = key;
+			values[i] = list;
+			if (++size * 2 > keys.length) grow();
+			return list;
+		}
+
+		private void grow()
+		{
+			long[] oldKeys = keys;
+			IntList[] oldValues = values;
+			keys = new long[oldKeys.length * 2];
+			Arrays.fill(keys, -1);
+			values = new IntList[keys.length];
+			shift--;
+			int mask = keys.length - 1;
+			for(int k = 0; k < oldKeys.length; k++)
+			{
+				if (oldKeys[k] == -1) continue;
+				int i = (int)((oldKeys[k] * 0x9E3779B97F4A7C15L) >>> shift);
+				while(keys[i] != -1) i = (i + 1) & mask;
+				keys[i] = oldKeys[k];
+				values[i] = oldValues[k];
+			}
+		}
+	}
+
+	private static final IntList EMPTY = new IntList();
+
+	protected HashMap<String, Integer> m_dictionary = new HashMap<String, Integer>();
+	protected ArrayList<String> m_strings = new ArrayList<String>();
+
+	protected int[] m_subjects, m_relations, m_objects;
+	protected long[] m_starts, m_ends;
+	protected Triple[] m_triples;
+	protected int m_size = 0, m_deleted = 0;
+
+	protected LongListMap m_bySubject = new LongListMap(), m_bySubjectRelation = new LongListMap();
+	protected LongListMap m_byRelation = new LongListMap(), m_byRelationObject = new LongListMap();
+	protected LongListMap m_byObject = new LongListMap(), m_byObjectSubject = new LongListMap();
+
+	protected IdentityHashMap<OMMSemanticsBlock, BlockEntry> m_blocks = new IdentityHashMap<OMMSemanticsBlock, BlockEntry>();
+	protected IdentityHashMap<OMM, OMMEventListener> m_memories = new IdentityHashMap<OMM, OMMEventListener>();
+
+	protected OMMSemanticsBlockImpl.SemanticsListener m_semanticsListener = new OMMSemanticsBlockImpl.SemanticsListener()
+	{
+		@Override
+		public void semanticsGroupAdded(OMMSemanticsBlock block, OMMSemanticsGroup group)
+		{
+			synchronized(OMMTripleStore.this)
+			{
+				BlockEntry entry = m_blocks.get(block);
+				if (entry != null) addGroup(entry, group);
+			}
+		}
+
+		@Override
+		public void semanticsGroupRemoved(OMMSemanticsBlock block, OMMSemanticsGroup group)
+		{
+			synchronized(OMMTripleStore.this)
+			{
+				BlockEntry entry = m_blocks.get(block);
+				if (entry == null) return;
+				for(int i = entry.triples.size() - 1; i >= 0; i--)
+				{
+					if (entry.triples.get(i).m_group == group) delete(entry.triples.remove(i));
+				}
+				compactIfNeeded();
+			}
+		}
+	};
+
+	protected OMMTripleStore()
+	{
+		allocate(INITIAL_CAPACITY);
+	}
+
+	/** Creates an empty triple store.
+	 * @return The new {@link OMMTripleStore}.
+	 */
+	public static OMMTripleStore create()
+	{
+		return new OMMTripleStore();
+	}
+
+	/** Creates a triple store over the semantics blocks of the given memories.
+	 * @param memories The memories to index.
+	 * @return The new {@link OMMTripleStore}.
+	 */
+	public static OMMTripleStore create(OMM... memories)
+	{
+		OMMTripleStore store = new OMMTripleStore();
+		for(OMM omm : memories) store.addMemory(omm);
+		return store;
+	}
+
+	/** Indexes all semantics blocks of a memory, resolving "[this]" to the primary ID of its header.
+	 * Later added or removed semantics groups of indexed blocks are applied synchronously;
+	 * blocks added to or removed from an {@link OMMImpl} are picked up via its (asynchronous) event listeners.
+	 * @param omm The memory to index.
+	 */
+	public synchronized void addMemory(final OMM omm)
+	{
+		if (m_memories.containsKey(omm)) return;
+		final String source = OMMStructureGraph.getNodeID(omm.getHeader() != null ? omm.getHeader().getPrimaryID() : null);
+
+		for(OMMBlock block : omm.getAllBlocks())
+		{
+			if (block instanceof OMMSemanticsBlock) addBlock(source, (OMMSemanticsBlock)block);
+		}
+
+		OMMEventListener listener = null;
+		if (omm instanceof OMMImpl)
+		{
+			listener = new OMMEventListener()
+			{
+				@Override
+				public void eventOccured(OMMEvent event)
+				{
+					if (!(event.block instanceof OMMSemanticsBlock)) return;
+					if (event.type == OMMEventType.BLOCK_ADDED) addBlock(source, (OMMSemanticsBlock)event.block);
+					else if (event.type == OMMEventType.BLOCK_REMOVED) removeBlock((OMMSemanticsBlock)event.block);
+				}
+			};
+			((OMMImpl)omm).addEventListener(listener);
+		}
+		m_memories.put(omm, listener);
+	}
+
+	/** Removes a memory added by {@link #addMemory(OMM)} together with the statements of its semantics blocks.
+	 * @param omm The memory to remove.
+	 */
+	public synchronized void removeMemory(OMM omm)
+	{
+		if (!m_memories.containsKey(omm)) return;
+		OMMEventListener listener = m_memories.remove(omm);
+		if (listener != null) ((OMMImpl)omm).removeEventListener(listener);
+
+		for(OMMBlock block : omm.getAllBlocks())
+		{
+			if (block instanceof OMMSemanticsBlock) removeBlock((OMMSemanticsBlock)block);
+		}
+	}
+
+	/** Indexes the statements of a single semantics block.
+	 * @param source Replacement for the subject "[this]", usually the primary ID of the memory. If null, the primary ID of the block is used.
+	 * @param block The {@link OMMSemanticsBlock} to index.
+	 */
+	public synchronized void addBlock(String source, OMMSemanticsBlock block)
+	{
+		if (block == null || m_blocks.containsKey(block)) return;
+		if (source == null) source = OMMStructureGraph.getNodeID(block.getPrimaryID());
+
+		BlockEntry entry = new BlockEntry(source);
+		m_blocks.put(block, entry);
+		Collection<OMMSemanticsGroup> groups = block.getSemanticGroups();
+		if (groups != null) for(OMMSemanticsGroup group : groups) addGroup(entry, group);
+
+		if (block instanceof OMMSemanticsBlockImpl) ((OMMSemanticsBlockImpl)block).addSemanticsListener(m_semanticsListener);
+	}
+
+	/** Removes a block added by {@link #addBlock(String, OMMSemanticsBlock)} and its statements.
+	 * @param block The {@link OMMSemanticsBlock} to remove.
+	 */
+	public synchronized void removeBlock(OMMSemanticsBlock block)
+	{
+		BlockEntry entry = m_blocks.remove(block);
+		if (entry == null) return;
+		if (block instanceof OMMSemanticsBlockImpl) ((OMMSemanticsBlockImpl)block).removeSemanticsListener(m_semanticsListener);
+		for(Triple triple : entry.triples) delete(triple);
+		entry.triples.clear();
+		compactIfNeeded();
+	}
+
+	/** Adds a statement which does not belong to a block.
+	 * @param subject The subject.
+	 * @param relation The predicate.
+	 * @param object The object.
+	 * @param startDate Start of the validity, or null.
+	 * @param endDate End of the validity, or null.
+	 * @return The added {@link Triple}, which can be passed to {@link #remove(Triple)}.
+	 */
+	public synchronized Triple add(String subject, String relation, String object, Date startDate, Date endDate)
+	{
+		Triple triple = new Triple(this, encode(subject), encode(relation), encode(object),
+				startDate == null ? Long.MIN_VALUE : startDate.getTime(), endDate == null ? Long.MAX_VALUE : endDate.getTime(), null, null);
+		insert(triple);
+		return triple;
+	}
+
+	/** Removes a statement added by {@link #add(String, String, String, Date, Date)}.
+	 * @param triple The {@link Triple} to remove.
+	 */
+	public synchronized void remove(Triple triple)
+	{
+		if (triple == null || triple.m_store != this) return;
+		delete(triple);
+		compactIfNeeded();
+	}
+
+	/** Retrieves the number of statements in the store.
+	 * @return Statement count.
+	 */
+	public synchronized int size()
+	{
+		return m_size - m_deleted;
+	}
+
+	/** Retrieves all statements matching a pattern.
+	 * @param subject The subject, or null for any.
+	 * @param relation The predicate, or null for any.
+	 * @param object The object, or null for any.
+	 * @param from Start of the time interval the statements must be valid in, or null.
+	 * @param to End of the time interval, or null.
+	 * @return List of matching {@link Triple}s.
+	 */
+	public synchronized List<Triple> match(String subject, String relation, String object, Date from, Date to)
+	{
+		List<Triple> result = new ArrayList<Triple>();
+		int s = lookup(subject), p = lookup(relation), o = lookup(object);
+		if (s == -2 || p == -2 || o == -2) return result;
+
+		long f = from == null ? Long.MIN_VALUE : from.getTime(), t = to == null ? Long.MAX_VALUE : to.getTime();
+		IntList list = candidates(s, p, o);
+		int n = list == null ? m_size : list.size;
+		for(int k = 0; k < n; k++)
+		{
+			int i = list == null ? k : list.data[k];
+			if (matches(i, s, p, o, f, t)) result.add(m_triples[i]);
+		}
+		return result;
+	}
+
+	/** Counts the statements matching a pattern.
+	 * @param subject The subject, or null for any.
+	 * @param relation The predicate, or null for any.
+	 * @param object The object, or null for any.
+	 * @param from Start of the time interval the statements must be valid in, or null.
+	 * @param to End of the time interval, or null.
+	 * @return Number of matching statements.
+	 */
+	public synchronized int count(String subject, String relation, String object, Date from, Date to)
+	{
+		int s = lookup(subject), p = lookup(relation), o = lookup(object);
+		if (s == -2 || p == -2 || o == -2) return 0;
+
+		long f = from == null ? Long.MIN_VALUE : from.getTime(), t = to == null ? Long.MAX_VALUE : to.getTime();
+		IntList list = candidates(s, p, o);
+		int n = list == null ? m_size : list.size, count = 0;
+		for(int k = 0; k < n; k++)
+		{
+			if (matches(list == null ? k : list.data[k], s, p, o, f, t)) count++;
+		}
+		return count;
+	}
+
+	/** Answers a conjunction of triple patterns. Terms starting with "?" are variables, null terms match anything.
+	 * The patterns are evaluated as index nested loop join, starting with the one with the fewest candidate statements
+	 * and continuing with the ones sharing most already bound variables.
+	 * @param from Start of the time interval all statements must be valid in, or null.
+	 * @param to End of the time interval, or null.
+	 * @param patterns Triple patterns as arrays of subject, relation and object.
+	 * @return One map from variable name (including "?") to value per solution.
+	 */
+	public synchronized List<Map<String, String>> query(Date from, Date to, String[]... patterns)
+	{
+		List<Map<String, String>> result = new ArrayList<Map<String, String>>();
+		List<String> variables = new ArrayList<String>();
+		int[][] encoded = new int[patterns.length][3];
+		for(int k = 0; k < patterns.length; k++)
+		{
+			for(int j = 0; j < 3; j++)
+			{
+				String term = patterns[k][j];
+				if (term == null) encoded[k][j] = -1;
+				else if (term.startsWith("?"))
+				{
+					if (!variables.contains(term)) variables.add(term);
+					encoded[k][j] = -2 - variables.indexOf(term);
+				}
+				else
+				{
+					Integer id = m_dictionary.get(term);
+					if (id == null) return result;
+					encoded[k][j] = id;
+				}
+			}
+		}
+
+		int[][] ordered = orderPatterns(encoded, variables.size());
+		int[] binding = new int[variables.size()];
+		Arrays.fill(binding, -1);
+		join(ordered, 0, binding, from == null ? Long.MIN_VALUE : from.getTime(), to == null ? Long.MAX_VALUE : to.getTime(), variables, result);
+		return result;
+	}
+
+	/** Greedily orders patterns by their estimated number of matches, given the variables bound by the patterns before. */
+	protected int[][] orderPatterns(int[][] patterns, int variableCount)
+	{
+		int[][] ordered = new int[patterns.length][];
+		boolean[] used = new boolean[patterns.length];
+		boolean[] bound = new boolean[variableCount];
+		for(int k = 0; k < patterns.length; k++)
+		{
+			int best = -1;
+			long bestEstimate = Long.MAX_VALUE;
+			for(int j = 0; j < patterns.length; j++)
+			{
+				if (used[j]) continue;
+				int[] pattern = patterns[j];
+				int boundVariables = 0;
+				for(int term : pattern) if (term <= -2 && bound[-2 - term]) boundVariables++;
+
+				IntList list = candidates(Math.max(pattern[0], -1), Math.max(pattern[1], -1), Math.max(pattern[2], -1));
+				long estimate = (list == null ? m_size : list.size) >> (4 * boundVariables);
+				if (estimate < bestEstimate)
+				{
+					best = j;
+					bestEstimate = estimate;
+				}
+			}
+			used[best] = true;
+			ordered[k] = patterns[best];
+			for(int term : patterns[best]) if (term <= -2) bound[-2 - term] = true;
+		}
+		return ordered;
+	}
+
+	protected void join(int[][] patterns, int depth, int[] binding, long from, long to, List<String> variables, List<Map<String, String>> result)
+	{
+		if (depth == patterns.length)
+		{
+			Map<String, String> solution = new LinkedHashMap<String, String>();
+			for(int v = 0; v < binding.length; v++) solution.put(variables.get(v), m_strings.get(binding[v]));
+			result.add(solution);
+			return;
+		}
+
+		int[] pattern = patterns[depth];
+		int s = resolve(pattern[0], binding), p = resolve(pattern[1], binding), o = resolve(pattern[2], binding);
+		IntList list = candidates(s, p, o);
+		int n = list == null ? m_size : list.size;
+		for(int k = 0; k < n; k++)
+		{
+			int i = list == null ? k : list.data[k];
+			if (!matches(i, s, p, o, from, to)) continue;
+
+			// bind the free variables, a variable used twice in the pattern must get the same value
+			int bs = bind(pattern[0], m_subjects[i], binding);
+			int bp = bs < -1 ? -2 : bind(pattern[1], m_relations[i], binding);
+			int bo = bp < -1 ? -2 : bind(pattern[2], m_objects[i], binding);
+			if (bo >= -1) join(patterns, depth + 1, binding, from, to, variables, result);
+			if (bs >= 0) binding[bs] = -1;
+			if (bp >= 0) binding[bp] = -1;
+			if (bo >= 0) binding[bo] = -1;
+		}
+	}
+
+	/** Binds a variable term to a value. Returns the index of the newly bound variable, -1 if nothing was bound, or -2 on a conflict. */
+	private static int bind(int term, int value, int[] binding)
+	{
+		if (term > -2) return -1;
+		int v = -2 - term;
+		if (binding[v] == -1)
+		{
+			binding[v] = value;
+			return v;
+		}
+		return binding[v] == value ? -1 : -2;
+	}
+
+	private static int resolve(int term, int[] binding)
+	{
+		if (term > -2) return term;
+		return binding[-2 - term];
+	}
+
+	/** Retrieves the posting list for the bound terms (-1 for unbound), an empty list if there is none, or null if no term is bound. */
+	protected IntList candidates(int s, int p, int o)
+	{
+		IntList list;
+		if (s >= 0)
+		{
+			if (p >= 0) list = m_bySubjectRelation.get(pair(s, p));
+			else if (o >= 0) list = m_byObjectSubject.get(pair(o, s));
+			else list = m_bySubject.get(s);
+		}
+		else if (p >= 0)
+		{
+			if (o >= 0) list = m_byRelationObject.get(pair(p, o));
+			else list = m_byRelation.get(p);
+		}
+		else if (o >= 0) list = m_byObject.get(o);
+		else return null;
+
+		return list == null ? EMPTY : list;
+	}
+
+	protected boolean matches(int i, int s, int p, int o, long from, long to)
+	{
+		return m_triples[i] != null && (s < 0 || m_subjects[i] == s) && (p < 0 || m_relations[i] == p) && (o < 0 || m_objects[i] == o)
+				&& m_starts[i] <= to && m_ends[i] >= from;
+	}
+
+	protected void addGroup(BlockEntry entry, OMMSemanticsGroup group)
+	{
+		if (group == null) return;
+		for(OMMSemanticsInfo info : group)
+		{
+			if (info == null || info.getRelation() == null || info.getObject() == null) continue;
+			String subject = info.getSubject() == null || info.getSubject().equals(THIS_SUBJECT) ? entry.source : info.getSubject();
+			if (subject == null) continue;
+
+			Triple triple = new Triple(this, encode(subject), encode(info.getRelation()), encode(info.getObject()),
+					info.getStartDate() == null ? Long.MIN_VALUE : info.getStartDate().getTime(), info.getEndDate() == null ? Long.MAX_VALUE : info.getEndDate().getTime(), info, group);
+			insert(triple);
+			entry.triples.add(triple);
+		}
+	}
+
+	protected void insert(Triple triple)
+	{
+		if (m_size == m_triples.length) grow(m_size * 2);
+		int i = m_size++;
+		m_subjects[i] = triple.m_subject;
+		m_relations[i] = triple.m_relation;
+		m_objects[i] = triple.m_object;
+		m_starts[i] = triple.m_start;
+		m_ends[i] = triple.m_end;
+		m_triples[i] = triple;
+		triple.m_index = i;
+
+		m_bySubject.getOrCreate(triple.m_subject).add(i);
+		m_bySubjectRelation.getOrCreate(pair(triple.m_subject, triple.m_relation)).add(i);
+		m_byRelation.getOrCreate(triple.m_relation).add(i);
+		m_byRelationObject.getOrCreate(pair(triple.m_relation, triple.m_object)).add(i);
+		m_byObject.getOrCreate(triple.m_object).add(i);
+		m_byObjectSubject.getOrCreate(pair(triple.m_object, triple.m_subject)).add(i);
+	}
+
+	/** Marks a statement as removed; the posting lists keep its index until the next compaction. */
+	protected void delete(Triple triple)
+	{
+		if (triple.m_index < 0) return;
+		m_triples[triple.m_index] = null;
+		triple.m_index = -1;
+		m_deleted++;
+	}
+
+	protected void compactIfNeeded()
+	{
+		if (m_deleted < COMPACTION_THRESHOLD || m_deleted * 2 < m_size) return;
+
+		Triple[] live = new Triple[m_size - m_deleted];
+		int n = 0;
+		for(int i = 0; i < m_size; i++) if (m_triples[i] != null) live[n++] = m_triples[i];
+
+		allocate(Math.max(INITIAL_CAPACITY, live.length * 2));
+		m_size = 0;
+		m_deleted = 0;
+		for(LongListMap map : new LongListMap[] { m_bySubject, m_bySubjectRelation, m_byRelation, m_byRelationObject, m_byObject, m_byObjectSubject }) map.clear();
+		for(Triple triple : live) insert(triple);
+	}
+
+	private void allocate(int capacity)
+	{
+		m_subjects = new int[capacity];
+		m_relations = new int[capacity];
+		m_objects = new int[capacity];
+		m_starts = new long[capacity];
+		m_ends = new long[capacity];
+		m_triples = new Triple[capacity];
+	}
+
+	private void grow(int capacity)
+	{
+		m_subjects = Arrays.copyOf(m_subjects, capacity);
+		m_relations = Arrays.copyOf(m_relations, capacity);
+		m_objects = Arrays.copyOf(m_objects, capacity);
+		m_starts = Arrays.copyOf(m_starts, capacity);
+		m_ends = Arrays.copyOf(m_ends, capacity);
+		m_triples = Arrays.copyOf(m_triples, capacity);
+	}
+
+	/** Retrieves the dictionary ID of a term, -1 for null, or -2 if the term does not occur in the store. */
+	private int lookup(String term)
+	{
+		if (term == null) return -1;
+		Integer id = m_dictionary.get(term);
+		return id == null ? -2 : id;
+	}
+
+	private int encode(String term)
+	{
+		Integer id = m_dictionary.get(term);
+		if (id != null) return id;
+		m_dictionary.put(term, m_strings.size());
+		m_strings.add(term);
+		return m_strings.size() - 1;
+	}
+
+	synchronized String decode(int id)
+	{
+		return m_strings.get(id);
+	}
+
+	private static long pair(int a, int b)
+	{
+		return ((long)a << 32) | b;
+	}
+}
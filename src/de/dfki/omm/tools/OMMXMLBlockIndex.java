@@ -0,0 +1,534 @@
+package de.dfki.omm.tools;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+
+import de.dfki.omm.types.OMMMultiLangText;
+
+/** Byte offsets of the header and the blocks of an XML memory, found by scanning the markup of the document without parsing it.
+ * <p>The scanner tracks the element depth and skips comments, CDATA sections, processing instructions and quoted attribute values,
+ * so that inline XML payloads which look like blocks are not mistaken for blocks. It only handles documents encoded in UTF-8 without document type declaration.</p>
+ * <p>Optionally, the ID, namespace and titles of each block are read from its markup as well, so that a table of contents can be created without parsing the blocks.
+ * An index can be written to and read from a stream, see {@link #write(OutputStream, long, long)}.</p>
+ */
+public class OMMXMLBlockIndex
+{
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final int INDEX_MAGIC = 0x4F4D4D49; // "OMMI"
+	private static final int INDEX_VERSION = 1;
+
+	private static final byte[] ROOT_NAME = (OMMXMLConverter.OMM_NAMESPACE_PREFIX+":omm").getBytes(UTF8);
+	private static final byte[] HEADER_NAME = (OMMXMLConverter.OMM_NAMESPACE_PREFIX+":header").getBytes(UTF8);
+	private static final byte[] BLOCK_NAME = (OMMXMLConverter.OMM_NAMESPACE_PREFIX+":block").getBytes(UTF8);
+	private static final byte[] NAMESPACE_NAME = (OMMXMLConverter.OMM_NAMESPACE_PREFIX+":namespace").getBytes(UTF8);
+	private static final byte[] TITLE_NAME = (OMMXMLConverter.OMM_NAMESPACE_PREFIX+":title").getBytes(UTF8);
+	private static final byte[] ID_ATTRIBUTE = (OMMXMLConverter.OMM_NAMESPACE_PREFIX+":id").getBytes(UTF8);
+	private static final byte[] LANG_ATTRIBUTE = "xml:lang".getBytes(UTF8);
+
+	/** End tag of the root element, to be appended to a region read behind the root's start tag. */
+	public static final byte[] ROOT_END = ("</"+OMMXMLConverter.OMM_NAMESPACE_PREFIX+":omm>").getBytes(UTF8);
+
+	private int m_rootStart, m_rootEnd;
+	private int m_headerStart = -1, m_headerEnd = -1;
+	private int m_count = 0;
+	private int[] m_starts = new int[16], m_ends = new int[16];
+	private boolean m_withMeta = false;
+	private String[] m_ids, m_namespaces;
+	private OMMMultiLangText[] m_titles;
+	private boolean[] m_metaComplete;
+
+	private OMMXMLBlockIndex() {}
+
+	/** Scans a document for the header and the blocks of a memory.
+	 * @param data The document, from its first to its last byte. The buffer's position and limit are ignored.
+	 * @param withMeta True, if ID, namespace and titles of the blocks are to be read as well.
+	 * @return The index, or null if the document is not encoded in UTF-8, contains a document type declaration, or is not a well-formed memory.
+	 */
+	public static OMMXMLBlockIndex scan(ByteBuffer data, boolean withMeta)
+	{
+		OMMXMLBlockIndex index = new OMMXMLBlockIndex();
+		index.m_withMeta = withMeta;
+		if (withMeta) index.createMeta(16);
+
+		int length = data.capacity();
+		int pos = 0;
+		if (length >= 3 && (data.get(0) & 0xFF) == 0xEF && (data.get(1) & 0xFF) == 0xBB && (data.get(2) & 0xFF) == 0xBF) pos = 3;
+		int prolog = pos;
+
+		int depth = 0;
+		int childStart = -1;
+		boolean childIsHeader = false, childIsBlock = false;
+		int textStart = -1;
+		byte[] textName = null;
+		String textLang = null;
+		while (true)
+		{
+			pos = indexOf(data, '<', pos);
+			if (pos < 0) return null;
+
+			if (startsWith(data, pos, "<?"))
+			{
+				int end = indexOf(data, "?>", pos);
+				if (end < 0) return null;
+				if (pos == prolog)
+				{
+					String encoding = getEncoding(decode(data, pos, end, false));
+					if (encoding != null && !encoding.equalsIgnoreCase("UTF-8") && !encoding.equalsIgnoreCase("US-ASCII")) return null;
+				}
+				pos = end + 2;
+				if (textName != null) index.setMetaIncomplete();
+				textName = null;
+			}
+			else if (startsWith(data, pos, "<!--"))
+			{
+				int end = indexOf(data, "-->", pos + 4);
+				if (end < 0) return null;
+				pos = end + 3;
+				if (textName != null) index.setMetaIncomplete();
+				textName = null;
+			}
+			else if (startsWith(data, pos, "<![CDATA["))
+			{
+				int end = indexOf(data, "]]>", pos + 9);
+				if (end < 0) return null;
+				pos = end + 3;
+				if (textName != null) index.setMetaIncomplete();
+				textName = null;
+			}
+			else if (startsWith(data, pos, "<!"))
+			{
+				return null; // document type declarations may define entities used by the blocks
+			}
+			else if (startsWith(data, pos, "</"))
+			{
+				int end = indexOf(data, '>', pos);
+				if (end < 0) return null;
+				if (textName != null && depth == 3) index.addText(textName, textLang, decode(data, textStart, pos, true));
+				textName = null;
+				pos = end + 1;
+				depth--;
+				if (depth == 1) index.addChild(childStart, pos, childIsHeader, childIsBlock);
+				else if (depth == 0) return index;
+				else if (depth < 0) return null;
+			}
+			else
+			{
+				int nameEnd = pos + 1;
+				while (nameEnd < length && !isNameEnd(data.get(nameEnd))) nameEnd++;
+				int end = findTagEnd(data, nameEnd);
+				if (end < 0) return null;
+				boolean empty = data.get(end - 1) == '/';
+
+				if (depth == 0)
+				{
+					if (empty || !regionEquals(data, pos + 1, nameEnd, ROOT_NAME)) return null;
+					index.m_rootStart = pos;
+					index.m_rootEnd = end + 1;
+				}
+				else if (depth == 1)
+				{
+					childStart = pos;
+					childIsHeader = regionEquals(data, pos + 1, nameEnd, HEADER_NAME);
+					childIsBlock = regionEquals(data, pos + 1, nameEnd, BLOCK_NAME);
+					if (childIsBlock && withMeta) index.startMeta(getAttribute(data, nameEnd, end, ID_ATTRIBUTE));
+					if (empty) index.addChild(childStart, end + 1, childIsHeader, childIsBlock);
+				}
+				else if (depth == 2 && childIsBlock && withMeta)
+				{
+					textName = null;
+					if (regionEquals(data, pos + 1, nameEnd, NAMESPACE_NAME) || regionEquals(data, pos + 1, nameEnd, TITLE_NAME))
+					{
+						textName = regionEquals(data, pos + 1, nameEnd, TITLE_NAME) ? TITLE_NAME : NAMESPACE_NAME;
+						textLang = getAttribute(data, nameEnd, end, LANG_ATTRIBUTE);
+						textStart = end + 1;
+						if (empty)
+						{
+							index.addText(textName, textLang, "");
+							textName = null;
+						}
+					}
+				}
+				else if (depth == 3 && textName != null)
+				{
+					// markup in a title or namespace is left to the parser
+					index.setMetaIncomplete();
+					textName = null;
+				}
+				pos = end + 1;
+				if (!empty) depth++;
+			}
+		}
+	}
+
+	/** Retrieves the index of the first byte of the root element's start tag.
+	 * @return The offset.
+	 */
+	public int getRootStart() { return m_rootStart; }
+
+	/** Retrieves the index behind the last byte of the root element's start tag.
+	 * @return The offset.
+	 */
+	public int getRootEnd() { return m_rootEnd; }
+
+	/** Retrieves the index of the first byte of the header element.
+	 * @return The offset, or -1 if the memory has no header.
+	 */
+	public int getHeaderStart() { return m_headerStart; }
+
+	/** Retrieves the index behind the last byte of the header element.
+	 * @return The offset, or -1 if the memory has no header.
+	 */
+	public int getHeaderEnd() { return m_headerEnd; }
+
+	/** Retrieves the number of blocks.
+	 * @return The number of blocks in the document.
+	 */
+	public int getBlockCount() { return m_count; }
+
+	/** Retrieves the index of the first byte of a block element.
+	 * @param block The position of the block in the document.
+	 * @return The offset.
+	 */
+	public int getBlockStart(int block) { return m_starts[block]; }
+
+	/** Retrieves the index behind the last byte of a block element.
+	 * @param block The position of the block in the document.
+	 * @return The offset.
+	 */
+	public int getBlockEnd(int block) { return m_ends[block]; }
+
+	/** Indicates whether ID, namespace and titles of the blocks are known.
+	 * @return True, if the index was scanned with meta data.
+	 */
+	public boolean hasMeta() { return m_withMeta; }
+
+	/** Retrieves the ID of a block.
+	 * @param block The position of the block in the document.
+	 * @return The ID, or null if the index has no meta data.
+	 */
+	public String getBlockID(int block) { return m_withMeta ? m_ids[block] : null; }
+
+	/** Retrieves the namespace of a block.
+	 * @param block The position of the block in the document.
+	 * @return The namespace, or null if the block has none or {@link #isBlockMetaComplete(int)} is false.
+	 */
+	public String getBlockNamespace(int block) { return m_withMeta ? m_namespaces[block] : null; }
+
+	/** Retrieves the titles of a block.
+	 * @param block The position of the block in the document.
+	 * @return The titles, or null if {@link #isBlockMetaComplete(int)} is false.
+	 */
+	public OMMMultiLangText getBlockTitle(int block) { return m_withMeta ? m_titles[block] : null; }
+
+	/** Indicates whether namespace and titles of a block could be read from its markup.
+	 * If not, the block has to be parsed to retrieve them.
+	 * @param block The position of the block in the document.
+	 * @return True, if namespace and titles are known.
+	 */
+	public boolean isBlockMetaComplete(int block) { return m_withMeta && m_metaComplete[block]; }
+
+	/** Writes the index to a stream.
+	 * @param os The {@link OutputStream}, which is not closed.
+	 * @param sourceLength Length of the indexed document, checked by {@link #read(InputStream, long, long)}.
+	 * @param sourceModified Modification time of the indexed document, checked by {@link #read(InputStream, long, long)}.
+	 * @throws IOException If the index cannot be written.
+	 */
+	public void write(OutputStream os, long sourceLength, long sourceModified) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(os);
+		out.writeInt(INDEX_MAGIC);
+		out.writeInt(INDEX_VERSION);
+		out.writeLong(sourceLength);
+		out.writeLong(sourceModified);
+		out.writeInt(m_rootStart);
+		out.writeInt(m_rootEnd);
+		out.writeInt(m_headerStart);
+		out.writeInt(m_headerEnd);
+		out.writeBoolean(m_withMeta);
+		out.writeInt(m_count);
+		for(int i = 0; i < m_count; i++)
+		{
+			out.writeInt(m_starts[i]);
+			out.writeInt(m_ends[i]);
+			if (!m_withMeta) continue;
+
+			writeString(out, m_ids[i]);
+			out.writeBoolean(m_metaComplete[i]);
+			if (!m_metaComplete[i]) continue;
+
+			writeString(out, m_namespaces[i]);
+			out.writeInt(m_titles[i].size());
+			for(Map.Entry<Locale, String> title : m_titles[i].entrySet())
+			{
+				writeString(out, title.getKey().toString());
+				writeString(out, title.getValue());
+			}
+		}
+		out.flush();
+	}
+
+	/** Reads an index written by {@link #write(OutputStream, long, long)}.
+	 * @param is The {@link InputStream}, which is not closed.
+	 * @param sourceLength Current length of the indexed document.
+	 * @param sourceModified Current modification time of the indexed document.
+	 * @return The index, or null if it is of another format or the document has changed since it was written.
+	 * @throws IOException If the index cannot be read.
+	 */
+	public static OMMXMLBlockIndex read(InputStream is, long sourceLength, long sourceModified) throws IOException
+	{
+		DataInputStream in = new DataInputStream(is);
+		if (in.readInt() != INDEX_MAGIC || in.readInt() != INDEX_VERSION) return null;
+		if (in.readLong() != sourceLength || in.readLong() != sourceModified) return null;
+
+		OMMXMLBlockIndex index = new OMMXMLBlockIndex();
+		index.m_rootStart = in.readInt();
+		index.m_rootEnd = in.readInt();
+		index.m_headerStart = in.readInt();
+		index.m_headerEnd = in.readInt();
+		index.m_withMeta = in.readBoolean();
+		int count = in.readInt();
+		index.m_starts = new int[Math.max(1, count)];
+		index.m_ends = new int[Math.max(1, count)];
+		if (index.m_withMeta) index.createMeta(Math.max(1, count));
+		for(int i = 0; i < count; i++)
+		{
+			index.m_starts[i] = in.readInt();
+			index.m_ends[i] = in.readInt();
+			if (index.m_withMeta)
+			{
+				index.m_ids[i] = readString(in);
+				index.m_metaComplete[i] = in.readBoolean();
+				if (index.m_metaComplete[i])
+				{
+					index.m_namespaces[i] = readString(in);
+					index.m_titles[i] = new OMMMultiLangText();
+					int titles = in.readInt();
+					for(int k = 0; k < titles; k++)
+					{
+						index.m_titles[i].put(new Locale(readString(in)), readString(in));
+					}
+				}
+			}
+			index.m_count++;
+		}
+		return index;
+	}
+
+	// scanning
+
+	private void createMeta(int capacity)
+	{
+		m_ids = new String[capacity];
+		m_namespaces = new String[capacity];
+		m_titles = new OMMMultiLangText[capacity];
+		m_metaComplete = new boolean[capacity];
+	}
+
+	private void ensureCapacity()
+	{
+		if (m_count < m_starts.length) return;
+		int capacity = m_starts.length * 2;
+		m_starts = Arrays.copyOf(m_starts, capacity);
+		m_ends = Arrays.copyOf(m_ends, capacity);
+		if (m_withMeta)
+		{
+			m_ids = Arrays.copyOf(m_ids, capacity);
+			m_namespaces = Arrays.copyOf(m_namespaces, capacity);
+			m_titles = Arrays.copyOf(m_titles, capacity);
+			m_metaComplete = Arrays.copyOf(m_metaComplete, capacity);
+		}
+	}
+
+	/** Prepares the meta data of the block which is added next. */
+	private void startMeta(String id)
+	{
+		ensureCapacity();
+		m_ids[m_count] = (id == null) ? "" : id;
+		m_namespaces[m_count] = null;
+		m_titles[m_count] = new OMMMultiLangText();
+		m_metaComplete[m_count] = (id != null);
+	}
+
+	private void addText(byte[] name, String lang, String text)
+	{
+		if (text == null) setMetaIncomplete();
+		else if (name == NAMESPACE_NAME) m_namespaces[m_count] = text;
+		else m_titles[m_count].put(new Locale(lang == null ? "" : lang), text);
+	}
+
+	private void setMetaIncomplete()
+	{
+		m_metaComplete[m_count] = false;
+	}
+
+	private void addChild(int start, int end, boolean isHeader, boolean isBlock)
+	{
+		if (isHeader)
+		{
+			m_headerStart = start;
+			m_headerEnd = end;
+		}
+		else if (isBlock)
+		{
+			ensureCapacity();
+			m_starts[m_count] = start;
+			m_ends[m_count] = end;
+			m_count++;
+		}
+	}
+
+	private static String getEncoding(String declaration)
+	{
+		int index = declaration.indexOf("encoding");
+		if (index < 0) return null;
+		int quote = index + 8;
+		while (quote < declaration.length() && declaration.charAt(quote) != '"' && declaration.charAt(quote) != '\'') quote++;
+		if (quote >= declaration.length()) return null;
+		int end = declaration.indexOf(declaration.charAt(quote), quote + 1);
+		return (end < 0) ? null : declaration.substring(quote + 1, end);
+	}
+
+	/** Retrieves the decoded value of an attribute of a start tag, or null if the tag has no such attribute. */
+	private static String getAttribute(ByteBuffer data, int pos, int end, byte[] name)
+	{
+		while (pos < end)
+		{
+			while (pos < end && isNameEnd(data.get(pos))) pos++;
+			int nameStart = pos;
+			while (pos < end && data.get(pos) != '=' && !isNameEnd(data.get(pos))) pos++;
+			int nameEnd = pos;
+			while (pos < end && data.get(pos) != '"' && data.get(pos) != '\'') pos++;
+			if (pos >= end) return null;
+			byte quote = data.get(pos);
+			int valueStart = pos + 1;
+			pos = valueStart;
+			while (pos < end && data.get(pos) != quote) pos++;
+			if (regionEquals(data, nameStart, nameEnd, name)) return decodeAttribute(decode(data, valueStart, pos, true));
+			pos++;
+		}
+		return null;
+	}
+
+	/** Decodes a range of UTF-8 text, replacing entity and character references and normalizing line ends, if requested. */
+	private static String decode(ByteBuffer data, int start, int end, boolean unescape)
+	{
+		byte[] bytes = new byte[end - start];
+		for(int i = 0; i < bytes.length; i++) bytes[i] = data.get(start + i);
+		String text = new String(bytes, UTF8);
+		if (!unescape || (text.indexOf('&') < 0 && text.indexOf('\r') < 0)) return text;
+
+		StringBuilder sb = new StringBuilder(text.length());
+		for(int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if (c == '\r')
+			{
+				sb.append('\n');
+				if (i + 1 < text.length() && text.charAt(i + 1) == '\n') i++;
+			}
+			else if (c == '&')
+			{
+				int semicolon = text.indexOf(';', i);
+				if (semicolon < 0) return null;
+				String entity = text.substring(i + 1, semicolon);
+				if (entity.equals("lt")) sb.append('<');
+				else if (entity.equals("gt")) sb.append('>');
+				else if (entity.equals("amp")) sb.append('&');
+				else if (entity.equals("quot")) sb.append('"');
+				else if (entity.equals("apos")) sb.append('\'');
+				else if (entity.startsWith("#x")) sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+				else if (entity.startsWith("#")) sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+				else return null;
+				i = semicolon;
+			}
+			else sb.append(c);
+		}
+		return sb.toString();
+	}
+
+	/** Normalizes the white space of an attribute value which is not replaced by a reference, as required for parsers. */
+	private static String decodeAttribute(String value)
+	{
+		if (value == null) return null;
+		return value.replace('\t', ' ').replace('\n', ' ');
+	}
+
+	/** Finds the closing bracket of a start tag, skipping quoted attribute values. */
+	private static int findTagEnd(ByteBuffer data, int pos)
+	{
+		byte quote = 0;
+		for(int length = data.capacity(); pos < length; pos++)
+		{
+			byte b = data.get(pos);
+			if (quote != 0)
+			{
+				if (b == quote) quote = 0;
+			}
+			else if (b == '"' || b == '\'') quote = b;
+			else if (b == '>') return pos;
+		}
+		return -1;
+	}
+
+	private static boolean isNameEnd(byte b)
+	{
+		return b == ' ' || b == '\t' || b == '\r' || b == '\n' || b == '/' || b == '>';
+	}
+
+	private static boolean regionEquals(ByteBuffer data, int start, int end, byte[] name)
+	{
+		if (end - start != name.length) return false;
+		for(int i = 0; i < name.length; i++)
+		{
+			if (data.get(start + i) != name[i]) return false;
+		}
+		return true;
+	}
+
+	private static boolean startsWith(ByteBuffer data, int pos, String prefix)
+	{
+		if (pos + prefix.length() > data.capacity()) return false;
+		for(int i = 0; i < prefix.length(); i++)
+		{
+			if (data.get(pos + i) != prefix.charAt(i)) return false;
+		}
+		return true;
+	}
+
+	private static int indexOf(ByteBuffer data, char c, int from)
+	{
+		for(int i = from, length = data.capacity(); i < length; i++)
+		{
+			if (data.get(i) == c) return i;
+		}
+		return -1;
+	}
+
+	private static int indexOf(ByteBuffer data, String s, int from)
+	{
+		for(int i = indexOf(data, s.charAt(0), from); i >= 0; i = indexOf(data, s.charAt(0), i + 1))
+		{
+			if (startsWith(data, i, s)) return i;
+		}
+		return -1;
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		out.writeBoolean(s != null);
+		if (s != null) out.writeUTF(s);
+	}
+
+	private static String readString(DataInputStream in) throws IOException
+	{
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+}
@@ -18,9 +18,7 @@ import java.util.Map;
 import java.util.Vector;
 
 import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.transform.Transformer;
-import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMSource;
 import javax.xml.transform.stream.StreamResult;
 
@@ -37,6 +35,7 @@ import de.dfki.omm.impl.OMMBlockImpl;
 import de.dfki.omm.impl.OMMHeaderImpl;
 import de.dfki.omm.impl.OMMIdentifierBlockImpl;
 import de.dfki.omm.impl.OMMImpl;
+import de.dfki.omm.impl.OMMSemanticsBlockImpl;
 import de.dfki.omm.impl.OMMStructureBlockImpl;
 import de.dfki.omm.interfaces.OMM;
 import de.dfki.omm.interfaces.OMMAttributeListBlock;
@@ -247,38 +246,50 @@ public class OMMXMLConverter
 
 			OMMBlockImpl block = (OMMBlockImpl)OMMBlockImpl.create(blockID, primaryID, namespace, type, titles, descriptions, contributors, creator, format, subjects, prevBlock, payload, payloadElement, link, linkHash);
 
-			// inline xml found -> might be a special OMM block
-			if (namespace != null)
-			{
-				if (namespace.toString().equals("urn:omm:block:structure"))
-				{
-					OMMStructureBlock sBlock = new OMMStructureBlockImpl(block);
-					return sBlock;
-				}
-				else if (namespace.toString().equals("urn:omm:block:indentifications"))
-				{
-					OMMIdentifierBlock iBlock = new OMMIdentifierBlockImpl(block);
-					return iBlock;
-				}
-			}
-
-			if (isOMMAttributesTemplate(block))
-			{
-				OMMAttributeListBlock aBlock = new OMMAttributeListBlockImpl(block);
-				return aBlock;
-			}
-
 //			System.out.println("-- parsed creator = "+creator.getType()+" / "+creator.getValue()+" / "+creator.getDateAsISO8601());
 //			System.out.println("-- block is created : "+block.toString());
 //			System.out.println("---");
 
-			return block;
+			return specializeBlock(block);
 
 		}
 
 		return null;
 
 	}
+
+	/** Turns a parsed block into one of the special OMM blocks, if its namespace or format identifies it as such. 
+	 * @param block The parsed {@link OMMBlockImpl}. 
+	 * @return An {@link OMMStructureBlockImpl}, {@link OMMIdentifierBlockImpl}, {@link OMMSemanticsBlockImpl} or {@link OMMAttributeListBlockImpl}, or the given block. 
+	 */
+	public static OMMBlockImpl specializeBlock(OMMBlockImpl block)
+	{
+		URI namespace = block.getNamespace();
+
+		// inline xml found -> might be a special OMM block
+		if (namespace != null)
+		{
+			if (namespace.toString().equals("urn:omm:block:structure"))
+			{
+				return new OMMStructureBlockImpl(block);
+			}
+			else if (namespace.toString().equals("urn:omm:block:indentifications"))
+			{
+				return new OMMIdentifierBlockImpl(block);
+			}
+			else if (isOMMSemanticsBlock(namespace))
+			{
+				return new OMMSemanticsBlockImpl(block);
+			}
+		}
+
+		if (isOMMAttributesTemplate(block))
+		{
+			return new OMMAttributeListBlockImpl(block);
+		}
+
+		return block;
+	}
 	
 	/** Converts an explicitly given type and value pair to a {@link TypedValue} object. 
 	 * @param type The type.
@@ -402,16 +413,16 @@ public class OMMXMLConverter
 	 */
 	public static Document createNewXmlDocument()
 	{
+		DocumentBuilder builder = null;
 		try
 		{
-			DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-			dbf.setNamespaceAware(true);
-			DocumentBuilder builder = dbf.newDocumentBuilder();
+			builder = OMMXMLPool.acquireDocumentBuilder();
 			Document doc = builder.newDocument();
 			doc.setXmlStandalone(true);
 			return doc;
 		}
 		catch(Exception e) { e.printStackTrace(); }
+		finally { OMMXMLPool.release(builder); }
 		return null;
 	}
 
@@ -457,15 +468,17 @@ public class OMMXMLConverter
 	 */
 	public static Document getXmlDocumentFromString(InputStream is)
 	{
+		DocumentBuilder dBuilder = null;
 		try
 		{
-			DocumentBuilderFactory dbFactory = DocumentBuilderFactory.newInstance();
-			dbFactory.setNamespaceAware(true); // <-- very important!
-			DocumentBuilder dBuilder = dbFactory.newDocumentBuilder();
+			long start = System.nanoTime();
+			dBuilder = OMMXMLPool.acquireDocumentBuilder(); // namespace aware
 			Document doc = dBuilder.parse(is);
+			OMMMetrics.recordParse(System.nanoTime() - start);
 			return doc;
 		}
 		catch(Exception e) { e.printStackTrace(); }
+		finally { OMMXMLPool.release(dBuilder); }
 		
 		return null;
 	}
@@ -634,7 +647,7 @@ public class OMMXMLConverter
 		Element tFormat = OMMXMLConverter.createXmlElement(doc, "format", OMM_NAMESPACE_PREFIX, OMM_NAMESPACE_URI);
 		tFormat.setTextContent(format.getMIMEType());
 		if (format.getSchema() != null) tFormat.setAttributeNS(OMM_NAMESPACE_URI, OMM_NAMESPACE_PREFIX+":schema", format.getSchema().toString());
-		if (format.getEncryption() != null) tFormat.setAttributeNS(OMM_NAMESPACE_URI, OMM_NAMESPACE_PREFIX+":encryption", format.getEncryption());
+		if (format.getEncryption() != null && !format.getEncryption().isEmpty()) tFormat.setAttributeNS(OMM_NAMESPACE_URI, OMM_NAMESPACE_PREFIX+":encryption", format.getEncryption());
 		return tFormat;
 	}
 
@@ -754,19 +767,22 @@ public class OMMXMLConverter
 	 */
 	public static String toXMLFileString(Node node)
 	{
+		Transformer transformer = null;
 		try
 		{
+			long start = System.nanoTime();
 			StringWriter output = new StringWriter();
 						
-			TransformerFactory tf = TransformerFactory.newInstance();
-			Transformer transformer = tf.newTransformer();
+			transformer = OMMXMLPool.acquireTransformer();
 			//transformer.setOutputProperty(OutputKeys.INDENT, "yes");
 			//transformer.setOutputProperty("{http://xml.apache.org/xslt}indent-amount", "2");
 		    transformer.transform(new DOMSource(node), new StreamResult(output));
 		    String xml = output.toString();
+		    OMMMetrics.recordSerialize(System.nanoTime() - start);
 		    return xml;
 		}
 		catch(Exception e) { e.printStackTrace(); }
+		finally { OMMXMLPool.release(transformer); }
 		return null;		
 	}
 		
@@ -822,6 +838,7 @@ public class OMMXMLConverter
 	 * the OMM will be stored and loaded at restart of the server. The source can be either a {@link URL} or a 
 	 * {@link File} and has to be described by a {@link OMMSourceType}. </p>
 	 * <p>With one source given the other can be null, but not both.</p>
+	 * <p>The document is read with {@link OMMStaxLoader}, so the memory needed is close to the size of the largest block.</p>
 	 * @param xml An XML representation wrapped in an {@link InputStream}.
 	 * @param urlSource Source of the OMM as {@link URL}. 
 	 * @param Source of the OMM as a {@link File}. 
@@ -830,91 +847,26 @@ public class OMMXMLConverter
 	 */
 	public static OMM loadFromXmlStringReader(InputStream xml, URL urlSource, File fileSource, OMMSourceType sourceType)
 	{		
-		
-		try
-		{
-			Document doc = getXmlDocumentFromString(xml);
-			
-			Element root = doc.getDocumentElement();
-			if (!root.getNodeName().equals(OMM_NAMESPACE_PREFIX+":omm")) throw new IllegalArgumentException("xml file is not valid");
-			
-			OMMHeader header = null;
-			Collection<OMMBlock> blocks = new LinkedList<OMMBlock>();
-			
-			NodeList nl = root.getChildNodes();
-			for(int i = 0; i < nl.getLength(); i++)
-			{
-				Node child = nl.item(i);
-				
-				if (child instanceof Element)					
-				{
-					Element cElement = (Element)child;
-					if (cElement.getNodeName().equals(OMM_NAMESPACE_PREFIX+":header"))
-					{
-						header = OMMXMLConverter.parseHeader(cElement);
-					}
-					else if (cElement.getNodeName().equals(OMM_NAMESPACE_PREFIX+":block"))
-					{
-						OMMBlock block = OMMXMLConverter.parseBlock(cElement);
-						if (block != null) blocks.add(block);						
-					}
-					else if (cElement.getNodeName().equals(OMM_NAMESPACE_PREFIX+":toc")) { /* IGNORE */ }
-				}
-			}
-			
-			if (header == null) throw new IllegalArgumentException("xml file is not valid");
-			
-			OMMImpl omm = null;
-			if (sourceType == OMMSourceType.LocalFile)
-				omm = (OMMImpl) OMMImpl.create(header, blocks, fileSource, sourceType);
-			else 
-				omm = (OMMImpl) OMMImpl.create(header, blocks, urlSource, sourceType);
-			
-			
-			for(OMMBlock block : blocks)
-			{
-				((OMMBlockImpl)block).setParentOMM(omm);
-			}
-			
-			return omm;			
-		}
-		catch(Exception e)
-		{
-			e.printStackTrace();
-		}
-		return null;
+		// blocks are parsed one at a time, so that the whole document never has to be kept as DOM
+		return OMMStaxLoader.load(xml, urlSource, fileSource, sourceType);
 	}
 	
 	/** Converts an object memory to a representative String. 
+	 * The document is written by {@link OMMStaxSerializer}, use {@link OMMStaxSerializer#write(OMM, boolean, java.io.OutputStream)} to write it to a stream instead. 
 	 * @param omm The {@link OMM} to represent as String. 
 	 * @param withToC True, if the Table of Contents is to be included.
 	 * @return A String representation of the OMM. 
 	 */
 	public static String toXMLFileString(OMM omm, boolean withToC)
 	{	
-		Document doc = createNewXmlDocument();
-		Element root = createXmlElementAndAppend(doc, "omm", OMM_NAMESPACE_PREFIX, OMM_NAMESPACE_URI);
-		root.setAttribute("xmlns:" + OMM_NAMESPACE_PREFIX, OMM_NAMESPACE_URI);
-		
-		Element eHeader = OMMXMLConverter.generateHeaderDocument(omm.getHeader()).getDocumentElement();
-		root.appendChild(doc.importNode(eHeader, true));
-					
-		if (withToC)
+		try
 		{
-			Element eToC = OMMXMLConverter.generateToCElement(omm.getTableOfContents());
-			root.appendChild(doc.importNode(eToC, true));			
-		}
-
-		Collection<OMMBlock> blocks = omm.getAllBlocks();
-		if (blocks != null) {
-			for(OMMBlock block : blocks)
-			{
-				Element eBlock = generateCompleteBlock(block, true).getDocumentElement();
-				root.appendChild(doc.importNode(eBlock, true));
-			}
+			StringWriter output = new StringWriter();
+			OMMStaxSerializer.write(omm, withToC, output);
+			return output.toString();
 		}
-
-		return toXMLFileString(root);
+		catch(IOException e) { e.printStackTrace(); }
+		return null;
 	}
 	
 	/** Retrieves the GET output of a REST node as String. 
@@ -929,11 +881,10 @@ public class OMMXMLConverter
 	    StringBuffer buffer = new StringBuffer();
 
 	    try {
-	    	ClientResource c = new ClientResource(urlString);
-			if (credentials != null) credentials.updateClientResource(c);
-			Representation representation = c.get();
+	    	ClientResource c = RestCompression.createClientResource(urlString, credentials);
+			Representation representation = RestCompression.get(c);
 			if (representation == null) return null;
-			BufferedReader br = new BufferedReader(representation.getReader());
+			BufferedReader br = new BufferedReader(RestCompression.getReader(representation));
 
 	        while ((line = br.readLine()) != null) {
 	        	buffer.append(line); 
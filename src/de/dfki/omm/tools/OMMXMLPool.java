@@ -0,0 +1,190 @@
+package de.dfki.omm.tools;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.Transformer;
+import javax.xml.transform.TransformerFactory;
+
+import org.xml.sax.XMLReader;
+
+/** Bounded pools of XML parsers and transformers.
+ * Looking up the factories and setting up a parser costs more than parsing a small block, so instances are created once and reused.
+ * Every instance is reset when it is released, and must not be used by the caller afterwards:
+ * <pre>
+ * DocumentBuilder builder = OMMXMLPool.acquireDocumentBuilder();
+ * try { ... } finally { OMMXMLPool.release(builder); }
+ * </pre>
+ */
+public class OMMXMLPool
+{
+	/** Maximum number of idle instances kept per type, further released instances are dropped. */
+	public static int MAX_IDLE_INSTANCES = 16;
+
+	private static final DocumentBuilderFactory s_documentBuilderFactory = DocumentBuilderFactory.newInstance();
+	private static final SAXParserFactory s_saxParserFactory = SAXParserFactory.newInstance();
+	private static final TransformerFactory s_transformerFactory = TransformerFactory.newInstance();
+
+	static
+	{
+		s_documentBuilderFactory.setNamespaceAware(true); // <-- very important!
+	}
+
+	private static final Pool<DocumentBuilder> s_documentBuilders = new Pool<DocumentBuilder>()
+	{
+		@Override
+		protected DocumentBuilder create() throws Exception
+		{
+			synchronized(s_documentBuilderFactory)
+			{
+				return s_documentBuilderFactory.newDocumentBuilder();
+			}
+		}
+
+		@Override
+		protected void reset(DocumentBuilder builder)
+		{
+			builder.reset();
+		}
+	};
+
+	private static final Pool<SAXParser> s_saxParsers = new Pool<SAXParser>()
+	{
+		@Override
+		protected SAXParser create() throws Exception
+		{
+			synchronized(s_saxParserFactory)
+			{
+				return s_saxParserFactory.newSAXParser();
+			}
+		}
+
+		@Override
+		protected void reset(SAXParser parser) throws Exception
+		{
+			// handlers are not reset by the parser and would keep the last document alive
+			XMLReader reader = parser.getXMLReader();
+			reader.setContentHandler(null);
+			reader.setErrorHandler(null);
+			reader.setEntityResolver(null);
+			reader.setDTDHandler(null);
+			parser.reset();
+		}
+	};
+
+	private static final Pool<Transformer> s_transformers = new Pool<Transformer>()
+	{
+		@Override
+		protected Transformer create() throws Exception
+		{
+			synchronized(s_transformerFactory)
+			{
+				return s_transformerFactory.newTransformer();
+			}
+		}
+
+		@Override
+		protected void reset(Transformer transformer)
+		{
+			transformer.reset();
+		}
+	};
+
+	private OMMXMLPool() {}
+
+	/** Retrieves a namespace aware {@link DocumentBuilder}.
+	 * @return The builder, to be handed back by {@link #release(DocumentBuilder)}.
+	 * @throws Exception If no builder can be created.
+	 */
+	public static DocumentBuilder acquireDocumentBuilder() throws Exception
+	{
+		return s_documentBuilders.acquire();
+	}
+
+	/** Hands back a builder retrieved by {@link #acquireDocumentBuilder()}.
+	 * @param builder The {@link DocumentBuilder}, may be null.
+	 */
+	public static void release(DocumentBuilder builder)
+	{
+		s_documentBuilders.release(builder);
+	}
+
+	/** Retrieves a {@link SAXParser} which is not namespace aware, so that handlers receive qualified names such as <code>omm:block</code>.
+	 * The parser's {@link XMLReader} may be used as well.
+	 * @return The parser, to be handed back by {@link #release(SAXParser)}.
+	 * @throws Exception If no parser can be created.
+	 */
+	public static SAXParser acquireSAXParser() throws Exception
+	{
+		return s_saxParsers.acquire();
+	}
+
+	/** Hands back a parser retrieved by {@link #acquireSAXParser()}.
+	 * @param parser The {@link SAXParser}, may be null.
+	 */
+	public static void release(SAXParser parser)
+	{
+		s_saxParsers.release(parser);
+	}
+
+	/** Retrieves an identity {@link Transformer}.
+	 * @return The transformer, to be handed back by {@link #release(Transformer)}.
+	 * @throws Exception If no transformer can be created.
+	 */
+	public static Transformer acquireTransformer() throws Exception
+	{
+		return s_transformers.acquire();
+	}
+
+	/** Hands back a transformer retrieved by {@link #acquireTransformer()}.
+	 * @param transformer The {@link Transformer}, may be null.
+	 */
+	public static void release(Transformer transformer)
+	{
+		s_transformers.release(transformer);
+	}
+
+	/** A pool of idle instances, which are created when the pool is empty. */
+	private static abstract class Pool<T>
+	{
+		private final ConcurrentLinkedQueue<T> m_idle = new ConcurrentLinkedQueue<T>();
+		private final AtomicInteger m_size = new AtomicInteger();
+
+		protected abstract T create() throws Exception;
+
+		protected abstract void reset(T instance) throws Exception;
+
+		public T acquire() throws Exception
+		{
+			T instance = m_idle.poll();
+			if (instance == null) return create();
+			m_size.decrementAndGet();
+			return instance;
+		}
+
+		public void release(T instance)
+		{
+			if (instance == null) return;
+			try
+			{
+				reset(instance);
+			}
+			catch(Exception e)
+			{
+				// an instance which cannot be reset is not reused
+				e.printStackTrace();
+				return;
+			}
+			if (m_size.incrementAndGet() > MAX_IDLE_INSTANCES)
+			{
+				m_size.decrementAndGet();
+				return;
+			}
+			m_idle.offer(instance);
+		}
+	}
+}
@@ -0,0 +1,592 @@
+package de.dfki.omm.tools;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+/** A non-repairing {@link XMLStreamWriter} whose output matches the one of the JDK's identity {@link javax.xml.transform.Transformer}.
+ * Empty elements are collapsed to <code>&lt;name/&gt;</code>, and characters are escaped the way the Transformer escapes them,
+ * e.g. carriage returns, C1 control characters and supplementary characters as character references.
+ * This lets streamed documents be byte-identical to documents serialized from a DOM by {@link OMMXMLConverter#toXMLFileString(org.w3c.dom.Node)}.
+ */
+public class OMMXMLStreamWriter implements XMLStreamWriter
+{
+	private static final char[] LINE_SEPARATOR = System.getProperty("line.separator", "\n").toCharArray();
+
+	private final Writer m_writer;
+	private final List<String> m_elements = new ArrayList<String>();
+	/** Namespace bindings in scope, pairs of prefix and URI. */
+	private final List<String> m_bindings = new ArrayList<String>();
+	/** Start of the bindings of each open element in {@link #m_bindings}. */
+	private int[] m_scopes = new int[16];
+	private boolean m_startTagOpen = false, m_emptyElement = false;
+	private NamespaceContext m_rootContext = null;
+
+	/** Creates a writer for the given output, which should be buffered.
+	 * @param writer The {@link Writer} to write the document to.
+	 */
+	public OMMXMLStreamWriter(Writer writer)
+	{
+		m_writer = writer;
+		m_bindings.add(XMLConstants.XML_NS_PREFIX);
+		m_bindings.add(XMLConstants.XML_NS_URI);
+	}
+
+	// elements
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeStartElement(java.lang.String)
+	 */
+	@Override
+	public void writeStartElement(String localName) throws XMLStreamException
+	{
+		startElement(localName, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeStartElement(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void writeStartElement(String namespaceURI, String localName) throws XMLStreamException
+	{
+		startElement(getQName(getBoundPrefix(namespaceURI), localName), false);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeStartElement(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void writeStartElement(String prefix, String localName, String namespaceURI) throws XMLStreamException
+	{
+		startElement(getQName(prefix, localName), false);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeEmptyElement(java.lang.String)
+	 */
+	@Override
+	public void writeEmptyElement(String localName) throws XMLStreamException
+	{
+		startElement(localName, true);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeEmptyElement(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void writeEmptyElement(String namespaceURI, String localName) throws XMLStreamException
+	{
+		startElement(getQName(getBoundPrefix(namespaceURI), localName), true);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeEmptyElement(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void writeEmptyElement(String prefix, String localName, String namespaceURI) throws XMLStreamException
+	{
+		startElement(getQName(prefix, localName), true);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeEndElement()
+	 */
+	@Override
+	public void writeEndElement() throws XMLStreamException
+	{
+		if (m_startTagOpen && !m_emptyElement)
+		{
+			// element without content
+			m_startTagOpen = false;
+			write("/>");
+			popElement();
+			return;
+		}
+		closeStartTag();
+		if (m_elements.isEmpty()) throw new XMLStreamException("No element to end");
+		write("</");
+		write(popElement());
+		write('>');
+	}
+
+	// attributes and namespaces
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeAttribute(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void writeAttribute(String localName, String value) throws XMLStreamException
+	{
+		if (!m_startTagOpen) throw new XMLStreamException("Attributes can only be written after a start element");
+		write(' ');
+		write(localName);
+		write("=\"");
+		writeEscaped(value, true);
+		write('"');
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeAttribute(java.lang.String, java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void writeAttribute(String prefix, String namespaceURI, String localName, String value) throws XMLStreamException
+	{
+		writeAttribute(getQName(prefix, localName), value);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeAttribute(java.lang.String, java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void writeAttribute(String namespaceURI, String localName, String value) throws XMLStreamException
+	{
+		writeAttribute(getQName(getBoundPrefix(namespaceURI), localName), value);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeNamespace(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void writeNamespace(String prefix, String namespaceURI) throws XMLStreamException
+	{
+		if (prefix == null || prefix.isEmpty() || prefix.equals(XMLConstants.XMLNS_ATTRIBUTE))
+		{
+			writeDefaultNamespace(namespaceURI);
+			return;
+		}
+		writeAttribute(XMLConstants.XMLNS_ATTRIBUTE + ":" + prefix, namespaceURI);
+		setPrefix(prefix, namespaceURI);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeDefaultNamespace(java.lang.String)
+	 */
+	@Override
+	public void writeDefaultNamespace(String namespaceURI) throws XMLStreamException
+	{
+		writeAttribute(XMLConstants.XMLNS_ATTRIBUTE, namespaceURI);
+		setDefaultNamespace(namespaceURI);
+	}
+
+	// content
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeCharacters(java.lang.String)
+	 */
+	@Override
+	public void writeCharacters(String text) throws XMLStreamException
+	{
+		if (text == null || text.isEmpty()) return;
+		closeStartTag();
+		writeEscaped(text, false);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeCharacters(char[], int, int)
+	 */
+	@Override
+	public void writeCharacters(char[] text, int start, int len) throws XMLStreamException
+	{
+		writeCharacters(new String(text, start, len));
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeCData(java.lang.String)
+	 */
+	@Override
+	public void writeCData(String data) throws XMLStreamException
+	{
+		closeStartTag();
+		write("<![CDATA[");
+		int start = 0;
+		for(int i = 0; i < data.length(); i++)
+		{
+			char c = data.charAt(i);
+			if (c == '\n')
+			{
+				write(data, start, i);
+				write(LINE_SEPARATOR);
+				start = i + 1;
+			}
+			else if (c == ']' && data.startsWith("]]>", i))
+			{
+				// a section must not contain its own end, so it is split in two
+				write(data, start, i + 2);
+				write("]]><![CDATA[");
+				start = i + 2;
+			}
+		}
+		write(data, start, data.length());
+		write("]]>");
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeComment(java.lang.String)
+	 */
+	@Override
+	public void writeComment(String data) throws XMLStreamException
+	{
+		closeStartTag();
+		write("<!--");
+		// two consecutive dashes are not allowed in comments
+		int start = 0;
+		boolean dash = false;
+		for(int i = 0; i < data.length(); i++)
+		{
+			char c = data.charAt(i);
+			if (dash && c == '-')
+			{
+				write(data, start, i);
+				write(" -");
+				start = i + 1;
+			}
+			dash = c == '-';
+		}
+		write(data, start, data.length());
+		if (data.endsWith("-")) write(' ');
+		write("-->");
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeProcessingInstruction(java.lang.String)
+	 */
+	@Override
+	public void writeProcessingInstruction(String target) throws XMLStreamException
+	{
+		writeProcessingInstruction(target, null);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeProcessingInstruction(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void writeProcessingInstruction(String target, String data) throws XMLStreamException
+	{
+		closeStartTag();
+		write("<?");
+		write(target);
+		if (data != null && !data.isEmpty())
+		{
+			if (!Character.isSpaceChar(data.charAt(0))) write(' ');
+			write(data);
+		}
+		write("?>");
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeEntityRef(java.lang.String)
+	 */
+	@Override
+	public void writeEntityRef(String name) throws XMLStreamException
+	{
+		closeStartTag();
+		write('&');
+		write(name);
+		write(';');
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeDTD(java.lang.String)
+	 */
+	@Override
+	public void writeDTD(String dtd) throws XMLStreamException
+	{
+		write(dtd);
+	}
+
+	// document
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeStartDocument()
+	 */
+	@Override
+	public void writeStartDocument() throws XMLStreamException
+	{
+		writeStartDocument("UTF-8", "1.0");
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeStartDocument(java.lang.String)
+	 */
+	@Override
+	public void writeStartDocument(String version) throws XMLStreamException
+	{
+		writeStartDocument("UTF-8", version);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeStartDocument(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void writeStartDocument(String encoding, String version) throws XMLStreamException
+	{
+		write("<?xml version=\"");
+		write(version);
+		write("\" encoding=\"");
+		write(encoding);
+		write("\"?>");
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#writeEndDocument()
+	 */
+	@Override
+	public void writeEndDocument() throws XMLStreamException
+	{
+		while (!m_elements.isEmpty()) writeEndElement();
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#flush()
+	 */
+	@Override
+	public void flush() throws XMLStreamException
+	{
+		try
+		{
+			m_writer.flush();
+		}
+		catch(IOException e) { throw new XMLStreamException(e); }
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#close()
+	 */
+	@Override
+	public void close() throws XMLStreamException
+	{
+		// as defined by XMLStreamWriter, the underlying output is not closed
+		flush();
+	}
+
+	// namespace context
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#getPrefix(java.lang.String)
+	 */
+	@Override
+	public String getPrefix(String uri) throws XMLStreamException
+	{
+		return getNamespaceContext().getPrefix(uri);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#setPrefix(java.lang.String, java.lang.String)
+	 */
+	@Override
+	public void setPrefix(String prefix, String uri) throws XMLStreamException
+	{
+		m_bindings.add(prefix == null ? XMLConstants.DEFAULT_NS_PREFIX : prefix);
+		m_bindings.add(uri == null ? XMLConstants.NULL_NS_URI : uri);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#setDefaultNamespace(java.lang.String)
+	 */
+	@Override
+	public void setDefaultNamespace(String uri) throws XMLStreamException
+	{
+		setPrefix(XMLConstants.DEFAULT_NS_PREFIX, uri);
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#setNamespaceContext(javax.xml.namespace.NamespaceContext)
+	 */
+	@Override
+	public void setNamespaceContext(NamespaceContext context) throws XMLStreamException
+	{
+		m_rootContext = context;
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#getNamespaceContext()
+	 */
+	@Override
+	public NamespaceContext getNamespaceContext()
+	{
+		return new NamespaceContext()
+		{
+			@Override
+			public String getNamespaceURI(String prefix)
+			{
+				for(int i = m_bindings.size() - 2; i >= 0; i -= 2)
+				{
+					if (m_bindings.get(i).equals(prefix)) return m_bindings.get(i + 1);
+				}
+				if (m_rootContext != null) return m_rootContext.getNamespaceURI(prefix);
+				return XMLConstants.NULL_NS_URI;
+			}
+
+			@Override
+			public String getPrefix(String namespaceURI)
+			{
+				Iterator<String> prefixes = getPrefixes(namespaceURI);
+				return prefixes.hasNext() ? prefixes.next() : null;
+			}
+
+			@SuppressWarnings("unchecked")
+			@Override
+			public Iterator<String> getPrefixes(String namespaceURI)
+			{
+				List<String> prefixes = new LinkedList<String>();
+				for(int i = m_bindings.size() - 2; i >= 0; i -= 2)
+				{
+					String prefix = m_bindings.get(i);
+					// only prefixes which are not hidden by a closer binding
+					if (m_bindings.get(i + 1).equals(namespaceURI) && getNamespaceURI(prefix).equals(namespaceURI) && !prefixes.contains(prefix)) prefixes.add(prefix);
+				}
+				if (prefixes.isEmpty() && m_rootContext != null) return (Iterator<String>)m_rootContext.getPrefixes(namespaceURI);
+				return prefixes.iterator();
+			}
+		};
+	}
+
+	/* (non-Javadoc)
+	 * @see javax.xml.stream.XMLStreamWriter#getProperty(java.lang.String)
+	 */
+	@Override
+	public Object getProperty(String name) throws IllegalArgumentException
+	{
+		throw new IllegalArgumentException("Property " + name + " is not supported");
+	}
+
+	// helper methods
+
+	private void startElement(String qname, boolean empty) throws XMLStreamException
+	{
+		closeStartTag();
+		if (m_elements.size() == m_scopes.length)
+		{
+			int[] scopes = new int[m_scopes.length * 2];
+			System.arraycopy(m_scopes, 0, scopes, 0, m_scopes.length);
+			m_scopes = scopes;
+		}
+		m_scopes[m_elements.size()] = m_bindings.size();
+		m_elements.add(qname);
+		write('<');
+		write(qname);
+		m_startTagOpen = true;
+		m_emptyElement = empty;
+	}
+
+	private void closeStartTag() throws XMLStreamException
+	{
+		if (!m_startTagOpen) return;
+		m_startTagOpen = false;
+		if (m_emptyElement)
+		{
+			m_emptyElement = false;
+			write("/>");
+			popElement();
+		}
+		else write('>');
+	}
+
+	private String popElement()
+	{
+		int index = m_elements.size() - 1;
+		String qname = m_elements.remove(index);
+		int scope = m_scopes[index];
+		while (m_bindings.size() > scope) m_bindings.remove(m_bindings.size() - 1);
+		return qname;
+	}
+
+	private String getBoundPrefix(String namespaceURI) throws XMLStreamException
+	{
+		String prefix = getPrefix(namespaceURI);
+		if (prefix == null) throw new XMLStreamException("Namespace " + namespaceURI + " is not bound to a prefix");
+		return prefix;
+	}
+
+	private static String getQName(String prefix, String localName)
+	{
+		return (prefix == null || prefix.isEmpty()) ? localName : prefix + ":" + localName;
+	}
+
+	/** Writes text or an attribute value with the escaping of the JDK's serializer. */
+	private void writeEscaped(String text, boolean attribute) throws XMLStreamException
+	{
+		if (text == null) return;
+		int start = 0;
+		for(int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			String replacement = null;
+			int codePoint = c;
+
+			if (c == '&') replacement = "&amp;";
+			else if (c == '<') replacement = "&lt;";
+			else if (c == '>') replacement = "&gt;";
+			else if (c == '"' && attribute) replacement = "&quot;";
+			else if (c == '\n' && !attribute)
+			{
+				write(text, start, i);
+				write(LINE_SEPARATOR);
+				start = i + 1;
+				continue;
+			}
+			else if (c == '\t' && !attribute) continue;
+			else if (c < 0x20 || (!attribute && c >= 0x7F && c <= 0x9F)) replacement = "";
+			else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1)))
+			{
+				codePoint = text.codePointAt(i);
+				write(text, start, i);
+				write("&#" + codePoint + ";");
+				start = i + 2;
+				i++;
+				continue;
+			}
+			else continue;
+
+			write(text, start, i);
+			write(replacement.isEmpty() ? "&#" + codePoint + ";" : replacement);
+			start = i + 1;
+		}
+		write(text, start, text.length());
+	}
+
+	private void write(char c) throws XMLStreamException
+	{
+		try
+		{
+			m_writer.write(c);
+		}
+		catch(IOException e) { throw new XMLStreamException(e); }
+	}
+
+	private void write(char[] c) throws XMLStreamException
+	{
+		try
+		{
+			m_writer.write(c);
+		}
+		catch(IOException e) { throw new XMLStreamException(e); }
+	}
+
+	private void write(String s) throws XMLStreamException
+	{
+		try
+		{
+			m_writer.write(s);
+		}
+		catch(IOException e) { throw new XMLStreamException(e); }
+	}
+
+	private void write(String s, int start, int end) throws XMLStreamException
+	{
+		if (end <= start) return;
+		try
+		{
+			m_writer.write(s, start, end - start);
+		}
+		catch(IOException e) { throw new XMLStreamException(e); }
+	}
+}
@@ -0,0 +1,369 @@
+package de.dfki.omm.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.restlet.data.CharacterSet;
+import org.restlet.data.Encoding;
+import org.restlet.data.MediaType;
+import org.restlet.data.Preference;
+import org.restlet.representation.ByteArrayRepresentation;
+import org.restlet.representation.Representation;
+import org.restlet.representation.StringRepresentation;
+import org.restlet.resource.ClientResource;
+
+import de.dfki.omm.acl.OMSCredentials;
+
+/** Tool to negotiate gzip/deflate compression with the REST interface and to keep track of the transferred data. */
+public class RestCompression
+{
+	/** Whether compression is offered to the OMS for responses and applied to requests. */
+	public static boolean COMPRESSION_ENABLED = true;
+	/** Minimum size of a request entity in bytes before it is sent compressed. */
+	public static int COMPRESSION_THRESHOLD_IN_BYTES = 2048;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final OMMStripedCounter s_bytesReceived = new OMMStripedCounter();
+	private static final OMMStripedCounter s_bytesDecoded = new OMMStripedCounter();
+	private static final OMMStripedCounter s_bytesSent = new OMMStripedCounter();
+	private static final OMMStripedCounter s_bytesEncoded = new OMMStripedCounter();
+	private static final OMMStripedCounter s_requests = new OMMStripedCounter();
+	private static final OMMStripedCounter s_requestTimeInNanos = new OMMStripedCounter();
+
+	private RestCompression() {}
+
+	/** Creates a {@link ClientResource} for the given address which accepts compressed responses.
+	 * @param url Address of the REST node.
+	 * @param credentials {@link OMSCredentials} to be used to access the node, may be null.
+	 * @return The prepared {@link ClientResource}.
+	 */
+	public static ClientResource createClientResource(String url, OMSCredentials credentials)
+	{
+		ClientResource c = new ClientResource(url);
+		if (credentials != null) credentials.updateClientResource(c);
+		acceptCompressedResponses(c);
+		return c;
+	}
+
+	/** Announces gzip and deflate as accepted encodings for the responses to a {@link ClientResource}.
+	 * Responses to this resource have to be read via {@link #getStream(Representation)}, {@link #getReader(Representation)} or {@link #getText(Representation)}.
+	 * @param c The {@link ClientResource} to prepare.
+	 */
+	public static void acceptCompressedResponses(ClientResource c)
+	{
+		if (!COMPRESSION_ENABLED) return;
+		List<Preference<Encoding>> encodings = c.getClientInfo().getAcceptedEncodings();
+		encodings.add(new Preference<Encoding>(Encoding.GZIP));
+		encodings.add(new Preference<Encoding>(Encoding.DEFLATE));
+		encodings.add(new Preference<Encoding>(Encoding.IDENTITY, 0.5f));
+	}
+
+	/** Announces a preferred media type for the responses to a {@link ClientResource}, with XML as fallback.
+	 * Servers that do not support the preferred type answer with XML as before, so callers have to check the type of the response.
+	 * @param c The {@link ClientResource} to prepare.
+	 * @param preferred The preferred {@link MediaType}, for example {@link MediaType#APPLICATION_JSON}.
+	 */
+	public static void acceptMediaType(ClientResource c, MediaType preferred)
+	{
+		List<Preference<MediaType>> mediaTypes = c.getClientInfo().getAcceptedMediaTypes();
+		mediaTypes.add(new Preference<MediaType>(preferred));
+		mediaTypes.add(new Preference<MediaType>(MediaType.APPLICATION_XML, 0.5f));
+		mediaTypes.add(new Preference<MediaType>(MediaType.TEXT_XML, 0.5f));
+	}
+
+	/** Performs a GET on the given resource and records the time it took.
+	 * @param c The {@link ClientResource} to request.
+	 * @return The response entity as {@link Representation}.
+	 */
+	public static Representation get(ClientResource c)
+	{
+		long start = System.nanoTime();
+		try
+		{
+			return c.get();
+		}
+		finally
+		{
+			recordRequest(c, false, System.nanoTime() - start);
+		}
+	}
+
+	/** Performs a POST on the given resource and records the time it took.
+	 * @param c The {@link ClientResource} to post to.
+	 * @param entity The entity to post, ideally created by {@link #encode(String, MediaType)}.
+	 * @return The response entity as {@link Representation}.
+	 */
+	public static Representation post(ClientResource c, Object entity)
+	{
+		long start = System.nanoTime();
+		try
+		{
+			return c.post(entity);
+		}
+		finally
+		{
+			recordRequest(c, true, System.nanoTime() - start);
+		}
+	}
+
+	/** Retrieves the decoded content of a response as stream.
+	 * The data is decompressed while being read, so it can be handed to a SAX or DOM parser directly.
+	 * @param r The response {@link Representation}.
+	 * @return Decoded content as {@link InputStream}, or null if there is none.
+	 * @throws IOException If the content cannot be read or decoded.
+	 */
+	public static InputStream getStream(Representation r) throws IOException
+	{
+		return getStream(r, null);
+	}
+
+	/** Retrieves the decoded content of a response as stream and copies everything that is read from it.
+	 * @param r The response {@link Representation}.
+	 * @param copy {@link OutputStream} that receives a copy of the decoded data, may be null.
+	 * @return Decoded content as {@link InputStream}, or null if there is none.
+	 * @throws IOException If the content cannot be read or decoded.
+	 */
+	public static InputStream getStream(Representation r, OutputStream copy) throws IOException
+	{
+		if (r == null) return null;
+		InputStream raw = r.getStream();
+		if (raw == null) return null;
+
+		InputStream wire = new CountingInputStream(raw, s_bytesReceived, null);
+		InputStream decoded = wire;
+		// encodings are listed in the order they were applied, so the last one is undone first
+		List<Encoding> encodings = r.getEncodings();
+		for(int i = encodings.size() - 1; i >= 0; i--)
+		{
+			decoded = decode(decoded, encodings.get(i).getName());
+		}
+		return new CountingInputStream(decoded, s_bytesDecoded, copy);
+	}
+
+	/** Retrieves the decoded content of a response as reader, using the character set announced by the OMS (UTF-8 by default).
+	 * @param r The response {@link Representation}.
+	 * @return Decoded content as {@link Reader}, or null if there is none.
+	 * @throws IOException If the content cannot be read or decoded.
+	 */
+	public static Reader getReader(Representation r) throws IOException
+	{
+		InputStream is = getStream(r);
+		if (is == null) return null;
+		CharacterSet characterSet = r.getCharacterSet();
+		return new InputStreamReader(is, characterSet != null ? characterSet.toCharset() : UTF8);
+	}
+
+	/** Retrieves the decoded content of a response as String.
+	 * @param r The response {@link Representation}.
+	 * @return Decoded content as String, or null if there is none.
+	 * @throws IOException If the content cannot be read or decoded.
+	 */
+	public static String getText(Representation r) throws IOException
+	{
+		Reader reader = getReader(r);
+		if (reader == null) return null;
+
+		StringBuilder sb = new StringBuilder();
+		char[] buffer = new char[4096];
+		int read;
+		try
+		{
+			while ((read = reader.read(buffer)) > -1)
+			{
+				sb.append(buffer, 0, read);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		return sb.toString();
+	}
+
+	/** Wraps a stream into a decompressing stream according to the given content coding.
+	 * @param is The stream as it was received.
+	 * @param contentEncoding Value of the content coding, for example <code>gzip</code> or <code>deflate</code>, may be null.
+	 * @return The decoded stream, or the given stream if no (known) coding is set.
+	 * @throws IOException If the stream cannot be decoded.
+	 */
+	public static InputStream decode(InputStream is, String contentEncoding) throws IOException
+	{
+		if (is == null || contentEncoding == null) return is;
+		String coding = contentEncoding.trim().toLowerCase();
+		if (coding.contains("gzip")) return new GZIPInputStream(is, 8192);
+		if (coding.contains("deflate")) return new InflaterInputStream(is);
+		return is;
+	}
+
+	/** Creates an entity to send to the OMS, which is gzip compressed if it is larger than {@link #COMPRESSION_THRESHOLD_IN_BYTES}.
+	 * @param text The text to send.
+	 * @param mediaType {@link MediaType} of the text.
+	 * @return The entity as {@link Representation}.
+	 */
+	public static Representation encode(String text, MediaType mediaType)
+	{
+		if (text == null) return null;
+		int length = utf8Length(text);
+		if (!COMPRESSION_ENABLED || length < COMPRESSION_THRESHOLD_IN_BYTES)
+		{
+			s_bytesEncoded.add(length);
+			s_bytesSent.add(length);
+			StringRepresentation r = new StringRepresentation(text, mediaType);
+			r.setCharacterSet(CharacterSet.UTF_8);
+			return r;
+		}
+
+		Representation r = encode(text.getBytes(UTF8), mediaType);
+		r.setCharacterSet(CharacterSet.UTF_8);
+		return r;
+	}
+
+	/** Counts the bytes of the UTF-8 encoding of a text without encoding it. */
+	private static int utf8Length(String text)
+	{
+		int length = 0;
+		for(int i = 0; i < text.length(); i++)
+		{
+			char c = text.charAt(i);
+			if (c < 0x80) length++;
+			else if (c < 0x800) length += 2;
+			else if (Character.isHighSurrogate(c) && i + 1 < text.length() && Character.isLowSurrogate(text.charAt(i + 1)))
+			{
+				length += 4;
+				i++;
+			}
+			else length += 3;
+		}
+		return length;
+	}
+
+	/** Creates an entity to send to the OMS, which is gzip compressed if it is larger than {@link #COMPRESSION_THRESHOLD_IN_BYTES}.
+	 * @param data The data to send.
+	 * @param mediaType {@link MediaType} of the data.
+	 * @return The entity as {@link Representation}.
+	 */
+	public static Representation encode(byte[] data, MediaType mediaType)
+	{
+		if (data == null) return null;
+		s_bytesEncoded.add(data.length);
+		if (!COMPRESSION_ENABLED || data.length < COMPRESSION_THRESHOLD_IN_BYTES)
+		{
+			s_bytesSent.add(data.length);
+			return new ByteArrayRepresentation(data, mediaType);
+		}
+
+		try
+		{
+			ByteArrayOutputStream baos = new ByteArrayOutputStream(data.length / 4 + 64);
+			GZIPOutputStream gzos = new GZIPOutputStream(baos);
+			gzos.write(data);
+			gzos.close();
+			byte[] compressed = baos.toByteArray();
+			s_bytesSent.add(compressed.length);
+
+			ByteArrayRepresentation r = new ByteArrayRepresentation(compressed, mediaType);
+			r.getEncodings().add(Encoding.GZIP);
+			return r;
+		}
+		catch(IOException e) { e.printStackTrace(); }
+
+		s_bytesSent.add(data.length);
+		return new ByteArrayRepresentation(data, mediaType);
+	}
+
+	/** Retrieves the number of response bytes received over the wire (possibly compressed). */
+	public static long getBytesReceived() { return s_bytesReceived.sum(); }
+
+	/** Retrieves the number of response bytes after decompression. */
+	public static long getBytesDecoded() { return s_bytesDecoded.sum(); }
+
+	/** Retrieves the number of request bytes sent over the wire (possibly compressed). */
+	public static long getBytesSent() { return s_bytesSent.sum(); }
+
+	/** Retrieves the number of request bytes before compression. */
+	public static long getBytesEncoded() { return s_bytesEncoded.sum(); }
+
+	/** Retrieves the number of timed requests. */
+	public static long getRequestCount() { return s_requests.sum(); }
+
+	/** Retrieves the accumulated time of all timed requests in nanoseconds. */
+	public static long getRequestTimeInNanos() { return s_requestTimeInNanos.sum(); }
+
+	/** Sets all counters back to zero. */
+	public static void resetStatistics()
+	{
+		s_bytesReceived.reset();
+		s_bytesDecoded.reset();
+		s_bytesSent.reset();
+		s_bytesEncoded.reset();
+		s_requests.reset();
+		s_requestTimeInNanos.reset();
+	}
+
+	private static void recordRequest(ClientResource c, boolean isPost, long nanos)
+	{
+		s_requests.increment();
+		s_requestTimeInNanos.add(nanos);
+		if (OMMMetrics.METRICS_ENABLED)
+		{
+			OMMMetrics.recordRequest(OMMMetrics.getEndpoint(c.getReference() != null ? c.getReference().getPath() : null, isPost), nanos);
+		}
+	}
+
+	/** Stream that counts the bytes read through it and optionally copies them. */
+	private static class CountingInputStream extends FilterInputStream
+	{
+		private final OMMStripedCounter m_counter;
+		private final OutputStream m_copy;
+
+		CountingInputStream(InputStream in, OMMStripedCounter counter, OutputStream copy)
+		{
+			super(in);
+			m_counter = counter;
+			m_copy = copy;
+		}
+
+		@Override
+		public int read() throws IOException
+		{
+			int b = super.read();
+			if (b > -1)
+			{
+				m_counter.increment();
+				if (m_copy != null) m_copy.write(b);
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			int read = super.read(b, off, len);
+			if (read > 0)
+			{
+				m_counter.add(read);
+				if (m_copy != null) m_copy.write(b, off, read);
+			}
+			return read;
+		}
+
+		@Override
+		public long skip(long n) throws IOException
+		{
+			long skipped = super.skip(n);
+			if (skipped > 0) m_counter.add(skipped);
+			return skipped;
+		}
+	}
+}
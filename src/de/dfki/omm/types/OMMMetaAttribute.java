@@ -3,5 +3,5 @@ package de.dfki.omm.types;
 /** Enumerator listing all metadata fields of OMM blocks. */
 public enum OMMMetaAttribute
 {
-	ID, Creator, Contributor, Type, Format, Namespace, Link, Payload, Subject, Title, Description
+	ID, Creator, Contributor, Type, Format, Namespace, Link, Payload, Subject, Title, Description, PreviousBlock
 }
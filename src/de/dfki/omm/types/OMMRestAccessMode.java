@@ -1,6 +1,8 @@
 package de.dfki.omm.types;
 
-/** Enumerator listing valid access modes for the OMS REST interface. */
+/** Enumerator listing valid access modes for the OMS REST interface. 
+ * <code>LocalMirror</code> keeps a complete replica of the memory which is synchronized in the background, see {@link de.dfki.omm.impl.rest.OMMRestMirror}.
+ */
 public enum OMMRestAccessMode {
-	SingleAccess, CompleteDownloadLimitedLifetime, CompleteDownloadUnlimited
+	SingleAccess, CompleteDownloadLimitedLifetime, CompleteDownloadUnlimited, LocalMirror
 }
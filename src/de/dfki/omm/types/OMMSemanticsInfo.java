@@ -38,6 +38,7 @@ public class OMMSemanticsInfo
 		m_subject = subject;
 		m_relation = relation;
 		m_object = object;
+		m_dateStart = startDate;
 		m_dateEnd = endDate;
 	}
 	